@@ -0,0 +1,145 @@
+package com.github.marschall.jmxhttp.client.httpclient;
+
+import static com.github.marschall.jmxhttp.client.httpclient.JmxHttpConnectorProvider.ACCEPT_ENCODING;
+import static com.github.marschall.jmxhttp.client.httpclient.JmxHttpConnectorProvider.CODEC;
+import static com.github.marschall.jmxhttp.client.httpclient.JmxHttpConnectorProvider.HTTP_CLIENT;
+import static com.github.marschall.jmxhttp.client.httpclient.JmxHttpConnectorProvider.REQUEST_COMPRESSION_THRESHOLD;
+
+import java.lang.invoke.MethodHandles;
+import java.net.http.HttpClient;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.github.marschall.jmxhttp.common.codec.Codec;
+import com.github.marschall.jmxhttp.common.codec.Codecs;
+
+/**
+ * Holds the settings of a connection, read from the environment passed to
+ * {@link JmxHttpConnector#connect(Map)}.
+ */
+final class ConnectionSettings {
+
+  private static final Logger LOG = Logger.getLogger(MethodHandles.lookup().lookupClass().getName());
+
+  private static final String DEFAULT_ACCEPT_ENCODING = "gzip, deflate";
+
+  private static final int DEFAULT_REQUEST_COMPRESSION_THRESHOLD = 1024;
+
+  private final Codec codec;
+  private final HttpClient httpClient;
+  private final String acceptEncoding;
+  private final int requestCompressionThreshold;
+
+  private ConnectionSettings(Codec codec, HttpClient httpClient, String acceptEncoding, int requestCompressionThreshold) {
+    this.codec = codec;
+    this.httpClient = httpClient;
+    this.acceptEncoding = acceptEncoding;
+    this.requestCompressionThreshold = requestCompressionThreshold;
+  }
+
+  static ConnectionSettings fromEnvironment(Map<String, ?> env) {
+    Codec codec = getCodec(env);
+    HttpClient httpClient;
+    Object possibleClient = env != null ? env.get(HTTP_CLIENT) : null;
+    if (possibleClient instanceof HttpClient) {
+      httpClient = (HttpClient) possibleClient;
+    } else {
+      if (possibleClient != null) {
+        LOG.log(Level.WARNING, "ignoring '" + HTTP_CLIENT + "', has to be " + HttpClient.class + " but was " + possibleClient.getClass());
+      }
+      httpClient = DefaultClientHolder.CLIENT;
+    }
+    Object acceptEncoding = env != null ? env.get(ACCEPT_ENCODING) : null;
+    int requestCompressionThreshold = getInt(env, REQUEST_COMPRESSION_THRESHOLD, DEFAULT_REQUEST_COMPRESSION_THRESHOLD);
+    return new ConnectionSettings(codec, httpClient,
+        acceptEncoding != null ? acceptEncoding.toString() : DEFAULT_ACCEPT_ENCODING, requestCompressionThreshold);
+  }
+
+  private static Codec getCodec(Map<String, ?> env) {
+    Object contentType = env != null ? env.get(CODEC) : null;
+    if (contentType == null) {
+      return Codecs.JAVA_SERIALIZATION;
+    }
+    Codec codec = Codecs.forContentType(contentType.toString());
+    if (codec == null) {
+      LOG.log(Level.WARNING, "unsupported value '" + contentType + "' for environment key '" + CODEC + "'");
+      return Codecs.JAVA_SERIALIZATION;
+    }
+    return codec;
+  }
+
+  static int getInt(Map<String, ?> env, String key, int defaultValue) {
+    if (env == null) {
+      return defaultValue;
+    }
+    Object value = env.get(key);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(value.toString().trim());
+    } catch (NumberFormatException e) {
+      LOG.log(Level.WARNING, "invalid value '" + value + "' for environment key '" + key + "'");
+      return defaultValue;
+    }
+  }
+
+  Codec getCodec() {
+    return this.codec;
+  }
+
+  HttpClient getHttpClient() {
+    return this.httpClient;
+  }
+
+  String getAcceptEncoding() {
+    return this.acceptEncoding;
+  }
+
+  int getRequestCompressionThreshold() {
+    return this.requestCompressionThreshold;
+  }
+
+  /**
+   * Lazily creates the executor used by the shared client and for
+   * delivering connection notifications.
+   */
+  static final class DefaultExecutorHolder {
+
+    static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new DaemonThreadFactory());
+
+  }
+
+  /**
+   * Lazily creates the client shared by all connections that don't
+   * provide their own.
+   */
+  static final class DefaultClientHolder {
+
+    static final HttpClient CLIENT = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_2)
+        .followRedirects(HttpClient.Redirect.NEVER)
+        .executor(DefaultExecutorHolder.EXECUTOR)
+        .build();
+
+  }
+
+  static final class DaemonThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "JMX-HTTP-Client-" + this.threadNumber.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    }
+
+  }
+
+}
@@ -0,0 +1,58 @@
+package com.github.marschall.jmxhttp.client.httpclient;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+import javax.management.JMException;
+
+import com.github.marschall.jmxhttp.common.client.ClientCodec;
+
+final class HttpClientUtil {
+
+  private HttpClientUtil() {
+    throw new AssertionError("not instantiable");
+  }
+
+  /**
+   * Reads the response to a request sent before registration.
+   */
+  static Object readResponseAsObject(HttpResponse<byte[]> response, ClassLoader classLoader) throws IOException, JMException {
+    checkStatus(response);
+    return ClientCodec.readResponse(new ByteArrayInputStream(response.body()), headers(response), classLoader, null);
+  }
+
+  static Object readResponseAsObject(HttpResponse<byte[]> response, ClientCodec codec) throws IOException, JMException {
+    checkStatus(response);
+    return codec.readResponse(new ByteArrayInputStream(response.body()), headers(response));
+  }
+
+  /**
+   * Same as {@link #readResponseAsObject(HttpResponse, ClientCodec)}
+   * but wraps checked exceptions in a {@link CompletionException} for use in
+   * {@link java.util.concurrent.CompletableFuture} stages.
+   */
+  static Object readResponseAsObjectUnchecked(HttpResponse<byte[]> response, ClientCodec codec) {
+    try {
+      return readResponseAsObject(response, codec);
+    } catch (IOException | JMException e) {
+      throw new CompletionException(e);
+    }
+  }
+
+  private static void checkStatus(HttpResponse<byte[]> response) throws IOException {
+    int status = response.statusCode();
+    if (status != 200) {
+      // convert every byte to a character of the same value
+      throw new IOException("http request failed with status: " + status + " body " + new String(response.body(), StandardCharsets.ISO_8859_1));
+    }
+  }
+
+  private static Function<String, String> headers(HttpResponse<?> response) {
+    return name -> response.headers().firstValue(name).orElse(null);
+  }
+
+}
@@ -0,0 +1,618 @@
+package com.github.marschall.jmxhttp.client.httpclient;
+
+import static com.github.marschall.jmxhttp.client.httpclient.HttpClientUtil.readResponseAsObject;
+import static com.github.marschall.jmxhttp.client.httpclient.HttpClientUtil.readResponseAsObjectUnchecked;
+import static com.github.marschall.jmxhttp.common.http.HttpConstant.HEADER_DICTIONARY_ACKNOWLEDGEMENT;
+import static com.github.marschall.jmxhttp.common.http.HttpConstant.HEADER_NOTIFICATIONS_LOST;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.invoke.MethodHandles;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.IntrospectionException;
+import javax.management.InvalidAttributeValueException;
+import javax.management.JMException;
+import javax.management.JMRuntimeException;
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanRegistrationException;
+import javax.management.NotCompliantMBeanException;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+import javax.management.ObjectInstance;
+import javax.management.ObjectName;
+import javax.management.QueryExp;
+import javax.management.ReflectionException;
+
+import com.github.marschall.jmxhttp.common.client.ClientCodec;
+import com.github.marschall.jmxhttp.common.client.ClientCodec.RequestBody;
+import com.github.marschall.jmxhttp.common.client.ListenerRegistry;
+import com.github.marschall.jmxhttp.common.client.RequestUrls;
+import com.github.marschall.jmxhttp.common.command.AddAttributeSampling;
+import com.github.marschall.jmxhttp.common.command.AddAttributeWatch;
+import com.github.marschall.jmxhttp.common.command.AddNotificationListener;
+import com.github.marschall.jmxhttp.common.command.AddNotificationListenerRemote;
+import com.github.marschall.jmxhttp.common.command.BatchCommand;
+import com.github.marschall.jmxhttp.common.command.BatchResult;
+import com.github.marschall.jmxhttp.common.command.Command;
+import com.github.marschall.jmxhttp.common.command.CreateMBean;
+import com.github.marschall.jmxhttp.common.command.GetAttribute;
+import com.github.marschall.jmxhttp.common.command.GetAttributes;
+import com.github.marschall.jmxhttp.common.command.GetDefaultDomain;
+import com.github.marschall.jmxhttp.common.command.GetDomains;
+import com.github.marschall.jmxhttp.common.command.GetMBeanCount;
+import com.github.marschall.jmxhttp.common.command.GetMBeanInfo;
+import com.github.marschall.jmxhttp.common.command.GetObjectInstance;
+import com.github.marschall.jmxhttp.common.command.Invoke;
+import com.github.marschall.jmxhttp.common.command.IsInstanceOf;
+import com.github.marschall.jmxhttp.common.command.IsRegistered;
+import com.github.marschall.jmxhttp.common.command.QueryAttributes;
+import com.github.marschall.jmxhttp.common.command.QueryMBeans;
+import com.github.marschall.jmxhttp.common.command.QueryNames;
+import com.github.marschall.jmxhttp.common.command.RemoveNotificationListener;
+import com.github.marschall.jmxhttp.common.command.RemoveNotificationListenerRemote;
+import com.github.marschall.jmxhttp.common.command.SetAttribute;
+import com.github.marschall.jmxhttp.common.command.SetAttributes;
+import com.github.marschall.jmxhttp.common.command.Threshold;
+import com.github.marschall.jmxhttp.common.command.UnregisterMBean;
+import com.github.marschall.jmxhttp.common.http.ContentEncoding;
+import com.github.marschall.jmxhttp.common.http.JmxHttpMBeanServerConnection;
+import com.github.marschall.jmxhttp.common.http.Registration;
+
+
+/**
+ * The actual client to server connection happens where, delegates to
+ * {@link HttpClient}.
+ * <p>
+ * All requests are sent asynchronously, the synchronous methods simply wait
+ * for the result. The long poll for notifications is issued again from the
+ * completion of the previous one and does not need a dedicated thread.
+ */
+final class JmxHttpConnection implements JmxHttpMBeanServerConnection {
+
+  private static final long FUDGE = TimeUnit.SECONDS.toMillis(1L);
+
+  private static final Logger LOG = Logger.getLogger(MethodHandles.lookup().lookupClass().getName());
+
+  private final Registration registration;
+  private final String url;
+  private final URI actionUri;
+  private final Optional<String> credentials;
+  private final HttpClient httpClient;
+  private final ClientCodec codec;
+  private final Notifier notifier;
+  // only accessed by the long poll callbacks which run one after the other
+  private long lostNotifications;
+  // only accessed by the long poll callbacks which run one after the other
+  private long lastSequenceNumber;
+
+  private final ListenerRegistry listeners;
+
+  private volatile boolean closed;
+
+  JmxHttpConnection(Registration registration, URI uri, Optional<String> credentials, Notifier notifier,
+      ConnectionSettings settings, ContentEncoding requestEncoding) {
+    this.registration = registration;
+    this.url = uri.toString();
+    this.actionUri = URI.create(RequestUrls.command(this.url, registration.getCorrelationId()));
+    this.credentials = credentials;
+    this.httpClient = settings.getHttpClient();
+    this.codec = new ClientCodec(settings.getCodec(), settings.getAcceptEncoding(), requestEncoding,
+        settings.getRequestCompressionThreshold(), JmxHttpConnection.class.getClassLoader());
+    this.notifier = notifier;
+    this.listeners = new ListenerRegistry();
+    this.closed = false;
+  }
+
+  /**
+   * Starts the long poll for notifications.
+   */
+  void start() {
+    this.listen();
+  }
+
+  Optional<String> getCredentials() {
+    return this.credentials;
+  }
+
+  long getCorrelationId() {
+    return this.registration.getCorrelationId();
+  }
+
+  @Override
+  public ObjectInstance createMBean(String className, ObjectName name) throws ReflectionException, InstanceAlreadyExistsException, MBeanRegistrationException, MBeanException, NotCompliantMBeanException, IOException {
+    try {
+      return send(new CreateMBean(className, name, null, null, null));
+    } catch (ReflectionException | InstanceAlreadyExistsException | MBeanException | NotCompliantMBeanException e) {
+      throw e;
+    } catch (JMException e) {
+      throw newJmRuntimeException(e);
+    }
+  }
+
+  @Override
+  public ObjectInstance createMBean(String className, ObjectName name, ObjectName loaderName) throws ReflectionException, InstanceAlreadyExistsException, MBeanRegistrationException, MBeanException, NotCompliantMBeanException, InstanceNotFoundException, IOException {
+    try {
+      return send(new CreateMBean(className, name, loaderName, null, null));
+    } catch (ReflectionException | InstanceAlreadyExistsException | MBeanException | NotCompliantMBeanException | InstanceNotFoundException e) {
+      throw e;
+    } catch (JMException e) {
+      throw newJmRuntimeException(e);
+    }
+  }
+
+  @Override
+  public ObjectInstance createMBean(String className, ObjectName name, Object[] params, String[] signature) throws ReflectionException, InstanceAlreadyExistsException, MBeanRegistrationException, MBeanException, NotCompliantMBeanException, IOException {
+    try {
+      return send(new CreateMBean(className, name, null, params, signature));
+    } catch (ReflectionException | InstanceAlreadyExistsException | MBeanException | NotCompliantMBeanException e) {
+      throw e;
+    } catch (JMException e) {
+      throw newJmRuntimeException(e);
+    }
+  }
+
+  @Override
+  public ObjectInstance createMBean(String className, ObjectName name, ObjectName loaderName, Object[] params, String[] signature) throws ReflectionException, InstanceAlreadyExistsException, MBeanRegistrationException, MBeanException, NotCompliantMBeanException, InstanceNotFoundException, IOException {
+    try {
+      return send(new CreateMBean(className, name, loaderName, params, signature));
+    } catch (ReflectionException | InstanceAlreadyExistsException | MBeanException | NotCompliantMBeanException | InstanceNotFoundException e) {
+      throw e;
+    } catch (JMException e) {
+      throw newJmRuntimeException(e);
+    }
+  }
+
+  @Override
+  public void unregisterMBean(ObjectName name) throws InstanceNotFoundException, MBeanRegistrationException, IOException {
+    try {
+      send(new UnregisterMBean(name));
+    } catch (InstanceNotFoundException | MBeanRegistrationException e) {
+      throw e;
+    } catch (JMException e) {
+      throw newJmRuntimeException(e);
+    }
+  }
+
+  @Override
+  public ObjectInstance getObjectInstance(ObjectName name) throws InstanceNotFoundException, IOException {
+    try {
+      return send(new GetObjectInstance(name));
+    } catch (InstanceNotFoundException e) {
+      throw e;
+    } catch (JMException e) {
+      throw newJmRuntimeException(e);
+    }
+  }
+
+  @Override
+  public Set<ObjectInstance> queryMBeans(ObjectName name, QueryExp query) throws IOException {
+    try {
+      return send(new QueryMBeans(name, query));
+    } catch (JMException e) {
+      throw newJmRuntimeException(e);
+    }
+  }
+
+  @Override
+  public Set<ObjectName> queryNames(ObjectName name, QueryExp query) throws IOException {
+    try {
+      return send(new QueryNames(name, query));
+    } catch (JMException e) {
+      throw newJmRuntimeException(e);
+    }
+  }
+
+  @Override
+  public boolean isRegistered(ObjectName name) throws IOException {
+    try {
+      return send(new IsRegistered(name));
+    } catch (JMException e) {
+      throw newJmRuntimeException(e);
+    }
+  }
+
+  @Override
+  public Integer getMBeanCount() throws IOException {
+    try {
+      return send(new GetMBeanCount());
+    } catch (JMException e) {
+      throw newJmRuntimeException(e);
+    }
+  }
+
+  @Override
+  public Object getAttribute(ObjectName name, String attribute) throws MBeanException, AttributeNotFoundException, InstanceNotFoundException, ReflectionException, IOException {
+    try {
+      return send(new GetAttribute(name, attribute));
+    } catch (MBeanException | AttributeNotFoundException | InstanceNotFoundException | ReflectionException e) {
+      throw e;
+    } catch (JMException e) {
+      throw newJmRuntimeException(e);
+    }
+  }
+
+  @Override
+  public AttributeList getAttributes(ObjectName name, String[] attributes) throws InstanceNotFoundException, ReflectionException, IOException {
+    try {
+      return send(new GetAttributes(name, attributes));
+    } catch (InstanceNotFoundException | ReflectionException e) {
+      throw e;
+    } catch (JMException e) {
+      throw newJmRuntimeException(e);
+    }
+  }
+
+  @Override
+  public void setAttribute(ObjectName name, Attribute attribute) throws InstanceNotFoundException, AttributeNotFoundException, InvalidAttributeValueException, MBeanException, ReflectionException, IOException {
+    try {
+      send(new SetAttribute(name, attribute));
+    } catch (InstanceNotFoundException | AttributeNotFoundException | InvalidAttributeValueException | MBeanException | ReflectionException e) {
+      throw e;
+    } catch (JMException e) {
+      throw newJmRuntimeException(e);
+    }
+  }
+
+  @Override
+  public AttributeList setAttributes(ObjectName name, AttributeList attributes) throws InstanceNotFoundException, ReflectionException, IOException {
+    try {
+      return send(new SetAttributes(name, attributes));
+    } catch (InstanceNotFoundException | ReflectionException e) {
+      throw e;
+    } catch (JMException e) {
+      throw newJmRuntimeException(e);
+    }
+  }
+
+  @Override
+  public Object invoke(ObjectName name, String operationName, Object[] params, String[] signature) throws InstanceNotFoundException, MBeanException, ReflectionException, IOException {
+    try {
+      return send(new Invoke(name, operationName, params, signature));
+    } catch (InstanceNotFoundException | MBeanException | ReflectionException e) {
+      throw e;
+    } catch (JMException e) {
+      throw newJmRuntimeException(e);
+    }
+  }
+
+  @Override
+  public String getDefaultDomain() throws IOException {
+    try {
+      return send(new GetDefaultDomain());
+    } catch (JMException e) {
+      throw newJmRuntimeException(e);
+    }
+  }
+
+  @Override
+  public String[] getDomains() throws IOException {
+    try {
+      return send(new GetDomains());
+    } catch (JMException e) {
+      throw newJmRuntimeException(e);
+    }
+  }
+
+  @Override
+  public void addNotificationListener(ObjectName name, NotificationListener listener, NotificationFilter filter, Object handback) throws InstanceNotFoundException, IOException {
+    long listenerId = this.listeners.registerListener(listener);
+    Long handbackId = this.listeners.registerHandback(handback);
+    try {
+      send(new AddNotificationListenerRemote(name, listenerId, filter, handbackId));
+    } catch (InstanceNotFoundException e) {
+      throw e;
+    } catch (JMException e) {
+      throw newJmRuntimeException(e);
+    }
+  }
+
+  @Override
+  public AttributeList addAttributeSampling(ObjectName name, String[] attributes, long periodMillis, NotificationListener listener, Object handback) throws InstanceNotFoundException, IOException {
+    long listenerId = this.listeners.registerListener(listener);
+    Long handbackId = this.listeners.registerHandback(handback);
+    try {
+      return send(new AddAttributeSampling(name, attributes, periodMillis, listenerId, handbackId));
+    } catch (InstanceNotFoundException e) {
+      throw e;
+    } catch (JMException e) {
+      throw newJmRuntimeException(e);
+    }
+  }
+
+  @Override
+  public boolean addAttributeWatch(ObjectName name, String attribute, Threshold threshold, long periodMillis, NotificationListener listener, Object handback) throws InstanceNotFoundException, IOException {
+    long listenerId = this.listeners.registerListener(listener);
+    Long handbackId = this.listeners.registerHandback(handback);
+    try {
+      return send(new AddAttributeWatch(name, attribute, threshold, periodMillis, listenerId, handbackId));
+    } catch (InstanceNotFoundException e) {
+      throw e;
+    } catch (JMException e) {
+      throw newJmRuntimeException(e);
+    }
+  }
+
+  @Override
+  public void addNotificationListener(ObjectName name, ObjectName listener, NotificationFilter filter, Object handback) throws InstanceNotFoundException, IOException {
+    try {
+      send(new AddNotificationListener(name, listener, filter, handback));
+    } catch (InstanceNotFoundException e) {
+      throw e;
+    } catch (JMException e) {
+      throw newJmRuntimeException(e);
+    }
+  }
+
+  @Override
+  public void removeNotificationListener(ObjectName name, ObjectName listener) throws InstanceNotFoundException, ListenerNotFoundException, IOException {
+    try {
+      send(new RemoveNotificationListener(name, listener));
+    } catch (InstanceNotFoundException | ListenerNotFoundException e) {
+      throw e;
+    } catch (JMException e) {
+      throw newJmRuntimeException(e);
+    }
+  }
+
+  @Override
+  public void removeNotificationListener(ObjectName name, ObjectName listener, NotificationFilter filter, Object handback) throws InstanceNotFoundException, ListenerNotFoundException, IOException {
+    try {
+      send(new RemoveNotificationListener(name, listener, filter, handback));
+    } catch (InstanceNotFoundException | ListenerNotFoundException e) {
+      throw e;
+    } catch (JMException e) {
+      throw newJmRuntimeException(e);
+    }
+  }
+
+  @Override
+  public void removeNotificationListener(ObjectName name, NotificationListener listener) throws IOException, InstanceNotFoundException, ListenerNotFoundException {
+    long listenerId = this.listeners.getListenerId(listener);
+    try {
+      send(new RemoveNotificationListenerRemote(name, listenerId));
+    } catch (InstanceNotFoundException | ListenerNotFoundException e) {
+      throw e;
+    } catch (JMException e) {
+      throw newJmRuntimeException(e);
+    }
+  }
+
+  @Override
+  public void removeNotificationListener(ObjectName name, NotificationListener listener, NotificationFilter filter, Object handback) throws IOException, InstanceNotFoundException, ListenerNotFoundException {
+    long listenerId = this.listeners.getListenerId(listener);
+    Long handbackId = this.listeners.getHandbackId(handback);
+    try {
+      send(new RemoveNotificationListenerRemote(name, listenerId, filter, handbackId));
+    } catch (InstanceNotFoundException | ListenerNotFoundException e) {
+      throw e;
+    } catch (JMException e) {
+      throw newJmRuntimeException(e);
+    }
+  }
+
+  @Override
+  public MBeanInfo getMBeanInfo(ObjectName name) throws InstanceNotFoundException, IntrospectionException, ReflectionException, IOException {
+    try {
+      return send(new GetMBeanInfo(name));
+    } catch (InstanceNotFoundException | IntrospectionException | ReflectionException e) {
+      throw e;
+    } catch (JMException e) {
+      throw newJmRuntimeException(e);
+    }
+  }
+
+  @Override
+  public boolean isInstanceOf(ObjectName name, String className) throws InstanceNotFoundException, IOException {
+    try {
+      return send(new IsInstanceOf(name, className));
+    } catch (InstanceNotFoundException e) {
+      throw e;
+    } catch (JMException e) {
+      throw newJmRuntimeException(e);
+    }
+  }
+
+  @Override
+  public List<BatchResult> executeBatch(List<? extends Command<?>> commands) throws IOException {
+    if (commands.isEmpty()) {
+      return Collections.emptyList();
+    }
+    try {
+      return send(new BatchCommand(commands));
+    } catch (JMException e) {
+      throw newJmRuntimeException(e);
+    }
+  }
+
+  @Override
+  public Map<ObjectName, BatchResult> queryAttributes(ObjectName name, QueryExp query, String[] attributes) throws IOException {
+    try {
+      return send(new QueryAttributes(name, query, attributes));
+    } catch (JMException e) {
+      throw newJmRuntimeException(e);
+    }
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <R> CompletableFuture<R> executeAsync(Command<R> command) {
+    if (this.closed) {
+      return CompletableFuture.failedFuture(new IOException("connection closed"));
+    }
+    HttpRequest request;
+    try {
+      request = this.newCommandRequest(command);
+    } catch (IOException | RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    return this.httpClient.sendAsync(request, BodyHandlers.ofByteArray())
+        .thenApply(response -> (R) readResponseAsObjectUnchecked(response, this.codec));
+  }
+
+  void close() {
+    this.closed = true;
+    // REVIEW unregister?
+    this.listeners.clear();
+  }
+
+  private JMRuntimeException newJmRuntimeException(JMException e) {
+    JMRuntimeException runtimeException = new JMRuntimeException("undeclared exception");
+    runtimeException.initCause(e);
+    return runtimeException;
+  }
+
+  <R> R send(Command<R> command) throws IOException, JMException {
+    try {
+      return this.executeAsync(command).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      InterruptedIOException exception = new InterruptedIOException("interrupted while waiting for response");
+      exception.initCause(e);
+      throw exception;
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof JMException) {
+        throw (JMException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException("request failed", cause);
+    }
+  }
+
+  private HttpRequest newCommandRequest(Command<?> command) throws IOException {
+    RequestBody body = this.codec.encode(command);
+    HttpRequest.Builder builder = HttpRequest.newBuilder(this.actionUri)
+        .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+        .header("Content-Type", this.codec.getContentType());
+    String contentEncoding = body.getContentEncoding();
+    if (contentEncoding != null) {
+      builder.header("Content-Encoding", contentEncoding);
+    }
+    this.addCommonHeaders(builder);
+    return builder.build();
+  }
+
+  private void addCommonHeaders(HttpRequest.Builder builder) {
+    if (this.credentials.isPresent()) {
+      builder.header("Authorization", this.credentials.get());
+    }
+    builder.header("Accept", this.codec.getContentType());
+    builder.header("Accept-Encoding", this.codec.getAcceptEncoding());
+    builder.header(HEADER_DICTIONARY_ACKNOWLEDGEMENT, this.codec.getAcknowledgement());
+  }
+
+  private HttpRequest newListenRequest() {
+    // acknowledges the notifications received so far
+    HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(RequestUrls.listen(this.url, this.getCorrelationId(), this.lastSequenceNumber))).GET();
+    long timeout = this.registration.getTimeoutMilliseconds();
+    if (timeout > 0L) {
+      builder.timeout(Duration.ofMillis(timeout + FUDGE));
+    }
+    this.addCommonHeaders(builder);
+    return builder.build();
+  }
+
+  private void listen() {
+    if (this.closed) {
+      return;
+    }
+    this.httpClient.sendAsync(this.newListenRequest(), BodyHandlers.ofByteArray())
+        .whenComplete(this::onListenResponse);
+  }
+
+  private void onListenResponse(HttpResponse<byte[]> httpResponse, Throwable failure) {
+    if (this.closed) {
+      return;
+    }
+    if (failure != null) {
+      Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+      if (cause instanceof HttpTimeoutException) {
+        LOG.log(Level.FINE, "long poll read timeout", cause);
+        this.listen();
+        return;
+      }
+      LOG.log(Level.WARNING, "could not read response", cause);
+      // we should not go into a spin loop eg. when a server or network error happens
+      // or eg the server is no longer available
+      // disconnect in this case and make the UI read only
+      this.notifier.exceptionOccurred(cause instanceof Exception ? (Exception) cause : new IOException(cause));
+      return;
+    }
+
+    Object response;
+    try {
+      response = readResponseAsObject(httpResponse, this.codec);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "could not read response", e);
+      this.notifier.exceptionOccurred(e);
+      return;
+    } catch (JMException | RuntimeException e) {
+      // REVIEW break as well?
+      LOG.log(Level.WARNING, "could not read response", e);
+      this.listen();
+      return;
+    }
+    this.updateLostNotifications(httpResponse.headers().firstValue(HEADER_NOTIFICATIONS_LOST).orElse(null));
+    this.lastSequenceNumber = this.listeners.deliver(response, this.lastSequenceNumber);
+    this.listen();
+  }
+
+  /**
+   * Raises {@link javax.management.remote.JMXConnectionNotification#NOTIFS_LOST}
+   * if the server discarded notifications since the last response.
+   *
+   * @param lost the total number of notifications lost as sent by the server,
+   *             may be {@code null}
+   */
+  private void updateLostNotifications(String lost) {
+    if (lost == null) {
+      return;
+    }
+    long total;
+    try {
+      total = Long.parseLong(lost.trim());
+    } catch (NumberFormatException e) {
+      LOG.log(Level.WARNING, "invalid number of lost notifications: " + lost);
+      return;
+    }
+    if (total > this.lostNotifications) {
+      long count = total - this.lostNotifications;
+      this.lostNotifications = total;
+      this.notifier.notificationsLost(count);
+    }
+  }
+
+}
@@ -0,0 +1,357 @@
+package com.github.marschall.jmxhttp.client.httpclient;
+
+import static com.github.marschall.jmxhttp.client.httpclient.HttpClientUtil.readResponseAsObject;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.security.AccessControlContext;
+import java.security.AccessController;
+import java.security.Principal;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.JMException;
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanServerConnection;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+import javax.management.remote.JMXConnectionNotification;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXPrincipal;
+import javax.security.auth.Subject;
+
+import com.github.marschall.jmxhttp.common.client.ConnectionListeners;
+import com.github.marschall.jmxhttp.common.client.RequestUrls;
+import com.github.marschall.jmxhttp.common.http.ContentEncoding;
+import com.github.marschall.jmxhttp.common.http.Registration;
+
+/**
+ * The connector creates {@link MBeanServerConnection}s and manages
+ * connection {@link NotificationListener}s.
+ */
+final class JmxHttpConnector implements JMXConnector {
+
+  enum State {
+    INITIAL,
+    CONNECTED,
+    CLOSED;
+  }
+
+  private static final AtomicInteger ID_GENERATOR = new AtomicInteger(1);
+
+  private final AtomicLong sequenceNumberGenerator;
+
+  private final URI uri;
+
+  private final int id;
+
+  private final Lock sateLock;
+
+  private State state;
+
+  private JmxHttpConnection mBeanServerConnection;
+
+  private HttpClient httpClient;
+
+  private ContentEncoding requestEncoding;
+
+  private final ListenerNotifier notifier;
+
+  JmxHttpConnector(URI uri) {
+    this.uri = uri;
+    this.notifier = new ListenerNotifier();
+    this.id = ID_GENERATOR.incrementAndGet();
+    this.sateLock = new ReentrantLock();
+    this.state = State.INITIAL;
+    this.sequenceNumberGenerator = new AtomicLong(0L);
+  }
+
+  @Override
+  public void connect() throws IOException {
+    this.connect(null);
+  }
+
+  @Override
+  public void connect(Map<String, ?> env) throws IOException {
+    this.sateLock.lock();
+    try {
+      if (this.state == State.CONNECTED) {
+        return;
+      }
+      if (this.state == State.CLOSED) {
+        throw new IOException("already closed");
+      }
+
+      this.state = State.CONNECTED;
+      Optional<String> credentials = extractCredentials(env);
+      ConnectionSettings settings = ConnectionSettings.fromEnvironment(env);
+      Registration registration = getRegistration(credentials, settings);
+      this.mBeanServerConnection = new JmxHttpConnection(registration, this.uri, credentials, this.notifier, settings, this.requestEncoding);
+      this.mBeanServerConnection.start();
+      this.notifier.connected();
+    } finally {
+      this.sateLock.unlock();
+    }
+  }
+
+  private Registration getRegistration(Optional<String> credentials, ConnectionSettings settings) throws IOException {
+    URI registrationUri = URI.create(RequestUrls.register(this.uri.toString()));
+    HttpRequest.Builder builder = HttpRequest.newBuilder(registrationUri).GET();
+    if (credentials.isPresent()) {
+      builder.header("Authorization", credentials.get());
+    }
+    builder.header("Accept", settings.getCodec().getContentType());
+    builder.header("Accept-Encoding", settings.getAcceptEncoding());
+    HttpResponse<byte[]> response = send(settings.getHttpClient(), builder.build());
+    Object result;
+    try {
+      result = readResponseAsObject(response, JmxHttpConnector.class.getClassLoader());
+    } catch (JMException e) {
+      throw new IOException("JMX operation failed", e);
+    }
+    if (result instanceof Registration) {
+      // servers that can decode compressed requests advertise it, see RFC 7694
+      this.requestEncoding = ContentEncoding.forAcceptEncoding(response.headers().firstValue("Accept-Encoding").orElse(null), ContentEncoding.IDENTITY);
+      this.httpClient = settings.getHttpClient();
+      return (Registration) result;
+    } else {
+      throw new IOException("result should be instance of " + Registration.class + " but was " + result);
+    }
+  }
+
+  private void unregister(Optional<String> credentials, long correlationId) throws IOException {
+    URI unregistrationUri = URI.create(RequestUrls.unregister(this.uri.toString(), correlationId));
+    HttpRequest.Builder builder = HttpRequest.newBuilder(unregistrationUri).GET();
+    if (credentials.isPresent()) {
+      builder.header("Authorization", credentials.get());
+    }
+    HttpResponse<byte[]> response = send(this.httpClient, builder.build());
+    int status = response.statusCode();
+    if (status != 200) {
+      throw new IOException("http request failed with status: " + status);
+    }
+  }
+
+  private static HttpResponse<byte[]> send(HttpClient httpClient, HttpRequest request) throws IOException {
+    try {
+      return httpClient.send(request, BodyHandlers.ofByteArray());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      InterruptedIOException exception = new InterruptedIOException("interrupted while waiting for response");
+      exception.initCause(e);
+      throw exception;
+    }
+  }
+
+  private static Optional<String> extractCredentials(Map<String, ?> env) {
+    if (env == null) {
+      return Optional.empty();
+    }
+    Object possibleCredentials = env.get(CREDENTIALS);
+    if (possibleCredentials instanceof String[]) {
+      String[] credentialArray = (String[]) possibleCredentials;
+      String username = credentialArray[0];
+      String password = credentialArray[1];
+      String userpass = username + ":" + password;
+      String basicAuth = "Basic " + new String(Base64.getEncoder().encode(userpass.getBytes(US_ASCII)), US_ASCII);
+      return Optional.of(basicAuth);
+    } else {
+      return Optional.empty();
+    }
+  }
+
+  @Override
+  public MBeanServerConnection getMBeanServerConnection() throws IOException {
+    return this.mBeanServerConnection;
+  }
+
+  /**
+   * Subject delegation is not supported, every request is authenticated
+   * with the credentials passed to {@link #connect(Map)}.
+   *
+   * @throws SecurityException if {@code delegationSubject} is not
+   *         {@code null}
+   */
+  @Override
+  public MBeanServerConnection getMBeanServerConnection(Subject delegationSubject) throws IOException {
+    if (delegationSubject == null) {
+      // no delegation, see JMXConnector
+      return this.getMBeanServerConnection();
+    }
+    throw new SecurityException("subject delegation is not supported");
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.sateLock.lock();
+    try {
+      if (this.state == State.CLOSED) {
+        return;
+      }
+      this.state = State.CLOSED;
+      this.notifier.closed();
+      try {
+        if (this.mBeanServerConnection != null) {
+          this.unregister(this.mBeanServerConnection.getCredentials(), this.mBeanServerConnection.getCorrelationId());
+          this.mBeanServerConnection.close();
+        }
+      } finally {
+        this.mBeanServerConnection = null;
+      }
+    } finally {
+      this.sateLock.unlock();
+    }
+
+  }
+
+  @Override
+  public void addConnectionNotificationListener(NotificationListener listener, NotificationFilter filter, Object handback) {
+    this.notifier.addConnectionNotificationListener(listener, filter, handback);
+  }
+
+  @Override
+  public void removeConnectionNotificationListener(NotificationListener listener) throws ListenerNotFoundException {
+    this.notifier.removeConnectionNotificationListener(listener);
+  }
+
+  @Override
+  public void removeConnectionNotificationListener(NotificationListener listener, NotificationFilter filter, Object handback) throws ListenerNotFoundException {
+    this.notifier.removeConnectionNotificationListener(listener, filter, handback);
+  }
+
+  @Override
+  public String getConnectionId() {
+    AccessControlContext acc = AccessController.getContext();
+    Subject subject = Subject.getSubject(acc);
+    if (subject != null) {
+      // Retrieve JMXPrincipal from Subject
+      Set<JMXPrincipal> principals = subject.getPrincipals(JMXPrincipal.class);
+      if (principals == null || principals.isEmpty()) {
+        throw new SecurityException("Access denied");
+      }
+      Principal principal = principals.iterator().next();
+      String identity = principal.getName();
+      return "http:// " + identity + " " + this.id;
+    } else {
+      return "http:// " + this.id;
+    }
+  }
+
+  final class ListenerNotifier implements Notifier {
+
+    private final ConnectionListeners listeners;
+
+    private final Executor commands;
+
+    ListenerNotifier() {
+      this.listeners = new ConnectionListeners();
+      this.commands = new SerialExecutor(ConnectionSettings.DefaultExecutorHolder.EXECUTOR);
+    }
+
+    void addConnectionNotificationListener(NotificationListener listener, NotificationFilter filter, Object handback) {
+      this.listeners.add(listener, filter, handback);
+    }
+
+    void removeConnectionNotificationListener(NotificationListener listener) throws ListenerNotFoundException {
+      this.listeners.remove(listener);
+    }
+
+    void removeConnectionNotificationListener(NotificationListener listener, NotificationFilter filter, Object handback) throws ListenerNotFoundException {
+      this.listeners.remove(listener, filter, handback);
+    }
+
+    @Override
+    public void connected() {
+      this.commands.execute(() -> {
+        if (this.listeners.isEmpty()) {
+          return;
+        }
+
+        String type = JMXConnectionNotification.OPENED;
+        Object source = JmxHttpConnector.this;
+        String connectionId = getConnectionId();
+        long sequenceNumber = sequenceNumberGenerator.incrementAndGet();
+        String message = "connection opened";
+        Object userData = null;
+        JMXConnectionNotification notification = new JMXConnectionNotification(type, source, connectionId, sequenceNumber, message, userData);
+
+        sendNotification(notification);
+      });
+    }
+
+    @Override
+    public void closed() {
+      this.commands.execute(() -> {
+
+        if (!this.listeners.isEmpty()) {
+          String type = JMXConnectionNotification.CLOSED;
+          Object source = JmxHttpConnector.this;
+          String connectionId = getConnectionId();
+          long sequenceNumber = sequenceNumberGenerator.incrementAndGet();
+          String message = "connection closed";
+          Object userData = null;
+          JMXConnectionNotification notification = new JMXConnectionNotification(type, source, connectionId, sequenceNumber, message, userData);
+          sendNotification(notification);
+        }
+      });
+      // REVIEW join?
+    }
+
+    @Override
+    public void exceptionOccurred(Exception exception) {
+      this.commands.execute(() -> {
+        if (this.listeners.isEmpty()) {
+          return;
+        }
+
+        String type = JMXConnectionNotification.FAILED;
+        Object source = JmxHttpConnector.this;
+        String connectionId = getConnectionId();
+        long sequenceNumber = sequenceNumberGenerator.incrementAndGet();
+        String message = "exception occurred";
+        Object userData = exception;
+        JMXConnectionNotification notification = new JMXConnectionNotification(type, source, connectionId, sequenceNumber, message, userData);
+
+        sendNotification(notification);
+      });
+    }
+
+    @Override
+    public void notificationsLost(long count) {
+      this.commands.execute(() -> {
+        if (this.listeners.isEmpty()) {
+          return;
+        }
+
+        String type = JMXConnectionNotification.NOTIFS_LOST;
+        Object source = JmxHttpConnector.this;
+        String connectionId = getConnectionId();
+        long sequenceNumber = sequenceNumberGenerator.incrementAndGet();
+        String message = "lost " + count + " notifications";
+        Object userData = count;
+        JMXConnectionNotification notification = new JMXConnectionNotification(type, source, connectionId, sequenceNumber, message, userData);
+
+        sendNotification(notification);
+      });
+    }
+
+    private void sendNotification(JMXConnectionNotification notification) {
+      this.listeners.send(notification);
+    }
+
+  }
+
+}
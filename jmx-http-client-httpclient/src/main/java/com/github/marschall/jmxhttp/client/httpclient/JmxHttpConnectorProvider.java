@@ -0,0 +1,101 @@
+package com.github.marschall.jmxhttp.client.httpclient;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Map;
+
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorProvider;
+import javax.management.remote.JMXProviderException;
+import javax.management.remote.JMXServiceURL;
+
+/**
+ * Connector provider for running JMX over HTTP using
+ * {@link java.net.http.HttpClient}.
+ * <p>
+ * This provider supports both {@code http} and {@code https} URLs.
+ * Service urls must look like this: 
+ * <a href="service:jmx:http://localhost:8080/jmx-http">service:jmx:http://localhost:8080/jmx-http</a>
+ * <p>
+ * HTTP/2 is used if the server supports it, in this case all commands and
+ * the long poll for notifications of all connections to a server share a
+ * single TCP connection. Requests are sent asynchronously, no thread is
+ * blocked while waiting for notifications.
+ * <p>
+ * Only one of the client modules should be on the class path since they
+ * support the same protocols.
+ * <p>
+ * In addition to {@link javax.management.remote.JMXConnector#CREDENTIALS}
+ * the environment passed to
+ * {@link javax.management.remote.JMXConnector#connect(Map)} supports the
+ * keys defined in this class.
+ * <p>
+ * Subject delegation is not supported,
+ * {@link javax.management.remote.JMXConnector#getMBeanServerConnection(javax.security.auth.Subject)}
+ * throws a {@link SecurityException} for any subject other than
+ * {@code null}.
+ *
+ */
+public class JmxHttpConnectorProvider implements JMXConnectorProvider {
+
+  /**
+   * The content type of the codec used for encoding requests and responses.
+   * Supported values are
+   * {@value com.github.marschall.jmxhttp.common.http.HttpConstant#JAVA_SERIALIZED_OBJECT}
+   * for plain Java serialization,
+   * {@value com.github.marschall.jmxhttp.common.http.HttpConstant#JMX_HTTP_JAVA_SERIALIZATION}
+   * for Java serialization that sends class descriptors only once per
+   * connection and
+   * {@value com.github.marschall.jmxhttp.common.http.HttpConstant#JMX_HTTP_BINARY}
+   * for a compact binary encoding.
+   * Optional, default is Java serialization.
+   */
+  public static final String CODEC = "jmx.remote.http.codec";
+
+  /**
+   * The {@link java.net.http.HttpClient} to use. Optional, per default a
+   * client shared by all connections is used. Connections using the same
+   * client share TCP connections.
+   */
+  public static final String HTTP_CLIENT = "jmx.remote.http.client";
+
+  /**
+   * The value of the {@code Accept-Encoding} header sent with every request.
+   * {@code gzip}, {@code deflate} and {@code identity} are supported.
+   * Use {@code identity} to turn off response compression, for example on a
+   * fast local network. Optional, default is {@code gzip, deflate}.
+   */
+  public static final String ACCEPT_ENCODING = "jmx.remote.http.accept.encoding";
+
+  /**
+   * Request bodies smaller than this number of bytes are sent uncompressed.
+   * Larger request bodies are compressed if the server advertised support
+   * through an {@code Accept-Encoding} response header when registering.
+   * Negative values turn off request compression. Optional, default is 1024.
+   */
+  public static final String REQUEST_COMPRESSION_THRESHOLD = "jmx.remote.http.request.compression.threshold.bytes";
+
+  @Override
+  public JMXConnector newJMXConnector(JMXServiceURL serviceURL, Map<String, ?> environment) throws IOException {
+    return new JmxHttpConnector(getUri(serviceURL));
+  }
+
+  static URI getUri(JMXServiceURL serviceURL) throws IOException {
+    int port = serviceURL.getPort();
+    if (port == 0) {
+      port = -1;
+    }
+    String protocol = serviceURL.getProtocol();
+    if (!"http".equals(protocol) && !"https".equals(protocol)) {
+      throw new JMXProviderException("unsupported protocol: " + protocol);
+    }
+    String path = serviceURL.getURLPath();
+    try {
+      return new URI(protocol, null, serviceURL.getHost(), port, path.isEmpty() ? null : path, null, null);
+    } catch (URISyntaxException e) {
+      throw new JMXProviderException("invalid service url: " + serviceURL, e);
+    }
+  }
+
+}
@@ -0,0 +1,13 @@
+package com.github.marschall.jmxhttp.client.httpclient;
+
+interface Notifier {
+  
+  void connected();
+  
+  void closed();
+  
+  void exceptionOccurred(Exception exception);
+
+  void notificationsLost(long count);
+
+}
@@ -0,0 +1,59 @@
+package com.github.marschall.jmxhttp.client.httpclient;
+
+import java.lang.invoke.MethodHandles;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs tasks one after the other in submission order on a shared executor,
+ * without blocking a thread while there is nothing to do.
+ */
+final class SerialExecutor implements Executor {
+
+  private static final Logger LOG = Logger.getLogger(MethodHandles.lookup().lookupClass().getName());
+
+  private final Executor delegate;
+  private final Queue<Runnable> tasks;
+  private final AtomicBoolean running;
+
+  SerialExecutor(Executor delegate) {
+    this.delegate = delegate;
+    this.tasks = new ConcurrentLinkedQueue<>();
+    this.running = new AtomicBoolean(false);
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    this.tasks.add(command);
+    this.schedule();
+  }
+
+  private void schedule() {
+    if (!this.tasks.isEmpty() && this.running.compareAndSet(false, true)) {
+      this.delegate.execute(this::drain);
+    }
+  }
+
+  private void drain() {
+    try {
+      Runnable next = this.tasks.poll();
+      while (next != null) {
+        try {
+          next.run();
+        } catch (RuntimeException e) {
+          LOG.log(Level.WARNING, "exception occrred while processing event", e);
+        }
+        next = this.tasks.poll();
+      }
+    } finally {
+      this.running.set(false);
+      // a task may have been added after the last poll
+      this.schedule();
+    }
+  }
+
+}
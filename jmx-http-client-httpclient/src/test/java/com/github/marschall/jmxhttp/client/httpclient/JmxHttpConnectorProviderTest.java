@@ -0,0 +1,45 @@
+package com.github.marschall.jmxhttp.client.httpclient;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collection;
+
+import javax.management.remote.JMXServiceURL;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+@RunWith(Parameterized.class)
+public class JmxHttpConnectorProviderTest {
+
+  private final String serviceUrl;
+  private final String expected;
+
+  public JmxHttpConnectorProviderTest(String serviceUrl, String uri) {
+    this.serviceUrl = serviceUrl;
+    this.expected = uri;
+  }
+
+  @Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(
+        new Object[]{"service:jmx:http://localhost:8080/jmx-http", "http://localhost:8080/jmx-http"},
+        new Object[]{"service:jmx:https://localhost/jmx-http", "https://localhost/jmx-http"},
+        new Object[]{"service:jmx:http://localhost/", "http://localhost/"},
+        new Object[]{"service:jmx:http://localhost", "http://localhost"}
+    );
+  }
+
+  @Test
+  public void getUri() throws IOException {
+    JMXServiceURL serviceURL = new JMXServiceURL(this.serviceUrl);
+    URI actual = JmxHttpConnectorProvider.getUri(serviceURL);
+    assertEquals(URI.create(this.expected), actual);
+  }
+
+}
@@ -0,0 +1,40 @@
+package com.github.marschall.jmxhttp.client.httpclient;
+
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.net.URI;
+
+import javax.management.remote.JMXConnector;
+import javax.security.auth.Subject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JmxHttpConnectorTest {
+
+  private JMXConnector connector;
+
+  @Before
+  public void setUp() throws IOException {
+    this.connector = new JmxHttpConnector(URI.create("http://localhost/jmx-http"));
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    this.connector.close();
+  }
+
+  @Test(expected = SecurityException.class)
+  public void delegation() throws IOException {
+    this.connector.getMBeanServerConnection(new Subject());
+  }
+
+  @Test
+  public void noDelegation() throws IOException {
+    // not connected
+    assertNull(this.connector.getMBeanServerConnection(null));
+  }
+
+}
@@ -0,0 +1,197 @@
+package com.github.marschall.jmxhttp.client.urlconnection;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+
+import com.github.marschall.jmxhttp.common.command.BatchResult;
+import com.github.marschall.jmxhttp.common.command.Command;
+
+/**
+ * Sends commands asynchronously.
+ * <p>
+ * Commands submitted while a request is in flight are queued and sent
+ * together as a single batch once a request slot becomes available. This
+ * way many commands can be in flight while only a small, bounded number
+ * of HTTP requests and threads is used per connection.
+ */
+final class CommandPipeline {
+
+  private final CommandSender sender;
+
+  private final Executor executor;
+
+  private final int maxRequests;
+
+  private final int maxBatchSize;
+
+  private final Queue<PendingCommand<?>> pending;
+
+  private final AtomicInteger activeRequests;
+
+  private volatile boolean closed;
+
+  CommandPipeline(CommandSender sender, Executor executor, int maxRequests, int maxBatchSize) {
+    this.sender = sender;
+    this.executor = executor;
+    this.maxRequests = maxRequests;
+    this.maxBatchSize = maxBatchSize;
+    this.pending = new ConcurrentLinkedQueue<>();
+    this.activeRequests = new AtomicInteger();
+    this.closed = false;
+  }
+
+  <R> CompletableFuture<R> submit(Command<R> command) {
+    CompletableFuture<R> future = new CompletableFuture<>();
+    if (this.closed) {
+      future.completeExceptionally(new IOException("connection closed"));
+      return future;
+    }
+    this.pending.add(new PendingCommand<>(command, future));
+    this.scheduleFlush();
+    return future;
+  }
+
+  void close() {
+    this.closed = true;
+    this.failPending(new IOException("connection closed"));
+  }
+
+  private void scheduleFlush() {
+    while (!this.pending.isEmpty()) {
+      int active = this.activeRequests.get();
+      if (active >= this.maxRequests) {
+        // the active requests will pick up the pending commands when they are done
+        return;
+      }
+      if (this.activeRequests.compareAndSet(active, active + 1)) {
+        try {
+          this.executor.execute(this::flush);
+        } catch (RejectedExecutionException e) {
+          this.activeRequests.decrementAndGet();
+          this.failPending(e);
+        }
+        return;
+      }
+    }
+  }
+
+  private void flush() {
+    try {
+      List<PendingCommand<?>> batch = this.drain();
+      if (batch.size() == 1) {
+        batch.get(0).sendSingle(this.sender);
+      } else if (!batch.isEmpty()) {
+        this.sendBatch(batch);
+      }
+    } finally {
+      this.activeRequests.decrementAndGet();
+      if (this.closed) {
+        this.failPending(new IOException("connection closed"));
+      } else {
+        this.scheduleFlush();
+      }
+    }
+  }
+
+  private List<PendingCommand<?>> drain() {
+    List<PendingCommand<?>> batch = new ArrayList<>();
+    PendingCommand<?> next = this.pending.poll();
+    while (next != null) {
+      batch.add(next);
+      if (batch.size() == this.maxBatchSize) {
+        break;
+      }
+      next = this.pending.poll();
+    }
+    return batch;
+  }
+
+  private void sendBatch(List<PendingCommand<?>> batch) {
+    List<Command<?>> commands = new ArrayList<>(batch.size());
+    for (PendingCommand<?> each : batch) {
+      commands.add(each.command);
+    }
+    List<BatchResult> results;
+    try {
+      results = this.sender.executeBatch(commands);
+    } catch (IOException | RuntimeException e) {
+      for (PendingCommand<?> each : batch) {
+        each.future.completeExceptionally(e);
+      }
+      return;
+    }
+    if (results.size() != batch.size()) {
+      IOException exception = new IOException("expected " + batch.size() + " results but got " + results.size());
+      for (PendingCommand<?> each : batch) {
+        each.future.completeExceptionally(exception);
+      }
+      return;
+    }
+    for (int i = 0; i < batch.size(); i++) {
+      batch.get(i).complete(results.get(i));
+    }
+  }
+
+  private void failPending(Exception exception) {
+    PendingCommand<?> next = this.pending.poll();
+    while (next != null) {
+      next.future.completeExceptionally(exception);
+      next = this.pending.poll();
+    }
+  }
+
+  static final class PendingCommand<R> {
+
+    final Command<R> command;
+    final CompletableFuture<R> future;
+
+    PendingCommand(Command<R> command, CompletableFuture<R> future) {
+      this.command = command;
+      this.future = future;
+    }
+
+    void sendSingle(CommandSender sender) {
+      try {
+        this.future.complete(sender.send(this.command));
+      } catch (IOException | JMException | RuntimeException e) {
+        this.future.completeExceptionally(e);
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    void complete(BatchResult result) {
+      if (result.isFailure()) {
+        this.future.completeExceptionally(result.getException());
+      } else {
+        try {
+          this.future.complete((R) result.getValue());
+        } catch (IOException | JMException e) {
+          // can't happen, not a failure
+          this.future.completeExceptionally(e);
+        }
+      }
+    }
+
+  }
+
+  /**
+   * Sends commands to the server, implemented by {@link JmxHttpConnection}.
+   */
+  interface CommandSender {
+
+    <R> R send(Command<R> command) throws IOException, JMException;
+
+    List<BatchResult> executeBatch(List<? extends Command<?>> commands) throws IOException;
+
+  }
+
+}
@@ -0,0 +1,88 @@
+package com.github.marschall.jmxhttp.client.urlconnection;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+import javax.net.ssl.HttpsURLConnection;
+
+/**
+ * Opens the {@link HttpURLConnection}s of a connector and limits the number
+ * of concurrent command requests to the server.
+ * <p>
+ * Connections are never {@link HttpURLConnection#disconnect() disconnected}
+ * after a successful exchange, instead responses are read completely and
+ * closed so that the underlying socket goes back to the keep-alive cache of
+ * the JDK. Limiting the number of concurrent requests keeps the number of
+ * sockets within what the keep-alive cache retains
+ * ({@code http.maxConnections}, 5 by default), requests beyond the cache
+ * size would open sockets that are closed right afterwards.
+ * <p>
+ * The keep-alive cache is shared by the whole JVM and holds up to
+ * {@code http.maxConnections} sockets per destination, therefore the limit
+ * is shared by all connectors to the same scheme, host and port. The limit
+ * of the first connector to a destination applies to all later ones.
+ */
+final class ConnectionManager {
+
+  /**
+   * The permits per destination, keyed by {@code scheme://host:port}.
+   * Destinations are never removed, a JVM connects to few of them.
+   */
+  private static final ConcurrentMap<String, Semaphore> PERMITS = new ConcurrentHashMap<>();
+
+  private final ConnectionStatistics statistics;
+  private final CountingSSLSocketFactory sslSocketFactory;
+  private final Semaphore permits;
+
+  ConnectionManager(URL url, ConnectionStatistics statistics, CountingSSLSocketFactory sslSocketFactory, int maxConnections) {
+    this.statistics = statistics;
+    this.sslSocketFactory = sslSocketFactory;
+    this.permits = PERMITS.computeIfAbsent(destination(url), key -> new Semaphore(maxConnections, true));
+  }
+
+  static String destination(URL url) {
+    int port = url.getPort();
+    if (port == -1) {
+      port = url.getDefaultPort();
+    }
+    return url.getProtocol().toLowerCase(Locale.ROOT) + "://" + url.getHost().toLowerCase(Locale.ROOT) + ':' + port;
+  }
+
+  HttpURLConnection open(URL url) throws IOException {
+    URLConnection urlConnection = url.openConnection();
+    if (this.sslSocketFactory != null && urlConnection instanceof HttpsURLConnection) {
+      ((HttpsURLConnection) urlConnection).setSSLSocketFactory(this.sslSocketFactory);
+    }
+    this.statistics.requestSent();
+    return (HttpURLConnection) urlConnection;
+  }
+
+  /**
+   * Waits until a command request may be sent, has to be followed by
+   * {@link #release()}. Long polls are not limited.
+   *
+   * @throws InterruptedIOException if interrupted while waiting
+   */
+  void acquire() throws InterruptedIOException {
+    try {
+      this.permits.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      InterruptedIOException exception = new InterruptedIOException("interrupted while waiting for a connection");
+      exception.initCause(e);
+      throw exception;
+    }
+  }
+
+  void release() {
+    this.permits.release();
+  }
+
+}
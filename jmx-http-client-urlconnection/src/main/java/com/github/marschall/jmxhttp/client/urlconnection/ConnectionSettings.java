@@ -0,0 +1,255 @@
+package com.github.marschall.jmxhttp.client.urlconnection;
+
+import static com.github.marschall.jmxhttp.client.urlconnection.JmxHttpConnectorProvider.ACCEPT_ENCODING;
+import static com.github.marschall.jmxhttp.client.urlconnection.JmxHttpConnectorProvider.ASYNC_EXECUTOR;
+import static com.github.marschall.jmxhttp.client.urlconnection.JmxHttpConnectorProvider.ASYNC_MAX_BATCH_SIZE;
+import static com.github.marschall.jmxhttp.client.urlconnection.JmxHttpConnectorProvider.ASYNC_MAX_REQUESTS;
+import static com.github.marschall.jmxhttp.client.urlconnection.JmxHttpConnectorProvider.ASYNC_THREADS;
+import static com.github.marschall.jmxhttp.client.urlconnection.JmxHttpConnectorProvider.CODEC;
+import static com.github.marschall.jmxhttp.client.urlconnection.JmxHttpConnectorProvider.MAX_CONNECTIONS;
+import static com.github.marschall.jmxhttp.client.urlconnection.JmxHttpConnectorProvider.MBEAN_INFO_CACHE_REVALIDATE;
+import static com.github.marschall.jmxhttp.client.urlconnection.JmxHttpConnectorProvider.MBEAN_INFO_CACHE_SIZE;
+import static com.github.marschall.jmxhttp.client.urlconnection.JmxHttpConnectorProvider.NOTIFICATION_STREAMING;
+import static com.github.marschall.jmxhttp.client.urlconnection.JmxHttpConnectorProvider.REGISTRY_MIRROR;
+import static com.github.marschall.jmxhttp.client.urlconnection.JmxHttpConnectorProvider.REQUEST_COMPRESSION_THRESHOLD;
+
+import java.lang.invoke.MethodHandles;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.github.marschall.jmxhttp.common.codec.Codec;
+import com.github.marschall.jmxhttp.common.codec.Codecs;
+
+/**
+ * Holds the settings of a connection, read from the environment passed to
+ * {@link JmxHttpConnector#connect(Map)}.
+ */
+final class ConnectionSettings {
+
+  private static final Logger LOG = Logger.getLogger(MethodHandles.lookup().lookupClass().getName());
+
+  private static final int DEFAULT_MAX_REQUESTS = 2;
+
+  private static final int DEFAULT_MAX_BATCH_SIZE = 256;
+
+  private static final String DEFAULT_ACCEPT_ENCODING = "gzip, deflate";
+
+  private static final int DEFAULT_REQUEST_COMPRESSION_THRESHOLD = 1024;
+
+  /**
+   * One less than the default of {@code http.maxConnections}, the long poll
+   * needs a connection as well.
+   */
+  private static final int DEFAULT_MAX_CONNECTIONS = 4;
+
+  private final Codec codec;
+  private final String acceptEncoding;
+  private final int requestCompressionThreshold;
+  private final Executor asyncExecutor;
+  private final int asyncMaxRequests;
+  private final int asyncMaxBatchSize;
+  private final int maxConnections;
+  private final boolean notificationStreaming;
+  private final boolean registryMirror;
+  private final int mBeanInfoCacheSize;
+  private final boolean mBeanInfoCacheRevalidate;
+
+  private ConnectionSettings(Codec codec, String acceptEncoding, int requestCompressionThreshold,
+      Executor asyncExecutor, int asyncMaxRequests, int asyncMaxBatchSize, int maxConnections,
+      boolean notificationStreaming, boolean registryMirror, int mBeanInfoCacheSize,
+      boolean mBeanInfoCacheRevalidate) {
+    this.codec = codec;
+    this.acceptEncoding = acceptEncoding;
+    this.requestCompressionThreshold = requestCompressionThreshold;
+    this.asyncExecutor = asyncExecutor;
+    this.asyncMaxRequests = asyncMaxRequests;
+    this.asyncMaxBatchSize = asyncMaxBatchSize;
+    this.maxConnections = maxConnections;
+    this.notificationStreaming = notificationStreaming;
+    this.registryMirror = registryMirror;
+    this.mBeanInfoCacheSize = mBeanInfoCacheSize;
+    this.mBeanInfoCacheRevalidate = mBeanInfoCacheRevalidate;
+  }
+
+  static ConnectionSettings fromEnvironment(Map<String, ?> env) {
+    Codec codec = getCodec(env);
+    int maxConnections = getPositiveInt(env, MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS);
+    Executor executor;
+    Object possibleExecutor = env != null ? env.get(ASYNC_EXECUTOR) : null;
+    if (possibleExecutor instanceof Executor) {
+      executor = (Executor) possibleExecutor;
+    } else {
+      if (possibleExecutor != null) {
+        LOG.log(Level.WARNING, "ignoring '" + ASYNC_EXECUTOR + "', has to be " + Executor.class + " but was " + possibleExecutor.getClass());
+      }
+      executor = DefaultExecutor.get(getPositiveInt(env, ASYNC_THREADS, maxConnections));
+    }
+    int maxRequests = getPositiveInt(env, ASYNC_MAX_REQUESTS, DEFAULT_MAX_REQUESTS);
+    int maxBatchSize = getPositiveInt(env, ASYNC_MAX_BATCH_SIZE, DEFAULT_MAX_BATCH_SIZE);
+    Object acceptEncoding = env != null ? env.get(ACCEPT_ENCODING) : null;
+    int requestCompressionThreshold = getInt(env, REQUEST_COMPRESSION_THRESHOLD, DEFAULT_REQUEST_COMPRESSION_THRESHOLD);
+    boolean notificationStreaming = getBoolean(env, NOTIFICATION_STREAMING, false);
+    boolean registryMirror = getBoolean(env, REGISTRY_MIRROR, false);
+    int mBeanInfoCacheSize = getInt(env, MBEAN_INFO_CACHE_SIZE, 0);
+    if (mBeanInfoCacheSize < 0) {
+      LOG.log(Level.WARNING, "invalid value '" + mBeanInfoCacheSize + "' for environment key '" + MBEAN_INFO_CACHE_SIZE + "'");
+      mBeanInfoCacheSize = 0;
+    }
+    boolean mBeanInfoCacheRevalidate = getBoolean(env, MBEAN_INFO_CACHE_REVALIDATE, false);
+    return new ConnectionSettings(codec, acceptEncoding != null ? acceptEncoding.toString() : DEFAULT_ACCEPT_ENCODING,
+        requestCompressionThreshold, executor, maxRequests, maxBatchSize, maxConnections, notificationStreaming,
+        registryMirror, mBeanInfoCacheSize, mBeanInfoCacheRevalidate);
+  }
+
+  private static Codec getCodec(Map<String, ?> env) {
+    Object contentType = env != null ? env.get(CODEC) : null;
+    if (contentType == null) {
+      return Codecs.JAVA_SERIALIZATION;
+    }
+    Codec codec = Codecs.forContentType(contentType.toString());
+    if (codec == null) {
+      LOG.log(Level.WARNING, "unsupported value '" + contentType + "' for environment key '" + CODEC + "'");
+      return Codecs.JAVA_SERIALIZATION;
+    }
+    return codec;
+  }
+
+  static int getInt(Map<String, ?> env, String key, int defaultValue) {
+    if (env == null) {
+      return defaultValue;
+    }
+    Object value = env.get(key);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(value.toString().trim());
+    } catch (NumberFormatException e) {
+      LOG.log(Level.WARNING, "invalid value '" + value + "' for environment key '" + key + "'");
+      return defaultValue;
+    }
+  }
+
+  static boolean getBoolean(Map<String, ?> env, String key, boolean defaultValue) {
+    if (env == null) {
+      return defaultValue;
+    }
+    Object value = env.get(key);
+    if (value == null) {
+      return defaultValue;
+    }
+    return value instanceof Boolean ? (Boolean) value : Boolean.parseBoolean(value.toString().trim());
+  }
+
+  static int getPositiveInt(Map<String, ?> env, String key, int defaultValue) {
+    if (env == null) {
+      return defaultValue;
+    }
+    Object value = env.get(key);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      int parsed = value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(value.toString().trim());
+      if (parsed > 0) {
+        return parsed;
+      }
+    } catch (NumberFormatException e) {
+      // fall through
+    }
+    LOG.log(Level.WARNING, "invalid value '" + value + "' for environment key '" + key + "'");
+    return defaultValue;
+  }
+
+  Codec getCodec() {
+    return this.codec;
+  }
+
+  String getAcceptEncoding() {
+    return this.acceptEncoding;
+  }
+
+  int getRequestCompressionThreshold() {
+    return this.requestCompressionThreshold;
+  }
+
+  Executor getAsyncExecutor() {
+    return this.asyncExecutor;
+  }
+
+  int getAsyncMaxRequests() {
+    return this.asyncMaxRequests;
+  }
+
+  int getAsyncMaxBatchSize() {
+    return this.asyncMaxBatchSize;
+  }
+
+  int getMaxConnections() {
+    return this.maxConnections;
+  }
+
+  boolean isNotificationStreaming() {
+    return this.notificationStreaming;
+  }
+
+  boolean isRegistryMirror() {
+    return this.registryMirror;
+  }
+
+  int getMBeanInfoCacheSize() {
+    return this.mBeanInfoCacheSize;
+  }
+
+  boolean isMBeanInfoCacheRevalidate() {
+    return this.mBeanInfoCacheRevalidate;
+  }
+
+  /**
+   * Lazily creates the executor shared by all connections that don't
+   * provide their own.
+   * <p>
+   * The pool has a fixed number of threads taken from the first connection
+   * that uses it, further commands wait in the queue. Idle threads end after
+   * a minute.
+   */
+  static final class DefaultExecutor {
+
+    private static ThreadPoolExecutor executor;
+
+    private DefaultExecutor() {
+      throw new AssertionError("not instantiable");
+    }
+
+    static synchronized Executor get(int threads) {
+      if (executor == null) {
+        executor = new ThreadPoolExecutor(threads, threads,
+            60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new DaemonThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+      }
+      return executor;
+    }
+
+  }
+
+  static final class DaemonThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "JMX-HTTP-Async-" + this.threadNumber.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    }
+
+  }
+
+}
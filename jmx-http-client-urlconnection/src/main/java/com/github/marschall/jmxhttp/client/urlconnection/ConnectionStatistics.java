@@ -0,0 +1,99 @@
+package com.github.marschall.jmxhttp.client.urlconnection;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the HTTP requests of a connector and, for {@code https} only, the
+ * TLS connections opened for them.
+ * <p>
+ * Responses are read completely so that {@link java.net.HttpURLConnection}
+ * can return the underlying connections to its keep-alive cache. Every
+ * request not needing a new connection reused a cached one.
+ * <p>
+ * New connections can only be observed for {@code https}, there they are
+ * counted as TLS sockets created by the socket factory of the connector.
+ * {@link java.net.HttpURLConnection} offers no hook to observe the sockets
+ * of plain {@code http}, there only requests are counted and the connection
+ * counts are reported as {@code -1}, not as zero. Use {@code https} or the
+ * statistics of the server to observe connection reuse over {@code http}.
+ *
+ * @see JmxHttpConnectorProvider#getConnectionStatistics(javax.management.remote.JMXConnector)
+ */
+public final class ConnectionStatistics {
+
+  private final boolean connectionsCounted;
+  private final AtomicLong requests;
+  private final AtomicLong newConnections;
+
+  ConnectionStatistics(boolean connectionsCounted) {
+    this.connectionsCounted = connectionsCounted;
+    this.requests = new AtomicLong();
+    this.newConnections = new AtomicLong();
+  }
+
+  void requestSent() {
+    this.requests.incrementAndGet();
+  }
+
+  void connectionOpened() {
+    this.newConnections.incrementAndGet();
+  }
+
+  /**
+   * Returns the number of HTTP requests sent, including registration and
+   * long polls.
+   *
+   * @return the number of HTTP requests sent
+   */
+  public long getRequestCount() {
+    return this.requests.get();
+  }
+
+  /**
+   * Returns whether new connections are counted, this is the case for
+   * {@code https} only.
+   *
+   * @return whether {@link #getNewConnectionCount()} and
+   *         {@link #getReusedConnectionCount()} are available
+   */
+  public boolean isConnectionCountAvailable() {
+    return this.connectionsCounted;
+  }
+
+  /**
+   * Returns the number of new TLS connections opened.
+   *
+   * @return the number of new connections, {@code -1} for {@code http}
+   */
+  public long getNewConnectionCount() {
+    if (!this.connectionsCounted) {
+      return -1L;
+    }
+    return this.newConnections.get();
+  }
+
+  /**
+   * Returns the number of requests that reused a kept alive connection.
+   *
+   * @return the number of reused connections, {@code -1} for {@code http}
+   */
+  public long getReusedConnectionCount() {
+    if (!this.connectionsCounted) {
+      return -1L;
+    }
+    // read connections first, a concurrent request is counted before its connection
+    long connections = this.newConnections.get();
+    return Math.max(0L, this.requests.get() - connections);
+  }
+
+  @Override
+  public String toString() {
+    if (!this.connectionsCounted) {
+      return "requests: " + this.getRequestCount() + ", connections: not counted, https only";
+    }
+    return "requests: " + this.getRequestCount()
+        + ", new connections: " + this.getNewConnectionCount()
+        + ", reused connections: " + this.getReusedConnectionCount();
+  }
+
+}
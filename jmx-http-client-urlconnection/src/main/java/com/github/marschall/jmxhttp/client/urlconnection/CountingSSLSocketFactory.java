@@ -0,0 +1,79 @@
+package com.github.marschall.jmxhttp.client.urlconnection;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Delegates to an other {@link SSLSocketFactory} and counts the sockets it
+ * creates.
+ * <p>
+ * {@link javax.net.ssl.HttpsURLConnection} only reuses kept alive
+ * connections created by the same socket factory instance, a single
+ * instance has to be used for all requests of a connector.
+ */
+final class CountingSSLSocketFactory extends SSLSocketFactory {
+
+  private final SSLSocketFactory delegate;
+  private final ConnectionStatistics statistics;
+
+  CountingSSLSocketFactory(SSLSocketFactory delegate, ConnectionStatistics statistics) {
+    this.delegate = delegate;
+    this.statistics = statistics;
+  }
+
+  @Override
+  public String[] getDefaultCipherSuites() {
+    return this.delegate.getDefaultCipherSuites();
+  }
+
+  @Override
+  public String[] getSupportedCipherSuites() {
+    return this.delegate.getSupportedCipherSuites();
+  }
+
+  @Override
+  public Socket createSocket() throws IOException {
+    Socket socket = this.delegate.createSocket();
+    this.statistics.connectionOpened();
+    return socket;
+  }
+
+  @Override
+  public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+    Socket socket = this.delegate.createSocket(s, host, port, autoClose);
+    this.statistics.connectionOpened();
+    return socket;
+  }
+
+  @Override
+  public Socket createSocket(String host, int port) throws IOException {
+    Socket socket = this.delegate.createSocket(host, port);
+    this.statistics.connectionOpened();
+    return socket;
+  }
+
+  @Override
+  public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+    Socket socket = this.delegate.createSocket(host, port, localHost, localPort);
+    this.statistics.connectionOpened();
+    return socket;
+  }
+
+  @Override
+  public Socket createSocket(InetAddress host, int port) throws IOException {
+    Socket socket = this.delegate.createSocket(host, port);
+    this.statistics.connectionOpened();
+    return socket;
+  }
+
+  @Override
+  public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+    Socket socket = this.delegate.createSocket(address, port, localAddress, localPort);
+    this.statistics.connectionOpened();
+    return socket;
+  }
+
+}
@@ -0,0 +1,109 @@
+package com.github.marschall.jmxhttp.client.urlconnection;
+
+import static com.github.marschall.jmxhttp.common.http.HttpConstant.EVENT_NOTIFICATIONS_LOST;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the server-sent events of a notification stream.
+ * <p>
+ * Only the parts of the format used by the servlet are supported, lines
+ * are expected to be ASCII. Comments and unknown fields are ignored, an
+ * event not terminated by an empty line when the stream ends is discarded.
+ */
+final class EventStreamReader {
+
+  private final InputStream in;
+
+  private final EventHandler handler;
+
+  private final StringBuilder buffer;
+
+  EventStreamReader(InputStream in, EventHandler handler) {
+    this.in = in;
+    this.handler = handler;
+    this.buffer = new StringBuilder();
+  }
+
+  /**
+   * Reads events until the end of the stream.
+   */
+  void read() throws IOException {
+    StringBuilder data = new StringBuilder();
+    String event = null;
+    String id = null;
+    String line = this.readLine();
+    while (line != null) {
+      if (line.isEmpty()) {
+        // end of event
+        if (EVENT_NOTIFICATIONS_LOST.equals(event)) {
+          this.handler.notificationsLost(data.toString());
+        } else if (data.length() > 0) {
+          this.handler.notifications(data.toString(), id);
+        }
+        data.setLength(0);
+        event = null;
+        id = null;
+      } else if (line.startsWith("data:")) {
+        data.append(line, fieldValueStart(line, 5), line.length());
+      } else if (line.startsWith("event:")) {
+        event = line.substring(fieldValueStart(line, 6));
+      } else if (line.startsWith("id:")) {
+        id = line.substring(fieldValueStart(line, 3));
+      }
+      // comments and other fields are ignored
+      line = this.readLine();
+    }
+  }
+
+  private static int fieldValueStart(String line, int colon) {
+    // a single space after the colon is not part of the value
+    return line.length() > colon && line.charAt(colon) == ' ' ? colon + 1 : colon;
+  }
+
+  /**
+   * Reads a line of an event stream.
+   *
+   * @return the line without terminator, {@code null} at the end of the stream
+   */
+  private String readLine() throws IOException {
+    this.buffer.setLength(0);
+    int read = this.in.read();
+    if (read == -1) {
+      return null;
+    }
+    while (read != -1 && read != '\n') {
+      if (read != '\r') {
+        this.buffer.append((char) read);
+      }
+      read = this.in.read();
+    }
+    return this.buffer.toString();
+  }
+
+  /**
+   * Receives the events of a notification stream.
+   */
+  interface EventHandler {
+
+    /**
+     * Called for an event with notifications.
+     *
+     * @param data the Base64 encoded notifications
+     * @param id the sequence number of the last notification, may be
+     *           {@code null}
+     */
+    void notifications(String data, String id) throws IOException;
+
+    /**
+     * Called for a {@value com.github.marschall.jmxhttp.common.http.HttpConstant#EVENT_NOTIFICATIONS_LOST}
+     * event.
+     *
+     * @param lost the total number of notifications lost
+     */
+    void notificationsLost(String lost);
+
+  }
+
+}
@@ -1,31 +1,27 @@
 package com.github.marschall.jmxhttp.client.urlconnection;
 
+import static com.github.marschall.jmxhttp.client.urlconnection.UrlConnectionUtil.discardResponse;
 import static com.github.marschall.jmxhttp.client.urlconnection.UrlConnectionUtil.readResponseAsObject;
-import static com.github.marschall.jmxhttp.common.http.HttpConstant.ACTION_LISTEN;
-import static com.github.marschall.jmxhttp.common.http.HttpConstant.JAVA_SERIALIZED_OBJECT;
-import static com.github.marschall.jmxhttp.common.http.HttpConstant.PARAMETER_ACTION;
-import static com.github.marschall.jmxhttp.common.http.HttpConstant.PARAMETER_CORRELATION_ID;
+import static com.github.marschall.jmxhttp.common.http.HttpConstant.EVENT_STREAM;
+import static com.github.marschall.jmxhttp.common.http.HttpConstant.HEADER_DICTIONARY_ACKNOWLEDGEMENT;
+import static com.github.marschall.jmxhttp.common.http.HttpConstant.HEADER_NOTIFICATIONS_LOST;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.invoke.MethodHandles;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.SocketTimeoutException;
 import java.net.URL;
-import java.util.HashMap;
-import java.util.IdentityHashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.MissingResourceException;
-import java.util.NoSuchElementException;
-import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -42,9 +38,8 @@ import javax.management.ListenerNotFoundException;
 import javax.management.MBeanException;
 import javax.management.MBeanInfo;
 import javax.management.MBeanRegistrationException;
-import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerDelegate;
 import javax.management.NotCompliantMBeanException;
-import javax.management.Notification;
 import javax.management.NotificationFilter;
 import javax.management.NotificationListener;
 import javax.management.ObjectInstance;
@@ -52,8 +47,18 @@ import javax.management.ObjectName;
 import javax.management.QueryExp;
 import javax.management.ReflectionException;
 
+import com.github.marschall.jmxhttp.client.urlconnection.CommandPipeline.CommandSender;
+import com.github.marschall.jmxhttp.client.urlconnection.EventStreamReader.EventHandler;
+import com.github.marschall.jmxhttp.common.client.ClientCodec;
+import com.github.marschall.jmxhttp.common.client.ClientCodec.RequestBody;
+import com.github.marschall.jmxhttp.common.client.ListenerRegistry;
+import com.github.marschall.jmxhttp.common.client.RequestUrls;
+import com.github.marschall.jmxhttp.common.command.AddAttributeSampling;
+import com.github.marschall.jmxhttp.common.command.AddAttributeWatch;
 import com.github.marschall.jmxhttp.common.command.AddNotificationListener;
 import com.github.marschall.jmxhttp.common.command.AddNotificationListenerRemote;
+import com.github.marschall.jmxhttp.common.command.BatchCommand;
+import com.github.marschall.jmxhttp.common.command.BatchResult;
 import com.github.marschall.jmxhttp.common.command.Command;
 import com.github.marschall.jmxhttp.common.command.CreateMBean;
 import com.github.marschall.jmxhttp.common.command.GetAttribute;
@@ -66,62 +71,97 @@ import com.github.marschall.jmxhttp.common.command.GetObjectInstance;
 import com.github.marschall.jmxhttp.common.command.Invoke;
 import com.github.marschall.jmxhttp.common.command.IsInstanceOf;
 import com.github.marschall.jmxhttp.common.command.IsRegistered;
+import com.github.marschall.jmxhttp.common.command.QueryAttributes;
 import com.github.marschall.jmxhttp.common.command.QueryMBeans;
 import com.github.marschall.jmxhttp.common.command.QueryNames;
 import com.github.marschall.jmxhttp.common.command.RemoveNotificationListener;
 import com.github.marschall.jmxhttp.common.command.RemoveNotificationListenerRemote;
 import com.github.marschall.jmxhttp.common.command.SetAttribute;
 import com.github.marschall.jmxhttp.common.command.SetAttributes;
+import com.github.marschall.jmxhttp.common.command.Threshold;
 import com.github.marschall.jmxhttp.common.command.UnregisterMBean;
+import com.github.marschall.jmxhttp.common.http.ContentEncoding;
+import com.github.marschall.jmxhttp.common.http.JmxHttpMBeanServerConnection;
 import com.github.marschall.jmxhttp.common.http.Registration;
-import com.github.marschall.jmxhttp.common.http.RemoteNotification;
 
 
 /**
  * The actual client to server connection happens where, delegates to
  * {@link HttpURLConnection}.
  */
-final class JmxHttpConnection implements MBeanServerConnection {
+final class JmxHttpConnection implements JmxHttpMBeanServerConnection, CommandSender {
 
   private static final int FUDGE = (int) TimeUnit.SECONDS.toMillis(1L);
 
   private static final Logger LOG = Logger.getLogger(MethodHandles.lookup().lookupClass().getName());
 
   private final Registration registration;
-  private final URL url;
+  private final String url;
   private final URL actionUrl;
-  private final URL listenUrl;
+  private final boolean notificationStreaming;
   private final Optional<String> credentials;
-  private final ClassLoader classLoader;
+  private final ClientCodec codec;
   private final Notifier notifier;
+  private final ConnectionManager connections;
   private final Thread pollerThread;
-
-  private final Lock idLock;
-  private final Map<Long, NotificationListener> listeners;
-  private final Map<NotificationListener, Long> listenersToId;
-  private long listenerIdGenerator;
-  private final Map<Long, Object> handbacks;
-  private final Map<Object, Long> handbacksToId;
-  private long handbackIdGenerator;
-
-
-  protected JmxHttpConnection(int id, Registration registration, URL url, Optional<String> credentials, Notifier notifier) throws MalformedURLException {
+  private volatile HttpURLConnection listenConnection;
+  // only accessed by #pollerThread
+  private long lostNotifications;
+  // only accessed by #pollerThread
+  private long lastSequenceNumber;
+  private final CommandPipeline pipeline;
+  /**
+   * {@code null} if names are not mirrored.
+   */
+  private final RegistryMirror registryMirror;
+  /**
+   * {@code null} if {@link MBeanInfo}s are not cached.
+   */
+  private final MBeanInfoCache mBeanInfoCache;
+  private final ListenerRegistry listeners;
+
+  protected JmxHttpConnection(int id, Registration registration, URL url, Optional<String> credentials, Notifier notifier, ConnectionSettings settings, ContentEncoding requestEncoding, ConnectionManager connections) throws MalformedURLException {
     this.registration = registration;
-    this.url = url;
-    this.actionUrl = new URL(this.url.toString() + '?' + PARAMETER_CORRELATION_ID + '=' + registration.getCorrelationId());
-    this.listenUrl = new URL(this.url.toString() + '?' + PARAMETER_CORRELATION_ID + '=' + registration.getCorrelationId() + '&' + PARAMETER_ACTION + '=' + ACTION_LISTEN);
+    this.url = url.toString();
+    this.actionUrl = new URL(RequestUrls.command(this.url, registration.getCorrelationId()));
+    this.notificationStreaming = settings.isNotificationStreaming();
     this.credentials = credentials;
-    this.classLoader = JmxHttpConnection.class.getClassLoader();
+    this.codec = new ClientCodec(settings.getCodec(), settings.getAcceptEncoding(), requestEncoding,
+        settings.getRequestCompressionThreshold(), JmxHttpConnection.class.getClassLoader());
     this.notifier = notifier;
+    this.connections = connections;
     this.pollerThread = new Thread(this::listenLoop, "Long-Poll-Client for " + id);
+    this.listeners = new ListenerRegistry();
+    this.pipeline = new CommandPipeline(this, settings.getAsyncExecutor(), settings.getAsyncMaxRequests(), settings.getAsyncMaxBatchSize());
+    if (settings.isRegistryMirror()) {
+      this.registryMirror = new RegistryMirror(() -> this.queryNamesRemote(null, null));
+    } else {
+      this.registryMirror = null;
+    }
+    if (settings.getMBeanInfoCacheSize() > 0) {
+      this.mBeanInfoCache = new MBeanInfoCache(settings.getMBeanInfoCacheSize(), settings.isMBeanInfoCacheRevalidate());
+    } else {
+      this.mBeanInfoCache = null;
+    }
+    // last, the poller uses all the fields assigned above
     this.pollerThread.start();
-    this.listeners = new HashMap<>();
-    this.listenersToId = new IdentityHashMap<>();
-    this.listenerIdGenerator = 0L;
-    this.handbacks = new HashMap<>();
-    this.handbacksToId = new IdentityHashMap<>();
-    this.handbackIdGenerator = 0L;
-    this.idLock = new ReentrantLock();
+  }
+
+  /**
+   * Starts keeping the registry mirror and the {@link MBeanInfo} cache up to
+   * date, has to be called before the first query.
+   */
+  void startRegistrationListeners() throws IOException {
+    try {
+      if (this.registryMirror != null) {
+        this.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, this.registryMirror, null, null);
+      }
+      if (this.mBeanInfoCache != null) {
+        this.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, this.mBeanInfoCache, MBeanInfoCache.newFilter(), null);
+      }
+    } catch (InstanceNotFoundException e) {
+      throw new IOException("could not listen to MBean registrations", e);
+    }
   }
 
   Optional<String> getCredentials() {
@@ -135,7 +175,7 @@ final class JmxHttpConnection implements MBeanServerConnection {
   @Override
   public ObjectInstance createMBean(String className, ObjectName name) throws ReflectionException, InstanceAlreadyExistsException, MBeanRegistrationException, MBeanException, NotCompliantMBeanException, IOException {
     try {
-      return send(new CreateMBean(className, name, null, null, null));
+      return this.sendRegistryChange(new CreateMBean(className, name, null, null, null), name);
     } catch (ReflectionException | InstanceAlreadyExistsException | MBeanException | NotCompliantMBeanException e) {
       throw e;
     } catch (JMException e) {
@@ -146,7 +186,7 @@ final class JmxHttpConnection implements MBeanServerConnection {
   @Override
   public ObjectInstance createMBean(String className, ObjectName name, ObjectName loaderName) throws ReflectionException, InstanceAlreadyExistsException, MBeanRegistrationException, MBeanException, NotCompliantMBeanException, InstanceNotFoundException, IOException {
     try {
-      return send(new CreateMBean(className, name, loaderName, null, null));
+      return this.sendRegistryChange(new CreateMBean(className, name, loaderName, null, null), name);
     } catch (ReflectionException | InstanceAlreadyExistsException | MBeanException | NotCompliantMBeanException | InstanceNotFoundException e) {
       throw e;
     } catch (JMException e) {
@@ -157,7 +197,7 @@ final class JmxHttpConnection implements MBeanServerConnection {
   @Override
   public ObjectInstance createMBean(String className, ObjectName name, Object[] params, String[] signature) throws ReflectionException, InstanceAlreadyExistsException, MBeanRegistrationException, MBeanException, NotCompliantMBeanException, IOException {
     try {
-      return send(new CreateMBean(className, name, null, params, signature));
+      return this.sendRegistryChange(new CreateMBean(className, name, null, params, signature), name);
     } catch (ReflectionException | InstanceAlreadyExistsException | MBeanException | NotCompliantMBeanException e) {
       throw e;
     } catch (JMException e) {
@@ -168,7 +208,7 @@ final class JmxHttpConnection implements MBeanServerConnection {
   @Override
   public ObjectInstance createMBean(String className, ObjectName name, ObjectName loaderName, Object[] params, String[] signature) throws ReflectionException, InstanceAlreadyExistsException, MBeanRegistrationException, MBeanException, NotCompliantMBeanException, InstanceNotFoundException, IOException {
     try {
-      return send(new CreateMBean(className, name, loaderName, params, signature));
+      return this.sendRegistryChange(new CreateMBean(className, name, loaderName, params, signature), name);
     } catch (ReflectionException | InstanceAlreadyExistsException | MBeanException | NotCompliantMBeanException | InstanceNotFoundException e) {
       throw e;
     } catch (JMException e) {
@@ -179,7 +219,7 @@ final class JmxHttpConnection implements MBeanServerConnection {
   @Override
   public void unregisterMBean(ObjectName name) throws InstanceNotFoundException, MBeanRegistrationException, IOException {
     try {
-      send(new UnregisterMBean(name));
+      this.sendRegistryChange(new UnregisterMBean(name), name);
     } catch (InstanceNotFoundException | MBeanRegistrationException e) {
       throw e;
     } catch (JMException e) {
@@ -187,6 +227,44 @@ final class JmxHttpConnection implements MBeanServerConnection {
     }
   }
 
+  /**
+   * Sends a command registering or unregistering an MBean and keeps the
+   * registry mirror from answering with the state before the change.
+   */
+  private <R> R sendRegistryChange(Command<R> command, ObjectName name) throws JMException, IOException {
+    RegistryMirror mirror = this.registryMirror;
+    if (mirror == null) {
+      return send(command);
+    }
+    if (name == null || name.isPattern() || name.getDomain().isEmpty()) {
+      // the server completes the name, the notification can not be matched
+      try {
+        return send(command);
+      } finally {
+        mirror.invalidate();
+      }
+    }
+    mirror.changing(name);
+    try {
+      return send(command);
+    } catch (MBeanRegistrationException e) {
+      // thrown by the MBean, it may be registered nevertheless
+      mirror.invalidate();
+      throw e;
+    } catch (JMException e) {
+      mirror.changeFailed(name);
+      throw e;
+    } catch (IOException | RuntimeException e) {
+      // the server may have executed the command
+      mirror.invalidate();
+      throw e;
+    }
+  }
+
+  private static boolean changesRegistry(Command<?> command) {
+    return command instanceof CreateMBean || command instanceof UnregisterMBean;
+  }
+
   @Override
   public ObjectInstance getObjectInstance(ObjectName name) throws InstanceNotFoundException, IOException {
     try {
@@ -209,6 +287,16 @@ final class JmxHttpConnection implements MBeanServerConnection {
 
   @Override
   public Set<ObjectName> queryNames(ObjectName name, QueryExp query) throws IOException {
+    if (this.registryMirror != null && query == null) {
+      Set<ObjectName> names = this.registryMirror.queryNames(name);
+      if (names != null) {
+        return names;
+      }
+    }
+    return this.queryNamesRemote(name, query);
+  }
+
+  private Set<ObjectName> queryNamesRemote(ObjectName name, QueryExp query) throws IOException {
     try {
       return send(new QueryNames(name, query));
     } catch (JMException e) {
@@ -218,6 +306,12 @@ final class JmxHttpConnection implements MBeanServerConnection {
 
   @Override
   public boolean isRegistered(ObjectName name) throws IOException {
+    if (this.registryMirror != null) {
+      Boolean registered = this.registryMirror.isRegistered(name);
+      if (registered != null) {
+        return registered;
+      }
+    }
     try {
       return send(new IsRegistered(name));
     } catch (JMException e) {
@@ -227,6 +321,12 @@ final class JmxHttpConnection implements MBeanServerConnection {
 
   @Override
   public Integer getMBeanCount() throws IOException {
+    if (this.registryMirror != null) {
+      Integer count = this.registryMirror.getMBeanCount();
+      if (count != null) {
+        return count;
+      }
+    }
     try {
       return send(new GetMBeanCount());
     } catch (JMException e) {
@@ -309,8 +409,8 @@ final class JmxHttpConnection implements MBeanServerConnection {
 
   @Override
   public void addNotificationListener(ObjectName name, NotificationListener listener, NotificationFilter filter, Object handback) throws InstanceNotFoundException, IOException {
-    long listenerId = this.registerListener(listener);
-    Long handbackId = this.registerHandback(handback);
+    long listenerId = this.listeners.registerListener(listener);
+    Long handbackId = this.listeners.registerHandback(handback);
     try {
       send(new AddNotificationListenerRemote(name, listenerId, filter, handbackId));
     } catch (InstanceNotFoundException e) {
@@ -320,6 +420,32 @@ final class JmxHttpConnection implements MBeanServerConnection {
     }
   }
 
+  @Override
+  public AttributeList addAttributeSampling(ObjectName name, String[] attributes, long periodMillis, NotificationListener listener, Object handback) throws InstanceNotFoundException, IOException {
+    long listenerId = this.listeners.registerListener(listener);
+    Long handbackId = this.listeners.registerHandback(handback);
+    try {
+      return send(new AddAttributeSampling(name, attributes, periodMillis, listenerId, handbackId));
+    } catch (InstanceNotFoundException e) {
+      throw e;
+    } catch (JMException e) {
+      throw newJmRuntimeException(e);
+    }
+  }
+
+  @Override
+  public boolean addAttributeWatch(ObjectName name, String attribute, Threshold threshold, long periodMillis, NotificationListener listener, Object handback) throws InstanceNotFoundException, IOException {
+    long listenerId = this.listeners.registerListener(listener);
+    Long handbackId = this.listeners.registerHandback(handback);
+    try {
+      return send(new AddAttributeWatch(name, attribute, threshold, periodMillis, listenerId, handbackId));
+    } catch (InstanceNotFoundException e) {
+      throw e;
+    } catch (JMException e) {
+      throw newJmRuntimeException(e);
+    }
+  }
+
   @Override
   public void addNotificationListener(ObjectName name, ObjectName listener, NotificationFilter filter, Object handback) throws InstanceNotFoundException, IOException {
     try {
@@ -355,7 +481,7 @@ final class JmxHttpConnection implements MBeanServerConnection {
 
   @Override
   public void removeNotificationListener(ObjectName name, NotificationListener listener) throws IOException, InstanceNotFoundException, ListenerNotFoundException {
-    long listenerId = this.getListenerId(listener);
+    long listenerId = this.listeners.getListenerId(listener);
     try {
       send(new RemoveNotificationListenerRemote(name, listenerId));
     } catch (InstanceNotFoundException | ListenerNotFoundException e) {
@@ -367,8 +493,8 @@ final class JmxHttpConnection implements MBeanServerConnection {
 
   @Override
   public void removeNotificationListener(ObjectName name, NotificationListener listener, NotificationFilter filter, Object handback) throws IOException, InstanceNotFoundException, ListenerNotFoundException {
-    long listenerId = this.getListenerId(listener);
-    Long handbackId = this.getHandbackId(handback);
+    long listenerId = this.listeners.getListenerId(listener);
+    Long handbackId = this.listeners.getHandbackId(handback);
     try {
       send(new RemoveNotificationListenerRemote(name, listenerId, filter, handbackId));
     } catch (InstanceNotFoundException | ListenerNotFoundException e) {
@@ -380,6 +506,25 @@ final class JmxHttpConnection implements MBeanServerConnection {
 
   @Override
   public MBeanInfo getMBeanInfo(ObjectName name) throws InstanceNotFoundException, IntrospectionException, ReflectionException, IOException {
+    if (this.mBeanInfoCache == null) {
+      return this.getMBeanInfoRemote(name);
+    }
+    MBeanInfo cached = this.mBeanInfoCache.get(name);
+    if (cached != null) {
+      if (!this.mBeanInfoCache.isRevalidate()
+              || cached.getClassName().equals(this.getObjectInstance(name).getClassName())) {
+        return cached;
+      }
+      // another MBean was registered under the same name
+      this.mBeanInfoCache.remove(name);
+    }
+    long generation = this.mBeanInfoCache.getGeneration();
+    MBeanInfo info = this.getMBeanInfoRemote(name);
+    this.mBeanInfoCache.put(name, info, generation);
+    return info;
+  }
+
+  private MBeanInfo getMBeanInfoRemote(ObjectName name) throws InstanceNotFoundException, IntrospectionException, ReflectionException, IOException {
     try {
       return send(new GetMBeanInfo(name));
     } catch (InstanceNotFoundException | IntrospectionException | ReflectionException e) {
@@ -400,12 +545,53 @@ final class JmxHttpConnection implements MBeanServerConnection {
     }
   }
 
+  @Override
+  public List<BatchResult> executeBatch(List<? extends Command<?>> commands) throws IOException {
+    if (commands.isEmpty()) {
+      return Collections.emptyList();
+    }
+    try {
+      return send(new BatchCommand(commands));
+    } catch (JMException e) {
+      throw newJmRuntimeException(e);
+    } finally {
+      if (this.registryMirror != null && commands.stream().anyMatch(JmxHttpConnection::changesRegistry)) {
+        // the mirror must not answer with the state before the batch
+        this.registryMirror.invalidate();
+      }
+    }
+  }
+
+  @Override
+  public Map<ObjectName, BatchResult> queryAttributes(ObjectName name, QueryExp query, String[] attributes) throws IOException {
+    try {
+      return send(new QueryAttributes(name, query, attributes));
+    } catch (JMException e) {
+      throw newJmRuntimeException(e);
+    }
+  }
+
+  @Override
+  public <R> CompletableFuture<R> executeAsync(Command<R> command) {
+    CompletableFuture<R> result = this.pipeline.submit(command);
+    if (this.registryMirror != null && changesRegistry(command)) {
+      // like for batches
+      return result.whenComplete((value, exception) -> this.registryMirror.invalidate());
+    }
+    return result;
+  }
+
   void close() {
     // REVIEW join?
     this.pollerThread.interrupt();
+    HttpURLConnection pendingPoll = this.listenConnection;
+    if (pendingPoll != null) {
+      // interrupting does not abort a blocking read, the socket can't be reused anyway
+      pendingPoll.disconnect();
+    }
+    this.pipeline.close();
     // REVIEW unregister?
     this.listeners.clear();
-    this.handbacks.clear();
   }
 
   private JMRuntimeException newJmRuntimeException(JMException e) {
@@ -415,20 +601,35 @@ final class JmxHttpConnection implements MBeanServerConnection {
   }
 
   private <R> R sendProtected(Command<R> command) throws IOException, JMException {
-    HttpURLConnection urlConnection = this.openConnection();
+    RequestBody body = this.codec.encode(command);
+    this.connections.acquire();
     try {
-      try (OutputStream out = urlConnection.getOutputStream();
-          ObjectOutputStream stream = new ObjectOutputStream(out)) {
-        stream.writeObject(command);
-      }
+      HttpURLConnection urlConnection = this.openConnection();
+      try {
+        String contentEncoding = body.getContentEncoding();
+        if (contentEncoding != null) {
+          urlConnection.setRequestProperty("Content-Encoding", contentEncoding);
+        }
+        urlConnection.setFixedLengthStreamingMode(body.size());
+        try (OutputStream out = urlConnection.getOutputStream()) {
+          body.writeTo(out);
+        }
 
-      return (R) readResponseAsObject(urlConnection, this.classLoader);
+        // no #disconnect(), the response has been read completely and the
+        // connection goes back to the keep-alive cache
+        return (R) readResponseAsObject(urlConnection, this.codec);
+      } catch (IOException e) {
+        // the exchange may have been aborted half way, don't reuse the connection
+        urlConnection.disconnect();
+        throw e;
+      }
     } finally {
-      urlConnection.disconnect();
+      this.connections.release();
     }
   }
 
-  private <R> R send(Command<R> command) throws IOException, JMException {
+  @Override
+  public <R> R send(Command<R> command) throws IOException, JMException {
     try {
       return this.sendProtected(command);
     } catch (IOException e) {
@@ -444,191 +645,265 @@ final class JmxHttpConnection implements MBeanServerConnection {
 
   private HttpURLConnection openConnection() throws IOException {
     // can only be set once
-    HttpURLConnection urlConnection = (HttpURLConnection) this.actionUrl.openConnection();
+    HttpURLConnection urlConnection = this.connections.open(this.actionUrl);
     urlConnection.setDoOutput(true);
-    urlConnection.setChunkedStreamingMode(0);
     urlConnection.setRequestMethod("POST");
     if (credentials.isPresent()) {
       urlConnection.setRequestProperty("Authorization", credentials.get());
     }
-    urlConnection.setRequestProperty("Content-type", JAVA_SERIALIZED_OBJECT);
+    urlConnection.setRequestProperty("Content-type", this.codec.getContentType());
+    urlConnection.setRequestProperty("Accept", this.codec.getContentType());
+    urlConnection.setRequestProperty("Accept-Encoding", this.codec.getAcceptEncoding());
+    urlConnection.setRequestProperty(HEADER_DICTIONARY_ACKNOWLEDGEMENT, this.codec.getAcknowledgement());
     return urlConnection;
   }
 
   private HttpURLConnection openListenConnection() throws IOException {
-    HttpURLConnection urlConnection = (HttpURLConnection) this.listenUrl.openConnection();
+    // acknowledges the notifications received so far
+    HttpURLConnection urlConnection = this.connections.open(new URL(RequestUrls.listen(this.url, this.getCorrelationId(), this.lastSequenceNumber)));
     if (credentials.isPresent()) {
       urlConnection.setRequestProperty("Authorization", credentials.get());
     }
+    urlConnection.setRequestProperty("Accept", this.codec.getContentType());
+    urlConnection.setRequestProperty("Accept-Encoding", this.codec.getAcceptEncoding());
+    urlConnection.setRequestProperty(HEADER_DICTIONARY_ACKNOWLEDGEMENT, this.codec.getAcknowledgement());
+    int timeout = Math.max(0, (int) this.registration.getTimeoutMilliseconds() + FUDGE);
+    urlConnection.setReadTimeout(timeout);
+    return urlConnection;
+  }
+
+  private HttpURLConnection openStreamConnection() throws IOException {
+    HttpURLConnection urlConnection = this.connections.open(new URL(RequestUrls.stream(this.url, this.getCorrelationId(), this.lastSequenceNumber)));
+    if (credentials.isPresent()) {
+      urlConnection.setRequestProperty("Authorization", credentials.get());
+    }
+    urlConnection.setRequestProperty("Accept", EVENT_STREAM + ", " + this.codec.getContentType());
+    urlConnection.setRequestProperty("Accept-Encoding", this.codec.getAcceptEncoding());
+    urlConnection.setRequestProperty(HEADER_DICTIONARY_ACKNOWLEDGEMENT, this.codec.getAcknowledgement());
+    // the server ends the stream after the poll timeout
     int timeout = Math.max(0, (int) this.registration.getTimeoutMilliseconds() + FUDGE);
     urlConnection.setReadTimeout(timeout);
     return urlConnection;
   }
 
   private void listenLoop() {
+    boolean streaming = this.notificationStreaming;
     while (!Thread.currentThread().isInterrupted()) {
-      HttpURLConnection urlConnection;
-      try {
-        urlConnection = this.openListenConnection();
-      } catch (IOException e) {
-        // TODO connection listeners?
-        LOG.log(Level.WARNING, "could not open listen loop, notifications will be dropped", e);
-        return;
-      }
-      try {
-        Object response;
-        try {
-          response = readResponseAsObject(urlConnection, classLoader);
-        } catch (SocketTimeoutException e) {
-          LOG.log(Level.FINE, "long poll read timeout", e);
-          continue;
-        } catch (IOException e) {
-          // TODO connection listeners?
-          LOG.log(Level.WARNING, "could not read response", e);
-          // we should not go into a spin loop eg. when a server or network error happens
-          // or eg the server is no longer available
-          // this should not happen if the listener or handback is not serializable because
-          // we don't send them to the server
-          // disconnect in this case and make the UI read only
-          this.notifier.exceptionOccurred(e);
-          break;
-        } catch (JMException e) {
-          // REVIEW break as well?
-          LOG.log(Level.WARNING, "could not read response", e);
-          continue;
+      if (streaming) {
+        StreamOutcome outcome = this.readStream();
+        switch (outcome) {
+          case ENDED:
+            // the server ends streams after the poll timeout, open the next one
+            continue;
+          case CUT:
+            // the stream may be cut by a proxy, poll once and try again
+            break;
+          case UNSUPPORTED:
+            LOG.log(Level.INFO, "server does not support notification streaming, falling back to long polling");
+            streaming = false;
+            break;
+          case CLOSED:
+            return;
+          default:
+            throw new IllegalStateException("unknown outcome: " + outcome);
         }
-        if (response instanceof List) {
-          List<?> notifications = (List<?>) response;
-          for (Object each : notifications) {
-            if (each instanceof RemoteNotification) {
-              RemoteNotification notification = (RemoteNotification) each;
-              sendNotification(notification.getNotification(), notification.getListenerId(), notification.getObjectId());
-            } else {
-              if (each != null) {
-                LOG.log(Level.WARNING, "notifaction ignored, has to be " + RemoteNotification.class + " but was " + each.getClass());
-              } else {
-                LOG.log(Level.WARNING, "notifaction ignored, has to be " + RemoteNotification.class + " but was null");
-              }
-            }
-          }
-        } else {
-          if (response != null) {
-            LOG.log(Level.WARNING, "response ignored, has to be " + List.class + " but was " + response.getClass());
-          } else {
-            LOG.log(Level.WARNING, "response ignored, has to be " + List.class + " but was null");
-          }
-        }
-      } finally {
-        urlConnection.disconnect();
+      }
+      if (!this.poll()) {
+        return;
       }
     }
   }
 
-  private void sendNotification(Notification notification, long listenerId, Long handbackId) {
+  /**
+   * Performs a single long poll.
+   *
+   * @return whether polling should continue
+   */
+  private boolean poll() {
+    HttpURLConnection urlConnection;
     try {
-      NotificationListener listener = getListener(listenerId);
-      Object handback = getHandback(handbackId);
-      listener.handleNotification(notification, handback);
-    } catch (RuntimeException e) {
-      LOG.log(Level.WARNING, "exception occrred while delivering event to listener", e);
+      urlConnection = this.openListenConnection();
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "could not open listen loop, notifications will be dropped", e);
+      this.notifier.exceptionOccurred(e);
+      return false;
     }
-  }
-
-  private NotificationListener getListener(long listenerId) {
-    this.idLock.lock();
+    this.listenConnection = urlConnection;
     try {
-      NotificationListener listener = this.listeners.get(listenerId);
-      if (listener == null) {
-        System.out.println("no listener found for id: " + listenerId);
-        throw new NoSuchElementException("no listener found for id: " + listenerId);
+      Object response;
+      try {
+        response = readResponseAsObject(urlConnection, this.codec);
+      } catch (SocketTimeoutException e) {
+        LOG.log(Level.FINE, "long poll read timeout", e);
+        urlConnection.disconnect();
+        return true;
+      } catch (IOException e) {
+        urlConnection.disconnect();
+        if (Thread.currentThread().isInterrupted()) {
+          // #close() aborted the poll
+          return false;
+        }
+        LOG.log(Level.WARNING, "could not read response", e);
+        // we should not go into a spin loop eg. when a server or network error happens
+        // or eg the server is no longer available
+        // this should not happen if the listener or handback is not serializable because
+        // we don't send them to the server
+        // disconnect in this case and make the UI read only
+        this.notifier.exceptionOccurred(e);
+        return false;
+      } catch (JMException e) {
+        // REVIEW break as well?
+        LOG.log(Level.WARNING, "could not read response", e);
+        return true;
       }
-      return listener;
+      this.updateLostNotifications(urlConnection.getHeaderField(HEADER_NOTIFICATIONS_LOST));
+      this.deliverNotifications(response);
+      return true;
     } finally {
-      this.idLock.unlock();
+      this.listenConnection = null;
     }
   }
 
-  private long registerListener(NotificationListener listener) {
-    this.idLock.lock();
-    try {
-      Objects.requireNonNull(listener, "listener must not be null");
-      this.handbackIdGenerator += 1L;
-      long id = this.listenerIdGenerator;
-      NotificationListener previous = this.listeners.putIfAbsent(id, listener);
-      if (previous != null) {
-        System.out.println("listener " + listener + " already registered");
-        throw new IllegalArgumentException("listener " + listener + " already registered");
-      }
-      this.listenersToId.put(listener, id);
-      return id;
-    } finally {
-      this.idLock.unlock();
-    }
+  enum StreamOutcome {
+
+    /**
+     * The server ended the stream regularly.
+     */
+    ENDED,
+
+    /**
+     * The stream was interrupted, eg. by a proxy.
+     */
+    CUT,
+
+    /**
+     * The server does not support streaming.
+     */
+    UNSUPPORTED,
+
+    /**
+     * The connection was closed.
+     */
+    CLOSED;
   }
 
-  private Long registerHandback(Object handback) {
-    if (handback == null) {
-      return null;
+  private StreamOutcome readStream() {
+    HttpURLConnection urlConnection;
+    try {
+      urlConnection = this.openStreamConnection();
+    } catch (IOException e) {
+      LOG.log(Level.FINE, "could not open notification stream", e);
+      return StreamOutcome.CUT;
     }
-    this.idLock.lock();
+    this.listenConnection = urlConnection;
     try {
-      this.handbackIdGenerator += 1L;
-      long id = this.handbackIdGenerator;
-      Object previous = this.handbacks.putIfAbsent(id, handback);
-      if (previous != null) {
-        System.out.println("handback " + handback + " already registered");
-        throw new IllegalArgumentException("handback " + handback + " already registered");
+      int status = urlConnection.getResponseCode();
+      String contentType = urlConnection.getContentType();
+      if (status != 200 || contentType == null || !contentType.startsWith(EVENT_STREAM)) {
+        // older servers answer with 400 unknown action
+        discardResponse(urlConnection, status);
+        return StreamOutcome.UNSUPPORTED;
+      }
+      this.codec.acknowledge(urlConnection.getHeaderField(HEADER_DICTIONARY_ACKNOWLEDGEMENT));
+      ContentEncoding encoding = ContentEncoding.forContentEncoding(urlConnection.getHeaderField("Content-Encoding"));
+      if (encoding == null) {
+        urlConnection.disconnect();
+        return StreamOutcome.UNSUPPORTED;
+      }
+      // no Reader, InputStreamReader blocks for more data when InflaterInputStream#available() is 1
+      try (InputStream in = new BufferedInputStream(encoding.decode(new BufferedInputStream(urlConnection.getInputStream())))) {
+        this.readEvents(in);
+      }
+      return StreamOutcome.ENDED;
+    } catch (IOException e) {
+      urlConnection.disconnect();
+      if (Thread.currentThread().isInterrupted()) {
+        // #close() aborted the stream
+        return StreamOutcome.CLOSED;
       }
-      handbacksToId.put(handback, id);
-      return id;
+      LOG.log(Level.FINE, "notification stream cut", e);
+      return StreamOutcome.CUT;
     } finally {
-      this.idLock.unlock();
+      this.listenConnection = null;
     }
   }
 
-  private Object getHandback(Long handbackId) {
-    if (handbackId == null) {
-      return null;
-    }
-    this.idLock.lock();
-    try {
-      Object handback = this.handbacks.get(handbackId);
-      if (handback == null) {
-        System.out.println("no handback found for id: " + handbackId);
-        throw new NoSuchElementException("no handback found for id: " + handbackId);
+  private void readEvents(InputStream in) throws IOException {
+    new EventStreamReader(in, new EventHandler() {
+
+      @Override
+      public void notifications(String data, String id) throws IOException {
+        readEvent(data);
+        // also acknowledges notifications that could not be read
+        updateSequenceNumber(id);
       }
-      return handback;
-    } finally {
-      this.idLock.unlock();
+
+      @Override
+      public void notificationsLost(String lost) {
+        updateLostNotifications(lost);
+      }
+
+    }).read();
+  }
+
+  /**
+   * Raises {@link javax.management.remote.JMXConnectionNotification#NOTIFS_LOST}
+   * if the server discarded notifications since the last response.
+   *
+   * @param lost the total number of notifications lost as sent by the server,
+   *             may be {@code null}
+   */
+  private void updateLostNotifications(String lost) {
+    if (lost == null) {
+      return;
+    }
+    long total;
+    try {
+      total = Long.parseLong(lost.trim());
+    } catch (NumberFormatException e) {
+      LOG.log(Level.WARNING, "invalid number of lost notifications: " + lost);
+      return;
+    }
+    if (total > this.lostNotifications) {
+      long count = total - this.lostNotifications;
+      this.lostNotifications = total;
+      LOG.log(Level.FINE, "server lost " + count + " notifications");
+      if (this.registryMirror != null) {
+        // may have missed registrations
+        this.registryMirror.notificationsLost();
+      }
+      if (this.mBeanInfoCache != null) {
+        this.mBeanInfoCache.notificationsLost();
+      }
+      this.notifier.notificationsLost(count);
     }
   }
 
-  private long getListenerId(NotificationListener listener) throws ListenerNotFoundException {
-    this.idLock.lock();
+  private void updateSequenceNumber(String id) {
+    if (id == null) {
+      return;
+    }
     try {
-      Long id = this.listenersToId.get(listener);
-      if (id == null) {
-        throw new ListenerNotFoundException("listener: " + listener + " not found");
-      }
-      return id;
-    } finally {
-      this.idLock.unlock();
+      this.lastSequenceNumber = Math.max(this.lastSequenceNumber, Long.parseLong(id.trim()));
+    } catch (NumberFormatException e) {
+      LOG.log(Level.WARNING, "invalid event id: " + id);
     }
   }
-  private Long getHandbackId(Object handback) throws ListenerNotFoundException {
-    if (handback == null) {
-      return null;
-    }
-    this.idLock.lock();
+
+  private void readEvent(String data) throws IOException {
+    Object response;
     try {
-      Long id = this.handbacksToId.get(handback);
-      if (id == null) {
-        throw new ListenerNotFoundException("handback: " + handback + " not found");
-      }
-      return id;
-    } finally {
-      this.idLock.unlock();
+      response = this.codec.readEvent(data);
+    } catch (ClassNotFoundException e) {
+      // the event has been read completely, the stream is still usable
+      LOG.log(Level.WARNING, "notifications ignored, class not found", e);
+      return;
     }
+    this.deliverNotifications(response);
+  }
+
+  private void deliverNotifications(Object response) {
+    this.lastSequenceNumber = this.listeners.deliver(response, this.lastSequenceNumber);
   }
 
 }
@@ -1,10 +1,7 @@
 package com.github.marschall.jmxhttp.client.urlconnection;
 
+import static com.github.marschall.jmxhttp.client.urlconnection.UrlConnectionUtil.discardResponse;
 import static com.github.marschall.jmxhttp.client.urlconnection.UrlConnectionUtil.readResponseAsObject;
-import static com.github.marschall.jmxhttp.common.http.HttpConstant.ACTION_REGISTER;
-import static com.github.marschall.jmxhttp.common.http.HttpConstant.ACTION_UNREGISTER;
-import static com.github.marschall.jmxhttp.common.http.HttpConstant.PARAMETER_ACTION;
-import static com.github.marschall.jmxhttp.common.http.HttpConstant.PARAMETER_CORRELATION_ID;
 import static java.nio.charset.StandardCharsets.US_ASCII;
 
 import java.io.IOException;
@@ -14,12 +11,8 @@ import java.net.URL;
 import java.security.AccessControlContext;
 import java.security.AccessController;
 import java.security.Principal;
-import java.util.ArrayList;
 import java.util.Base64;
-import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.BlockingDeque;
@@ -39,8 +32,12 @@ import javax.management.NotificationListener;
 import javax.management.remote.JMXConnectionNotification;
 import javax.management.remote.JMXConnector;
 import javax.management.remote.JMXPrincipal;
+import javax.net.ssl.HttpsURLConnection;
 import javax.security.auth.Subject;
 
+import com.github.marschall.jmxhttp.common.client.ConnectionListeners;
+import com.github.marschall.jmxhttp.common.client.RequestUrls;
+import com.github.marschall.jmxhttp.common.http.ContentEncoding;
 import com.github.marschall.jmxhttp.common.http.Registration;
 
 /**
@@ -71,6 +68,14 @@ final class JmxHttpConnector implements JMXConnector {
 
   private JmxHttpConnection mBeanServerConnection;
 
+  private ContentEncoding requestEncoding;
+
+  private final ConnectionStatistics statistics;
+
+  private final CountingSSLSocketFactory sslSocketFactory;
+
+  private ConnectionManager connections;
+
   private final ListenerNotifier notifier;
 
   JmxHttpConnector(URL url) {
@@ -80,6 +85,14 @@ final class JmxHttpConnector implements JMXConnector {
     this.state = State.INITIAL;
     this.notifier = new ListenerNotifier();
     this.sequenceNumberGenerator = new AtomicLong(0L);
+    boolean https = "https".equals(url.getProtocol());
+    this.statistics = new ConnectionStatistics(https);
+    // has to be the same instance for all requests, otherwise connections are not reused
+    this.sslSocketFactory = https ? new CountingSSLSocketFactory(HttpsURLConnection.getDefaultSSLSocketFactory(), this.statistics) : null;
+  }
+
+  ConnectionStatistics getConnectionStatistics() {
+    return this.statistics;
   }
 
   @Override
@@ -100,21 +113,26 @@ final class JmxHttpConnector implements JMXConnector {
 
       this.state = State.CONNECTED;
       Optional<String> credentials = extractCredentials(env);
-      Registration registration = getRegistration(credentials);
-      this.mBeanServerConnection = new JmxHttpConnection(this.id, registration, this.url, credentials, this.notifier);
+      ConnectionSettings settings = ConnectionSettings.fromEnvironment(env);
+      this.connections = new ConnectionManager(this.url, this.statistics, this.sslSocketFactory, settings.getMaxConnections());
+      Registration registration = getRegistration(credentials, settings);
+      this.mBeanServerConnection = new JmxHttpConnection(this.id, registration, this.url, credentials, this.notifier, settings, this.requestEncoding, this.connections);
+      this.mBeanServerConnection.startRegistrationListeners();
       this.notifier.connected();
     } finally {
       this.sateLock.unlock();
     }
   }
 
-  private Registration getRegistration(Optional<String> credentials) throws IOException {
-    URL registrationUrl = new URL(this.url.toString() + '?' + PARAMETER_ACTION + '=' + ACTION_REGISTER);
-    HttpURLConnection urlConnection = (HttpURLConnection) registrationUrl.openConnection();
+  private Registration getRegistration(Optional<String> credentials, ConnectionSettings settings) throws IOException {
+    URL registrationUrl = new URL(RequestUrls.register(this.url.toString()));
+    HttpURLConnection urlConnection = this.connections.open(registrationUrl);
     try {
       if (credentials.isPresent()) {
         urlConnection.setRequestProperty("Authorization", credentials.get());
       }
+      urlConnection.setRequestProperty("Accept", settings.getCodec().getContentType());
+      urlConnection.setRequestProperty("Accept-Encoding", settings.getAcceptEncoding());
       Object result;
       try {
         result = readResponseAsObject(urlConnection, JmxHttpConnector.class.getClassLoader());
@@ -122,30 +140,35 @@ final class JmxHttpConnector implements JMXConnector {
         throw new IOException("JMX operation failed", e);
       }
       if (result instanceof Registration) {
+        // servers that can decode compressed requests advertise it, see RFC 7694
+        this.requestEncoding = ContentEncoding.forAcceptEncoding(urlConnection.getHeaderField("Accept-Encoding"), ContentEncoding.IDENTITY);
         return (Registration) result;
       } else {
         throw new IOException("result should be instance of " + Registration.class + " but was " + result);
       }
-    } finally {
+    } catch (IOException e) {
       urlConnection.disconnect();
+      throw e;
     }
   }
 
   private void unregister(Optional<String> credentials, long correlationId) throws IOException {
-    URL registrationUrl = new URL(this.url.toString() + '?' + PARAMETER_ACTION + '=' + ACTION_UNREGISTER + '&' + PARAMETER_CORRELATION_ID + '=' + correlationId);
-    HttpURLConnection urlConnection = (HttpURLConnection) registrationUrl.openConnection();
+    URL unregistrationUrl = new URL(RequestUrls.unregister(this.url.toString(), correlationId));
+    HttpURLConnection urlConnection = this.connections.open(unregistrationUrl);
+    if (credentials.isPresent()) {
+      urlConnection.setRequestProperty("Authorization", credentials.get());
+    }
+    int status;
     try {
-      if (credentials.isPresent()) {
-        urlConnection.setRequestProperty("Authorization", credentials.get());
-      }
-      int status = urlConnection.getResponseCode();
-      if (status == 200) {
-        return;
-      } else {
-        throw new IOException("http request failed with status: " + status);
-      }
-    } finally {
+      status = urlConnection.getResponseCode();
+    } catch (IOException e) {
       urlConnection.disconnect();
+      throw e;
+    }
+    // read the body even if empty so that the connection can be reused
+    discardResponse(urlConnection, status);
+    if (status != 200) {
+      throw new IOException("http request failed with status: " + status);
     }
   }
 
@@ -171,9 +194,20 @@ final class JmxHttpConnector implements JMXConnector {
     return this.mBeanServerConnection;
   }
 
+  /**
+   * Subject delegation is not supported, every request is authenticated
+   * with the credentials passed to {@link #connect(Map)}.
+   *
+   * @throws SecurityException if {@code delegationSubject} is not
+   *         {@code null}
+   */
   @Override
   public MBeanServerConnection getMBeanServerConnection(Subject delegationSubject) throws IOException {
-    throw new UnsupportedOperationException("delegation");
+    if (delegationSubject == null) {
+      // no delegation, see JMXConnector
+      return this.getMBeanServerConnection();
+    }
+    throw new SecurityException("subject delegation is not supported");
   }
 
   @Override
@@ -231,57 +265,16 @@ final class JmxHttpConnector implements JMXConnector {
     }
   }
 
-  static final class Subscription {
-    final NotificationListener listener;
-    final NotificationFilter filter;
-    final Object handback;
-
-    Subscription(NotificationListener listener, NotificationFilter filter, Object handback) {
-      this.listener = listener;
-      this.filter = filter;
-      this.handback = handback;
-    }
-
-    @Override
-    public int hashCode() {
-      int prime = 31;
-      int result = 17;
-      result = prime * result + listener.hashCode();
-      result = prime * result + Objects.hashCode(filter.hashCode());
-      result = prime * result + Objects.hashCode(handback.hashCode());
-      return result;
-    }
-
-    @Override
-    public boolean equals(Object obj) {
-      if (this == obj) {
-        return true;
-      }
-      if (!(obj instanceof Subscription)) {
-        return false;
-      }
-      Subscription other = (Subscription) obj;
-      return this.listener == other.listener
-          && Objects.equals(this.filter, other.filter)
-          && Objects.equals(this.handback, other.handback);
-    }
-
-  }
-
   final class ListenerNotifier implements Notifier {
 
-    // CopyOnWriteArrayList does not support Iterator#remove
-    // VisualVM calls #removeConnectionNotificationListener from
-    // NotificationListener#handleNotification in the same thread
-    // Should only be accessed from #listenerThread
-    private final List<Subscription> listeners;
+    private final ConnectionListeners listeners;
 
     private final BlockingDeque<Runnable> commands;
 
     private final Thread listenerManager;
 
     ListenerNotifier() {
-      this.listeners = new ArrayList<>();
+      this.listeners = new ConnectionListeners();
       this.commands = new LinkedBlockingDeque<>();
       this.listenerManager = new Thread(this::runComandLoop, "Listener-Manager for " + id);
       this.listenerManager.start();
@@ -302,38 +295,15 @@ final class JmxHttpConnector implements JMXConnector {
     }
 
     void addConnectionNotificationListener(NotificationListener listener, NotificationFilter filter, Object handback) {
-      this.commands.add(() -> {
-        this.listeners.add(new Subscription(listener, filter, handback));
-      });
+      this.listeners.add(listener, filter, handback);
     }
 
     void removeConnectionNotificationListener(NotificationListener listener) throws ListenerNotFoundException {
-      
-      this.commands.add(() -> {
-//        boolean found = false;
-        Iterator<Subscription> iterator = this.listeners.iterator();
-        while (iterator.hasNext()) {
-          Subscription subscription = iterator.next();
-          if (subscription.listener == listener) {
-            iterator.remove();
-//            found = true;
-          }
-        }
-        
-        // TODO enable causes deadlock?
-//        if (!found) {
-//          throw new ListenerNotFoundException();
-//        }
-      });
+      this.listeners.remove(listener);
     }
 
     void removeConnectionNotificationListener(NotificationListener listener, NotificationFilter filter, Object handback) throws ListenerNotFoundException {
-      this.commands.add(() -> {
-        if (!this.listeners.remove(new Subscription(listener, filter, handback))) {
-          // TODO enable causes deadlock?
-//          throw new ListenerNotFoundException();
-        }
-      });
+      this.listeners.remove(listener, filter, handback);
     }
 
     @Override
@@ -376,7 +346,6 @@ final class JmxHttpConnector implements JMXConnector {
 
     @Override
     public void exceptionOccurred(Exception exception) {
-      exception.printStackTrace(System.out);
       this.commands.add(() -> {
         if (this.listeners.isEmpty()) {
           return;
@@ -394,19 +363,27 @@ final class JmxHttpConnector implements JMXConnector {
       });
     }
 
-    private void sendNotification(JMXConnectionNotification notification) {
-      for (Subscription subscription : this.listeners) {
-        NotificationFilter filter = subscription.filter;
-        if (filter != null && !filter.isNotificationEnabled(notification)) {
-          continue;
-        }
-        try {
-          subscription.listener.handleNotification(notification, subscription.handback);
-        } catch (RuntimeException e) {
-          // make sure even is delivered to all listeners
-          LOG.log(Level.WARNING, "exception occrred while delivering event to listener", e);
+    @Override
+    public void notificationsLost(long count) {
+      this.commands.add(() -> {
+        if (this.listeners.isEmpty()) {
+          return;
         }
-      }
+
+        String type = JMXConnectionNotification.NOTIFS_LOST;
+        Object source = JmxHttpConnector.this;
+        String connectionId = getConnectionId();
+        long sequenceNumber = sequenceNumberGenerator.incrementAndGet();
+        String message = "lost " + count + " notifications";
+        Object userData = count;
+        JMXConnectionNotification notification = new JMXConnectionNotification(type, source, connectionId, sequenceNumber, message, userData);
+
+        sendNotification(notification);
+      });
+    }
+
+    private void sendNotification(JMXConnectionNotification notification) {
+      this.listeners.send(notification);
     }
 
   }
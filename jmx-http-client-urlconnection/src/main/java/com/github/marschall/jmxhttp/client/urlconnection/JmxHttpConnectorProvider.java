@@ -15,15 +15,156 @@ import javax.management.remote.JMXServiceURL;
  * This provider supports both {@code http} and {@code https} URLs.
  * Service urls must look like this: 
  * <a href="service:jmx:http://localhost:8080/jmx-http">service:jmx:http://localhost:8080/jmx-http</a>
+ * <p>
+ * In addition to {@link javax.management.remote.JMXConnector#CREDENTIALS}
+ * the environment passed to
+ * {@link javax.management.remote.JMXConnector#connect(Map)} supports the
+ * keys defined in this class.
+ * <p>
+ * Subject delegation is not supported,
+ * {@link javax.management.remote.JMXConnector#getMBeanServerConnection(javax.security.auth.Subject)}
+ * throws a {@link SecurityException} for any subject other than
+ * {@code null}.
  *
  */
 public class JmxHttpConnectorProvider implements JMXConnectorProvider {
 
+  /**
+   * The content type of the codec used for encoding requests and responses.
+   * Supported values are
+   * {@value com.github.marschall.jmxhttp.common.http.HttpConstant#JAVA_SERIALIZED_OBJECT}
+   * for plain Java serialization,
+   * {@value com.github.marschall.jmxhttp.common.http.HttpConstant#JMX_HTTP_JAVA_SERIALIZATION}
+   * for Java serialization that sends class descriptors only once per
+   * connection and
+   * {@value com.github.marschall.jmxhttp.common.http.HttpConstant#JMX_HTTP_BINARY}
+   * for a compact binary encoding.
+   * Optional, default is Java serialization.
+   */
+  public static final String CODEC = "jmx.remote.http.codec";
+
+  /**
+   * The {@link java.util.concurrent.Executor} used for sending the commands
+   * of the asynchronous methods of
+   * {@link com.github.marschall.jmxhttp.common.http.JmxHttpMBeanServerConnection}.
+   * Optional, per default a bounded daemon thread pool shared by all
+   * connections is used, see {@link #ASYNC_THREADS}.
+   */
+  public static final String ASYNC_EXECUTOR = "jmx.remote.http.async.executor";
+
+  /**
+   * The number of threads of the default executor shared by all connections
+   * that don't set {@link #ASYNC_EXECUTOR}. Commands are queued while all
+   * threads are busy. The pool is created by the first connector to use it
+   * and the value of that connector applies. Optional, default is the value
+   * of {@link #MAX_CONNECTIONS} so that the pool can use every connection to
+   * a single server.
+   */
+  public static final String ASYNC_THREADS = "jmx.remote.http.async.threads";
+
+  /**
+   * The maximum number of concurrent HTTP requests used for sending
+   * asynchronous commands of a single connection. Commands submitted while
+   * all requests are in flight are sent together in the next batch.
+   * Optional, default is 2.
+   */
+  public static final String ASYNC_MAX_REQUESTS = "jmx.remote.http.async.max.requests";
+
+  /**
+   * The maximum number of asynchronous commands sent in a single batch.
+   * Optional, default is 256.
+   */
+  public static final String ASYNC_MAX_BATCH_SIZE = "jmx.remote.http.async.max.batch.size";
+
+  /**
+   * The value of the {@code Accept-Encoding} header sent with every request.
+   * {@code gzip}, {@code deflate} and {@code identity} are supported.
+   * Use {@code identity} to turn off response compression, for example on a
+   * fast local network. Optional, default is {@code gzip, deflate}.
+   */
+  public static final String ACCEPT_ENCODING = "jmx.remote.http.accept.encoding";
+
+  /**
+   * Request bodies smaller than this number of bytes are sent uncompressed.
+   * Larger request bodies are compressed if the server advertised support
+   * through an {@code Accept-Encoding} response header when registering.
+   * Negative values turn off request compression. Optional, default is 1024.
+   */
+  public static final String REQUEST_COMPRESSION_THRESHOLD = "jmx.remote.http.request.compression.threshold.bytes";
+
+  /**
+   * The maximum number of concurrent command requests to the server, the
+   * notification long poll comes in addition. Connections are kept alive
+   * and reused, this should not exceed the size of the keep-alive cache of
+   * the JDK minus one for the long poll, see the {@code http.maxConnections}
+   * networking property. The keep-alive cache is per destination, the limit
+   * is therefore shared by all connectors to the same scheme, host and port
+   * and the value of the first connector to connect applies. Optional,
+   * default is 4.
+   */
+  public static final String MAX_CONNECTIONS = "jmx.remote.http.max.connections";
+
+  /**
+   * Whether notifications should be received through a single streaming
+   * response per poll timeout instead of a long poll per batch of
+   * notifications. Reduces the number of requests for MBeans emitting many
+   * notifications. Falls back to long polling if the server does not
+   * support streaming or the stream is cut, for example by a proxy that
+   * buffers responses. Optional, default is {@code false}.
+   */
+  public static final String NOTIFICATION_STREAMING = "jmx.remote.http.notification.streaming";
+
+  /**
+   * Whether {@code queryNames} without a query, {@code isRegistered} and
+   * {@code getMBeanCount} should be answered from a local copy of the names
+   * of the registered MBeans instead of asking the server every time. The
+   * names are loaded once and kept up to date with the registration
+   * notifications of the {@link javax.management.MBeanServerDelegate}, so
+   * the answers lag behind the server by the notification latency.
+   * Optional, default is {@code false}.
+   */
+  public static final String REGISTRY_MIRROR = "jmx.remote.http.registry.mirror";
+
+  /**
+   * The maximum number of {@link javax.management.MBeanInfo}s cached by the
+   * client, {@code 0} to ask the server every time. Only the ones marked as
+   * {@code immutableInfo} are cached, they are evicted when the MBean is
+   * unregistered. Optional, default is {@code 0}.
+   */
+  public static final String MBEAN_INFO_CACHE_SIZE = "jmx.remote.http.mbean.info.cache.size";
+
+  /**
+   * Whether the class name of a cached {@link javax.management.MBeanInfo}
+   * should be compared with the one of the MBean every time before it is
+   * used. This costs a small request but guards against notifications
+   * arriving late. Optional, default is {@code false}.
+   */
+  public static final String MBEAN_INFO_CACHE_REVALIDATE = "jmx.remote.http.mbean.info.cache.revalidate";
+
   @Override
   public JMXConnector newJMXConnector(JMXServiceURL serviceURL, Map<String, ?> environment) throws IOException {
     return new JmxHttpConnector(getUrl(serviceURL));
   }
   
+  /**
+   * Returns the connection statistics of a connector created by this
+   * provider.
+   * <p>
+   * New and reused connections are counted for {@code https} only, for
+   * {@code http} only requests are counted.
+   *
+   * @param connector the connector, not {@code null}
+   * @return the statistics of the connector
+   * @throws IllegalArgumentException if the connector was not created by
+   *         this provider
+   */
+  public static ConnectionStatistics getConnectionStatistics(JMXConnector connector) {
+    if (connector instanceof JmxHttpConnector) {
+      return ((JmxHttpConnector) connector).getConnectionStatistics();
+    }
+    throw new IllegalArgumentException("not a JMX HTTP connector: " + connector);
+  }
+
   static URL getUrl(JMXServiceURL serviceURL) throws IOException {
     int port = serviceURL.getPort();
     if (port == 0) {
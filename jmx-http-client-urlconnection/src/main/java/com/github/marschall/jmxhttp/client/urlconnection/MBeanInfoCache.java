@@ -0,0 +1,137 @@
+package com.github.marschall.jmxhttp.client.urlconnection;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.management.MBeanInfo;
+import javax.management.MBeanServerNotification;
+import javax.management.Notification;
+import javax.management.NotificationFilterSupport;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+
+/**
+ * Caches the {@link MBeanInfo}s received from the server, the least recently
+ * used ones are evicted beyond the maximum size.
+ * <p>
+ * Only {@link MBeanInfo}s whose descriptor has {@code immutableInfo=true}
+ * are cached, this includes all standard MBeans and MXBeans. An entry is
+ * evicted when the MBean is unregistered, this listener has to be
+ * registered on the {@link javax.management.MBeanServerDelegate} with
+ * {@link #newFilter()}. If notifications are lost all entries are evicted.
+ * <p>
+ * An {@link MBeanInfo} loaded while an MBean was unregistered is not cached
+ * since it may already be outdated.
+ * <p>
+ * Instances are thread safe.
+ */
+final class MBeanInfoCache implements NotificationListener {
+
+  private final boolean revalidate;
+
+  /**
+   * In access order. Guarded by {@code this}.
+   */
+  private final Map<ObjectName, MBeanInfo> infos;
+
+  /**
+   * Incremented with every eviction because of an unregistration. Guarded
+   * by {@code this}.
+   */
+  private long generation;
+
+  MBeanInfoCache(int maxSize, boolean revalidate) {
+    this.revalidate = revalidate;
+    this.infos = new LinkedHashMap<ObjectName, MBeanInfo>(16, 0.75f, true) {
+
+      @Override
+      protected boolean removeEldestEntry(Entry<ObjectName, MBeanInfo> eldest) {
+        return this.size() > maxSize;
+      }
+
+    };
+  }
+
+  /**
+   * Creates the filter to register this listener with, only unregistrations
+   * are sent.
+   *
+   * @return the filter
+   */
+  static NotificationFilterSupport newFilter() {
+    NotificationFilterSupport filter = new NotificationFilterSupport();
+    filter.enableType(MBeanServerNotification.UNREGISTRATION_NOTIFICATION);
+    return filter;
+  }
+
+  /**
+   * Whether the class name of a cached {@link MBeanInfo} should be compared
+   * with the one of the MBean before it is used.
+   *
+   * @return whether cached entries should be revalidated
+   */
+  boolean isRevalidate() {
+    return this.revalidate;
+  }
+
+  synchronized MBeanInfo get(ObjectName name) {
+    return this.infos.get(name);
+  }
+
+  /**
+   * Returns the current generation, to be passed to
+   * {@link #put(ObjectName, MBeanInfo, long)} after loading.
+   *
+   * @return the current generation
+   */
+  synchronized long getGeneration() {
+    return this.generation;
+  }
+
+  /**
+   * Caches an {@link MBeanInfo} unless it is mutable or an MBean was
+   * unregistered since it was loaded.
+   *
+   * @param name the name of the MBean
+   * @param info the {@link MBeanInfo} of the MBean
+   * @param generationBefore the generation before the {@link MBeanInfo} was
+   *        loaded
+   */
+  synchronized void put(ObjectName name, MBeanInfo info, long generationBefore) {
+    if (this.generation == generationBefore && isImmutable(info)) {
+      this.infos.put(name, info);
+    }
+  }
+
+  synchronized void remove(ObjectName name) {
+    this.infos.remove(name);
+  }
+
+  @Override
+  public void handleNotification(Notification notification, Object handback) {
+    if (notification instanceof MBeanServerNotification
+            && MBeanServerNotification.UNREGISTRATION_NOTIFICATION.equals(notification.getType())) {
+      ObjectName name = ((MBeanServerNotification) notification).getMBeanName();
+      synchronized (this) {
+        this.generation += 1;
+        this.infos.remove(name);
+      }
+    }
+  }
+
+  /**
+   * Called when the server discarded notifications, the cache may have
+   * missed unregistrations.
+   */
+  synchronized void notificationsLost() {
+    this.generation += 1;
+    this.infos.clear();
+  }
+
+  private static boolean isImmutable(MBeanInfo info) {
+    Object immutableInfo = info.getDescriptor().getFieldValue("immutableInfo");
+    return immutableInfo != null && Boolean.parseBoolean(immutableInfo.toString());
+  }
+
+}
@@ -8,4 +8,6 @@ interface Notifier {
   
   void exceptionOccurred(Exception exception);
 
+  void notificationsLost(long count);
+
 }
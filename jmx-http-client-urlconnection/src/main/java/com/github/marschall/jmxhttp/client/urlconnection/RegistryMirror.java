@@ -0,0 +1,332 @@
+package com.github.marschall.jmxhttp.client.urlconnection;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.MBeanServerNotification;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+
+/**
+ * A local copy of the names of the MBeans registered on the server.
+ * <p>
+ * The names are loaded once with the first query and then kept up to date
+ * with the {@link MBeanServerNotification}s of the
+ * {@link javax.management.MBeanServerDelegate}, this listener has to be
+ * registered on it before the first query. Notifications received while
+ * loading are applied after loading, applying a notification the loaded
+ * names already reflect does not change them. If notifications are lost
+ * the names are loaded again with the next query.
+ * <p>
+ * The mirror lags behind the server by the notification latency. It does
+ * not lag behind MBeans registered or unregistered by this client, queries
+ * involving them are answered by the server until the notification of the
+ * change arrives. Names without a domain refer to the default domain of
+ * the server, they are not answered by the mirror.
+ * <p>
+ * Instances are thread safe.
+ */
+final class RegistryMirror implements NotificationListener {
+
+  private final NameLoader loader;
+
+  /**
+   * Only one load at a time, queries wait for it.
+   */
+  private final Lock loadLock;
+
+  /**
+   * The names by domain, {@code null} if not loaded. Guarded by
+   * {@code this}.
+   */
+  private Map<String, Set<ObjectName>> names;
+
+  private int count;
+
+  /**
+   * The notifications received while loading, {@code null} if not loading.
+   * Guarded by {@code this}.
+   */
+  private List<MBeanServerNotification> pending;
+
+  /**
+   * Whether notifications were lost while loading. Guarded by
+   * {@code this}.
+   */
+  private boolean lostWhileLoading;
+
+  /**
+   * The names of the MBeans this client is registering or unregistering
+   * whose notification did not arrive yet, with the number of changes.
+   * Guarded by {@code this}.
+   */
+  private final Map<ObjectName, Integer> changing;
+
+  RegistryMirror(NameLoader loader) {
+    this.loader = loader;
+    this.loadLock = new ReentrantLock();
+    this.changing = new HashMap<>();
+  }
+
+  /**
+   * Returns the names matching a pattern like
+   * {@link javax.management.MBeanServerConnection#queryNames(ObjectName, javax.management.QueryExp)}
+   * without a query.
+   *
+   * @param pattern the pattern, {@code null} for all names
+   * @return the matching names, a copy, {@code null} if the server has to
+   *         be asked
+   * @throws IOException if the names could not be loaded
+   */
+  Set<ObjectName> queryNames(ObjectName pattern) throws IOException {
+    if (pattern != null && pattern.getDomain().isEmpty()) {
+      return null;
+    }
+    this.ensureLoaded();
+    synchronized (this) {
+      if (this.names == null) {
+        // don't load in a loop
+        return null;
+      }
+      if (this.isChanging(pattern)) {
+        return null;
+      }
+      if (pattern == null || pattern.equals(ObjectName.WILDCARD)) {
+        Set<ObjectName> result = new HashSet<>(this.count);
+        for (Set<ObjectName> each : this.names.values()) {
+          result.addAll(each);
+        }
+        return result;
+      }
+      if (!pattern.isPattern()) {
+        Set<ObjectName> domain = this.names.get(pattern.getDomain());
+        if (domain != null && domain.contains(pattern)) {
+          return new HashSet<>(Collections.singleton(pattern));
+        }
+        return new HashSet<>();
+      }
+      Set<ObjectName> result = new HashSet<>();
+      if (!pattern.isDomainPattern()) {
+        Set<ObjectName> domain = this.names.get(pattern.getDomain());
+        if (domain != null) {
+          addMatching(domain, pattern, result);
+        }
+      } else {
+        for (Set<ObjectName> each : this.names.values()) {
+          addMatching(each, pattern, result);
+        }
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Checks whether an MBean is registered.
+   *
+   * @param name the name of the MBean
+   * @return whether it is registered, {@code null} if the server has to be
+   *         asked
+   * @throws IOException if the names could not be loaded
+   */
+  Boolean isRegistered(ObjectName name) throws IOException {
+    if (name.getDomain().isEmpty()) {
+      return null;
+    }
+    this.ensureLoaded();
+    synchronized (this) {
+      if (this.names == null || this.changing.containsKey(name)) {
+        return null;
+      }
+      Set<ObjectName> domain = this.names.get(name.getDomain());
+      return domain != null && domain.contains(name);
+    }
+  }
+
+  /**
+   * Returns the number of registered MBeans.
+   *
+   * @return the number of registered MBeans, {@code null} if the server has
+   *         to be asked
+   * @throws IOException if the names could not be loaded
+   */
+  Integer getMBeanCount() throws IOException {
+    this.ensureLoaded();
+    synchronized (this) {
+      if (this.names == null || !this.changing.isEmpty()) {
+        return null;
+      }
+      return this.count;
+    }
+  }
+
+  private boolean isChanging(ObjectName pattern) {
+    if (this.changing.isEmpty()) {
+      return false;
+    }
+    if (pattern == null) {
+      return true;
+    }
+    for (ObjectName name : this.changing.keySet()) {
+      if (pattern.apply(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void addMatching(Set<ObjectName> names, ObjectName pattern, Set<ObjectName> result) {
+    for (ObjectName name : names) {
+      if (pattern.apply(name)) {
+        result.add(name);
+      }
+    }
+  }
+
+  private void ensureLoaded() throws IOException {
+    synchronized (this) {
+      if (this.names != null) {
+        return;
+      }
+    }
+    this.loadLock.lock();
+    try {
+      synchronized (this) {
+        if (this.names != null) {
+          // loaded while we waited for the lock
+          return;
+        }
+        this.pending = new ArrayList<>();
+        this.lostWhileLoading = false;
+      }
+      Set<ObjectName> loaded;
+      try {
+        loaded = this.loader.load();
+      } catch (IOException | RuntimeException e) {
+        synchronized (this) {
+          this.pending = null;
+        }
+        throw e;
+      }
+      synchronized (this) {
+        if (!this.lostWhileLoading) {
+          this.names = new HashMap<>();
+          this.count = 0;
+          for (ObjectName name : loaded) {
+            this.add(name);
+          }
+          for (MBeanServerNotification notification : this.pending) {
+            this.apply(notification);
+          }
+        }
+        this.pending = null;
+      }
+    } finally {
+      this.loadLock.unlock();
+    }
+  }
+
+  @Override
+  public void handleNotification(Notification notification, Object handback) {
+    if (!(notification instanceof MBeanServerNotification)) {
+      return;
+    }
+    MBeanServerNotification registration = (MBeanServerNotification) notification;
+    synchronized (this) {
+      this.changing.remove(registration.getMBeanName());
+      if (this.names != null) {
+        this.apply(registration);
+      } else if (this.pending != null) {
+        this.pending.add(registration);
+      }
+      // else not loaded yet, the first load will include it
+    }
+  }
+
+  /**
+   * Called when the server discarded notifications, the mirror may have
+   * missed registrations or unregistrations.
+   */
+  void notificationsLost() {
+    this.invalidate();
+  }
+
+  /**
+   * Called before this client registers or unregisters an MBean, queries
+   * involving it are answered by the server until the notification of the
+   * change arrives.
+   *
+   * @param name the name of the MBean, not a pattern and with a domain
+   */
+  synchronized void changing(ObjectName name) {
+    this.changing.merge(name, 1, Integer::sum);
+  }
+
+  /**
+   * Called when the server refused to register or unregister an MBean
+   * announced with {@link #changing(ObjectName)}, no notification follows.
+   *
+   * @param name the name of the MBean
+   */
+  synchronized void changeFailed(ObjectName name) {
+    this.changing.computeIfPresent(name, (key, changes) -> changes > 1 ? changes - 1 : null);
+  }
+
+  /**
+   * Loads the names again with the next query, called when the mirror may
+   * not reflect the registry, eg. when it is unknown whether or under which
+   * name this client registered an MBean.
+   */
+  synchronized void invalidate() {
+    this.names = null;
+    if (this.pending != null) {
+      this.lostWhileLoading = true;
+    }
+    this.changing.clear();
+  }
+
+  private void apply(MBeanServerNotification notification) {
+    ObjectName name = notification.getMBeanName();
+    String type = notification.getType();
+    if (MBeanServerNotification.REGISTRATION_NOTIFICATION.equals(type)) {
+      this.add(name);
+    } else if (MBeanServerNotification.UNREGISTRATION_NOTIFICATION.equals(type)) {
+      this.remove(name);
+    }
+  }
+
+  private void add(ObjectName name) {
+    if (this.names.computeIfAbsent(name.getDomain(), domain -> new HashSet<>()).add(name)) {
+      this.count += 1;
+    }
+  }
+
+  private void remove(ObjectName name) {
+    Set<ObjectName> domain = this.names.get(name.getDomain());
+    if (domain != null && domain.remove(name)) {
+      this.count -= 1;
+      if (domain.isEmpty()) {
+        this.names.remove(name.getDomain());
+      }
+    }
+  }
+
+  /**
+   * Loads the names of all MBeans registered on the server.
+   */
+  @FunctionalInterface
+  interface NameLoader {
+
+    Set<ObjectName> load() throws IOException;
+
+  }
+
+}
@@ -4,63 +4,75 @@ import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.ObjectInputStream;
 import java.io.Reader;
 import java.lang.invoke.MethodHandles;
 import java.net.HttpURLConnection;
 import java.nio.charset.StandardCharsets;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.GZIPInputStream;
 
 import javax.management.JMException;
 
-import com.github.marschall.jmxhttp.common.command.ClassLoaderObjectInputStream;
+import com.github.marschall.jmxhttp.common.client.ClientCodec;
 
 final class UrlConnectionUtil {
 
   private static final Logger LOG = Logger.getLogger(MethodHandles.lookup().lookupClass().getName());
 
-  private static int BUFFER_SIZE = 8192;
+  private static final int BUFFER_SIZE = 8192;
 
   private UrlConnectionUtil() {
     throw new AssertionError("not instantiable");
   }
 
+  /**
+   * Reads the response to a request sent before registration.
+   *
+   * @see #readResponseAsObject(HttpURLConnection, ClientCodec)
+   */
   static Object readResponseAsObject(HttpURLConnection urlConnection, ClassLoader classLoader) throws IOException, JMException {
+    return ClientCodec.readResponse(getResponseBody(urlConnection), urlConnection::getHeaderField, classLoader, null);
+  }
+
+  /**
+   * Reads the response of a request as an object.
+   * <p>
+   * The response body is always read completely and closed, even in case of
+   * an error, so that the connection can be kept alive and reused for the
+   * next request.
+   */
+  static Object readResponseAsObject(HttpURLConnection urlConnection, ClientCodec codec) throws IOException, JMException {
+    return codec.readResponse(getResponseBody(urlConnection), urlConnection::getHeaderField);
+  }
+
+  private static InputStream getResponseBody(HttpURLConnection urlConnection) throws IOException {
     int status = urlConnection.getResponseCode();
-    if (status == 200) {
-      String contentEncoding = urlConnection.getHeaderField("Content-Encoding");
-      try (InputStream in = urlConnection.getInputStream();
-          BufferedInputStream buffered = new BufferedInputStream(in)) {
-        if ("gzip".equals(contentEncoding)) {
-          try (GZIPInputStream stream = new GZIPInputStream(buffered)) {
-            return readFromStream(stream, classLoader);
-          }
-        } else {
-          return readFromStream(buffered, classLoader);
-        }
-      }
-    } else {
-      readBody(urlConnection);
-      throw new IOException("http request failed with status: " + status + " body " + readBody(urlConnection));
+    if (status != 200) {
+      throw new IOException("http request failed with status: " + status + " body " + readBody(urlConnection, status));
     }
+    return new BufferedInputStream(urlConnection.getInputStream());
+  }
+
+  /**
+   * Reads and discards the response body so that the connection can be
+   * reused.
+   */
+  static void discardResponse(HttpURLConnection urlConnection, int status) {
+    readBody(urlConnection, status);
   }
 
-  private static String readBody(HttpURLConnection urlConnection) {
-    String contentEncoding = urlConnection.getContentEncoding();
-    try (InputStream in = urlConnection.getInputStream()) {
-      if (contentEncoding != null) {
-        // we buffer in readToString -> no need to buffer here
-        try (Reader reader = new InputStreamReader(in, contentEncoding)) {
-          return readToString(reader);
-        }
-      } else {
-        // we buffer in readToString -> no need to buffer here
-        // convert every byte to a character of the same value
-        try (Reader reader = new InputStreamReader(in, StandardCharsets.ISO_8859_1)) {
-          return readToString(reader);
-        }
+  private static String readBody(HttpURLConnection urlConnection, int status) {
+    // #getInputStream() throws for error status codes and leaves the body unread
+    try (InputStream in = status >= 400 ? urlConnection.getErrorStream() : urlConnection.getInputStream()) {
+      if (in == null) {
+        // no body
+        return "";
+      }
+      // Content-Encoding is not a charset, using it as one failed and left the body unread
+      // we buffer in readToString -> no need to buffer here
+      // convert every byte to a character of the same value
+      try (Reader reader = new InputStreamReader(in, StandardCharsets.ISO_8859_1)) {
+        return readToString(reader);
       }
     } catch (IOException e) {
       LOG.log(Level.WARNING, "could not read response body", e);
@@ -79,32 +91,4 @@ final class UrlConnectionUtil {
     return builder.toString();
   }
 
-  private static Object readFromStream(InputStream in, ClassLoader classLoader) throws IOException, JMException {
-    try (ObjectInputStream stream = new ClassLoaderObjectInputStream(in, classLoader)) {
-      Object result;
-      try {
-        result = stream.readObject();
-      } catch (ClassNotFoundException e) {
-        // REVIEW will trigger listeners probably ok
-        throw new IOException("class not found", e);
-      }
-      if (result instanceof RuntimeException) {
-        throw (RuntimeException) result;
-      }
-      if (result instanceof IOException) {
-        throw (IOException) result;
-      }
-      if (result instanceof JMException) {
-        throw (JMException) result;
-      }
-      if (result instanceof Exception) {
-        // REVIEW will trigger listeners, not sure if intended
-        throw new IOException("exception occurred on server", (Exception) result);
-        //          throw (Exception) result;
-      } else {
-        return result;
-      }
-    }
-  }
-
 }
@@ -0,0 +1,260 @@
+package com.github.marschall.jmxhttp.client.urlconnection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.AttributeNotFoundException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.marschall.jmxhttp.client.urlconnection.CommandPipeline.CommandSender;
+import com.github.marschall.jmxhttp.common.command.BatchResult;
+import com.github.marschall.jmxhttp.common.command.Command;
+import com.github.marschall.jmxhttp.common.command.GetAttribute;
+
+public class CommandPipelineTest {
+
+  private static final long TIMEOUT_SECONDS = 5L;
+
+  private ExecutorService executor;
+
+  private BlockingSender sender;
+
+  private ObjectName name;
+
+  @Before
+  public void setUp() throws JMException {
+    this.executor = Executors.newCachedThreadPool();
+    this.sender = new BlockingSender();
+    this.name = new ObjectName("test:type=Pipeline");
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    this.sender.release();
+    this.executor.shutdown();
+    assertTrue(this.executor.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+  }
+
+  private CompletableFuture<Object> getAttribute(CommandPipeline pipeline, String attribute) {
+    return pipeline.submit(new GetAttribute(this.name, attribute));
+  }
+
+  @Test
+  public void batching() throws Exception {
+    CommandPipeline pipeline = new CommandPipeline(this.sender, this.executor, 2, 3);
+    List<CompletableFuture<Object>> futures = new ArrayList<>();
+    // nothing else is in flight, both are sent on their own
+    futures.add(this.getAttribute(pipeline, "A0"));
+    this.sender.awaitRequests(1);
+    futures.add(this.getAttribute(pipeline, "A1"));
+    this.sender.awaitRequests(2);
+    for (int i = 2; i < 9; i++) {
+      futures.add(this.getAttribute(pipeline, "A" + i));
+    }
+    // the commands wait for a request slot
+    Thread.sleep(100L);
+    assertEquals(2, this.sender.requestSizes().size());
+
+    this.sender.release();
+    for (int i = 0; i < futures.size(); i++) {
+      assertEquals("A" + i, futures.get(i).get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    List<Integer> sizes = this.sender.requestSizes();
+    assertEquals(Integer.valueOf(1), sizes.get(0));
+    assertEquals(Integer.valueOf(1), sizes.get(1));
+    int sent = 0;
+    for (int size : sizes) {
+      assertTrue("batch too large: " + sizes, size <= 3);
+      sent += size;
+    }
+    assertEquals(9, sent);
+    assertTrue("commands not batched: " + sizes, sizes.contains(3));
+    assertEquals(2, this.sender.maxConcurrentRequests());
+  }
+
+  @Test
+  public void concurrencyLimit() throws Exception {
+    CommandPipeline pipeline = new CommandPipeline(this.sender, this.executor, 3, 2);
+    List<CompletableFuture<Object>> futures = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      futures.add(this.getAttribute(pipeline, "A" + i));
+    }
+    this.sender.awaitRequests(3);
+    this.sender.release();
+    for (int i = 0; i < futures.size(); i++) {
+      assertEquals("A" + i, futures.get(i).get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+    assertTrue(this.sender.maxConcurrentRequests() <= 3);
+  }
+
+  @Test
+  public void failedCommand() throws Exception {
+    CommandPipeline pipeline = new CommandPipeline(this.sender, this.executor, 1, 10);
+    CompletableFuture<Object> first = this.getAttribute(pipeline, "A0");
+    this.sender.awaitRequests(1);
+    CompletableFuture<Object> success = this.getAttribute(pipeline, "A1");
+    CompletableFuture<Object> failure = this.getAttribute(pipeline, "Missing");
+    this.sender.release();
+
+    assertEquals("A0", first.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertEquals("A1", success.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertFailure(failure, AttributeNotFoundException.class);
+  }
+
+  @Test
+  public void failedBatch() throws Exception {
+    CommandPipeline pipeline = new CommandPipeline(this.sender, this.executor, 1, 10);
+    CompletableFuture<Object> first = this.getAttribute(pipeline, "A0");
+    this.sender.awaitRequests(1);
+    CompletableFuture<Object> second = this.getAttribute(pipeline, "A1");
+    CompletableFuture<Object> broken = this.getAttribute(pipeline, "Broken");
+    this.sender.release();
+
+    assertEquals("A0", first.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertFailure(second, IOException.class);
+    assertFailure(broken, IOException.class);
+  }
+
+  @Test
+  public void close() throws Exception {
+    CommandPipeline pipeline = new CommandPipeline(this.sender, this.executor, 1, 10);
+    CompletableFuture<Object> first = this.getAttribute(pipeline, "A0");
+    this.sender.awaitRequests(1);
+    CompletableFuture<Object> pending = this.getAttribute(pipeline, "A1");
+    pipeline.close();
+    assertFailure(pending, IOException.class);
+    assertFailure(this.getAttribute(pipeline, "A2"), IOException.class);
+
+    // the request in flight is not affected
+    this.sender.release();
+    assertEquals("A0", first.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+  }
+
+  private static void assertFailure(CompletableFuture<?> future, Class<? extends Exception> expected) throws Exception {
+    try {
+      future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      fail("expected " + expected.getName());
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause().toString(), expected.isInstance(e.getCause()));
+    }
+  }
+
+  /**
+   * Answers a {@link GetAttribute} with the name of the attribute, blocks
+   * every request until released and records the size of the requests.
+   * <p>
+   * The attribute {@code Missing} fails the command, the attribute
+   * {@code Broken} fails the whole request.
+   */
+  static final class BlockingSender implements CommandSender {
+
+    private final CountDownLatch released = new CountDownLatch(1);
+
+    private final List<Integer> requestSizes = Collections.synchronizedList(new ArrayList<>());
+
+    private final AtomicInteger concurrentRequests = new AtomicInteger();
+
+    private final AtomicInteger maxConcurrentRequests = new AtomicInteger();
+
+    void release() {
+      this.released.countDown();
+    }
+
+    List<Integer> requestSizes() {
+      synchronized (this.requestSizes) {
+        return new ArrayList<>(this.requestSizes);
+      }
+    }
+
+    int maxConcurrentRequests() {
+      return this.maxConcurrentRequests.get();
+    }
+
+    void awaitRequests(int count) throws InterruptedException {
+      long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+      while (this.requestSizes.size() < count && System.currentTimeMillis() < end) {
+        Thread.sleep(10L);
+      }
+      assertEquals(count, this.requestSizes.size());
+    }
+
+    private void startRequest(int size) throws IOException {
+      int concurrent = this.concurrentRequests.incrementAndGet();
+      this.maxConcurrentRequests.accumulateAndGet(concurrent, Math::max);
+      this.requestSizes.add(size);
+      try {
+        if (!this.released.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+          throw new IOException("not released");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("interrupted", e);
+      }
+    }
+
+    private void endRequest() {
+      this.concurrentRequests.decrementAndGet();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <R> R send(Command<R> command) throws IOException, JMException {
+      this.startRequest(1);
+      try {
+        return (R) this.execute(command);
+      } finally {
+        this.endRequest();
+      }
+    }
+
+    @Override
+    public List<BatchResult> executeBatch(List<? extends Command<?>> commands) throws IOException {
+      this.startRequest(commands.size());
+      try {
+        List<BatchResult> results = new ArrayList<>(commands.size());
+        for (Command<?> command : commands) {
+          if ("Broken".equals(((GetAttribute) command).getAttribute())) {
+            throw new IOException("broken");
+          }
+          try {
+            results.add(BatchResult.success(this.execute(command)));
+          } catch (JMException e) {
+            results.add(BatchResult.failure(e));
+          }
+        }
+        return results;
+      } finally {
+        this.endRequest();
+      }
+    }
+
+    private Object execute(Command<?> command) throws JMException {
+      String attribute = ((GetAttribute) command).getAttribute();
+      if ("Missing".equals(attribute)) {
+        throw new AttributeNotFoundException(attribute);
+      }
+      return attribute;
+    }
+
+  }
+
+}
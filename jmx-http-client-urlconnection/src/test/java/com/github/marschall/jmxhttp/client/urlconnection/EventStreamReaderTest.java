@@ -0,0 +1,67 @@
+package com.github.marschall.jmxhttp.client.urlconnection;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.github.marschall.jmxhttp.client.urlconnection.EventStreamReader.EventHandler;
+
+public class EventStreamReaderTest {
+
+  private List<String> read(String stream) throws IOException {
+    List<String> events = new ArrayList<>();
+    EventHandler handler = new EventHandler() {
+
+      @Override
+      public void notifications(String data, String id) {
+        events.add(id + "=" + data);
+      }
+
+      @Override
+      public void notificationsLost(String lost) {
+        events.add("lost=" + lost);
+      }
+
+    };
+    new EventStreamReader(new ByteArrayInputStream(stream.getBytes(US_ASCII)), handler).read();
+    return events;
+  }
+
+  @Test
+  public void notifications() throws IOException {
+    assertEquals(Arrays.asList("3=rO0AB", "5=AAAA"), this.read("id: 3\ndata: rO0AB\n\nid: 5\ndata: AAAA\n\n"));
+  }
+
+  @Test
+  public void notificationsLost() throws IOException {
+    assertEquals(Arrays.asList("lost=2", "4=AAAA"), this.read("event: lost\ndata: 2\n\nid: 4\ndata: AAAA\n\n"));
+  }
+
+  @Test
+  public void fieldsWithoutSpace() throws IOException {
+    assertEquals(Arrays.asList("7= AAAA"), this.read("id:7\ndata:  AAAA\n\n"));
+  }
+
+  @Test
+  public void lineTerminators() throws IOException {
+    assertEquals(Arrays.asList("1=AAAA", "2=BBBB"), this.read("id: 1\r\ndata: AAAA\r\n\r\nid: 2\ndata: BBBB\n\n"));
+  }
+
+  @Test
+  public void commentsAndUnknownFields() throws IOException {
+    assertEquals(Arrays.asList("null=AAAA"), this.read(": keep alive\n\nretry: 1000\ndata: AAAA\n\n"));
+  }
+
+  @Test
+  public void incompleteEvent() throws IOException {
+    assertEquals(Arrays.asList("1=AAAA"), this.read("id: 1\ndata: AAAA\n\nid: 2\ndata: BBBB\n"));
+  }
+
+}
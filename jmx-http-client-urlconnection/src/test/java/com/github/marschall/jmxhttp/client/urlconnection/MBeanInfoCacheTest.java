@@ -0,0 +1,92 @@
+package com.github.marschall.jmxhttp.client.urlconnection;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import javax.management.ImmutableDescriptor;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerNotification;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class MBeanInfoCacheTest {
+
+  private static final ObjectName RUNTIME = name("java.lang:type=Runtime");
+  private static final ObjectName MEMORY = name("java.lang:type=Memory");
+  private static final ObjectName LOGGING = name("java.util.logging:type=Logging");
+
+  @Test
+  public void leastRecentlyUsed() {
+    MBeanInfoCache cache = new MBeanInfoCache(2, false);
+    MBeanInfo runtime = immutable();
+    MBeanInfo memory = immutable();
+    cache.put(RUNTIME, runtime, cache.getGeneration());
+    cache.put(MEMORY, memory, cache.getGeneration());
+    assertSame(runtime, cache.get(RUNTIME));
+
+    cache.put(LOGGING, immutable(), cache.getGeneration());
+
+    assertSame(runtime, cache.get(RUNTIME));
+    assertNull(cache.get(MEMORY));
+  }
+
+  @Test
+  public void mutable() {
+    MBeanInfoCache cache = new MBeanInfoCache(2, false);
+    cache.put(RUNTIME, new MBeanInfo("Runtime", null, null, null, null, null), cache.getGeneration());
+
+    assertNull(cache.get(RUNTIME));
+  }
+
+  @Test
+  public void unregistration() {
+    MBeanInfoCache cache = new MBeanInfoCache(2, false);
+    MBeanInfo memory = immutable();
+    cache.put(RUNTIME, immutable(), cache.getGeneration());
+    cache.put(MEMORY, memory, cache.getGeneration());
+
+    cache.handleNotification(new MBeanServerNotification(MBeanServerNotification.UNREGISTRATION_NOTIFICATION,
+            MBeanServerDelegate.DELEGATE_NAME, 1L, RUNTIME), null);
+
+    assertNull(cache.get(RUNTIME));
+    assertSame(memory, cache.get(MEMORY));
+  }
+
+  @Test
+  public void unregistrationWhileLoading() {
+    MBeanInfoCache cache = new MBeanInfoCache(2, false);
+    long generation = cache.getGeneration();
+
+    cache.handleNotification(new MBeanServerNotification(MBeanServerNotification.UNREGISTRATION_NOTIFICATION,
+            MBeanServerDelegate.DELEGATE_NAME, 1L, RUNTIME), null);
+    cache.put(RUNTIME, immutable(), generation);
+
+    assertNull(cache.get(RUNTIME));
+  }
+
+  @Test
+  public void notificationsLost() {
+    MBeanInfoCache cache = new MBeanInfoCache(2, false);
+    cache.put(RUNTIME, immutable(), cache.getGeneration());
+
+    cache.notificationsLost();
+
+    assertNull(cache.get(RUNTIME));
+  }
+
+  private static MBeanInfo immutable() {
+    return new MBeanInfo("Bean", null, null, null, null, null, new ImmutableDescriptor("immutableInfo=true"));
+  }
+
+  private static ObjectName name(String name) {
+    try {
+      return new ObjectName(name);
+    } catch (MalformedObjectNameException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+}
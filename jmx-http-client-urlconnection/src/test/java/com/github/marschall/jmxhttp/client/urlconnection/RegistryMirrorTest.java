@@ -0,0 +1,157 @@
+package com.github.marschall.jmxhttp.client.urlconnection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerNotification;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class RegistryMirrorTest {
+
+  private static final ObjectName RUNTIME = name("java.lang:type=Runtime");
+  private static final ObjectName MEMORY = name("java.lang:type=Memory");
+  private static final ObjectName POOL = name("java.lang:type=MemoryPool,name=Metaspace");
+  private static final ObjectName LOGGING = name("java.util.logging:type=Logging");
+
+  private int loads;
+
+  @Test
+  public void queryNames() throws IOException {
+    RegistryMirror mirror = new RegistryMirror(() -> this.load(RUNTIME, MEMORY, POOL, LOGGING));
+
+    assertEquals(set(RUNTIME, MEMORY, POOL, LOGGING), mirror.queryNames(null));
+    assertEquals(set(RUNTIME, MEMORY, POOL), mirror.queryNames(name("java.lang:*")));
+    assertEquals(set(MEMORY, POOL), mirror.queryNames(name("java.lang:type=Memory*,*")));
+    assertEquals(set(POOL), mirror.queryNames(name("*:name=Metaspace,*")));
+    assertEquals(set(LOGGING), mirror.queryNames(LOGGING));
+    assertEquals(set(), mirror.queryNames(name("java.nio:*")));
+    assertTrue(mirror.isRegistered(RUNTIME));
+    assertFalse(mirror.isRegistered(name("java.lang:type=Threading")));
+    assertEquals(Integer.valueOf(4), mirror.getMBeanCount());
+    assertEquals(1, this.loads);
+  }
+
+  @Test
+  public void defaultDomain() throws IOException {
+    RegistryMirror mirror = new RegistryMirror(() -> this.load(RUNTIME));
+
+    assertNull(mirror.queryNames(name(":type=Runtime")));
+    assertNull(mirror.isRegistered(name(":type=Runtime")));
+  }
+
+  @Test
+  public void notifications() throws IOException {
+    RegistryMirror mirror = new RegistryMirror(() -> this.load(RUNTIME, MEMORY));
+    assertEquals(Integer.valueOf(2), mirror.getMBeanCount());
+
+    mirror.handleNotification(registration(MBeanServerNotification.REGISTRATION_NOTIFICATION, LOGGING), null);
+    mirror.handleNotification(registration(MBeanServerNotification.UNREGISTRATION_NOTIFICATION, MEMORY), null);
+
+    assertEquals(set(RUNTIME, LOGGING), mirror.queryNames(null));
+    assertEquals(set(RUNTIME), mirror.queryNames(name("java.lang:*")));
+    assertEquals(Integer.valueOf(2), mirror.getMBeanCount());
+    assertEquals(1, this.loads);
+  }
+
+  @Test
+  public void notificationsWhileLoading() throws IOException {
+    RegistryMirror[] mirror = new RegistryMirror[1];
+    mirror[0] = new RegistryMirror(() -> {
+      // the loaded names already contain LOGGING
+      mirror[0].handleNotification(registration(MBeanServerNotification.REGISTRATION_NOTIFICATION, LOGGING), null);
+      mirror[0].handleNotification(registration(MBeanServerNotification.UNREGISTRATION_NOTIFICATION, RUNTIME), null);
+      return this.load(RUNTIME, LOGGING);
+    });
+
+    assertEquals(set(LOGGING), mirror[0].queryNames(null));
+    assertEquals(Integer.valueOf(1), mirror[0].getMBeanCount());
+  }
+
+  @Test
+  public void notificationsLost() throws IOException {
+    RegistryMirror mirror = new RegistryMirror(() -> this.load(RUNTIME));
+    assertEquals(Integer.valueOf(1), mirror.getMBeanCount());
+
+    mirror.notificationsLost();
+
+    assertEquals(Integer.valueOf(1), mirror.getMBeanCount());
+    assertEquals(2, this.loads);
+  }
+
+  @Test
+  public void notificationsLostWhileLoading() throws IOException {
+    RegistryMirror[] mirror = new RegistryMirror[1];
+    mirror[0] = new RegistryMirror(() -> {
+      mirror[0].notificationsLost();
+      return this.load(RUNTIME);
+    });
+
+    assertNull(mirror[0].queryNames(null));
+    assertNull(mirror[0].getMBeanCount());
+  }
+
+  @Test
+  public void ownChanges() throws IOException {
+    RegistryMirror mirror = new RegistryMirror(() -> this.load(RUNTIME, MEMORY));
+    assertEquals(Integer.valueOf(2), mirror.getMBeanCount());
+
+    // registered by this client, the notification did not arrive yet
+    mirror.changing(LOGGING);
+    assertNull(mirror.isRegistered(LOGGING));
+    assertNull(mirror.queryNames(null));
+    assertNull(mirror.queryNames(name("java.util.logging:*")));
+    assertNull(mirror.getMBeanCount());
+    // not involved
+    assertTrue(mirror.isRegistered(RUNTIME));
+    assertEquals(set(RUNTIME, MEMORY), mirror.queryNames(name("java.lang:*")));
+
+    mirror.handleNotification(registration(MBeanServerNotification.REGISTRATION_NOTIFICATION, LOGGING), null);
+    assertTrue(mirror.isRegistered(LOGGING));
+    assertEquals(Integer.valueOf(3), mirror.getMBeanCount());
+
+    // refused by the server
+    mirror.changing(MEMORY);
+    assertNull(mirror.isRegistered(MEMORY));
+    mirror.changeFailed(MEMORY);
+    assertTrue(mirror.isRegistered(MEMORY));
+    assertEquals(1, this.loads);
+
+    mirror.changing(MEMORY);
+    mirror.invalidate();
+    assertEquals(Integer.valueOf(2), mirror.getMBeanCount());
+    assertEquals(2, this.loads);
+  }
+
+  private Set<ObjectName> load(ObjectName... names) {
+    this.loads += 1;
+    return set(names);
+  }
+
+  private static MBeanServerNotification registration(String type, ObjectName name) {
+    return new MBeanServerNotification(type, MBeanServerDelegate.DELEGATE_NAME, 1L, name);
+  }
+
+  private static Set<ObjectName> set(ObjectName... names) {
+    return new HashSet<>(Arrays.asList(names));
+  }
+
+  private static ObjectName name(String name) {
+    try {
+      return new ObjectName(name);
+    } catch (MalformedObjectNameException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+}
@@ -0,0 +1,267 @@
+package com.github.marschall.jmxhttp.common.client;
+
+import static com.github.marschall.jmxhttp.common.http.HttpConstant.HEADER_DICTIONARY_ACKNOWLEDGEMENT;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Base64;
+import java.util.function.Function;
+
+import javax.management.JMException;
+
+import com.github.marschall.jmxhttp.common.codec.Codec;
+import com.github.marschall.jmxhttp.common.codec.CodecSession;
+import com.github.marschall.jmxhttp.common.codec.Codecs;
+import com.github.marschall.jmxhttp.common.command.Command;
+import com.github.marschall.jmxhttp.common.http.ContentEncoding;
+
+/**
+ * Encodes the commands of a connection and decodes the responses of the
+ * server, independent of the HTTP library used.
+ * <p>
+ * Holds the negotiated codec and content encodings and the
+ * {@link CodecSession} shared by all requests of the connection. Response
+ * headers are passed as a function from header name to value, returning
+ * {@code null} for missing headers.
+ */
+public final class ClientCodec {
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final Codec codec;
+  private final CodecSession session;
+  private final String acceptEncoding;
+  private final ContentEncoding requestEncoding;
+  private final int requestCompressionThreshold;
+  private final ClassLoader classLoader;
+
+  /**
+   * Constructs a new codec for a connection.
+   *
+   * @param codec the codec for requests and responses
+   * @param acceptEncoding the value of the {@code Accept-Encoding} header
+   * @param requestEncoding the encoding the server accepts for requests
+   * @param requestCompressionThreshold the size in bytes from which requests
+   *                                    are compressed, negative to never
+   *                                    compress
+   * @param classLoader the class loader for resolving classes of responses
+   */
+  public ClientCodec(Codec codec, String acceptEncoding, ContentEncoding requestEncoding, int requestCompressionThreshold, ClassLoader classLoader) {
+    this.codec = codec;
+    this.session = new CodecSession();
+    this.acceptEncoding = acceptEncoding;
+    this.requestEncoding = requestEncoding;
+    this.requestCompressionThreshold = requestCompressionThreshold;
+    this.classLoader = classLoader;
+  }
+
+  /**
+   * Returns the value of the {@code Content-Type} and {@code Accept} headers.
+   */
+  public String getContentType() {
+    return this.codec.getContentType();
+  }
+
+  /**
+   * Returns the value of the {@code Accept-Encoding} header.
+   */
+  public String getAcceptEncoding() {
+    return this.acceptEncoding;
+  }
+
+  /**
+   * Returns the value of the
+   * {@value com.github.marschall.jmxhttp.common.http.HttpConstant#HEADER_DICTIONARY_ACKNOWLEDGEMENT}
+   * header.
+   */
+  public String getAcknowledgement() {
+    return Integer.toString(this.session.getAcknowledgement());
+  }
+
+  /**
+   * Acknowledges the dictionary entries the server has seen.
+   *
+   * @param acknowledgement the value of the
+   *        {@value com.github.marschall.jmxhttp.common.http.HttpConstant#HEADER_DICTIONARY_ACKNOWLEDGEMENT}
+   *        response header, may be {@code null}
+   */
+  public void acknowledge(String acknowledgement) {
+    this.session.acknowledge(acknowledgement);
+  }
+
+  /**
+   * Encodes a command, compressing it if it is large enough and the server
+   * accepts compressed requests.
+   *
+   * @param command the command to encode
+   * @return the request body
+   * @throws IOException if the command can not be encoded
+   */
+  public RequestBody encode(Command<?> command) throws IOException {
+    // buffer first so that we know whether it is worth compressing
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    this.codec.writeObject(command, body, this.session);
+    ContentEncoding encoding = this.getRequestEncoding(body.size());
+    if (encoding == ContentEncoding.IDENTITY) {
+      return new RequestBody(body, encoding);
+    }
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, body.size() / 4));
+    try (OutputStream out = encoding.encode(compressed)) {
+      body.writeTo(out);
+    }
+    return new RequestBody(compressed, encoding);
+  }
+
+  private ContentEncoding getRequestEncoding(int size) {
+    int threshold = this.requestCompressionThreshold;
+    if (threshold < 0 || size < threshold) {
+      return ContentEncoding.IDENTITY;
+    }
+    return this.requestEncoding;
+  }
+
+  /**
+   * Reads the body of a successful response to a command.
+   *
+   * @see #readResponse(InputStream, Function, ClassLoader, CodecSession)
+   */
+  public Object readResponse(InputStream body, Function<String, String> headers) throws IOException, JMException {
+    return readResponse(body, headers, this.classLoader, this.session);
+  }
+
+  /**
+   * Reads the data of a notification event of a notification stream.
+   *
+   * @param data the Base64 encoded data of the event
+   * @return the decoded notifications
+   * @throws IOException if the data can not be decoded
+   * @throws ClassNotFoundException if a class of a notification can not be
+   *         resolved, the stream is still usable
+   */
+  public Object readEvent(String data) throws IOException, ClassNotFoundException {
+    byte[] decoded;
+    try {
+      decoded = Base64.getDecoder().decode(data);
+    } catch (IllegalArgumentException e) {
+      throw new IOException("invalid notification event", e);
+    }
+    return this.codec.readObject(new ByteArrayInputStream(decoded), this.classLoader, this.session);
+  }
+
+  /**
+   * Reads the body of a successful response.
+   * <p>
+   * The body is read to the end and closed so that the connection can be
+   * reused. Exceptions sent by the server are thrown.
+   *
+   * @param body the undecoded response body
+   * @param headers the response headers
+   * @param classLoader the class loader for resolving classes
+   * @param session the session of the connection, {@code null} before
+   *                registration
+   * @return the object sent by the server
+   * @throws IOException if the response can not be read or the server sent
+   *         an {@link IOException}
+   * @throws JMException if the server sent a {@link JMException}
+   */
+  public static Object readResponse(InputStream body, Function<String, String> headers, ClassLoader classLoader, CodecSession session) throws IOException, JMException {
+    if (session != null) {
+      session.acknowledge(headers.apply(HEADER_DICTIONARY_ACKNOWLEDGEMENT));
+    }
+    String contentEncoding = headers.apply("Content-Encoding");
+    ContentEncoding encoding = ContentEncoding.forContentEncoding(contentEncoding);
+    if (encoding == null) {
+      body.close();
+      throw new IOException("unsupported content encoding: " + contentEncoding);
+    }
+    Codec codec = getCodec(headers.apply("Content-Type"));
+    try (InputStream in = body;
+        InputStream decoded = encoding.decode(in)) {
+      Object result;
+      try {
+        result = codec.readObject(decoded, classLoader, session);
+      } catch (ClassNotFoundException e) {
+        throw new IOException("class not found", e);
+      }
+      // codecs don't necessarily read to the end, eg. the gzip trailer
+      drain(decoded);
+      drain(in);
+      return unwrapResult(result);
+    }
+  }
+
+  private static Codec getCodec(String contentType) throws IOException {
+    if (contentType == null) {
+      // servers before codec negotiation did not always set a content type
+      return Codecs.JAVA_SERIALIZATION;
+    }
+    Codec codec = Codecs.forContentType(contentType);
+    if (codec == null) {
+      throw new IOException("unsupported content type: " + contentType);
+    }
+    return codec;
+  }
+
+  private static void drain(InputStream in) throws IOException {
+    byte[] buffer = new byte[BUFFER_SIZE];
+    while (in.read(buffer) != -1) {
+      // discard
+    }
+  }
+
+  private static Object unwrapResult(Object result) throws IOException, JMException {
+    if (result instanceof RuntimeException) {
+      throw (RuntimeException) result;
+    }
+    if (result instanceof IOException) {
+      throw (IOException) result;
+    }
+    if (result instanceof JMException) {
+      throw (JMException) result;
+    }
+    if (result instanceof Exception) {
+      throw new IOException("exception occurred on server", (Exception) result);
+    }
+    return result;
+  }
+
+  /**
+   * An encoded command.
+   */
+  public static final class RequestBody {
+
+    private final ByteArrayOutputStream bytes;
+    private final ContentEncoding encoding;
+
+    RequestBody(ByteArrayOutputStream bytes, ContentEncoding encoding) {
+      this.bytes = bytes;
+      this.encoding = encoding;
+    }
+
+    /**
+     * Returns the value of the {@code Content-Encoding} header.
+     *
+     * @return the content coding, {@code null} if not compressed
+     */
+    public String getContentEncoding() {
+      return this.encoding != ContentEncoding.IDENTITY ? this.encoding.getToken() : null;
+    }
+
+    public int size() {
+      return this.bytes.size();
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+      this.bytes.writeTo(out);
+    }
+
+    public byte[] toByteArray() {
+      return this.bytes.toByteArray();
+    }
+
+  }
+
+}
@@ -0,0 +1,129 @@
+package com.github.marschall.jmxhttp.common.client;
+
+import java.lang.invoke.MethodHandles;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+
+/**
+ * The connection {@link NotificationListener}s of a
+ * {@link javax.management.remote.JMXConnector}.
+ * <p>
+ * Listeners are added and removed synchronously so that removing a listener
+ * that is not registered fails with a {@link ListenerNotFoundException}.
+ * Notifications are sent to a snapshot of the listeners, a listener may
+ * remove itself while handling a notification like VisualVM does.
+ */
+public final class ConnectionListeners {
+
+  private static final Logger LOG = Logger.getLogger(MethodHandles.lookup().lookupClass().getName());
+
+  private final List<Subscription> subscriptions;
+
+  public ConnectionListeners() {
+    this.subscriptions = new CopyOnWriteArrayList<>();
+  }
+
+  public void add(NotificationListener listener, NotificationFilter filter, Object handback) {
+    Objects.requireNonNull(listener, "listener must not be null");
+    this.subscriptions.add(new Subscription(listener, filter, handback));
+  }
+
+  /**
+   * Removes all registrations of a listener.
+   *
+   * @param listener the listener to remove
+   * @throws ListenerNotFoundException if the listener is not registered
+   */
+  public void remove(NotificationListener listener) throws ListenerNotFoundException {
+    if (!this.subscriptions.removeIf(subscription -> subscription.listener == listener)) {
+      throw new ListenerNotFoundException("listener: " + listener + " not found");
+    }
+  }
+
+  /**
+   * Removes the registration of a listener with exactly the given filter
+   * and handback.
+   *
+   * @param listener the listener to remove
+   * @param filter the filter the listener was added with
+   * @param handback the handback the listener was added with
+   * @throws ListenerNotFoundException if the listener is not registered with
+   *         the given filter and handback
+   */
+  public void remove(NotificationListener listener, NotificationFilter filter, Object handback) throws ListenerNotFoundException {
+    if (!this.subscriptions.remove(new Subscription(listener, filter, handback))) {
+      throw new ListenerNotFoundException("listener: " + listener + " not found");
+    }
+  }
+
+  public boolean isEmpty() {
+    return this.subscriptions.isEmpty();
+  }
+
+  /**
+   * Sends a notification to every listener whose filter enables it.
+   *
+   * @param notification the notification to send
+   */
+  public void send(Notification notification) {
+    for (Subscription subscription : this.subscriptions) {
+      NotificationFilter filter = subscription.filter;
+      if (filter != null && !filter.isNotificationEnabled(notification)) {
+        continue;
+      }
+      try {
+        subscription.listener.handleNotification(notification, subscription.handback);
+      } catch (RuntimeException e) {
+        // make sure the notification is delivered to all listeners
+        LOG.log(Level.WARNING, "exception occurred while delivering notification to listener", e);
+      }
+    }
+  }
+
+  static final class Subscription {
+
+    final NotificationListener listener;
+    final NotificationFilter filter;
+    final Object handback;
+
+    Subscription(NotificationListener listener, NotificationFilter filter, Object handback) {
+      this.listener = listener;
+      this.filter = filter;
+      this.handback = handback;
+    }
+
+    @Override
+    public int hashCode() {
+      int prime = 31;
+      int result = 17;
+      result = prime * result + System.identityHashCode(this.listener);
+      result = prime * result + Objects.hashCode(this.filter);
+      result = prime * result + Objects.hashCode(this.handback);
+      return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Subscription)) {
+        return false;
+      }
+      Subscription other = (Subscription) obj;
+      return this.listener == other.listener
+          && Objects.equals(this.filter, other.filter)
+          && Objects.equals(this.handback, other.handback);
+    }
+
+  }
+
+}
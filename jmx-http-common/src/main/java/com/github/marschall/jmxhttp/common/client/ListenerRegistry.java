@@ -0,0 +1,214 @@
+package com.github.marschall.jmxhttp.common.client;
+
+import java.lang.invoke.MethodHandles;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+
+import com.github.marschall.jmxhttp.common.http.RemoteNotification;
+
+/**
+ * Maps the {@link NotificationListener}s and handbacks of a connection to
+ * the ids sent to the server instead of them and delivers the
+ * {@link RemoteNotification}s the server sends back.
+ * <p>
+ * A listener or handback registered several times keeps its id, so that
+ * removing a listener from an MBean removes all its registrations there.
+ */
+public final class ListenerRegistry {
+
+  private static final Logger LOG = Logger.getLogger(MethodHandles.lookup().lookupClass().getName());
+
+  private final Lock idLock;
+  private final Map<Long, NotificationListener> listeners;
+  private final Map<NotificationListener, Long> listenersToId;
+  private long listenerIdGenerator;
+  private final Map<Long, Object> handbacks;
+  private final Map<Object, Long> handbacksToId;
+  private long handbackIdGenerator;
+
+  public ListenerRegistry() {
+    this.idLock = new ReentrantLock();
+    this.listeners = new HashMap<>();
+    this.listenersToId = new IdentityHashMap<>();
+    this.listenerIdGenerator = 0L;
+    this.handbacks = new HashMap<>();
+    this.handbacksToId = new IdentityHashMap<>();
+    this.handbackIdGenerator = 0L;
+  }
+
+  public long registerListener(NotificationListener listener) {
+    Objects.requireNonNull(listener, "listener must not be null");
+    this.idLock.lock();
+    try {
+      Long existing = this.listenersToId.get(listener);
+      if (existing != null) {
+        // the same listener may be registered on several MBeans
+        return existing;
+      }
+      this.listenerIdGenerator += 1L;
+      long id = this.listenerIdGenerator;
+      this.listeners.put(id, listener);
+      this.listenersToId.put(listener, id);
+      return id;
+    } finally {
+      this.idLock.unlock();
+    }
+  }
+
+  /**
+   * Returns the id of a handback, registers it if necessary.
+   *
+   * @param handback the handback, may be {@code null}
+   * @return the id of the handback, {@code null} for a {@code null} handback
+   */
+  public Long registerHandback(Object handback) {
+    if (handback == null) {
+      return null;
+    }
+    this.idLock.lock();
+    try {
+      Long existing = this.handbacksToId.get(handback);
+      if (existing != null) {
+        return existing;
+      }
+      this.handbackIdGenerator += 1L;
+      long id = this.handbackIdGenerator;
+      this.handbacks.put(id, handback);
+      this.handbacksToId.put(handback, id);
+      return id;
+    } finally {
+      this.idLock.unlock();
+    }
+  }
+
+  public long getListenerId(NotificationListener listener) throws ListenerNotFoundException {
+    this.idLock.lock();
+    try {
+      Long id = this.listenersToId.get(listener);
+      if (id == null) {
+        throw new ListenerNotFoundException("listener: " + listener + " not found");
+      }
+      return id;
+    } finally {
+      this.idLock.unlock();
+    }
+  }
+
+  public Long getHandbackId(Object handback) throws ListenerNotFoundException {
+    if (handback == null) {
+      return null;
+    }
+    this.idLock.lock();
+    try {
+      Long id = this.handbacksToId.get(handback);
+      if (id == null) {
+        throw new ListenerNotFoundException("handback: " + handback + " not found");
+      }
+      return id;
+    } finally {
+      this.idLock.unlock();
+    }
+  }
+
+  private NotificationListener getListener(long listenerId) {
+    this.idLock.lock();
+    try {
+      NotificationListener listener = this.listeners.get(listenerId);
+      if (listener == null) {
+        throw new NoSuchElementException("no listener found for id: " + listenerId);
+      }
+      return listener;
+    } finally {
+      this.idLock.unlock();
+    }
+  }
+
+  private Object getHandback(Long handbackId) {
+    if (handbackId == null) {
+      return null;
+    }
+    this.idLock.lock();
+    try {
+      Object handback = this.handbacks.get(handbackId);
+      if (handback == null) {
+        throw new NoSuchElementException("no handback found for id: " + handbackId);
+      }
+      return handback;
+    } finally {
+      this.idLock.unlock();
+    }
+  }
+
+  /**
+   * Delivers the notifications of a long poll response or a notification
+   * event to their listeners, skipping the ones already delivered.
+   *
+   * @param response the decoded response, should be a list of
+   *                 {@link RemoteNotification}s
+   * @param lastSequenceNumber the highest sequence number delivered so far
+   * @return the highest sequence number delivered after this response
+   */
+  public long deliver(Object response, long lastSequenceNumber) {
+    if (!(response instanceof List)) {
+      LOG.log(Level.WARNING, "response ignored, has to be " + List.class + " but was " + (response != null ? response.getClass() : "null"));
+      return lastSequenceNumber;
+    }
+    long delivered = lastSequenceNumber;
+    for (Object each : (List<?>) response) {
+      if (each instanceof RemoteNotification) {
+        RemoteNotification notification = (RemoteNotification) each;
+        long sequenceNumber = notification.getSequenceNumber();
+        if (sequenceNumber != 0L) {
+          if (sequenceNumber <= lastSequenceNumber) {
+            // sent again because the server did not see our acknowledgement
+            continue;
+          }
+          // notifications for several listeners share a sequence number
+          delivered = Math.max(delivered, sequenceNumber);
+        }
+        this.deliver(notification.getNotification(), notification.getListenerId(), notification.getObjectId());
+      } else {
+        LOG.log(Level.WARNING, "notification ignored, has to be " + RemoteNotification.class + " but was " + (each != null ? each.getClass() : "null"));
+      }
+    }
+    return delivered;
+  }
+
+  private void deliver(Notification notification, long listenerId, Long handbackId) {
+    try {
+      NotificationListener listener = this.getListener(listenerId);
+      Object handback = this.getHandback(handbackId);
+      listener.handleNotification(notification, handback);
+    } catch (RuntimeException e) {
+      LOG.log(Level.WARNING, "exception occurred while delivering notification to listener", e);
+    }
+  }
+
+  /**
+   * Forgets all listeners and handbacks.
+   */
+  public void clear() {
+    this.idLock.lock();
+    try {
+      this.listeners.clear();
+      this.listenersToId.clear();
+      this.handbacks.clear();
+      this.handbacksToId.clear();
+    } finally {
+      this.idLock.unlock();
+    }
+  }
+
+}
@@ -0,0 +1,59 @@
+package com.github.marschall.jmxhttp.common.client;
+
+import static com.github.marschall.jmxhttp.common.http.HttpConstant.ACTION_LISTEN;
+import static com.github.marschall.jmxhttp.common.http.HttpConstant.ACTION_REGISTER;
+import static com.github.marschall.jmxhttp.common.http.HttpConstant.ACTION_STREAM;
+import static com.github.marschall.jmxhttp.common.http.HttpConstant.ACTION_UNREGISTER;
+import static com.github.marschall.jmxhttp.common.http.HttpConstant.PARAMETER_ACTION;
+import static com.github.marschall.jmxhttp.common.http.HttpConstant.PARAMETER_CORRELATION_ID;
+import static com.github.marschall.jmxhttp.common.http.HttpConstant.PARAMETER_SEQUENCE_NUMBER;
+
+/**
+ * Builds the URLs of the requests a client sends to the servlet.
+ * <p>
+ * All methods take the URL of the servlet without a query string and
+ * return the request URL as a string, the client converts it to the type
+ * its HTTP library needs.
+ */
+public final class RequestUrls {
+
+  private RequestUrls() {
+    throw new AssertionError("not instantiable");
+  }
+
+  public static String register(String servletUrl) {
+    return servletUrl + '?' + PARAMETER_ACTION + '=' + ACTION_REGISTER;
+  }
+
+  public static String unregister(String servletUrl, long correlationId) {
+    return servletUrl + '?' + PARAMETER_ACTION + '=' + ACTION_UNREGISTER + '&' + PARAMETER_CORRELATION_ID + '=' + correlationId;
+  }
+
+  /**
+   * Returns the URL commands are posted to.
+   */
+  public static String command(String servletUrl, long correlationId) {
+    return servletUrl + '?' + PARAMETER_CORRELATION_ID + '=' + correlationId;
+  }
+
+  /**
+   * Returns the URL of a long poll, acknowledging the notifications
+   * received so far.
+   */
+  public static String listen(String servletUrl, long correlationId, long sequenceNumber) {
+    return notifications(servletUrl, correlationId, ACTION_LISTEN, sequenceNumber);
+  }
+
+  /**
+   * Returns the URL of a notification stream, acknowledging the
+   * notifications received so far.
+   */
+  public static String stream(String servletUrl, long correlationId, long sequenceNumber) {
+    return notifications(servletUrl, correlationId, ACTION_STREAM, sequenceNumber);
+  }
+
+  private static String notifications(String servletUrl, long correlationId, String action, long sequenceNumber) {
+    return servletUrl + '?' + PARAMETER_CORRELATION_ID + '=' + correlationId + '&' + PARAMETER_ACTION + '=' + action + '&' + PARAMETER_SEQUENCE_NUMBER + '=' + sequenceNumber;
+  }
+
+}
@@ -0,0 +1,1098 @@
+package com.github.marschall.jmxhttp.common.codec;
+
+import static com.github.marschall.jmxhttp.common.http.HttpConstant.JMX_HTTP_BINARY;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.JMException;
+import javax.management.MBeanServerNotification;
+import javax.management.MalformedObjectNameException;
+import javax.management.Notification;
+import javax.management.NotificationFilter;
+import javax.management.ObjectInstance;
+import javax.management.ObjectName;
+import javax.management.QueryExp;
+
+import com.github.marschall.jmxhttp.common.command.AddAttributeSampling;
+import com.github.marschall.jmxhttp.common.command.AddAttributeWatch;
+import com.github.marschall.jmxhttp.common.command.AddNotificationListener;
+import com.github.marschall.jmxhttp.common.command.AddNotificationListenerRemote;
+import com.github.marschall.jmxhttp.common.command.BatchCommand;
+import com.github.marschall.jmxhttp.common.command.BatchResult;
+import com.github.marschall.jmxhttp.common.command.ClassLoaderObjectInputStream;
+import com.github.marschall.jmxhttp.common.command.Command;
+import com.github.marschall.jmxhttp.common.command.CreateMBean;
+import com.github.marschall.jmxhttp.common.command.DeserializationFilter;
+import com.github.marschall.jmxhttp.common.command.GetAttribute;
+import com.github.marschall.jmxhttp.common.command.GetAttributes;
+import com.github.marschall.jmxhttp.common.command.GetDefaultDomain;
+import com.github.marschall.jmxhttp.common.command.GetDomains;
+import com.github.marschall.jmxhttp.common.command.GetMBeanCount;
+import com.github.marschall.jmxhttp.common.command.GetMBeanInfo;
+import com.github.marschall.jmxhttp.common.command.GetObjectInstance;
+import com.github.marschall.jmxhttp.common.command.Invoke;
+import com.github.marschall.jmxhttp.common.command.IsInstanceOf;
+import com.github.marschall.jmxhttp.common.command.IsRegistered;
+import com.github.marschall.jmxhttp.common.command.QueryAttributes;
+import com.github.marschall.jmxhttp.common.command.QueryMBeans;
+import com.github.marschall.jmxhttp.common.command.QueryNames;
+import com.github.marschall.jmxhttp.common.command.RemoveNotificationListener;
+import com.github.marschall.jmxhttp.common.command.RemoveNotificationListenerRemote;
+import com.github.marschall.jmxhttp.common.command.SetAttribute;
+import com.github.marschall.jmxhttp.common.command.SetAttributes;
+import com.github.marschall.jmxhttp.common.command.Threshold;
+import com.github.marschall.jmxhttp.common.command.UnregisterMBean;
+import com.github.marschall.jmxhttp.common.http.Registration;
+import com.github.marschall.jmxhttp.common.http.RemoteNotification;
+
+/**
+ * A compact binary encoding.
+ * <p>
+ * Every value is written as a one byte tag followed by the payload of the
+ * value. All commands, primitive wrappers, strings and the most common
+ * JMX types are encoded natively, all other objects are written as a
+ * length prefixed Java serialization stream.
+ * <p>
+ * Lengths are written as unsigned variable length integers, seven bits
+ * per byte, least significant group first. Lengths read are limited by
+ * {@link DeserializationFilter#getMaxArrayLength()} and memory is only
+ * allocated as the data arrives, a forged length fails at the end of the
+ * stream instead of exhausting the heap.
+ * <p>
+ * Object names, attribute names, class names and notification types are
+ * written as symbols. Within a {@link CodecSession} symbols are entered into
+ * the dictionary of the session and referenced by id once the peer has
+ * acknowledged them. The definitions not yet acknowledged are written in
+ * front of the value.
+ */
+final class BinaryCodec implements Codec {
+
+  private static final int VERSION = 1;
+
+  private final DeserializationFilter filter;
+
+  private static final int NULL = 0;
+  private static final int TRUE = 1;
+  private static final int FALSE = 2;
+  private static final int BYTE = 3;
+  private static final int SHORT = 4;
+  private static final int CHARACTER = 5;
+  private static final int INTEGER = 6;
+  private static final int LONG = 7;
+  private static final int FLOAT = 8;
+  private static final int DOUBLE = 9;
+  private static final int STRING = 10;
+
+  private static final int STRING_ARRAY = 11;
+  private static final int OBJECT_ARRAY = 12;
+  private static final int BYTE_ARRAY = 13;
+  private static final int INT_ARRAY = 14;
+  private static final int LONG_ARRAY = 15;
+  private static final int DOUBLE_ARRAY = 16;
+  private static final int LIST = 17;
+  private static final int SET = 18;
+  private static final int MAP = 19;
+
+  private static final int OBJECT_NAME = 20;
+  private static final int ATTRIBUTE = 21;
+  private static final int ATTRIBUTE_LIST = 22;
+  private static final int OBJECT_INSTANCE = 23;
+  private static final int NOTIFICATION = 24;
+  private static final int MBEAN_SERVER_NOTIFICATION = 25;
+
+  private static final int REMOTE_NOTIFICATION = 30;
+  private static final int REGISTRATION = 31;
+  private static final int BATCH_RESULT_SUCCESS = 32;
+  private static final int BATCH_RESULT_FAILURE = 33;
+  private static final int SEQUENCED_REMOTE_NOTIFICATION = 34;
+
+  private static final int ADD_NOTIFICATION_LISTENER = 40;
+  private static final int ADD_NOTIFICATION_LISTENER_REMOTE = 41;
+  private static final int BATCH_COMMAND = 42;
+  private static final int CREATE_MBEAN = 43;
+  private static final int GET_ATTRIBUTE = 44;
+  private static final int GET_ATTRIBUTES = 45;
+  private static final int GET_DEFAULT_DOMAIN = 46;
+  private static final int GET_DOMAINS = 47;
+  private static final int GET_MBEAN_COUNT = 48;
+  private static final int GET_MBEAN_INFO = 49;
+  private static final int GET_OBJECT_INSTANCE = 50;
+  private static final int INVOKE = 51;
+  private static final int IS_INSTANCE_OF = 52;
+  private static final int IS_REGISTERED = 53;
+  private static final int QUERY_MBEANS = 54;
+  private static final int QUERY_NAMES = 55;
+  private static final int REMOVE_NOTIFICATION_LISTENER = 56;
+  private static final int REMOVE_NOTIFICATION_LISTENER_REMOTE = 57;
+  private static final int SET_ATTRIBUTE = 58;
+  private static final int SET_ATTRIBUTES = 59;
+  private static final int UNREGISTER_MBEAN = 60;
+  private static final int QUERY_ATTRIBUTES = 61;
+  private static final int ADD_ATTRIBUTE_SAMPLING = 62;
+  private static final int ADD_ATTRIBUTE_WATCH = 63;
+
+  private static final int SERIALIZED = 127;
+
+  private static final int SYMBOL_STRING = 0;
+  private static final int SYMBOL_OBJECT_NAME = 1;
+
+  /**
+   * Query results cached by the server, decoded as a {@link HashSet}.
+   */
+  private static final Class<?> UNMODIFIABLE_SET = Collections.unmodifiableSet(Collections.emptySet()).getClass();
+
+  BinaryCodec() {
+    this(DeserializationFilter.allowAll());
+  }
+
+  BinaryCodec(DeserializationFilter filter) {
+    this.filter = filter;
+  }
+
+  @Override
+  public Codec withFilter(DeserializationFilter filter) {
+    return new BinaryCodec(filter);
+  }
+
+  @Override
+  public String getContentType() {
+    return JMX_HTTP_BINARY;
+  }
+
+  @Override
+  public void writeObject(Object object, OutputStream out, CodecSession session) throws IOException {
+    DataOutputStream stream = new DataOutputStream(out);
+    stream.writeByte(VERSION);
+    if (session == null) {
+      Encoder encoder = new Encoder(stream, null);
+      // no definitions
+      encoder.writeLength(0);
+      encoder.writeLength(0);
+      encoder.writeValue(object);
+    } else {
+      // encoding the value may add new definitions, so encode it first
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      DataOutputStream bodyStream = new DataOutputStream(body);
+      new Encoder(bodyStream, session).writeValue(object);
+      bodyStream.flush();
+
+      new Encoder(stream, null).writeDefinitions(session.getOutbound().getUnacknowledged());
+      body.writeTo(stream);
+    }
+    stream.flush();
+  }
+
+  @Override
+  public Object readObject(InputStream in, ClassLoader classLoader, CodecSession session) throws IOException, ClassNotFoundException {
+    DataInputStream stream = new DataInputStream(in);
+    int version = stream.readUnsignedByte();
+    if (version != VERSION) {
+      throw new StreamCorruptedException("unsupported version: " + version);
+    }
+    Decoder decoder = new Decoder(stream, classLoader, session, this.filter);
+    decoder.readDefinitions();
+    return decoder.readValue();
+  }
+
+  static final class Encoder {
+
+    private final DataOutputStream out;
+    private final CodecSession session;
+
+    Encoder(DataOutputStream out, CodecSession session) {
+      this.out = out;
+      this.session = session;
+    }
+
+    void writeDefinitions(CodecSession.Definitions definitions) throws IOException {
+      this.writeLength(definitions.firstId);
+      this.writeLength(definitions.values.size());
+      for (Object each : definitions.values) {
+        if (each instanceof ObjectName) {
+          this.out.writeByte(SYMBOL_OBJECT_NAME);
+        } else {
+          this.out.writeByte(SYMBOL_STRING);
+        }
+        this.writeString(each.toString());
+      }
+    }
+
+    void writeValue(Object value) throws IOException {
+      if (value == null) {
+        this.out.writeByte(NULL);
+        return;
+      }
+      Class<?> type = value.getClass();
+      if (type == String.class) {
+        this.out.writeByte(STRING);
+        this.writeString((String) value);
+      } else if (type == Boolean.class) {
+        this.out.writeByte((Boolean) value ? TRUE : FALSE);
+      } else if (type == Integer.class) {
+        this.out.writeByte(INTEGER);
+        this.out.writeInt((Integer) value);
+      } else if (type == Long.class) {
+        this.out.writeByte(LONG);
+        this.out.writeLong((Long) value);
+      } else if (type == Double.class) {
+        this.out.writeByte(DOUBLE);
+        this.out.writeDouble((Double) value);
+      } else if (type == Float.class) {
+        this.out.writeByte(FLOAT);
+        this.out.writeFloat((Float) value);
+      } else if (type == Byte.class) {
+        this.out.writeByte(BYTE);
+        this.out.writeByte((Byte) value);
+      } else if (type == Short.class) {
+        this.out.writeByte(SHORT);
+        this.out.writeShort((Short) value);
+      } else if (type == Character.class) {
+        this.out.writeByte(CHARACTER);
+        this.out.writeChar((Character) value);
+      } else if (type == ObjectName.class) {
+        this.out.writeByte(OBJECT_NAME);
+        this.writeObjectName((ObjectName) value);
+      } else if (type == Attribute.class) {
+        this.out.writeByte(ATTRIBUTE);
+        this.writeAttribute((Attribute) value);
+      } else if (type == AttributeList.class && isAttributesOnly((AttributeList) value)) {
+        this.out.writeByte(ATTRIBUTE_LIST);
+        this.writeAttributeList((AttributeList) value);
+      } else if (type == ObjectInstance.class) {
+        ObjectInstance instance = (ObjectInstance) value;
+        this.out.writeByte(OBJECT_INSTANCE);
+        this.writeObjectName(instance.getObjectName());
+        this.writeSymbol(instance.getClassName());
+      } else if (type == ArrayList.class || value == Collections.emptyList()) {
+        this.out.writeByte(LIST);
+        this.writeElements((List<?>) value);
+      } else if (type == HashSet.class || type == UNMODIFIABLE_SET || value == Collections.emptySet()) {
+        this.out.writeByte(SET);
+        this.writeElements((Set<?>) value);
+      } else if (type == HashMap.class || value == Collections.emptyMap()) {
+        this.out.writeByte(MAP);
+        this.writeEntries((Map<?, ?>) value);
+      } else if (type == String[].class) {
+        String[] array = (String[]) value;
+        this.out.writeByte(STRING_ARRAY);
+        this.writeStringArray(array);
+      } else if (type == Object[].class) {
+        this.out.writeByte(OBJECT_ARRAY);
+        this.writeObjectArray((Object[]) value);
+      } else if (type == byte[].class) {
+        byte[] array = (byte[]) value;
+        this.out.writeByte(BYTE_ARRAY);
+        this.writeLength(array.length);
+        this.out.write(array);
+      } else if (type == int[].class) {
+        int[] array = (int[]) value;
+        this.out.writeByte(INT_ARRAY);
+        this.writeLength(array.length);
+        for (int each : array) {
+          this.out.writeInt(each);
+        }
+      } else if (type == long[].class) {
+        long[] array = (long[]) value;
+        this.out.writeByte(LONG_ARRAY);
+        this.writeLength(array.length);
+        for (long each : array) {
+          this.out.writeLong(each);
+        }
+      } else if (type == double[].class) {
+        double[] array = (double[]) value;
+        this.out.writeByte(DOUBLE_ARRAY);
+        this.writeLength(array.length);
+        for (double each : array) {
+          this.out.writeDouble(each);
+        }
+      } else if (type == Notification.class && ((Notification) value).getSource() != null) {
+        this.out.writeByte(NOTIFICATION);
+        this.writeNotification((Notification) value);
+      } else if (type == MBeanServerNotification.class && ((Notification) value).getSource() != null) {
+        MBeanServerNotification notification = (MBeanServerNotification) value;
+        this.out.writeByte(MBEAN_SERVER_NOTIFICATION);
+        this.writeNotification(notification);
+        this.writeObjectName(notification.getMBeanName());
+      } else if (type == RemoteNotification.class) {
+        RemoteNotification notification = (RemoteNotification) value;
+        this.out.writeByte(SEQUENCED_REMOTE_NOTIFICATION);
+        this.writeValue(notification.getNotification());
+        this.out.writeLong(notification.getListenerId());
+        this.writeValue(notification.getObjectId());
+        this.out.writeLong(notification.getSequenceNumber());
+      } else if (type == Registration.class) {
+        Registration registration = (Registration) value;
+        this.out.writeByte(REGISTRATION);
+        this.out.writeLong(registration.getCorrelationId());
+        this.out.writeLong(registration.getTimeoutMilliseconds());
+      } else if (type == BatchResult.class) {
+        this.writeBatchResult((BatchResult) value);
+      } else if (value instanceof Command) {
+        this.writeCommand((Command<?>) value);
+      } else {
+        this.writeSerialized(value);
+      }
+    }
+
+    private static boolean isAttributesOnly(AttributeList list) {
+      for (Object each : list) {
+        if (each == null || each.getClass() != Attribute.class) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void writeCommand(Command<?> command) throws IOException {
+      Class<?> type = command.getClass();
+      if (type == GetAttribute.class) {
+        GetAttribute getAttribute = (GetAttribute) command;
+        this.out.writeByte(GET_ATTRIBUTE);
+        this.writeObjectName(getAttribute.getName());
+        this.writeSymbol(getAttribute.getAttribute());
+      } else if (type == GetAttributes.class) {
+        GetAttributes getAttributes = (GetAttributes) command;
+        this.out.writeByte(GET_ATTRIBUTES);
+        this.writeObjectName(getAttributes.getName());
+        this.writeSymbolArray(getAttributes.getAttributes());
+      } else if (type == QueryAttributes.class) {
+        QueryAttributes queryAttributes = (QueryAttributes) command;
+        this.out.writeByte(QUERY_ATTRIBUTES);
+        this.writeObjectName(queryAttributes.getName());
+        this.writeValue(queryAttributes.getQuery());
+        this.writeSymbolArray(queryAttributes.getAttributes());
+      } else if (type == IsRegistered.class) {
+        this.out.writeByte(IS_REGISTERED);
+        this.writeObjectName(((IsRegistered) command).getName());
+      } else if (type == QueryNames.class) {
+        QueryNames queryNames = (QueryNames) command;
+        this.out.writeByte(QUERY_NAMES);
+        this.writeObjectName(queryNames.getName());
+        this.writeValue(queryNames.getQuery());
+      } else if (type == QueryMBeans.class) {
+        QueryMBeans queryMBeans = (QueryMBeans) command;
+        this.out.writeByte(QUERY_MBEANS);
+        this.writeObjectName(queryMBeans.getName());
+        this.writeValue(queryMBeans.getQuery());
+      } else if (type == GetMBeanInfo.class) {
+        this.out.writeByte(GET_MBEAN_INFO);
+        this.writeObjectName(((GetMBeanInfo) command).getName());
+      } else if (type == GetObjectInstance.class) {
+        this.out.writeByte(GET_OBJECT_INSTANCE);
+        this.writeObjectName(((GetObjectInstance) command).getName());
+      } else if (type == IsInstanceOf.class) {
+        IsInstanceOf isInstanceOf = (IsInstanceOf) command;
+        this.out.writeByte(IS_INSTANCE_OF);
+        this.writeObjectName(isInstanceOf.getName());
+        this.writeSymbol(isInstanceOf.getClassName());
+      } else if (type == Invoke.class) {
+        Invoke invoke = (Invoke) command;
+        this.out.writeByte(INVOKE);
+        this.writeObjectName(invoke.getName());
+        this.writeSymbol(invoke.getOperationName());
+        this.writeObjectArray(invoke.getParams());
+        this.writeSymbolArray(invoke.getSignature());
+      } else if (type == SetAttribute.class) {
+        SetAttribute setAttribute = (SetAttribute) command;
+        this.out.writeByte(SET_ATTRIBUTE);
+        this.writeObjectName(setAttribute.getName());
+        this.writeValue(setAttribute.getAttribute());
+      } else if (type == SetAttributes.class) {
+        SetAttributes setAttributes = (SetAttributes) command;
+        this.out.writeByte(SET_ATTRIBUTES);
+        this.writeObjectName(setAttributes.getName());
+        this.writeValue(setAttributes.getAttributes());
+      } else if (type == GetMBeanCount.class) {
+        this.out.writeByte(GET_MBEAN_COUNT);
+      } else if (type == GetDefaultDomain.class) {
+        this.out.writeByte(GET_DEFAULT_DOMAIN);
+      } else if (type == GetDomains.class) {
+        this.out.writeByte(GET_DOMAINS);
+      } else if (type == BatchCommand.class) {
+        List<Command<?>> commands = ((BatchCommand) command).getCommands();
+        this.out.writeByte(BATCH_COMMAND);
+        this.writeLength(commands.size());
+        for (Command<?> each : commands) {
+          this.writeValue(each);
+        }
+      } else if (type == CreateMBean.class) {
+        CreateMBean createMBean = (CreateMBean) command;
+        this.out.writeByte(CREATE_MBEAN);
+        this.writeSymbol(createMBean.getClassName());
+        this.writeObjectName(createMBean.getName());
+        this.writeObjectName(createMBean.getLoaderName());
+        this.writeObjectArray(createMBean.getParams());
+        this.writeSymbolArray(createMBean.getSignature());
+      } else if (type == UnregisterMBean.class) {
+        this.out.writeByte(UNREGISTER_MBEAN);
+        this.writeObjectName(((UnregisterMBean) command).getName());
+      } else if (type == AddNotificationListener.class) {
+        AddNotificationListener add = (AddNotificationListener) command;
+        this.out.writeByte(ADD_NOTIFICATION_LISTENER);
+        this.writeObjectName(add.getName());
+        this.writeObjectName(add.getListenerName());
+        this.writeValue(add.getFilter());
+        this.writeValue(add.getHandback());
+      } else if (type == AddNotificationListenerRemote.class) {
+        AddNotificationListenerRemote add = (AddNotificationListenerRemote) command;
+        this.out.writeByte(ADD_NOTIFICATION_LISTENER_REMOTE);
+        this.writeObjectName(add.getName());
+        this.out.writeLong(add.getListenerId());
+        this.writeValue(add.getFilter());
+        this.writeValue(add.getHandbackId());
+      } else if (type == AddAttributeSampling.class) {
+        AddAttributeSampling add = (AddAttributeSampling) command;
+        this.out.writeByte(ADD_ATTRIBUTE_SAMPLING);
+        this.writeObjectName(add.getName());
+        this.writeSymbolArray(add.getAttributes());
+        this.out.writeLong(add.getPeriodMillis());
+        this.out.writeLong(add.getListenerId());
+        this.writeValue(add.getHandbackId());
+      } else if (type == AddAttributeWatch.class) {
+        AddAttributeWatch add = (AddAttributeWatch) command;
+        this.out.writeByte(ADD_ATTRIBUTE_WATCH);
+        this.writeObjectName(add.getName());
+        this.writeSymbol(add.getAttribute());
+        this.writeValue(add.getThreshold());
+        this.out.writeLong(add.getPeriodMillis());
+        this.out.writeLong(add.getListenerId());
+        this.writeValue(add.getHandbackId());
+      } else if (type == RemoveNotificationListener.class) {
+        RemoveNotificationListener remove = (RemoveNotificationListener) command;
+        this.out.writeByte(REMOVE_NOTIFICATION_LISTENER);
+        this.writeObjectName(remove.getName());
+        this.writeObjectName(remove.getListenerName());
+        this.out.writeBoolean(remove.hasArguments());
+        if (remove.hasArguments()) {
+          this.writeValue(remove.getFilter());
+          this.writeValue(remove.getHandback());
+        }
+      } else if (type == RemoveNotificationListenerRemote.class) {
+        RemoveNotificationListenerRemote remove = (RemoveNotificationListenerRemote) command;
+        this.out.writeByte(REMOVE_NOTIFICATION_LISTENER_REMOTE);
+        this.writeObjectName(remove.getName());
+        this.out.writeLong(remove.getListenerId());
+        this.out.writeBoolean(remove.hasArguments());
+        if (remove.hasArguments()) {
+          this.writeValue(remove.getFilter());
+          this.writeValue(remove.getHandbackId());
+        }
+      } else {
+        this.writeSerialized(command);
+      }
+    }
+
+    private void writeBatchResult(BatchResult result) throws IOException {
+      if (result.isFailure()) {
+        this.out.writeByte(BATCH_RESULT_FAILURE);
+        this.writeValue(result.getException());
+      } else {
+        this.out.writeByte(BATCH_RESULT_SUCCESS);
+        try {
+          this.writeValue(result.getValue());
+        } catch (JMException e) {
+          // can't happen, not a failure
+          throw new IOException("could not get value", e);
+        }
+      }
+    }
+
+    private void writeNotification(Notification notification) throws IOException {
+      this.writeSymbol(notification.getType());
+      this.writeValue(notification.getSource());
+      this.out.writeLong(notification.getSequenceNumber());
+      this.out.writeLong(notification.getTimeStamp());
+      this.writeString(notification.getMessage());
+      this.writeValue(notification.getUserData());
+    }
+
+    private void writeAttribute(Attribute attribute) throws IOException {
+      this.writeSymbol(attribute.getName());
+      this.writeValue(attribute.getValue());
+    }
+
+    private void writeAttributeList(AttributeList list) throws IOException {
+      this.writeLength(list.size());
+      for (Object each : list) {
+        this.writeAttribute((Attribute) each);
+      }
+    }
+
+    private void writeElements(Iterable<?> elements) throws IOException {
+      int size = elements instanceof List ? ((List<?>) elements).size() : ((Set<?>) elements).size();
+      this.writeLength(size);
+      for (Object each : elements) {
+        this.writeValue(each);
+      }
+    }
+
+    private void writeEntries(Map<?, ?> map) throws IOException {
+      this.writeLength(map.size());
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        this.writeValue(entry.getKey());
+        this.writeValue(entry.getValue());
+      }
+    }
+
+    private void writeObjectArray(Object[] array) throws IOException {
+      if (array == null) {
+        this.out.writeByte(0);
+        return;
+      }
+      this.writeLength(array.length + 1);
+      for (Object each : array) {
+        this.writeValue(each);
+      }
+    }
+
+    private void writeStringArray(String[] array) throws IOException {
+      if (array == null) {
+        this.out.writeByte(0);
+        return;
+      }
+      this.writeLength(array.length + 1);
+      for (String each : array) {
+        this.writeString(each);
+      }
+    }
+
+    private void writeSymbolArray(String[] array) throws IOException {
+      if (array == null) {
+        this.out.writeByte(0);
+        return;
+      }
+      this.writeLength(array.length + 1);
+      for (String each : array) {
+        this.writeSymbol(each);
+      }
+    }
+
+    void writeObjectName(ObjectName name) throws IOException {
+      this.writeSymbol(name, name == null ? null : name.toString());
+    }
+
+    void writeSymbol(String s) throws IOException {
+      this.writeSymbol(s, s);
+    }
+
+    /**
+     * Writes a symbol, {@code null} is allowed.
+     * <p>
+     * A symbol is written as a length. Zero stands for {@code null}, an odd
+     * value is a dictionary id shifted left by one, an even value is the
+     * length plus one of the following inline string shifted left by one.
+     */
+    private void writeSymbol(Object key, String s) throws IOException {
+      if (key == null) {
+        this.out.writeByte(0);
+        return;
+      }
+      int id = this.session != null ? this.session.getOutbound().getId(key) : -1;
+      if (id >= 0) {
+        this.writeLength((id << 1) | 1);
+      } else {
+        byte[] bytes = s.getBytes(UTF_8);
+        this.writeLength((bytes.length + 1) << 1);
+        this.out.write(bytes);
+      }
+    }
+
+    /**
+     * Writes a string, {@code null} is allowed.
+     */
+    void writeString(String s) throws IOException {
+      if (s == null) {
+        this.out.writeByte(0);
+        return;
+      }
+      byte[] bytes = s.getBytes(UTF_8);
+      this.writeLength(bytes.length + 1);
+      this.out.write(bytes);
+    }
+
+    void writeLength(int length) throws IOException {
+      int value = length;
+      while ((value & ~0x7F) != 0) {
+        this.out.writeByte((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      this.out.writeByte(value);
+    }
+
+    private void writeSerialized(Object value) throws IOException {
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+      try (ObjectOutputStream stream = new ObjectOutputStream(buffer)) {
+        stream.writeObject(value);
+      }
+      this.out.writeByte(SERIALIZED);
+      this.writeLength(buffer.size());
+      buffer.writeTo(this.out);
+    }
+
+  }
+
+  static final class Decoder {
+
+    /**
+     * The initial capacity of arrays, they grow as the elements are read.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final DataInputStream in;
+    private final ClassLoader classLoader;
+    private final CodecSession session;
+    private final DeserializationFilter filter;
+    private final int maxLength;
+
+    Decoder(DataInputStream in, ClassLoader classLoader, CodecSession session, DeserializationFilter filter) {
+      this.in = in;
+      this.classLoader = classLoader;
+      this.session = session;
+      this.filter = filter;
+      this.maxLength = filter.getMaxArrayLength();
+    }
+
+    void readDefinitions() throws IOException {
+      int firstId = this.readLength();
+      int count = this.readSize();
+      if (count > 0 && this.session == null) {
+        throw new StreamCorruptedException("dictionary definitions outside of a session");
+      }
+      for (int i = 0; i < count; i++) {
+        int kind = this.in.readUnsignedByte();
+        String value = this.readString();
+        switch (kind) {
+          case SYMBOL_STRING:
+            this.session.getInbound().define(firstId + i, value);
+            break;
+          case SYMBOL_OBJECT_NAME:
+            this.session.getInbound().define(firstId + i, parseObjectName(value));
+            break;
+          default:
+            throw new StreamCorruptedException("unknown symbol kind: " + kind);
+        }
+      }
+    }
+
+    Object readValue() throws IOException, ClassNotFoundException {
+      int tag = this.in.readUnsignedByte();
+      switch (tag) {
+        case NULL:
+          return null;
+        case TRUE:
+          return Boolean.TRUE;
+        case FALSE:
+          return Boolean.FALSE;
+        case BYTE:
+          return this.in.readByte();
+        case SHORT:
+          return this.in.readShort();
+        case CHARACTER:
+          return this.in.readChar();
+        case INTEGER:
+          return this.in.readInt();
+        case LONG:
+          return this.in.readLong();
+        case FLOAT:
+          return this.in.readFloat();
+        case DOUBLE:
+          return this.in.readDouble();
+        case STRING:
+          return this.readString();
+        case STRING_ARRAY:
+          return this.readStringArray();
+        case OBJECT_ARRAY:
+          return this.readObjectArray();
+        case BYTE_ARRAY:
+          return this.readBytes(this.readSize());
+        case INT_ARRAY: {
+          int length = this.readSize();
+          int[] array = new int[Math.min(length, INITIAL_CAPACITY)];
+          for (int i = 0; i < length; i++) {
+            if (i == array.length) {
+              array = Arrays.copyOf(array, grow(array.length, length));
+            }
+            array[i] = this.in.readInt();
+          }
+          return array;
+        }
+        case LONG_ARRAY: {
+          int length = this.readSize();
+          long[] array = new long[Math.min(length, INITIAL_CAPACITY)];
+          for (int i = 0; i < length; i++) {
+            if (i == array.length) {
+              array = Arrays.copyOf(array, grow(array.length, length));
+            }
+            array[i] = this.in.readLong();
+          }
+          return array;
+        }
+        case DOUBLE_ARRAY: {
+          int length = this.readSize();
+          double[] array = new double[Math.min(length, INITIAL_CAPACITY)];
+          for (int i = 0; i < length; i++) {
+            if (i == array.length) {
+              array = Arrays.copyOf(array, grow(array.length, length));
+            }
+            array[i] = this.in.readDouble();
+          }
+          return array;
+        }
+        case LIST: {
+          int size = this.readSize();
+          List<Object> list = new ArrayList<>();
+          for (int i = 0; i < size; i++) {
+            list.add(this.readValue());
+          }
+          return list;
+        }
+        case SET: {
+          int size = this.readSize();
+          Set<Object> set = new HashSet<>();
+          for (int i = 0; i < size; i++) {
+            set.add(this.readValue());
+          }
+          return set;
+        }
+        case MAP: {
+          int size = this.readSize();
+          Map<Object, Object> map = new HashMap<>();
+          for (int i = 0; i < size; i++) {
+            map.put(this.readValue(), this.readValue());
+          }
+          return map;
+        }
+        case OBJECT_NAME:
+          return this.readObjectName();
+        case ATTRIBUTE:
+          return this.readAttribute();
+        case ATTRIBUTE_LIST:
+          return this.readAttributeList();
+        case OBJECT_INSTANCE:
+          return new ObjectInstance(this.readObjectName(), this.readSymbol());
+        case NOTIFICATION:
+          return this.readNotification();
+        case MBEAN_SERVER_NOTIFICATION:
+          return this.readMBeanServerNotification();
+        case REMOTE_NOTIFICATION:
+          return new RemoteNotification(this.readTyped(Notification.class), this.in.readLong(), this.readTyped(Long.class));
+        case SEQUENCED_REMOTE_NOTIFICATION:
+          return new RemoteNotification(this.readTyped(Notification.class), this.in.readLong(), this.readTyped(Long.class), this.in.readLong());
+        case REGISTRATION:
+          return new Registration(this.in.readLong(), this.in.readLong());
+        case BATCH_RESULT_SUCCESS:
+          return BatchResult.success(this.readValue());
+        case BATCH_RESULT_FAILURE:
+          return BatchResult.failure(this.readTyped(Exception.class));
+        case SERIALIZED:
+          return this.readSerialized();
+        default:
+          return this.readCommand(tag);
+      }
+    }
+
+    private Command<?> readCommand(int tag) throws IOException, ClassNotFoundException {
+      switch (tag) {
+        case GET_ATTRIBUTE:
+          return new GetAttribute(this.readObjectName(), this.readSymbol());
+        case GET_ATTRIBUTES:
+          return new GetAttributes(this.readObjectName(), this.readSymbolArray());
+        case QUERY_ATTRIBUTES:
+          return new QueryAttributes(this.readObjectName(), this.readTyped(QueryExp.class), this.readSymbolArray());
+        case IS_REGISTERED:
+          return new IsRegistered(this.readObjectName());
+        case QUERY_NAMES:
+          return new QueryNames(this.readObjectName(), this.readTyped(QueryExp.class));
+        case QUERY_MBEANS:
+          return new QueryMBeans(this.readObjectName(), this.readTyped(QueryExp.class));
+        case GET_MBEAN_INFO:
+          return new GetMBeanInfo(this.readObjectName());
+        case GET_OBJECT_INSTANCE:
+          return new GetObjectInstance(this.readObjectName());
+        case IS_INSTANCE_OF:
+          return new IsInstanceOf(this.readObjectName(), this.readSymbol());
+        case INVOKE:
+          return new Invoke(this.readObjectName(), this.readSymbol(), this.readObjectArray(), this.readSymbolArray());
+        case SET_ATTRIBUTE:
+          return new SetAttribute(this.readObjectName(), this.readTyped(Attribute.class));
+        case SET_ATTRIBUTES:
+          return new SetAttributes(this.readObjectName(), this.readTyped(AttributeList.class));
+        case GET_MBEAN_COUNT:
+          return new GetMBeanCount();
+        case GET_DEFAULT_DOMAIN:
+          return new GetDefaultDomain();
+        case GET_DOMAINS:
+          return new GetDomains();
+        case BATCH_COMMAND: {
+          int size = this.readSize();
+          List<Command<?>> commands = new ArrayList<>();
+          for (int i = 0; i < size; i++) {
+            commands.add(this.readTyped(Command.class));
+          }
+          return new BatchCommand(commands);
+        }
+        case CREATE_MBEAN:
+          return new CreateMBean(this.readSymbol(), this.readObjectName(), this.readObjectName(), this.readObjectArray(), this.readSymbolArray());
+        case UNREGISTER_MBEAN:
+          return new UnregisterMBean(this.readObjectName());
+        case ADD_NOTIFICATION_LISTENER:
+          return new AddNotificationListener(this.readObjectName(), this.readObjectName(), this.readTyped(NotificationFilter.class), this.readValue());
+        case ADD_NOTIFICATION_LISTENER_REMOTE:
+          return new AddNotificationListenerRemote(this.readObjectName(), this.in.readLong(), this.readTyped(NotificationFilter.class), this.readTyped(Long.class));
+        case ADD_ATTRIBUTE_SAMPLING:
+          return new AddAttributeSampling(this.readObjectName(), this.readSymbolArray(), this.in.readLong(), this.in.readLong(), this.readTyped(Long.class));
+        case ADD_ATTRIBUTE_WATCH:
+          return new AddAttributeWatch(this.readObjectName(), this.readSymbol(), this.readTyped(Threshold.class), this.in.readLong(), this.in.readLong(), this.readTyped(Long.class));
+        case REMOVE_NOTIFICATION_LISTENER: {
+          ObjectName name = this.readObjectName();
+          ObjectName listenerName = this.readObjectName();
+          if (this.in.readBoolean()) {
+            return new RemoveNotificationListener(name, listenerName, this.readTyped(NotificationFilter.class), this.readValue());
+          } else {
+            return new RemoveNotificationListener(name, listenerName);
+          }
+        }
+        case REMOVE_NOTIFICATION_LISTENER_REMOTE: {
+          ObjectName name = this.readObjectName();
+          long listenerId = this.in.readLong();
+          if (this.in.readBoolean()) {
+            return new RemoveNotificationListenerRemote(name, listenerId, this.readTyped(NotificationFilter.class), this.readTyped(Long.class));
+          } else {
+            return new RemoveNotificationListenerRemote(name, listenerId);
+          }
+        }
+        default:
+          throw new StreamCorruptedException("unknown tag: " + tag);
+      }
+    }
+
+    private <T> T readTyped(Class<T> type) throws IOException, ClassNotFoundException {
+      Object value = this.readValue();
+      if (value == null || type.isInstance(value)) {
+        return type.cast(value);
+      }
+      throw new InvalidObjectException("expected " + type + " but got " + value.getClass());
+    }
+
+    private Notification readNotification() throws IOException, ClassNotFoundException {
+      String type = this.readSymbol();
+      Object source = this.readValue();
+      long sequenceNumber = this.in.readLong();
+      long timeStamp = this.in.readLong();
+      String message = this.readString();
+      Notification notification = new Notification(type, source, sequenceNumber, timeStamp, message);
+      notification.setUserData(this.readValue());
+      return notification;
+    }
+
+    private MBeanServerNotification readMBeanServerNotification() throws IOException, ClassNotFoundException {
+      String type = this.readSymbol();
+      Object source = this.readValue();
+      long sequenceNumber = this.in.readLong();
+      long timeStamp = this.in.readLong();
+      // the message can not be set
+      this.readString();
+      Object userData = this.readValue();
+      MBeanServerNotification notification = new MBeanServerNotification(type, source, sequenceNumber, this.readObjectName());
+      notification.setTimeStamp(timeStamp);
+      notification.setUserData(userData);
+      return notification;
+    }
+
+    private Attribute readAttribute() throws IOException, ClassNotFoundException {
+      return new Attribute(this.readSymbol(), this.readValue());
+    }
+
+    private AttributeList readAttributeList() throws IOException, ClassNotFoundException {
+      int size = this.readSize();
+      AttributeList list = new AttributeList();
+      for (int i = 0; i < size; i++) {
+        list.add(this.readAttribute());
+      }
+      return list;
+    }
+
+    private Object[] readObjectArray() throws IOException, ClassNotFoundException {
+      int length = this.readNullableSize();
+      if (length == -1) {
+        return null;
+      }
+      List<Object> elements = new ArrayList<>();
+      for (int i = 0; i < length; i++) {
+        elements.add(this.readValue());
+      }
+      return elements.toArray();
+    }
+
+    private String[] readStringArray() throws IOException {
+      int length = this.readNullableSize();
+      if (length == -1) {
+        return null;
+      }
+      List<String> elements = new ArrayList<>();
+      for (int i = 0; i < length; i++) {
+        elements.add(this.readString());
+      }
+      return elements.toArray(new String[0]);
+    }
+
+    private String[] readSymbolArray() throws IOException {
+      int length = this.readNullableSize();
+      if (length == -1) {
+        return null;
+      }
+      List<String> elements = new ArrayList<>();
+      for (int i = 0; i < length; i++) {
+        elements.add(this.readSymbol());
+      }
+      return elements.toArray(new String[0]);
+    }
+
+    ObjectName readObjectName() throws IOException {
+      int value = this.readLength();
+      if (value == 0) {
+        return null;
+      }
+      if ((value & 1) == 1) {
+        return this.lookup(value >>> 1, ObjectName.class);
+      }
+      return parseObjectName(this.readInlineSymbol(value));
+    }
+
+    String readSymbol() throws IOException {
+      int value = this.readLength();
+      if (value == 0) {
+        return null;
+      }
+      if ((value & 1) == 1) {
+        return this.lookup(value >>> 1, String.class);
+      }
+      return this.readInlineSymbol(value);
+    }
+
+    private String readInlineSymbol(int value) throws IOException {
+      return new String(this.readBytes(this.checkSize((value >>> 1) - 1)), UTF_8);
+    }
+
+    private <T> T lookup(int id, Class<T> type) throws IOException {
+      if (this.session == null) {
+        throw new StreamCorruptedException("dictionary reference outside of a session");
+      }
+      Object value = this.session.getInbound().get(id);
+      if (!type.isInstance(value)) {
+        throw new StreamCorruptedException("dictionary id: " + id + " is not a " + type);
+      }
+      return type.cast(value);
+    }
+
+    private static ObjectName parseObjectName(String name) throws IOException {
+      try {
+        return ObjectName.getInstance(name);
+      } catch (MalformedObjectNameException e) {
+        throw new IOException("malformed object name: " + name, e);
+      }
+    }
+
+    String readString() throws IOException {
+      int length = this.readNullableSize();
+      if (length == -1) {
+        return null;
+      }
+      return new String(this.readBytes(length), UTF_8);
+    }
+
+    /**
+     * Reads a length and checks it against the maximum.
+     */
+    private int readSize() throws IOException {
+      return this.checkSize(this.readLength());
+    }
+
+    /**
+     * Reads a length written as length + 1 with 0 for {@code null}.
+     *
+     * @return the length or -1 for {@code null}
+     */
+    private int readNullableSize() throws IOException {
+      int value = this.readLength();
+      if (value == 0) {
+        return -1;
+      }
+      return this.checkSize(value - 1);
+    }
+
+    private int checkSize(int size) throws IOException {
+      if (size > this.maxLength) {
+        throw new InvalidObjectException("length " + size + " exceeds the maximum of " + this.maxLength);
+      }
+      return size;
+    }
+
+    /**
+     * Reads bytes, the array grows as they arrive so that a forged length
+     * only fails once the stream ends.
+     */
+    private byte[] readBytes(int length) throws IOException {
+      byte[] bytes = new byte[Math.min(length, INITIAL_CAPACITY)];
+      int read = 0;
+      while (read < length) {
+        if (read == bytes.length) {
+          bytes = Arrays.copyOf(bytes, grow(bytes.length, length));
+        }
+        this.in.readFully(bytes, read, bytes.length - read);
+        read = bytes.length;
+      }
+      return bytes;
+    }
+
+    private static int grow(int capacity, int length) {
+      return (int) Math.min((long) capacity * 2L, length);
+    }
+
+    int readLength() throws IOException {
+      int value = 0;
+      for (int shift = 0; shift < 32; shift += 7) {
+        int b = this.in.readUnsignedByte();
+        value |= (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          if (value < 0) {
+            throw new StreamCorruptedException("negative length: " + value);
+          }
+          return value;
+        }
+      }
+      throw new StreamCorruptedException("length too long");
+    }
+
+    private Object readSerialized() throws IOException, ClassNotFoundException {
+      // not limited by the maximum, the size depends on the object graph
+      byte[] bytes = this.readBytes(this.readLength());
+      try (ObjectInputStream stream = new ClassLoaderObjectInputStream(new ByteArrayInputStream(bytes), this.classLoader, this.filter)) {
+        return stream.readObject();
+      }
+    }
+
+  }
+
+}
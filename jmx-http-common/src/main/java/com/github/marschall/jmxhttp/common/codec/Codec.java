@@ -0,0 +1,74 @@
+package com.github.marschall.jmxhttp.common.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.github.marschall.jmxhttp.common.command.DeserializationFilter;
+
+/**
+ * Converts the objects exchanged between client and server to and from
+ * bytes.
+ * <p>
+ * Client and server agree on a codec through the content type of
+ * requests and responses. The default is
+ * {@link Codecs#JAVA_SERIALIZATION Java serialization}.
+ * <p>
+ * Implementations must be thread safe.
+ *
+ * @see Codecs
+ */
+public interface Codec {
+
+  /**
+   * Returns the content type used for requests and responses encoded
+   * with this codec.
+   *
+   * @return the content type, not {@code null}
+   */
+  String getContentType();
+
+  /**
+   * Writes an object to a stream.
+   * <p>
+   * The stream is flushed but not closed.
+   *
+   * @param object the object to write, possibly {@code null}
+   * @param out the stream to write to
+   * @param session the session of the correlation, {@code null} outside
+   *                of a correlation
+   * @throws IOException if the object can not be written
+   */
+  void writeObject(Object object, OutputStream out, CodecSession session) throws IOException;
+
+  /**
+   * Reads an object written by {@link #writeObject(Object, OutputStream, CodecSession)}
+   * from a stream.
+   * <p>
+   * The stream is not closed.
+   *
+   * @param in the stream to read from
+   * @param classLoader the class loader to use for resolving classes
+   * @param session the session of the correlation, {@code null} outside
+   *                of a correlation
+   * @return the object read, possibly {@code null}
+   * @throws IOException if the object can not be read
+   * @throws ClassNotFoundException if a class can not be resolved
+   */
+  Object readObject(InputStream in, ClassLoader classLoader, CodecSession session) throws IOException, ClassNotFoundException;
+
+  /**
+   * Returns a codec with the same content type that only deserializes
+   * classes allowed by a filter.
+   * <p>
+   * The default implementation returns this codec, for codecs that never
+   * resolve classes by name.
+   *
+   * @param filter the filter to apply, not {@code null}
+   * @return the filtering codec
+   */
+  default Codec withFilter(DeserializationFilter filter) {
+    return this;
+  }
+
+}
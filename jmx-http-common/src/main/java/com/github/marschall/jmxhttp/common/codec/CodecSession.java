@@ -0,0 +1,182 @@
+package com.github.marschall.jmxhttp.common.codec;
+
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * State shared by all messages exchanged for one correlation.
+ * <p>
+ * A session holds two dictionaries, one for each direction. Frequently
+ * repeated values like object names are sent in full once and afterwards
+ * referenced by a small integer id.
+ * <p>
+ * Since requests may be lost or overtake each other a value is only
+ * referenced by id once the peer has acknowledged its definition. Every
+ * message repeats the definitions not yet acknowledged by the peer and every
+ * message carries the number of contiguous definitions received from the
+ * peer so far as {@value com.github.marschall.jmxhttp.common.http.HttpConstant#HEADER_DICTIONARY_ACKNOWLEDGEMENT}
+ * header.
+ * <p>
+ * A session is meant to be used with a single codec.
+ * <p>
+ * Instances are thread safe.
+ */
+public final class CodecSession {
+
+  /**
+   * The maximum number of entries in a dictionary. Once reached new values
+   * are sent in full every time.
+   */
+  static final int MAX_ENTRIES = 16 * 1024;
+
+  private final OutboundDictionary outbound;
+  private final InboundDictionary inbound;
+
+  public CodecSession() {
+    this.outbound = new OutboundDictionary();
+    this.inbound = new InboundDictionary();
+  }
+
+  /**
+   * Returns the number of contiguous dictionary definitions received from
+   * the peer, to be sent to the peer as acknowledgement.
+   *
+   * @return the acknowledgement to send to the peer
+   */
+  public int getAcknowledgement() {
+    return this.inbound.getContiguous();
+  }
+
+  /**
+   * Processes an acknowledgement received from the peer.
+   *
+   * @param acknowledgement the value of the acknowledgement header,
+   *                        may be {@code null} if the peer did not send one
+   */
+  public void acknowledge(String acknowledgement) {
+    if (acknowledgement == null) {
+      return;
+    }
+    try {
+      this.outbound.acknowledge(Integer.parseInt(acknowledgement.trim()));
+    } catch (NumberFormatException e) {
+      // ignore, the definitions will simply be sent again
+    }
+  }
+
+  OutboundDictionary getOutbound() {
+    return this.outbound;
+  }
+
+  InboundDictionary getInbound() {
+    return this.inbound;
+  }
+
+  /**
+   * Values sent to the peer.
+   */
+  static final class OutboundDictionary {
+
+    private final Map<Object, Integer> ids;
+    private final List<Object> entries;
+    private int acknowledged;
+
+    OutboundDictionary() {
+      this.ids = new HashMap<>();
+      this.entries = new ArrayList<>();
+      this.acknowledged = 0;
+    }
+
+    /**
+     * Returns the id of a value, assigning a new one if necessary.
+     *
+     * @return the id, -1 if the dictionary is full
+     */
+    synchronized int getId(Object value) {
+      Integer id = this.ids.get(value);
+      if (id != null) {
+        return id;
+      }
+      if (this.entries.size() >= MAX_ENTRIES) {
+        return -1;
+      }
+      int newId = this.entries.size();
+      this.ids.put(value, newId);
+      this.entries.add(value);
+      return newId;
+    }
+
+    /**
+     * Returns all values not yet acknowledged by the peer.
+     */
+    synchronized Definitions getUnacknowledged() {
+      return new Definitions(this.acknowledged, new ArrayList<>(this.entries.subList(this.acknowledged, this.entries.size())));
+    }
+
+    synchronized void acknowledge(int count) {
+      if (count > this.acknowledged && count <= this.entries.size()) {
+        this.acknowledged = count;
+      }
+    }
+
+  }
+
+  static final class Definitions {
+
+    final int firstId;
+    final List<Object> values;
+
+    Definitions(int firstId, List<Object> values) {
+      this.firstId = firstId;
+      this.values = values;
+    }
+
+  }
+
+  /**
+   * Values received from the peer.
+   */
+  static final class InboundDictionary {
+
+    private Object[] entries;
+    private int contiguous;
+
+    InboundDictionary() {
+      this.entries = new Object[64];
+      this.contiguous = 0;
+    }
+
+    synchronized void define(int id, Object value) throws StreamCorruptedException {
+      if (id < 0 || id >= MAX_ENTRIES) {
+        throw new StreamCorruptedException("invalid dictionary id: " + id);
+      }
+      if (id >= this.entries.length) {
+        this.entries = Arrays.copyOf(this.entries, Math.min(MAX_ENTRIES, Math.max(id + 1, this.entries.length * 2)));
+      }
+      if (this.entries[id] == null) {
+        this.entries[id] = value;
+      }
+      while (this.contiguous < this.entries.length && this.entries[this.contiguous] != null) {
+        this.contiguous += 1;
+      }
+    }
+
+    synchronized Object get(int id) throws StreamCorruptedException {
+      Object value = id >= 0 && id < this.entries.length ? this.entries[id] : null;
+      if (value == null) {
+        throw new StreamCorruptedException("undefined dictionary id: " + id);
+      }
+      return value;
+    }
+
+    synchronized int getContiguous() {
+      return this.contiguous;
+    }
+
+  }
+
+}
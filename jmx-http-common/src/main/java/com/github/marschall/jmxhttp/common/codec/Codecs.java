@@ -0,0 +1,81 @@
+package com.github.marschall.jmxhttp.common.codec;
+
+import java.util.Locale;
+
+/**
+ * Provides the supported {@link Codec}s.
+ */
+public final class Codecs {
+
+  /**
+   * Plain Java serialization, the default codec.
+   */
+  public static final Codec JAVA_SERIALIZATION = new JavaSerializationCodec();
+
+  /**
+   * A compact binary encoding for the most common JMX types that falls
+   * back to Java serialization for all other types.
+   */
+  public static final Codec BINARY = new BinaryCodec();
+
+  /**
+   * Java serialization that sends the class descriptors only once per
+   * correlation instead of once per request and response.
+   */
+  public static final Codec JAVA_SERIALIZATION_SESSION = new SessionJavaSerializationCodec();
+
+  private Codecs() {
+    throw new AssertionError("not instantiable");
+  }
+
+  /**
+   * Looks up a codec by content type.
+   *
+   * @param contentType the content type, parameters are ignored,
+   *                    may be {@code null}
+   * @return the codec for the content type, {@code null} if the content
+   *         type is not supported
+   */
+  public static Codec forContentType(String contentType) {
+    if (contentType == null) {
+      return null;
+    }
+    int parameterStart = contentType.indexOf(';');
+    String mediaType = parameterStart == -1 ? contentType : contentType.substring(0, parameterStart);
+    mediaType = mediaType.trim().toLowerCase(Locale.ROOT);
+    if (mediaType.equals(JAVA_SERIALIZATION.getContentType())) {
+      return JAVA_SERIALIZATION;
+    }
+    if (mediaType.equals(BINARY.getContentType())) {
+      return BINARY;
+    }
+    if (mediaType.equals(JAVA_SERIALIZATION_SESSION.getContentType())) {
+      return JAVA_SERIALIZATION_SESSION;
+    }
+    return null;
+  }
+
+  /**
+   * Selects the first supported codec from the value of an
+   * {@code Accept} header.
+   *
+   * @param accept the value of the {@code Accept} header,
+   *               may be {@code null}
+   * @param defaultCodec the codec to use if no codec is acceptable
+   * @return the selected codec, {@code defaultCodec} if none of the
+   *         acceptable content types is supported
+   */
+  public static Codec forAccept(String accept, Codec defaultCodec) {
+    if (accept == null) {
+      return defaultCodec;
+    }
+    for (String each : accept.split(",")) {
+      Codec codec = forContentType(each);
+      if (codec != null) {
+        return codec;
+      }
+    }
+    return defaultCodec;
+  }
+
+}
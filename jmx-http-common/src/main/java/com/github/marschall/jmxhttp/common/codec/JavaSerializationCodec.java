@@ -0,0 +1,52 @@
+package com.github.marschall.jmxhttp.common.codec;
+
+import static com.github.marschall.jmxhttp.common.http.HttpConstant.JAVA_SERIALIZED_OBJECT;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+import com.github.marschall.jmxhttp.common.command.ClassLoaderObjectInputStream;
+import com.github.marschall.jmxhttp.common.command.DeserializationFilter;
+
+/**
+ * Encodes objects using plain Java serialization.
+ */
+final class JavaSerializationCodec implements Codec {
+
+  private final DeserializationFilter filter;
+
+  JavaSerializationCodec() {
+    this(DeserializationFilter.allowAll());
+  }
+
+  JavaSerializationCodec(DeserializationFilter filter) {
+    this.filter = filter;
+  }
+
+  @Override
+  public Codec withFilter(DeserializationFilter filter) {
+    return new JavaSerializationCodec(filter);
+  }
+
+  @Override
+  public String getContentType() {
+    return JAVA_SERIALIZED_OBJECT;
+  }
+
+  @Override
+  public void writeObject(Object object, OutputStream out, CodecSession session) throws IOException {
+    ObjectOutputStream stream = new ObjectOutputStream(out);
+    stream.writeObject(object);
+    stream.flush();
+  }
+
+  @Override
+  public Object readObject(InputStream in, ClassLoader classLoader, CodecSession session) throws IOException, ClassNotFoundException {
+    ObjectInputStream stream = new ClassLoaderObjectInputStream(in, classLoader, this.filter);
+    return stream.readObject();
+  }
+
+}
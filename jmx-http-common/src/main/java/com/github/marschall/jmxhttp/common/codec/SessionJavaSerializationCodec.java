@@ -0,0 +1,167 @@
+package com.github.marschall.jmxhttp.common.codec;
+
+import static com.github.marschall.jmxhttp.common.http.HttpConstant.JMX_HTTP_JAVA_SERIALIZATION;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.marschall.jmxhttp.common.command.ClassLoaderObjectInputStream;
+import com.github.marschall.jmxhttp.common.command.DeserializationFilter;
+
+/**
+ * Java serialization that keeps the class descriptors in the
+ * {@link CodecSession} of a correlation.
+ * <p>
+ * A plain {@link ObjectOutputStream} writes the full class descriptor of
+ * every class the first time it is used in a stream, and every HTTP exchange
+ * uses a new stream. Within a session each class descriptor is assigned an
+ * id, once the peer acknowledged the descriptor only the id is written.
+ * <p>
+ * The format of a message is
+ * <ol>
+ *  <li>the number of class descriptors not yet acknowledged by the peer</li>
+ *  <li>these class descriptors</li>
+ *  <li>the object</li>
+ * </ol>
+ * all written to a single {@link ObjectOutputStream}. Class descriptors
+ * not yet acknowledged are written in full along with their id, acknowledged
+ * ones as id only. Outside of a session the format is plain Java
+ * serialization.
+ */
+final class SessionJavaSerializationCodec implements Codec {
+
+  private static final int DESCRIPTOR_DEFINITION = 0;
+  private static final int DESCRIPTOR_REFERENCE = 1;
+
+  private final DeserializationFilter filter;
+
+  SessionJavaSerializationCodec() {
+    this(DeserializationFilter.allowAll());
+  }
+
+  SessionJavaSerializationCodec(DeserializationFilter filter) {
+    this.filter = filter;
+  }
+
+  @Override
+  public Codec withFilter(DeserializationFilter filter) {
+    return new SessionJavaSerializationCodec(filter);
+  }
+
+  @Override
+  public String getContentType() {
+    return JMX_HTTP_JAVA_SERIALIZATION;
+  }
+
+  @Override
+  public void writeObject(Object object, OutputStream out, CodecSession session) throws IOException {
+    if (session == null) {
+      Codecs.JAVA_SERIALIZATION.writeObject(object, out, null);
+      return;
+    }
+    CodecSession.OutboundDictionary dictionary = session.getOutbound();
+    CodecSession.Definitions definitions = dictionary.getUnacknowledged();
+    List<ObjectStreamClass> descriptors = new ArrayList<>(definitions.values.size());
+    for (Object each : definitions.values) {
+      if (each instanceof ObjectStreamClass) {
+        descriptors.add((ObjectStreamClass) each);
+      }
+    }
+    ObjectOutputStream stream = new SessionObjectOutputStream(out, dictionary, definitions.firstId);
+    stream.writeInt(descriptors.size());
+    for (ObjectStreamClass descriptor : descriptors) {
+      stream.writeObject(descriptor);
+    }
+    stream.writeObject(object);
+    stream.flush();
+  }
+
+  @Override
+  public Object readObject(InputStream in, ClassLoader classLoader, CodecSession session) throws IOException, ClassNotFoundException {
+    if (session == null) {
+      return new ClassLoaderObjectInputStream(in, classLoader, this.filter).readObject();
+    }
+    ObjectInputStream stream = new SessionObjectInputStream(in, classLoader, this.filter, session.getInbound());
+    int descriptorCount = stream.readInt();
+    if (descriptorCount < 0) {
+      throw new StreamCorruptedException("invalid descriptor count: " + descriptorCount);
+    }
+    for (int i = 0; i < descriptorCount; i++) {
+      try {
+        // defines the descriptor in the dictionary as a side effect
+        stream.readObject();
+      } catch (ClassNotFoundException e) {
+        // only a problem if the class is actually used, will be reported then
+      }
+    }
+    return stream.readObject();
+  }
+
+  static final class SessionObjectOutputStream extends ObjectOutputStream {
+
+    private final CodecSession.OutboundDictionary dictionary;
+    private final int acknowledged;
+
+    SessionObjectOutputStream(OutputStream out, CodecSession.OutboundDictionary dictionary, int acknowledged) throws IOException {
+      super(out);
+      this.dictionary = dictionary;
+      this.acknowledged = acknowledged;
+    }
+
+    @Override
+    protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+      int id = this.dictionary.getId(desc);
+      if (id >= 0 && id < this.acknowledged) {
+        this.writeByte(DESCRIPTOR_REFERENCE);
+        this.writeInt(id);
+      } else {
+        // -1 if the dictionary is full, the peer does not define it then
+        this.writeByte(DESCRIPTOR_DEFINITION);
+        this.writeInt(id);
+        super.writeClassDescriptor(desc);
+      }
+    }
+
+  }
+
+  static final class SessionObjectInputStream extends ClassLoaderObjectInputStream {
+
+    private final CodecSession.InboundDictionary dictionary;
+
+    SessionObjectInputStream(InputStream in, ClassLoader classLoader, DeserializationFilter filter, CodecSession.InboundDictionary dictionary) throws IOException {
+      super(in, classLoader, filter);
+      this.dictionary = dictionary;
+    }
+
+    @Override
+    protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+      int kind = this.readByte();
+      int id = this.readInt();
+      switch (kind) {
+        case DESCRIPTOR_DEFINITION:
+          ObjectStreamClass descriptor = super.readClassDescriptor();
+          if (id >= 0) {
+            this.dictionary.define(id, descriptor);
+          }
+          return descriptor;
+        case DESCRIPTOR_REFERENCE:
+          Object value = this.dictionary.get(id);
+          if (!(value instanceof ObjectStreamClass)) {
+            throw new StreamCorruptedException("dictionary id " + id + " is not a class descriptor");
+          }
+          return (ObjectStreamClass) value;
+        default:
+          throw new StreamCorruptedException("invalid descriptor kind: " + kind);
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,61 @@
+package com.github.marschall.jmxhttp.common.command;
+
+import java.io.IOException;
+
+import javax.management.AttributeList;
+import javax.management.JMException;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+
+/**
+ * Asks the server to sample attributes of an MBean at a fixed period and
+ * to send the values that changed since the previous sample as
+ * {@link javax.management.AttributeChangeNotification}s to a listener of
+ * the client.
+ * <p>
+ * The result are the current values of the attributes. The sampling is
+ * removed like a listener with
+ * {@link RemoveNotificationListenerRemote#RemoveNotificationListenerRemote(ObjectName, long)}.
+ */
+public final class AddAttributeSampling implements Command<AttributeList> {
+
+  private final ObjectName name;
+  private final String[] attributes;
+  private final long periodMillis;
+  private final long listenerId;
+  private final Long handbackId;
+
+  public AddAttributeSampling(ObjectName name, String[] attributes, long periodMillis, long listenerId, Long handbackId) {
+    this.name = name;
+    this.attributes = attributes;
+    this.periodMillis = periodMillis;
+    this.listenerId = listenerId;
+    this.handbackId = handbackId;
+  }
+
+  public ObjectName getName() {
+    return this.name;
+  }
+
+  public String[] getAttributes() {
+    return this.attributes;
+  }
+
+  public long getPeriodMillis() {
+    return this.periodMillis;
+  }
+
+  public long getListenerId() {
+    return this.listenerId;
+  }
+
+  public Long getHandbackId() {
+    return this.handbackId;
+  }
+
+  @Override
+  public AttributeList execute(MBeanServerConnection connection, NotificationRegistry notificationRegistry) throws JMException, IOException {
+    return notificationRegistry.addAttributeSampling(this.name, this.attributes, this.periodMillis, this.listenerId, this.handbackId);
+  }
+
+}
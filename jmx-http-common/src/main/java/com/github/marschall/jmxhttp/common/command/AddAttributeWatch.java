@@ -0,0 +1,74 @@
+package com.github.marschall.jmxhttp.common.command;
+
+import java.io.IOException;
+
+import javax.management.JMException;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+
+/**
+ * Asks the server to watch an attribute of an MBean for crossing a
+ * {@link Threshold} and to send a notification to a listener of the client
+ * only when it does.
+ * <p>
+ * The attribute is read at a fixed period. An item of a
+ * {@link javax.management.openmbean.CompositeData} attribute is watched
+ * with a dot, eg. {@code HeapMemoryUsage.used}. Notifications have the
+ * MBean as source, the observed value as user data and one of the types
+ * {@value javax.management.monitor.MonitorNotification#THRESHOLD_HIGH_VALUE_EXCEEDED},
+ * {@value javax.management.monitor.MonitorNotification#THRESHOLD_LOW_VALUE_EXCEEDED},
+ * {@value javax.management.monitor.MonitorNotification#STRING_TO_COMPARE_VALUE_MATCHED} or
+ * {@value javax.management.monitor.MonitorNotification#STRING_TO_COMPARE_VALUE_DIFFERED}.
+ * <p>
+ * The result is whether the watch is currently triggered. The watch is
+ * removed like a listener with
+ * {@link RemoveNotificationListenerRemote#RemoveNotificationListenerRemote(ObjectName, long)}.
+ */
+public final class AddAttributeWatch implements Command<Boolean> {
+
+  private final ObjectName name;
+  private final String attribute;
+  private final Threshold threshold;
+  private final long periodMillis;
+  private final long listenerId;
+  private final Long handbackId;
+
+  public AddAttributeWatch(ObjectName name, String attribute, Threshold threshold, long periodMillis, long listenerId, Long handbackId) {
+    this.name = name;
+    this.attribute = attribute;
+    this.threshold = threshold;
+    this.periodMillis = periodMillis;
+    this.listenerId = listenerId;
+    this.handbackId = handbackId;
+  }
+
+  public ObjectName getName() {
+    return this.name;
+  }
+
+  public String getAttribute() {
+    return this.attribute;
+  }
+
+  public Threshold getThreshold() {
+    return this.threshold;
+  }
+
+  public long getPeriodMillis() {
+    return this.periodMillis;
+  }
+
+  public long getListenerId() {
+    return this.listenerId;
+  }
+
+  public Long getHandbackId() {
+    return this.handbackId;
+  }
+
+  @Override
+  public Boolean execute(MBeanServerConnection connection, NotificationRegistry notificationRegistry) throws JMException, IOException {
+    return notificationRegistry.addAttributeWatch(this.name, this.attribute, this.threshold, this.periodMillis, this.listenerId, this.handbackId);
+  }
+
+}
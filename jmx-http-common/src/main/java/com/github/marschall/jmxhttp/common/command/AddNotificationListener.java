@@ -21,6 +21,22 @@ public final class AddNotificationListener implements Command<Void> {
     this.handback = handback;
   }
 
+  public ObjectName getName() {
+    return this.name;
+  }
+
+  public NotificationFilter getFilter() {
+    return this.filter;
+  }
+
+  public Object getHandback() {
+    return this.handback;
+  }
+
+  public ObjectName getListenerName() {
+    return this.listenerName;
+  }
+
   @Override
   public Void execute(MBeanServerConnection connection, NotificationRegistry notificationRegistry) throws JMException, IOException {
     connection.addNotificationListener(name, listenerName, filter, handback);
@@ -21,6 +21,22 @@ public final class AddNotificationListenerRemote implements Command<Void> {
     this.handbackId = handbackId;
   }
 
+  public ObjectName getName() {
+    return this.name;
+  }
+
+  public long getListenerId() {
+    return this.listenerId;
+  }
+
+  public NotificationFilter getFilter() {
+    return this.filter;
+  }
+
+  public Long getHandbackId() {
+    return this.handbackId;
+  }
+
   @Override
   public Void execute(MBeanServerConnection connection, NotificationRegistry notificationRegistry) throws JMException, IOException {
     notificationRegistry.addNotificationListener(this.name, this.listenerId, this.filter, this.handbackId);
@@ -0,0 +1,44 @@
+package com.github.marschall.jmxhttp.common.command;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.management.JMException;
+import javax.management.MBeanServerConnection;
+
+/**
+ * Executes several commands in a single round trip.
+ * <p>
+ * The commands are executed in order. A command that fails does not stop
+ * the execution of the following commands, instead its exception is
+ * reported in the corresponding {@link BatchResult}.
+ */
+public final class BatchCommand implements Command<List<BatchResult>> {
+
+  private final List<Command<?>> commands;
+
+  public BatchCommand(List<? extends Command<?>> commands) {
+    // copy to make sure we have a serializable list
+    this.commands = new ArrayList<>(commands);
+  }
+
+  public List<Command<?>> getCommands() {
+    return Collections.unmodifiableList(this.commands);
+  }
+
+  @Override
+  public List<BatchResult> execute(MBeanServerConnection connection, NotificationRegistry notificationRegistry) {
+    List<BatchResult> results = new ArrayList<>(this.commands.size());
+    for (Command<?> command : this.commands) {
+      try {
+        results.add(BatchResult.success(command.execute(connection, notificationRegistry)));
+      } catch (JMException | IOException | RuntimeException e) {
+        results.add(BatchResult.failure(e));
+      }
+    }
+    return results;
+  }
+
+}
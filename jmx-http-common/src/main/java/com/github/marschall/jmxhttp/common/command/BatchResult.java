@@ -0,0 +1,75 @@
+package com.github.marschall.jmxhttp.common.command;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+import javax.management.JMException;
+import javax.management.JMRuntimeException;
+
+/**
+ * The result of a single command executed as part of a {@link BatchCommand}.
+ * <p>
+ * Holds either the value returned by the command or the exception
+ * thrown by it.
+ */
+public final class BatchResult implements Serializable {
+
+  private final Object value;
+  private final Exception exception;
+
+  private BatchResult(Object value, Exception exception) {
+    this.value = value;
+    this.exception = exception;
+  }
+
+  public static BatchResult success(Object value) {
+    if (value != null && !(value instanceof Serializable)) {
+      return failure(new JMRuntimeException("result " + value + " not Serializable"));
+    }
+    return new BatchResult(value, null);
+  }
+
+  public static BatchResult failure(Exception exception) {
+    return new BatchResult(null, exception);
+  }
+
+  public boolean isFailure() {
+    return this.exception != null;
+  }
+
+  /**
+   * Returns the exception thrown by the command.
+   *
+   * @return the exception thrown by the command, {@code null} if the
+   *         command completed normally
+   */
+  public Exception getException() {
+    return this.exception;
+  }
+
+  /**
+   * Returns the value returned by the command or throws the exception
+   * thrown by the command.
+   *
+   * @return the value returned by the command
+   * @throws JMException if the command failed with a {@link JMException}
+   * @throws IOException if the command failed with an {@link IOException}
+   *                     or any other checked exception
+   */
+  public Object getValue() throws JMException, IOException {
+    if (this.exception == null) {
+      return this.value;
+    }
+    if (this.exception instanceof RuntimeException) {
+      throw (RuntimeException) this.exception;
+    }
+    if (this.exception instanceof IOException) {
+      throw (IOException) this.exception;
+    }
+    if (this.exception instanceof JMException) {
+      throw (JMException) this.exception;
+    }
+    throw new IOException("exception occurred on server", this.exception);
+  }
+
+}
@@ -2,31 +2,64 @@ package com.github.marschall.jmxhttp.common.command;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InvalidClassException;
 import java.io.ObjectInputStream;
 import java.io.ObjectStreamClass;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Proxy;
 
-public final class ClassLoaderObjectInputStream extends ObjectInputStream {
+public class ClassLoaderObjectInputStream extends ObjectInputStream {
 
   private final ClassLoader classLoader;
 
+  private final DeserializationFilter filter;
+
   public ClassLoaderObjectInputStream(InputStream in, ClassLoader classLoader) throws IOException {
+    this(in, classLoader, DeserializationFilter.allowAll());
+  }
+
+  public ClassLoaderObjectInputStream(InputStream in, ClassLoader classLoader, DeserializationFilter filter) throws IOException {
     super(in);
     this.classLoader = classLoader;
+    this.filter = filter;
   }
 
   @Override
   protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
     String name = desc.getName();
+    this.checkAllowed(name);
+    ClassResolutionCache cache = ClassResolutionCache.INSTANCE;
+    Class<?> cached = cache.getClass(this.classLoader, name);
+    if (cached != null) {
+      return cached;
+    }
     try {
-      return Class.forName(name, false, this.classLoader);
+      Class<?> clazz = Class.forName(name, false, this.classLoader);
+      cache.putClass(this.classLoader, name, clazz);
+      return clazz;
     } catch (ClassNotFoundException ex) {
+      // not cached, depends on the caller
       return super.resolveClass(desc);
     }
   }
 
+  private void checkAllowed(String className) throws InvalidClassException {
+    if (!this.filter.isAllowed(className)) {
+      throw new InvalidClassException(className, "rejected by deserialization filter");
+    }
+  }
+
+  @Override
   protected Class<?> resolveProxyClass(String[] interfaces) throws IOException, ClassNotFoundException {
+    for (String each : interfaces) {
+      this.checkAllowed(each);
+    }
+    ClassResolutionCache cache = ClassResolutionCache.INSTANCE;
+    Class<?> cached = cache.getProxyClass(this.classLoader, interfaces);
+    if (cached != null) {
+      return cached;
+    }
+
     ClassLoader nonPublicLoader = null;
     boolean hasNonPublicInterface = false;
 
@@ -48,10 +81,12 @@ public final class ClassLoaderObjectInputStream extends ObjectInputStream {
     }
     try {
       ClassLoader loader = hasNonPublicInterface ? nonPublicLoader : this.classLoader;
-      return Proxy.getProxyClass(loader, classObjs);
+      Class<?> proxyClass = Proxy.getProxyClass(loader, classObjs);
+      cache.putProxyClass(this.classLoader, interfaces, proxyClass);
+      return proxyClass;
     } catch (IllegalArgumentException e) {
       throw new ClassNotFoundException(null, e);
     }
   }
 
-}
\ No newline at end of file
+}
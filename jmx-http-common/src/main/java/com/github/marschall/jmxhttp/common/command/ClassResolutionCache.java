@@ -0,0 +1,150 @@
+package com.github.marschall.jmxhttp.common.command;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches the classes and proxy classes resolved by
+ * {@link ClassLoaderObjectInputStream}, shared by all streams.
+ * <p>
+ * Entries are kept per class loader. Neither the class loaders nor the
+ * classes are strongly referenced so the cache does not prevent
+ * redeployed applications from being unloaded. The number of entries per
+ * class loader is bounded, when it is exceeded cleared entries and then
+ * arbitrary entries are evicted.
+ * <p>
+ * Lookups do not lock, they happen for every class of every request.
+ */
+final class ClassResolutionCache {
+
+  private static final int MAX_ENTRIES_PER_LOADER = 512;
+
+  static final ClassResolutionCache INSTANCE = new ClassResolutionCache();
+
+  private final ConcurrentMap<LoaderKey, LoaderCache> caches;
+  private final ReferenceQueue<ClassLoader> unloaded;
+  private final LoaderCache bootstrapCache;
+
+  private ClassResolutionCache() {
+    this.caches = new ConcurrentHashMap<>();
+    this.unloaded = new ReferenceQueue<>();
+    this.bootstrapCache = new LoaderCache();
+  }
+
+  Class<?> getClass(ClassLoader classLoader, String name) {
+    return this.getLoaderCache(classLoader).get(name);
+  }
+
+  void putClass(ClassLoader classLoader, String name, Class<?> clazz) {
+    this.getLoaderCache(classLoader).put(name, clazz);
+  }
+
+  Class<?> getProxyClass(ClassLoader classLoader, String[] interfaces) {
+    return this.getLoaderCache(classLoader).get(Arrays.asList(interfaces));
+  }
+
+  void putProxyClass(ClassLoader classLoader, String[] interfaces, Class<?> proxyClass) {
+    // copy, the array belongs to the caller
+    this.getLoaderCache(classLoader).put(Arrays.asList(interfaces.clone()), proxyClass);
+  }
+
+  private LoaderCache getLoaderCache(ClassLoader classLoader) {
+    if (classLoader == null) {
+      return this.bootstrapCache;
+    }
+    LoaderCache cache = this.caches.get(new LoaderKey(classLoader, null));
+    if (cache == null) {
+      this.expungeUnloaded();
+      cache = this.caches.computeIfAbsent(new LoaderKey(classLoader, this.unloaded), key -> new LoaderCache());
+    }
+    return cache;
+  }
+
+  private void expungeUnloaded() {
+    Reference<? extends ClassLoader> reference = this.unloaded.poll();
+    while (reference != null) {
+      this.caches.remove(reference);
+      reference = this.unloaded.poll();
+    }
+  }
+
+  /**
+   * Weakly references a class loader, compares by identity.
+   */
+  static final class LoaderKey extends WeakReference<ClassLoader> {
+
+    private final int hashCode;
+
+    LoaderKey(ClassLoader classLoader, ReferenceQueue<ClassLoader> queue) {
+      super(classLoader, queue);
+      this.hashCode = System.identityHashCode(classLoader);
+    }
+
+    @Override
+    public int hashCode() {
+      return this.hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof LoaderKey)) {
+        return false;
+      }
+      ClassLoader classLoader = this.get();
+      return classLoader != null && classLoader == ((LoaderKey) obj).get();
+    }
+
+  }
+
+  /**
+   * The cache of a single class loader, keys are either class names or
+   * {@link List}s of interface names for proxy classes.
+   */
+  static final class LoaderCache {
+
+    private final ConcurrentMap<Object, WeakReference<Class<?>>> entries;
+
+    LoaderCache() {
+      this.entries = new ConcurrentHashMap<>(64);
+    }
+
+    Class<?> get(Object key) {
+      WeakReference<Class<?>> reference = this.entries.get(key);
+      if (reference == null) {
+        return null;
+      }
+      Class<?> clazz = reference.get();
+      if (clazz == null) {
+        this.entries.remove(key, reference);
+      }
+      return clazz;
+    }
+
+    void put(Object key, Class<?> clazz) {
+      if (this.entries.size() >= MAX_ENTRIES_PER_LOADER) {
+        this.evict();
+      }
+      this.entries.put(key, new WeakReference<>(clazz));
+    }
+
+    private void evict() {
+      this.entries.values().removeIf(reference -> reference.get() == null);
+      Iterator<Object> keys = this.entries.keySet().iterator();
+      while (this.entries.size() >= MAX_ENTRIES_PER_LOADER && keys.hasNext()) {
+        keys.next();
+        keys.remove();
+      }
+    }
+
+  }
+
+}
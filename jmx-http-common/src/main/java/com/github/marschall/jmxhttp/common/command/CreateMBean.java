@@ -23,6 +23,26 @@ public final class CreateMBean implements Command<ObjectInstance> {
     this.signature = signature;
   }
 
+  public String getClassName() {
+    return this.className;
+  }
+
+  public ObjectName getName() {
+    return this.name;
+  }
+
+  public ObjectName getLoaderName() {
+    return this.loaderName;
+  }
+
+  public Object[] getParams() {
+    return this.params;
+  }
+
+  public String[] getSignature() {
+    return this.signature;
+  }
+
   @Override
   public ObjectInstance execute(MBeanServerConnection connection, NotificationRegistry notificationRegistry) throws JMException, IOException {
     return connection.createMBean(className, name, loaderName, params, signature);
@@ -0,0 +1,239 @@
+package com.github.marschall.jmxhttp.common.command;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Decides which classes may be deserialized.
+ * <p>
+ * The patterns follow the syntax of JEP 290 serialization filters, they are
+ * separated by {@code ;} and evaluated from left to right, the first match
+ * wins:
+ * <ul>
+ *  <li>{@code com.example.Type} matches exactly this class</li>
+ *  <li>{@code com.example.*} matches all classes in the package</li>
+ *  <li>{@code com.example.**} matches all classes in the package and its subpackages</li>
+ *  <li>{@code com.example.Type*} matches all classes starting with the prefix</li>
+ *  <li>{@code *} matches all classes</li>
+ *  <li>a pattern prefixed with {@code !} rejects instead of allows</li>
+ *  <li>{@code maxarray=1000} limits the length of arrays, collections and
+ *      strings of the binary codec, see {@link #getMaxArrayLength()}</li>
+ * </ul>
+ * Classes not matched by any pattern are rejected. Arrays are checked by
+ * their component type, arrays of primitives are always allowed.
+ * <p>
+ * Decisions are cached, instances are thread safe.
+ */
+public final class DeserializationFilter {
+
+  /**
+   * The default patterns, allowing only the value classes of JMX open types,
+   * the common collections, the JMX API without its subpackages except
+   * {@code javax.management.openmbean} and the standard notification filters
+   * and the classes of this project.
+   */
+  public static final String DEFAULT_PATTERNS = "java.lang.Object;java.lang.Number;java.lang.Enum;java.lang.String;"
+      + "java.lang.Boolean;java.lang.Character;java.lang.Byte;java.lang.Short;java.lang.Integer;java.lang.Long;"
+      + "java.lang.Float;java.lang.Double;java.math.BigInteger;java.math.BigDecimal;java.util.Date;"
+      + "java.util.ArrayList;java.util.LinkedList;java.util.HashMap;java.util.LinkedHashMap;java.util.TreeMap;"
+      + "java.util.Vector;java.util.HashSet;java.util.LinkedHashSet;java.util.TreeSet;java.util.Arrays$ArrayList;"
+      + "java.util.Collections$Empty*;java.util.Collections$Singleton*;java.util.Collections$Unmodifiable*;"
+      + "!javax.management.BadAttributeValueExpException;javax.management.*;javax.management.openmbean.*;"
+      + "javax.management.relation.MBeanServerNotificationFilter;"
+      + "com.github.marschall.jmxhttp.**";
+
+  /**
+   * The maximum length of arrays, collections and strings unless the
+   * patterns contain {@code maxarray}.
+   */
+  public static final int DEFAULT_MAX_ARRAY_LENGTH = 1_000_000;
+
+  private static final String MAX_ARRAY = "maxarray=";
+
+  private static final DeserializationFilter ALLOW_ALL = new DeserializationFilter(new ArrayList<>(), true, Integer.MAX_VALUE);
+
+  /**
+   * Upper bound for the number of cached decisions, beyond that the cache
+   * is cleared.
+   */
+  private static final int MAX_CACHED_DECISIONS = 4096;
+
+  private final List<Pattern> patterns;
+  private final boolean allowAll;
+  private final int maxArrayLength;
+  private final ConcurrentMap<String, Boolean> decisions;
+
+  private DeserializationFilter(List<Pattern> patterns, boolean allowAll, int maxArrayLength) {
+    this.patterns = patterns;
+    this.allowAll = allowAll;
+    this.maxArrayLength = maxArrayLength;
+    this.decisions = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Returns a filter that allows all classes.
+   *
+   * @return a filter that allows all classes
+   */
+  public static DeserializationFilter allowAll() {
+    return ALLOW_ALL;
+  }
+
+  /**
+   * Creates a filter from patterns.
+   *
+   * @param patterns the patterns separated by {@code ;}, not {@code null}
+   * @return the filter
+   * @throws IllegalArgumentException if a pattern is invalid
+   */
+  public static DeserializationFilter fromPatterns(String patterns) {
+    List<Pattern> parsed = new ArrayList<>();
+    int maxArrayLength = DEFAULT_MAX_ARRAY_LENGTH;
+    for (String each : patterns.split(";")) {
+      String pattern = each.trim();
+      if (pattern.startsWith(MAX_ARRAY)) {
+        maxArrayLength = parseLimit(pattern, pattern.substring(MAX_ARRAY.length()));
+      } else if (pattern.indexOf('=') != -1) {
+        throw new IllegalArgumentException("unsupported limit: " + pattern);
+      } else if (!pattern.isEmpty()) {
+        parsed.add(Pattern.parse(pattern));
+      }
+    }
+    return new DeserializationFilter(parsed, false, maxArrayLength);
+  }
+
+  private static int parseLimit(String pattern, String value) {
+    int limit;
+    try {
+      limit = Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("invalid limit: " + pattern, e);
+    }
+    if (limit < 0) {
+      throw new IllegalArgumentException("negative limit: " + pattern);
+    }
+    return limit;
+  }
+
+  /**
+   * Returns the maximum number of elements of an array or collection or of
+   * bytes of a string that may be deserialized. Lengths are read from the
+   * stream before the data, a stream with a larger length is rejected
+   * without allocating memory for it.
+   *
+   * @return the maximum length
+   */
+  public int getMaxArrayLength() {
+    return this.maxArrayLength;
+  }
+
+  /**
+   * Checks whether a class may be deserialized.
+   *
+   * @param className the binary name of the class or the name of an array
+   *                  class as returned by {@link Class#getName()}
+   * @return {@code true} if the class may be deserialized
+   */
+  public boolean isAllowed(String className) {
+    if (this.allowAll) {
+      return true;
+    }
+    Boolean decision = this.decisions.get(className);
+    if (decision == null) {
+      decision = this.evaluate(className);
+      if (this.decisions.size() >= MAX_CACHED_DECISIONS) {
+        this.decisions.clear();
+      }
+      this.decisions.put(className, decision);
+    }
+    return decision;
+  }
+
+  private boolean evaluate(String className) {
+    String name = className;
+    if (name.startsWith("[")) {
+      int dimensions = 0;
+      while (dimensions < name.length() && name.charAt(dimensions) == '[') {
+        dimensions += 1;
+      }
+      if (dimensions < name.length() && name.charAt(dimensions) == 'L' && name.endsWith(";")) {
+        name = name.substring(dimensions + 1, name.length() - 1);
+      } else {
+        // array of primitives
+        return true;
+      }
+    }
+    for (Pattern pattern : this.patterns) {
+      if (pattern.matches(name)) {
+        return pattern.allow;
+      }
+    }
+    return false;
+  }
+
+  static final class Pattern {
+
+    private final boolean allow;
+    private final String value;
+    private final Kind kind;
+
+    private Pattern(boolean allow, String value, Kind kind) {
+      this.allow = allow;
+      this.value = value;
+      this.kind = kind;
+    }
+
+    static Pattern parse(String pattern) {
+      boolean allow = true;
+      String value = pattern;
+      if (value.startsWith("!")) {
+        allow = false;
+        value = value.substring(1);
+      }
+      if (value.isEmpty()) {
+        throw new IllegalArgumentException("invalid pattern: " + pattern);
+      }
+      if (value.equals("*")) {
+        return new Pattern(allow, "", Kind.PREFIX);
+      }
+      if (value.endsWith(".**")) {
+        return new Pattern(allow, value.substring(0, value.length() - 2), Kind.PACKAGE_AND_SUBPACKAGES);
+      }
+      if (value.endsWith(".*")) {
+        return new Pattern(allow, value.substring(0, value.length() - 1), Kind.PACKAGE);
+      }
+      if (value.endsWith("*")) {
+        return new Pattern(allow, value.substring(0, value.length() - 1), Kind.PREFIX);
+      }
+      if (value.indexOf('*') != -1) {
+        throw new IllegalArgumentException("invalid pattern: " + pattern);
+      }
+      return new Pattern(allow, value, Kind.EXACT);
+    }
+
+    boolean matches(String className) {
+      switch (this.kind) {
+        case EXACT:
+          return className.equals(this.value);
+        case PREFIX:
+        case PACKAGE_AND_SUBPACKAGES:
+          return className.startsWith(this.value);
+        case PACKAGE:
+          return className.startsWith(this.value) && className.indexOf('.', this.value.length()) == -1;
+        default:
+          throw new IllegalStateException("unknown kind: " + this.kind);
+      }
+    }
+
+  }
+
+  enum Kind {
+    EXACT,
+    PREFIX,
+    PACKAGE,
+    PACKAGE_AND_SUBPACKAGES;
+  }
+
+}
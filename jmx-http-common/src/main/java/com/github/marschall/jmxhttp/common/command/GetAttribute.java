@@ -16,6 +16,14 @@ public final class GetAttribute implements Command<Object> {
     this.attribute = attribute;
   }
 
+  public ObjectName getName() {
+    return this.name;
+  }
+
+  public String getAttribute() {
+    return this.attribute;
+  }
+
   @Override
   public Object execute(MBeanServerConnection connection, NotificationRegistry notificationRegistry) throws JMException, IOException {
     return connection.getAttribute(name, attribute);
@@ -17,6 +17,14 @@ public final class GetAttributes implements Command<AttributeList> {
     this.attributes = attributes;
   }
 
+  public ObjectName getName() {
+    return this.name;
+  }
+
+  public String[] getAttributes() {
+    return this.attributes;
+  }
+
   @Override
   public AttributeList execute(MBeanServerConnection connection, NotificationRegistry notificationRegistry) throws JMException, IOException {
     return connection.getAttributes(name, attributes);
@@ -15,6 +15,10 @@ public final class GetMBeanInfo implements Command<MBeanInfo> {
     this.name = name;
   }
 
+  public ObjectName getName() {
+    return this.name;
+  }
+
   @Override
   public MBeanInfo execute(MBeanServerConnection connection, NotificationRegistry notificationRegistry) throws JMException, IOException {
     return connection.getMBeanInfo(name);
@@ -15,6 +15,10 @@ public final class GetObjectInstance implements Command<ObjectInstance> {
     this.name = name;
   }
 
+  public ObjectName getName() {
+    return this.name;
+  }
+
   @Override
   public ObjectInstance execute(MBeanServerConnection connection, NotificationRegistry notificationRegistry) throws JMException, IOException {
     return connection.getObjectInstance(name);
@@ -21,6 +21,22 @@ public final class Invoke implements Command<Object> {
     this.signature = signature;
   }
 
+  public ObjectName getName() {
+    return this.name;
+  }
+
+  public String getOperationName() {
+    return this.operationName;
+  }
+
+  public Object[] getParams() {
+    return this.params;
+  }
+
+  public String[] getSignature() {
+    return this.signature;
+  }
+
   @Override
   public Object execute(MBeanServerConnection connection, NotificationRegistry notificationRegistry) throws JMException, IOException {
     return connection.invoke(name, operationName, params, signature);
@@ -16,6 +16,14 @@ public final class IsInstanceOf implements Command<Boolean> {
     this.className = className;
   }
 
+  public ObjectName getName() {
+    return this.name;
+  }
+
+  public String getClassName() {
+    return this.className;
+  }
+
   @Override
   public Boolean execute(MBeanServerConnection connection, NotificationRegistry notificationRegistry) throws InstanceNotFoundException, IOException {
     return connection.isInstanceOf(name, className);
@@ -13,6 +13,10 @@ public final class IsRegistered implements Command<Boolean> {
     this.name = name;
   }
 
+  public ObjectName getName() {
+    return this.name;
+  }
+
   @Override
   public Boolean execute(MBeanServerConnection connection, NotificationRegistry notificationRegistry) throws IOException {
     return connection.isRegistered(name);
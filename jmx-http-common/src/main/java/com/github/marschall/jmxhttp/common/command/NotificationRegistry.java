@@ -2,6 +2,8 @@ package com.github.marschall.jmxhttp.common.command;
 
 import java.io.IOException;
 
+import javax.management.AttributeList;
+import javax.management.JMException;
 import javax.management.NotificationFilter;
 import javax.management.ObjectName;
 
@@ -12,5 +14,9 @@ public interface NotificationRegistry {
   void removeNotificationListener(ObjectName name, long listenerId) throws IOException;
 
   void removeNotificationListener(ObjectName name, long listenerId, NotificationFilter filter, Long objectId) throws IOException;
-  
+
+  AttributeList addAttributeSampling(ObjectName name, String[] attributes, long periodMillis, long listenerId, Long handbackId) throws JMException, IOException;
+
+  boolean addAttributeWatch(ObjectName name, String attribute, Threshold threshold, long periodMillis, long listenerId, Long handbackId) throws JMException, IOException;
+
 }
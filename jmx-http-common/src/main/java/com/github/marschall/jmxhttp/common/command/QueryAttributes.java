@@ -0,0 +1,61 @@
+package com.github.marschall.jmxhttp.common.command;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.JMException;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.QueryExp;
+
+/**
+ * Reads the same attributes of all MBeans matching a pattern in a single
+ * round trip.
+ * <p>
+ * The result holds the {@link javax.management.AttributeList} of every
+ * matching MBean in a {@link BatchResult}. Reading the attributes of an
+ * MBean that fails, eg. because it was unregistered in the meantime, does
+ * not stop reading the other MBeans, instead its exception is reported in
+ * its {@link BatchResult}.
+ */
+public final class QueryAttributes implements Command<Map<ObjectName, BatchResult>> {
+
+  private final ObjectName name;
+  private final QueryExp query;
+  private final String[] attributes;
+
+  public QueryAttributes(ObjectName name, QueryExp query, String[] attributes) {
+    this.name = name;
+    this.query = query;
+    this.attributes = attributes;
+  }
+
+  public ObjectName getName() {
+    return this.name;
+  }
+
+  public QueryExp getQuery() {
+    return this.query;
+  }
+
+  public String[] getAttributes() {
+    return this.attributes;
+  }
+
+  @Override
+  public Map<ObjectName, BatchResult> execute(MBeanServerConnection connection, NotificationRegistry notificationRegistry) throws IOException {
+    Set<ObjectName> names = connection.queryNames(this.name, this.query);
+    Map<ObjectName, BatchResult> results = new HashMap<>(Math.max((int) (names.size() / .75f) + 1, 16));
+    for (ObjectName each : names) {
+      try {
+        results.put(each, BatchResult.success(connection.getAttributes(each, this.attributes)));
+      } catch (JMException | IOException | RuntimeException e) {
+        results.put(each, BatchResult.failure(e));
+      }
+    }
+    return results;
+  }
+
+}
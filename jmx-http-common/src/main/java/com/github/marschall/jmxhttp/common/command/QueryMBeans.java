@@ -18,6 +18,14 @@ public final class QueryMBeans implements Command<Set<ObjectInstance>> {
     this.query = query;
   }
 
+  public ObjectName getName() {
+    return this.name;
+  }
+
+  public QueryExp getQuery() {
+    return this.query;
+  }
+
   @Override
   public Set<ObjectInstance> execute(MBeanServerConnection connection, NotificationRegistry notificationRegistry) throws IOException {
     return connection.queryMBeans(name, query);
@@ -17,6 +17,14 @@ public final class QueryNames implements Command<Set<ObjectName>> {
     this.query = query;
   }
 
+  public ObjectName getName() {
+    return this.name;
+  }
+
+  public QueryExp getQuery() {
+    return this.query;
+  }
+
   @Override
   public Set<ObjectName> execute(MBeanServerConnection connection, NotificationRegistry notificationRegistry) throws IOException {
     return connection.queryNames(name, query);
@@ -33,6 +33,26 @@ public final class RemoveNotificationListener implements Command<Void> {
     this.hasArguments = true;
   }
 
+  public ObjectName getName() {
+    return this.name;
+  }
+
+  public ObjectName getListenerName() {
+    return this.listenerName;
+  }
+
+  public NotificationFilter getFilter() {
+    return this.filter;
+  }
+
+  public Object getHandback() {
+    return this.handback;
+  }
+
+  public boolean hasArguments() {
+    return this.hasArguments;
+  }
+
   @Override
   public Void execute(MBeanServerConnection connection, NotificationRegistry notificationRegistry) throws JMException, IOException {
     if (this.hasArguments) {
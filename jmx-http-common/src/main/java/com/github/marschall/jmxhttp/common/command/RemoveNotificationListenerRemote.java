@@ -33,6 +33,26 @@ public final class RemoveNotificationListenerRemote implements Command<Void> {
     this.hasArguments = true;
   }
 
+  public ObjectName getName() {
+    return this.name;
+  }
+
+  public long getListenerId() {
+    return this.listenerId;
+  }
+
+  public NotificationFilter getFilter() {
+    return this.filter;
+  }
+
+  public Long getHandbackId() {
+    return this.handbackId;
+  }
+
+  public boolean hasArguments() {
+    return this.hasArguments;
+  }
+
   @Override
   public Void execute(MBeanServerConnection connection, NotificationRegistry notificationRegistry) throws JMException, IOException {
     if (this.hasArguments) {
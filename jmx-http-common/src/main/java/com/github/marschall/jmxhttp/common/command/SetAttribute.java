@@ -17,6 +17,14 @@ public final class SetAttribute implements Command<Void> {
     this.attribute = attribute;
   }
 
+  public ObjectName getName() {
+    return this.name;
+  }
+
+  public Attribute getAttribute() {
+    return this.attribute;
+  }
+
   @Override
   public Void execute(MBeanServerConnection connection, NotificationRegistry notificationRegistry) throws JMException, IOException {
     connection.setAttribute(name, attribute);
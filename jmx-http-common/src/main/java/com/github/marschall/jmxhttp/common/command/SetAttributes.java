@@ -18,6 +18,14 @@ public final class SetAttributes implements Command<AttributeList> {
   }
 
 
+  public ObjectName getName() {
+    return this.name;
+  }
+
+  public AttributeList getAttributes() {
+    return this.attributes;
+  }
+
   @Override
   public AttributeList execute(MBeanServerConnection connection, NotificationRegistry notificationRegistry) throws JMException, IOException {
     return connection.setAttributes(name, attributes);
@@ -0,0 +1,167 @@
+package com.github.marschall.jmxhttp.common.command;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * The condition of an attribute watch, see {@link AddAttributeWatch}.
+ * <p>
+ * Numeric conditions have a high and a low threshold for hysteresis. The
+ * watch triggers when the value reaches the high threshold and is only
+ * rearmed when it falls to the low threshold again, a value oscillating
+ * around a single threshold does not cause a notification each time.
+ * Numbers are compared as {@code double}s.
+ */
+public final class Threshold implements Serializable {
+
+  private final Kind kind;
+  private final Number high;
+  private final Number low;
+  private final String string;
+
+  private Threshold(Kind kind, Number high, Number low, String string) {
+    this.kind = kind;
+    this.high = high;
+    this.low = low;
+    this.string = string;
+  }
+
+  /**
+   * Watches the value of a numeric attribute, eg. the used heap.
+   *
+   * @param high triggers when the value is greater than or equal to this
+   * @param low rearms when the value is less than or equal to this, not
+   *        greater than {@code high}
+   * @return the threshold
+   */
+  public static Threshold gauge(Number high, Number low) {
+    checkNumeric(high, low);
+    return new Threshold(Kind.GAUGE, high, low, null);
+  }
+
+  /**
+   * Watches the increase of a counter between two samples, eg. the number
+   * of errors.
+   *
+   * @param high triggers when the increase is greater than or equal to this
+   * @param low rearms when the increase is less than or equal to this, not
+   *        greater than {@code high}
+   * @return the threshold
+   */
+  public static Threshold counterDelta(Number high, Number low) {
+    checkNumeric(high, low);
+    return new Threshold(Kind.COUNTER_DELTA, high, low, null);
+  }
+
+  /**
+   * Watches whether a string attribute equals a value, eg. a state.
+   *
+   * @param value triggers when the attribute becomes equal to this, rearms
+   *        when it becomes different
+   * @return the threshold
+   */
+  public static Threshold stringEquals(String value) {
+    Objects.requireNonNull(value, "value");
+    return new Threshold(Kind.STRING_EQUALS, null, null, value);
+  }
+
+  private static void checkNumeric(Number high, Number low) {
+    Objects.requireNonNull(high, "high");
+    Objects.requireNonNull(low, "low");
+    if (Double.isNaN(high.doubleValue()) || Double.isNaN(low.doubleValue())) {
+      throw new IllegalArgumentException("threshold is not a number, high: " + high + " low: " + low);
+    }
+    if (low.doubleValue() > high.doubleValue()) {
+      throw new IllegalArgumentException("low threshold " + low + " greater than high threshold " + high);
+    }
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    // the factories are bypassed, the servlet must not watch with an invalid threshold
+    if (this.kind == null) {
+      throw new InvalidObjectException("kind missing");
+    }
+    try {
+      if (this.kind == Kind.STRING_EQUALS) {
+        Objects.requireNonNull(this.string, "value");
+      } else {
+        checkNumeric(this.high, this.low);
+      }
+    } catch (NullPointerException | IllegalArgumentException e) {
+      InvalidObjectException exception = new InvalidObjectException("invalid threshold: " + e.getMessage());
+      exception.initCause(e);
+      throw exception;
+    }
+  }
+
+  public Kind getKind() {
+    return this.kind;
+  }
+
+  public Number getHigh() {
+    return this.high;
+  }
+
+  public Number getLow() {
+    return this.low;
+  }
+
+  public String getString() {
+    return this.string;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(this.kind, this.high, this.low, this.string);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof Threshold)) {
+      return false;
+    }
+    Threshold other = (Threshold) obj;
+    return this.kind == other.kind
+            && Objects.equals(this.high, other.high)
+            && Objects.equals(this.low, other.low)
+            && Objects.equals(this.string, other.string);
+  }
+
+  @Override
+  public String toString() {
+    if (this.kind == Kind.STRING_EQUALS) {
+      return this.kind + "(" + this.string + ")";
+    }
+    return this.kind + "(high=" + this.high + ", low=" + this.low + ")";
+  }
+
+  /**
+   * What is compared with the thresholds.
+   */
+  public enum Kind {
+
+    /**
+     * The value of the attribute.
+     */
+    GAUGE,
+
+    /**
+     * The difference of the value of the attribute to the previous sample.
+     */
+    COUNTER_DELTA,
+
+    /**
+     * Whether the value of the attribute equals a string.
+     */
+    STRING_EQUALS
+
+  }
+
+}
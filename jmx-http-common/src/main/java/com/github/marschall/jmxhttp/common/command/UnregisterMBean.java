@@ -14,6 +14,10 @@ public final class UnregisterMBean implements Command<Void> {
     this.name = name;
   }
 
+  public ObjectName getName() {
+    return this.name;
+  }
+
   @Override
   public Void execute(MBeanServerConnection connection, NotificationRegistry notificationRegistry) throws JMException, IOException {
     connection.unregisterMBean(name);
@@ -0,0 +1,212 @@
+package com.github.marschall.jmxhttp.common.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The HTTP content codings supported for request and response bodies.
+ */
+public enum ContentEncoding {
+
+  GZIP("gzip") {
+
+    @Override
+    public OutputStream encode(OutputStream out, boolean syncFlush) throws IOException {
+      return new GZIPOutputStream(out, syncFlush);
+    }
+
+    @Override
+    public InputStream decode(InputStream in) throws IOException {
+      return new GZIPInputStream(in);
+    }
+
+  },
+
+  /**
+   * The zlib format (RFC 1950) as required by HTTP, not raw deflate.
+   */
+  DEFLATE("deflate") {
+
+    @Override
+    public OutputStream encode(OutputStream out, boolean syncFlush) {
+      return new DeflaterOutputStream(out, syncFlush);
+    }
+
+    @Override
+    public InputStream decode(InputStream in) {
+      return new InflaterInputStream(in);
+    }
+
+  },
+
+  IDENTITY("identity") {
+
+    @Override
+    public OutputStream encode(OutputStream out, boolean syncFlush) {
+      return out;
+    }
+
+    @Override
+    public InputStream decode(InputStream in) {
+      return in;
+    }
+
+  };
+
+  private final String token;
+
+  ContentEncoding(String token) {
+    this.token = token;
+  }
+
+  /**
+   * Returns the value to use in {@code Content-Encoding} and
+   * {@code Accept-Encoding} headers.
+   *
+   * @return the content coding token
+   */
+  public String getToken() {
+    return this.token;
+  }
+
+  /**
+   * Wraps a stream so that everything written to it is encoded. Closing
+   * the returned stream closes {@code out}.
+   *
+   * @param out the stream to which to write the encoded data
+   * @return the encoding stream, {@code out} for identity
+   * @throws IOException if the encoding header can not be written
+   */
+  public OutputStream encode(OutputStream out) throws IOException {
+    return this.encode(out, false);
+  }
+
+  /**
+   * Wraps a stream so that everything written to it is encoded. Closing
+   * the returned stream closes {@code out}.
+   *
+   * @param out the stream to which to write the encoded data
+   * @param syncFlush whether {@link OutputStream#flush()} should flush all
+   *                  data written so far so that the receiver can decode it,
+   *                  needed for streaming responses
+   * @return the encoding stream, {@code out} for identity
+   * @throws IOException if the encoding header can not be written
+   */
+  public abstract OutputStream encode(OutputStream out, boolean syncFlush) throws IOException;
+
+  /**
+   * Wraps a stream so that everything read from it is decoded. Closing the
+   * returned stream closes {@code in}.
+   *
+   * @param in the stream from which to read the encoded data
+   * @return the decoding stream, {@code in} for identity
+   * @throws IOException if the encoding header can not be read
+   */
+  public abstract InputStream decode(InputStream in) throws IOException;
+
+  /**
+   * Looks up an encoding by the value of a {@code Content-Encoding} header.
+   *
+   * @param contentEncoding the header value, may be {@code null}
+   * @return the encoding, {@link #IDENTITY} for {@code null},
+   *         {@code null} if not supported
+   */
+  public static ContentEncoding forContentEncoding(String contentEncoding) {
+    if (contentEncoding == null) {
+      return IDENTITY;
+    }
+    String token = contentEncoding.trim().toLowerCase(Locale.US);
+    if (token.isEmpty()) {
+      return IDENTITY;
+    }
+    for (ContentEncoding encoding : values()) {
+      if (encoding.token.equals(token)) {
+        return encoding;
+      }
+    }
+    if (token.equals("x-gzip")) {
+      return GZIP;
+    }
+    return null;
+  }
+
+  /**
+   * Selects the encoding to use for a response based on the
+   * {@code Accept-Encoding} header of the request.
+   * <p>
+   * Quality values are honoured, of the encodings with the highest quality
+   * {@link #GZIP} is preferred over {@link #DEFLATE} which is preferred over
+   * {@link #IDENTITY}.
+   *
+   * @param acceptEncoding the header value, may be {@code null}
+   * @param defaultEncoding the encoding to use if the request has no
+   *                        {@code Accept-Encoding} header
+   * @return the encoding to use
+   */
+  public static ContentEncoding forAcceptEncoding(String acceptEncoding, ContentEncoding defaultEncoding) {
+    if (acceptEncoding == null) {
+      return defaultEncoding;
+    }
+    ContentEncoding[] encodings = values();
+    float[] qualities = new float[encodings.length];
+    boolean[] listed = new boolean[encodings.length];
+    float wildcard = -1.0f;
+    for (String element : acceptEncoding.split(",")) {
+      String[] parts = element.split(";");
+      String token = parts[0].trim().toLowerCase(Locale.US);
+      if (token.isEmpty()) {
+        continue;
+      }
+      float quality = parseQuality(parts);
+      if (token.equals("*")) {
+        wildcard = quality;
+        continue;
+      }
+      ContentEncoding encoding = forContentEncoding(token);
+      if (encoding != null) {
+        qualities[encoding.ordinal()] = quality;
+        listed[encoding.ordinal()] = true;
+      }
+    }
+    for (ContentEncoding encoding : encodings) {
+      if (!listed[encoding.ordinal()]) {
+        if (wildcard >= 0.0f) {
+          qualities[encoding.ordinal()] = wildcard;
+        } else if (encoding == IDENTITY) {
+          // identity is acceptable unless explicitly excluded
+          qualities[encoding.ordinal()] = 0.001f;
+        }
+      }
+    }
+    ContentEncoding best = IDENTITY;
+    float bestQuality = 0.0f;
+    for (ContentEncoding encoding : encodings) {
+      if (qualities[encoding.ordinal()] > bestQuality) {
+        best = encoding;
+        bestQuality = qualities[encoding.ordinal()];
+      }
+    }
+    return best;
+  }
+
+  private static float parseQuality(String[] parts) {
+    for (int i = 1; i < parts.length; i++) {
+      String parameter = parts[i].trim();
+      if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+        try {
+          return Math.max(0.0f, Math.min(1.0f, Float.parseFloat(parameter.substring(2))));
+        } catch (NumberFormatException e) {
+          return 0.0f;
+        }
+      }
+    }
+    return 1.0f;
+  }
+
+}
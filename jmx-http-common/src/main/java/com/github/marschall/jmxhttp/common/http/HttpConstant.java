@@ -3,11 +3,19 @@ package com.github.marschall.jmxhttp.common.http;
 public final class HttpConstant {
 
   public static final String ACTION_LISTEN = "listen";
+  public static final String ACTION_STREAM = "stream";
   public static final String ACTION_UNREGISTER = "unregister";
   public static final String ACTION_REGISTER = "register";
   public static final String PARAMETER_CORRELATION_ID = "correlationId";
   public static final String PARAMETER_ACTION = "action";
+  public static final String PARAMETER_SEQUENCE_NUMBER = "sequenceNumber";
   public static final String JAVA_SERIALIZED_OBJECT = "application/x-java-serialized-object";
+  public static final String JMX_HTTP_BINARY = "application/x-jmx-http-binary";
+  public static final String JMX_HTTP_JAVA_SERIALIZATION = "application/x-jmx-http-java-serialization";
+  public static final String EVENT_STREAM = "text/event-stream";
+  public static final String HEADER_DICTIONARY_ACKNOWLEDGEMENT = "X-Jmx-Http-Dictionary-Ack";
+  public static final String HEADER_NOTIFICATIONS_LOST = "X-Jmx-Http-Notifications-Lost";
+  public static final String EVENT_NOTIFICATIONS_LOST = "lost";
 
   private HttpConstant() {
     throw new AssertionError("not instantiable");
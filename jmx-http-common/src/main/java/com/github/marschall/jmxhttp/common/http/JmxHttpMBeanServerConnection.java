@@ -0,0 +1,162 @@
+package com.github.marschall.jmxhttp.common.http;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServerConnection;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.QueryExp;
+
+import com.github.marschall.jmxhttp.common.command.BatchCommand;
+import com.github.marschall.jmxhttp.common.command.BatchResult;
+import com.github.marschall.jmxhttp.common.command.Command;
+import com.github.marschall.jmxhttp.common.command.GetAttribute;
+import com.github.marschall.jmxhttp.common.command.GetAttributes;
+import com.github.marschall.jmxhttp.common.command.GetMBeanInfo;
+import com.github.marschall.jmxhttp.common.command.Invoke;
+import com.github.marschall.jmxhttp.common.command.IsRegistered;
+import com.github.marschall.jmxhttp.common.command.QueryAttributes;
+import com.github.marschall.jmxhttp.common.command.QueryNames;
+import com.github.marschall.jmxhttp.common.command.SetAttribute;
+import com.github.marschall.jmxhttp.common.command.Threshold;
+
+/**
+ * Extends {@link MBeanServerConnection} with operations specific to
+ * JMX over HTTP.
+ * <p>
+ * The {@link MBeanServerConnection} returned by a JMX-HTTP connector
+ * can be cast to this interface.
+ *
+ * <h2>Asynchronous Operations</h2>
+ * The asynchronous operations return immediately without blocking the
+ * calling thread. Many commands can be in flight at the same time, commands
+ * that are submitted while other commands are being sent are combined into
+ * a single request. The returned futures are completed exceptionally with
+ * the exception the corresponding synchronous operation would have thrown.
+ * Dependent actions may be run on a thread of the connection, long
+ * running actions should be run with an executor.
+ */
+public interface JmxHttpMBeanServerConnection extends MBeanServerConnection {
+
+  /**
+   * Executes several commands in a single HTTP request.
+   *
+   * @param commands the commands to execute, in order
+   * @return the result of each command in the same order as {@code commands}
+   * @throws IOException if the communication with the server failed
+   * @see BatchCommand
+   */
+  List<BatchResult> executeBatch(List<? extends Command<?>> commands) throws IOException;
+
+  /**
+   * Reads the same attributes of all MBeans matching a pattern in a single
+   * HTTP request.
+   *
+   * @param name the object name pattern, {@code null} for all MBeans
+   * @param query the query expression, {@code null} for none
+   * @param attributes the names of the attributes to read
+   * @return the {@link AttributeList} or the exception of every matching MBean
+   * @throws IOException if the communication with the server failed
+   * @see QueryAttributes
+   */
+  Map<ObjectName, BatchResult> queryAttributes(ObjectName name, QueryExp query, String[] attributes) throws IOException;
+
+  /**
+   * Asks the server to sample attributes of an MBean at a fixed period
+   * instead of polling them.
+   * <p>
+   * The server sends an {@link javax.management.AttributeChangeNotification}
+   * with the MBean as source to the listener for every attribute whose value
+   * changed since the previous sample, unchanged values cause no traffic.
+   * Clients sampling the same attributes of the same MBean with the same
+   * period share a single sampling on the server. The sampling is removed
+   * with {@link #removeNotificationListener(ObjectName, NotificationListener)}
+   * and ends when the MBean is unregistered.
+   *
+   * @param name the name of the MBean
+   * @param attributes the names of the attributes to sample
+   * @param periodMillis the sampling period in milliseconds
+   * @param listener the listener receiving the changed values
+   * @param handback passed to the listener
+   * @return the current values of the attributes
+   * @throws InstanceNotFoundException if the MBean is not registered
+   * @throws IOException if the communication with the server failed
+   */
+  AttributeList addAttributeSampling(ObjectName name, String[] attributes, long periodMillis, NotificationListener listener, Object handback) throws InstanceNotFoundException, IOException;
+
+  /**
+   * Asks the server to watch an attribute of an MBean for crossing a
+   * threshold instead of polling it.
+   * <p>
+   * The server reads the attribute at the given period and only notifies
+   * the listener when the threshold is crossed, see
+   * {@link com.github.marschall.jmxhttp.common.command.AddAttributeWatch} for
+   * the notifications. Clients watching the same attribute with the same
+   * threshold and period share a single watch on the server. The watch is
+   * removed with {@link #removeNotificationListener(ObjectName, NotificationListener)}
+   * and ends when the MBean is unregistered.
+   *
+   * @param name the name of the MBean
+   * @param attribute the name of the attribute, {@code attribute.item} for
+   *        an item of a composite attribute
+   * @param threshold the threshold to watch for
+   * @param periodMillis the period in milliseconds at which the attribute is
+   *        read
+   * @param listener the listener receiving the crossings
+   * @param handback passed to the listener
+   * @return whether the watch is currently triggered
+   * @throws InstanceNotFoundException if the MBean is not registered
+   * @throws IOException if the communication with the server failed
+   */
+  boolean addAttributeWatch(ObjectName name, String attribute, Threshold threshold, long periodMillis, NotificationListener listener, Object handback) throws InstanceNotFoundException, IOException;
+
+  /**
+   * Executes a command asynchronously.
+   *
+   * @param command the command to execute
+   * @param <R> the result type
+   * @return the future result of the command
+   */
+  <R> CompletableFuture<R> executeAsync(Command<R> command);
+
+  default CompletableFuture<Object> getAttributeAsync(ObjectName name, String attribute) {
+    return this.executeAsync(new GetAttribute(name, attribute));
+  }
+
+  default CompletableFuture<AttributeList> getAttributesAsync(ObjectName name, String[] attributes) {
+    return this.executeAsync(new GetAttributes(name, attributes));
+  }
+
+  default CompletableFuture<Map<ObjectName, BatchResult>> queryAttributesAsync(ObjectName name, QueryExp query, String[] attributes) {
+    return this.executeAsync(new QueryAttributes(name, query, attributes));
+  }
+
+  default CompletableFuture<Void> setAttributeAsync(ObjectName name, Attribute attribute) {
+    return this.executeAsync(new SetAttribute(name, attribute));
+  }
+
+  default CompletableFuture<Object> invokeAsync(ObjectName name, String operationName, Object[] params, String[] signature) {
+    return this.executeAsync(new Invoke(name, operationName, params, signature));
+  }
+
+  default CompletableFuture<Set<ObjectName>> queryNamesAsync(ObjectName name, QueryExp query) {
+    return this.executeAsync(new QueryNames(name, query));
+  }
+
+  default CompletableFuture<Boolean> isRegisteredAsync(ObjectName name) {
+    return this.executeAsync(new IsRegistered(name));
+  }
+
+  default CompletableFuture<MBeanInfo> getMBeanInfoAsync(ObjectName name) {
+    return this.executeAsync(new GetMBeanInfo(name));
+  }
+
+}
@@ -6,14 +6,27 @@ import javax.management.Notification;
 
 public final class RemoteNotification implements Serializable {
 
+  // the implicit value before sequence numbers were added, keeps older peers compatible
+  private static final long serialVersionUID = -1859579367555713064L;
+
   private final Notification notification;
   private final long listenerId;
   private final Long objectId;
+  /**
+   * Assigned by the server, {@code 0} if the server does not assign
+   * sequence numbers.
+   */
+  private final long sequenceNumber;
 
   public RemoteNotification(Notification notification, long listenerId, Long objectId) {
+    this(notification, listenerId, objectId, 0L);
+  }
+
+  public RemoteNotification(Notification notification, long listenerId, Long objectId, long sequenceNumber) {
     this.notification = notification;
     this.listenerId = listenerId;
     this.objectId = objectId;
+    this.sequenceNumber = sequenceNumber;
   }
 
   public long getListenerId() {
@@ -28,4 +41,8 @@ public final class RemoteNotification implements Serializable {
     return this.objectId;
   }
 
-}
\ No newline at end of file
+  public long getSequenceNumber() {
+    return this.sequenceNumber;
+  }
+
+}
@@ -0,0 +1,104 @@
+package com.github.marschall.jmxhttp.common.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+
+import org.junit.Test;
+
+import com.github.marschall.jmxhttp.common.client.ClientCodec.RequestBody;
+import com.github.marschall.jmxhttp.common.codec.Codec;
+import com.github.marschall.jmxhttp.common.codec.Codecs;
+import com.github.marschall.jmxhttp.common.command.GetDefaultDomain;
+import com.github.marschall.jmxhttp.common.http.ContentEncoding;
+
+public class ClientCodecTest {
+
+  private static final Codec CODEC = Codecs.JAVA_SERIALIZATION;
+
+  private static ClientCodec newCodec(int requestCompressionThreshold) {
+    return new ClientCodec(CODEC, "gzip", ContentEncoding.GZIP, requestCompressionThreshold, ClientCodecTest.class.getClassLoader());
+  }
+
+  private static byte[] encode(Object object, ContentEncoding encoding) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (OutputStream out = encoding.encode(bos)) {
+      CODEC.writeObject(object, out, null);
+    }
+    return bos.toByteArray();
+  }
+
+  private static Object decode(RequestBody body) throws IOException, ClassNotFoundException {
+    ContentEncoding encoding = ContentEncoding.forContentEncoding(body.getContentEncoding());
+    try (InputStream in = encoding.decode(new ByteArrayInputStream(body.toByteArray()))) {
+      return CODEC.readObject(in, ClientCodecTest.class.getClassLoader(), null);
+    }
+  }
+
+  @Test
+  public void encodeBelowThreshold() throws IOException, ClassNotFoundException {
+    RequestBody body = newCodec(Integer.MAX_VALUE).encode(new GetDefaultDomain());
+    assertNull(body.getContentEncoding());
+    assertEquals(body.size(), body.toByteArray().length);
+    assertTrue(decode(body) instanceof GetDefaultDomain);
+  }
+
+  @Test
+  public void encodeNeverCompress() throws IOException {
+    RequestBody body = newCodec(-1).encode(new GetDefaultDomain());
+    assertNull(body.getContentEncoding());
+  }
+
+  @Test
+  public void encodeAboveThreshold() throws IOException, ClassNotFoundException {
+    RequestBody body = newCodec(0).encode(new GetDefaultDomain());
+    assertEquals("gzip", body.getContentEncoding());
+    assertTrue(decode(body) instanceof GetDefaultDomain);
+  }
+
+  @Test
+  public void readResponse() throws IOException, JMException {
+    Map<String, String> headers = new HashMap<>();
+    headers.put("Content-Type", CODEC.getContentType());
+    headers.put("Content-Encoding", "gzip");
+    Object result = newCodec(-1).readResponse(new ByteArrayInputStream(encode("domain", ContentEncoding.GZIP)), headers::get);
+    assertEquals("domain", result);
+  }
+
+  @Test(expected = InstanceNotFoundException.class)
+  public void readResponseException() throws IOException, JMException {
+    Map<String, String> headers = new HashMap<>();
+    newCodec(-1).readResponse(new ByteArrayInputStream(encode(new InstanceNotFoundException(), ContentEncoding.IDENTITY)), headers::get);
+  }
+
+  @Test(expected = IOException.class)
+  public void readResponseUnsupportedEncoding() throws IOException, JMException {
+    Map<String, String> headers = new HashMap<>();
+    headers.put("Content-Encoding", "br");
+    newCodec(-1).readResponse(new ByteArrayInputStream(new byte[0]), headers::get);
+  }
+
+  @Test
+  public void readEvent() throws IOException, ClassNotFoundException {
+    String data = Base64.getEncoder().encodeToString(encode("event", ContentEncoding.IDENTITY));
+    assertEquals("event", newCodec(-1).readEvent(data));
+  }
+
+  @Test(expected = IOException.class)
+  public void readInvalidEvent() throws IOException, ClassNotFoundException {
+    newCodec(-1).readEvent("not base64!");
+  }
+
+}
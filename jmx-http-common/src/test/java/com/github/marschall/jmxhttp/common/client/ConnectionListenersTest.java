@@ -0,0 +1,103 @@
+package com.github.marschall.jmxhttp.common.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConnectionListenersTest {
+
+  private ConnectionListeners listeners;
+
+  private List<Object> received;
+
+  @Before
+  public void setUp() {
+    this.listeners = new ConnectionListeners();
+    this.received = new ArrayList<>();
+  }
+
+  private NotificationListener newListener() {
+    return (notification, handback) -> this.received.add(handback);
+  }
+
+  private static Notification newNotification(String type) {
+    return new Notification(type, "source", 1L);
+  }
+
+  @Test
+  public void send() {
+    NotificationListener listener = this.newListener();
+    this.listeners.add(listener, null, "first");
+    this.listeners.add(listener, n -> n.getType().equals("opened"), "second");
+    this.listeners.send(newNotification("opened"));
+    this.listeners.send(newNotification("closed"));
+    assertEquals(Arrays.asList("first", "second", "first"), this.received);
+  }
+
+  @Test
+  public void removeAll() throws ListenerNotFoundException {
+    NotificationListener listener = this.newListener();
+    this.listeners.add(listener, null, "first");
+    this.listeners.add(listener, null, "second");
+    this.listeners.remove(listener);
+    assertTrue(this.listeners.isEmpty());
+  }
+
+  @Test
+  public void removeExact() throws ListenerNotFoundException {
+    NotificationListener listener = this.newListener();
+    NotificationFilter filter = n -> true;
+    this.listeners.add(listener, null, "first");
+    this.listeners.add(listener, filter, "second");
+    this.listeners.remove(listener, filter, "second");
+    this.listeners.send(newNotification("opened"));
+    assertEquals(Arrays.asList("first"), this.received);
+  }
+
+  @Test(expected = ListenerNotFoundException.class)
+  public void removeNotFound() throws ListenerNotFoundException {
+    this.listeners.add(this.newListener(), null, null);
+    this.listeners.remove(this.newListener());
+  }
+
+  @Test(expected = ListenerNotFoundException.class)
+  public void removeExactNotFound() throws ListenerNotFoundException {
+    NotificationListener listener = this.newListener();
+    this.listeners.add(listener, null, "first");
+    this.listeners.remove(listener, null, "second");
+  }
+
+  @Test
+  public void removeWhileHandling() {
+    NotificationListener self = new NotificationListener() {
+
+      @Override
+      public void handleNotification(Notification notification, Object handback) {
+        try {
+          listeners.remove(this);
+        } catch (ListenerNotFoundException e) {
+          throw new AssertionError(e);
+        }
+        received.add(handback);
+      }
+
+    };
+    this.listeners.add(self, null, "self");
+    this.listeners.add(this.newListener(), null, "other");
+    this.listeners.send(newNotification("opened"));
+    this.listeners.send(newNotification("closed"));
+    assertEquals(Arrays.asList("self", "other", "other"), this.received);
+  }
+
+}
@@ -0,0 +1,114 @@
+package com.github.marschall.jmxhttp.common.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.marschall.jmxhttp.common.http.RemoteNotification;
+
+public class ListenerRegistryTest {
+
+  private ListenerRegistry registry;
+
+  private List<Object> received;
+
+  @Before
+  public void setUp() {
+    this.registry = new ListenerRegistry();
+    this.received = new ArrayList<>();
+  }
+
+  private NotificationListener newListener() {
+    return (notification, handback) -> this.received.add(handback);
+  }
+
+  private static RemoteNotification newNotification(long listenerId, Long handbackId, long sequenceNumber) {
+    return new RemoteNotification(new Notification("type", "source", sequenceNumber), listenerId, handbackId, sequenceNumber);
+  }
+
+  @Test
+  public void reuseIds() throws ListenerNotFoundException {
+    NotificationListener listener = this.newListener();
+    long listenerId = this.registry.registerListener(listener);
+    assertEquals(listenerId, this.registry.registerListener(listener));
+    assertEquals(listenerId, this.registry.getListenerId(listener));
+    assertNotEquals(listenerId, this.registry.registerListener(this.newListener()));
+
+    Object handback = new Object();
+    Long handbackId = this.registry.registerHandback(handback);
+    assertEquals(handbackId, this.registry.registerHandback(handback));
+    assertEquals(handbackId, this.registry.getHandbackId(handback));
+    assertNull(this.registry.registerHandback(null));
+    assertNull(this.registry.getHandbackId(null));
+  }
+
+  @Test(expected = ListenerNotFoundException.class)
+  public void listenerNotFound() throws ListenerNotFoundException {
+    this.registry.registerListener(this.newListener());
+    this.registry.getListenerId(this.newListener());
+  }
+
+  @Test(expected = ListenerNotFoundException.class)
+  public void handbackNotFound() throws ListenerNotFoundException {
+    this.registry.getHandbackId("handback");
+  }
+
+  @Test(expected = ListenerNotFoundException.class)
+  public void clear() throws ListenerNotFoundException {
+    NotificationListener listener = this.newListener();
+    this.registry.registerListener(listener);
+    this.registry.clear();
+    this.registry.getListenerId(listener);
+  }
+
+  @Test
+  public void deliver() {
+    long first = this.registry.registerListener(this.newListener());
+    long second = this.registry.registerListener(this.newListener());
+    Long handbackId = this.registry.registerHandback("handback");
+
+    long lastSequenceNumber = this.registry.deliver(Arrays.asList(
+        newNotification(first, handbackId, 1L),
+        newNotification(second, null, 1L),
+        newNotification(first, null, 2L)), 0L);
+    assertEquals(2L, lastSequenceNumber);
+    assertEquals(Arrays.asList("handback", null, null), this.received);
+
+    // the first two were sent again
+    this.received.clear();
+    lastSequenceNumber = this.registry.deliver(Arrays.asList(
+        newNotification(first, handbackId, 1L),
+        newNotification(first, null, 2L),
+        newNotification(second, handbackId, 3L)), lastSequenceNumber);
+    assertEquals(3L, lastSequenceNumber);
+    assertEquals(Arrays.asList("handback"), this.received);
+  }
+
+  @Test
+  public void deliverUnknownListener() {
+    long listenerId = this.registry.registerListener(this.newListener());
+    long lastSequenceNumber = this.registry.deliver(Arrays.asList(
+        newNotification(listenerId + 1L, null, 1L),
+        newNotification(listenerId, null, 2L)), 0L);
+    assertEquals(2L, lastSequenceNumber);
+    assertEquals(1, this.received.size());
+  }
+
+  @Test
+  public void deliverInvalidResponse() {
+    assertEquals(5L, this.registry.deliver("invalid", 5L));
+    assertEquals(0, this.received.size());
+  }
+
+}
@@ -0,0 +1,260 @@
+package com.github.marschall.jmxhttp.common.codec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerNotification;
+import javax.management.Notification;
+import javax.management.ObjectInstance;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import com.github.marschall.jmxhttp.common.command.AddAttributeSampling;
+import com.github.marschall.jmxhttp.common.command.AddAttributeWatch;
+import com.github.marschall.jmxhttp.common.command.BatchCommand;
+import com.github.marschall.jmxhttp.common.command.BatchResult;
+import com.github.marschall.jmxhttp.common.command.DeserializationFilter;
+import com.github.marschall.jmxhttp.common.command.GetAttribute;
+import com.github.marschall.jmxhttp.common.command.GetAttributes;
+import com.github.marschall.jmxhttp.common.command.Invoke;
+import com.github.marschall.jmxhttp.common.command.IsRegistered;
+import com.github.marschall.jmxhttp.common.command.QueryAttributes;
+import com.github.marschall.jmxhttp.common.command.Threshold;
+import com.github.marschall.jmxhttp.common.http.Registration;
+import com.github.marschall.jmxhttp.common.http.RemoteNotification;
+
+public class BinaryCodecTest {
+
+  private static Object roundTrip(Object value) throws IOException, ClassNotFoundException {
+    Codec codec = Codecs.BINARY;
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    codec.writeObject(value, out, null);
+    return codec.readObject(new ByteArrayInputStream(out.toByteArray()), BinaryCodecTest.class.getClassLoader(), null);
+  }
+
+  @Test
+  public void primitives() throws IOException, ClassNotFoundException {
+    assertNull(roundTrip(null));
+    assertEquals(Boolean.TRUE, roundTrip(true));
+    assertEquals(Boolean.FALSE, roundTrip(false));
+    assertEquals((byte) -3, roundTrip((byte) -3));
+    assertEquals((short) 300, roundTrip((short) 300));
+    assertEquals('x', roundTrip('x'));
+    assertEquals(Integer.MIN_VALUE, roundTrip(Integer.MIN_VALUE));
+    assertEquals(Long.MAX_VALUE, roundTrip(Long.MAX_VALUE));
+    assertEquals(1.5f, roundTrip(1.5f));
+    assertEquals(-2.25d, roundTrip(-2.25d));
+    assertEquals("grüße", roundTrip("grüße"));
+    assertEquals("", roundTrip(""));
+  }
+
+  @Test
+  public void arrays() throws IOException, ClassNotFoundException {
+    assertArrayEquals(new String[] {"a", null, "c"}, (String[]) roundTrip(new String[] {"a", null, "c"}));
+    assertArrayEquals(new long[] {1L, -1L}, (long[]) roundTrip(new long[] {1L, -1L}));
+    assertArrayEquals(new int[0], (int[]) roundTrip(new int[0]));
+    assertArrayEquals(new Object[] {1, "two"}, (Object[]) roundTrip(new Object[] {1, "two"}));
+  }
+
+  @Test
+  public void jmxTypes() throws IOException, ClassNotFoundException, JMException {
+    ObjectName name = new ObjectName("java.lang:type=MemoryPool,name=Metaspace");
+    assertEquals(name, roundTrip(name));
+
+    ObjectInstance instance = new ObjectInstance(name, "sun.management.MemoryPoolImpl");
+    assertEquals(instance, roundTrip(instance));
+
+    AttributeList attributes = new AttributeList();
+    attributes.add(new Attribute("Name", "Metaspace"));
+    attributes.add(new Attribute("Valid", true));
+    AttributeList actual = (AttributeList) roundTrip(attributes);
+    assertEquals(attributes.asList(), actual.asList());
+
+    Set<ObjectName> names = new HashSet<>(Arrays.asList(name, MBeanServerDelegate.DELEGATE_NAME));
+    assertEquals(names, roundTrip(names));
+    // cached query results of the server
+    assertEquals(HashSet.class, roundTrip(Collections.unmodifiableSet(names)).getClass());
+    assertEquals(Collections.emptyList(), roundTrip(Collections.emptyList()));
+  }
+
+  @Test
+  public void notifications() throws IOException, ClassNotFoundException, JMException {
+    ObjectName name = new ObjectName("java.lang:type=Memory");
+    MBeanServerNotification notification = new MBeanServerNotification(MBeanServerNotification.REGISTRATION_NOTIFICATION,
+        MBeanServerDelegate.DELEGATE_NAME, 7L, name);
+    notification.setUserData(42);
+    List<RemoteNotification> notifications = new ArrayList<>();
+    notifications.add(new RemoteNotification(notification, 3L, null));
+    notifications.add(new RemoteNotification(new Notification("custom", name, 8L, 1234L, "message"), 4L, 9L, 11L));
+
+    List<?> actual = (List<?>) roundTrip(notifications);
+    assertEquals(2, actual.size());
+
+    RemoteNotification first = (RemoteNotification) actual.get(0);
+    assertEquals(3L, first.getListenerId());
+    assertNull(first.getObjectId());
+    assertEquals(0L, first.getSequenceNumber());
+    MBeanServerNotification firstNotification = (MBeanServerNotification) first.getNotification();
+    assertEquals(MBeanServerNotification.REGISTRATION_NOTIFICATION, firstNotification.getType());
+    assertEquals(name, firstNotification.getMBeanName());
+    assertEquals(MBeanServerDelegate.DELEGATE_NAME, firstNotification.getSource());
+    assertEquals(7L, firstNotification.getSequenceNumber());
+    assertEquals(42, firstNotification.getUserData());
+
+    RemoteNotification second = (RemoteNotification) actual.get(1);
+    assertEquals(Long.valueOf(9L), second.getObjectId());
+    assertEquals(11L, second.getSequenceNumber());
+    assertEquals("message", second.getNotification().getMessage());
+    assertEquals(1234L, second.getNotification().getTimeStamp());
+  }
+
+  @Test
+  public void commands() throws IOException, ClassNotFoundException, JMException {
+    ObjectName name = new ObjectName("java.lang:type=Threading");
+    BatchCommand batch = new BatchCommand(Arrays.asList(
+        new GetAttribute(name, "ThreadCount"),
+        new GetAttributes(name, new String[] {"ThreadCount", "PeakThreadCount"}),
+        new IsRegistered(name),
+        new Invoke(name, "getThreadInfo", new Object[] {1L}, new String[] {"long"}),
+        new AddAttributeSampling(name, new String[] {"ThreadCount"}, 1000L, 3L, 7L),
+        new AddAttributeWatch(name, "ThreadCount", Threshold.gauge(500, 400), 1000L, 4L, null)));
+
+    BatchCommand actual = (BatchCommand) roundTrip(batch);
+    assertEquals(6, actual.getCommands().size());
+    GetAttribute getAttribute = (GetAttribute) actual.getCommands().get(0);
+    assertEquals(name, getAttribute.getName());
+    assertEquals("ThreadCount", getAttribute.getAttribute());
+    GetAttributes getAttributes = (GetAttributes) actual.getCommands().get(1);
+    assertArrayEquals(new String[] {"ThreadCount", "PeakThreadCount"}, getAttributes.getAttributes());
+    Invoke invoke = (Invoke) actual.getCommands().get(3);
+    assertEquals("getThreadInfo", invoke.getOperationName());
+    assertArrayEquals(new Object[] {1L}, invoke.getParams());
+    assertArrayEquals(new String[] {"long"}, invoke.getSignature());
+    AddAttributeSampling sampling = (AddAttributeSampling) actual.getCommands().get(4);
+    assertEquals(name, sampling.getName());
+    assertArrayEquals(new String[] {"ThreadCount"}, sampling.getAttributes());
+    assertEquals(1000L, sampling.getPeriodMillis());
+    assertEquals(3L, sampling.getListenerId());
+    assertEquals(Long.valueOf(7L), sampling.getHandbackId());
+    AddAttributeWatch watch = (AddAttributeWatch) actual.getCommands().get(5);
+    assertEquals("ThreadCount", watch.getAttribute());
+    assertEquals(Threshold.gauge(500, 400), watch.getThreshold());
+    assertEquals(4L, watch.getListenerId());
+    assertNull(watch.getHandbackId());
+  }
+
+  @Test
+  public void queryAttributes() throws IOException, ClassNotFoundException, JMException {
+    ObjectName pattern = new ObjectName("java.lang:type=MemoryPool,*");
+    QueryAttributes command = (QueryAttributes) roundTrip(new QueryAttributes(pattern, null, new String[] {"Name", "Missing"}));
+    assertEquals(pattern, command.getName());
+    assertNull(command.getQuery());
+    assertArrayEquals(new String[] {"Name", "Missing"}, command.getAttributes());
+
+    Map<ObjectName, BatchResult> results = command.execute(ManagementFactory.getPlatformMBeanServer(), null);
+    assertFalse(results.isEmpty());
+    @SuppressWarnings("unchecked")
+    Map<ObjectName, BatchResult> actual = (Map<ObjectName, BatchResult>) roundTrip(results);
+    assertEquals(results.keySet(), actual.keySet());
+    for (Map.Entry<ObjectName, BatchResult> entry : actual.entrySet()) {
+      AttributeList attributes = (AttributeList) entry.getValue().getValue();
+      // missing attributes are omitted
+      assertEquals(1, attributes.size());
+      assertEquals(entry.getKey().getKeyProperty("name"), attributes.asList().get(0).getValue());
+    }
+  }
+
+  @Test
+  public void fallbackToSerialization() throws IOException, ClassNotFoundException, JMException {
+    assertEquals(new BigDecimal("1.25"), roundTrip(new BigDecimal("1.25")));
+
+    List<BatchResult> results = Arrays.asList(BatchResult.success(1), BatchResult.failure(new InstanceNotFoundException("gone")));
+    List<?> actual = (List<?>) roundTrip(new ArrayList<>(results));
+    BatchResult success = (BatchResult) actual.get(0);
+    assertFalse(success.isFailure());
+    assertEquals(1, success.getValue());
+    BatchResult failure = (BatchResult) actual.get(1);
+    assertTrue(failure.isFailure());
+    assertEquals("gone", failure.getException().getMessage());
+
+    Registration registration = (Registration) roundTrip(new Registration(5L, 30000L));
+    assertEquals(5L, registration.getCorrelationId());
+    assertEquals(30000L, registration.getTimeoutMilliseconds());
+  }
+
+  @Test
+  public void sessionDictionary() throws IOException, ClassNotFoundException, JMException {
+    Codec codec = Codecs.BINARY;
+    CodecSession client = new CodecSession();
+    CodecSession server = new CodecSession();
+    ObjectName name = new ObjectName("java.lang:type=Memory");
+    GetAttribute command = new GetAttribute(name, "HeapMemoryUsage");
+
+    ByteArrayOutputStream first = new ByteArrayOutputStream();
+    codec.writeObject(command, first, client);
+    GetAttribute actual = (GetAttribute) codec.readObject(new ByteArrayInputStream(first.toByteArray()), BinaryCodecTest.class.getClassLoader(), server);
+    assertEquals(name, actual.getName());
+    assertEquals("HeapMemoryUsage", actual.getAttribute());
+
+    // unacknowledged definitions are repeated
+    ByteArrayOutputStream second = new ByteArrayOutputStream();
+    codec.writeObject(command, second, client);
+    assertEquals(first.size(), second.size());
+
+    client.acknowledge(Integer.toString(server.getAcknowledgement()));
+    ByteArrayOutputStream third = new ByteArrayOutputStream();
+    codec.writeObject(command, third, client);
+    assertTrue(third.size() < first.size());
+    actual = (GetAttribute) codec.readObject(new ByteArrayInputStream(third.toByteArray()), BinaryCodecTest.class.getClassLoader(), server);
+    assertEquals(name, actual.getName());
+    assertEquals("HeapMemoryUsage", actual.getAttribute());
+  }
+
+  @Test
+  public void forgedLength() throws IOException, ClassNotFoundException {
+    // version, no definitions, tag followed by a length of Integer.MAX_VALUE
+    int[] tags = {10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 22};
+    for (int tag : tags) {
+      byte[] body = {1, 0, 0, (byte) tag, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07};
+      try {
+        Codecs.BINARY.readObject(new ByteArrayInputStream(body), BinaryCodecTest.class.getClassLoader(), null);
+        fail("tag " + tag + " should fail");
+      } catch (EOFException e) {
+        // the stream ends long before the length
+      }
+      try {
+        Codecs.BINARY.withFilter(DeserializationFilter.fromPatterns("java.**;maxarray=16"))
+          .readObject(new ByteArrayInputStream(body), BinaryCodecTest.class.getClassLoader(), null);
+        fail("tag " + tag + " should fail");
+      } catch (InvalidObjectException e) {
+        // exceeds the maximum
+      }
+    }
+  }
+
+}
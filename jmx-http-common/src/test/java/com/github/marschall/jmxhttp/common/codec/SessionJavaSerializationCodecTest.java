@@ -0,0 +1,63 @@
+package com.github.marschall.jmxhttp.common.codec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import com.github.marschall.jmxhttp.common.command.GetAttribute;
+
+public class SessionJavaSerializationCodecTest {
+
+  private static byte[] write(Object value, CodecSession session) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Codecs.JAVA_SERIALIZATION_SESSION.writeObject(value, out, session);
+    return out.toByteArray();
+  }
+
+  private static Object read(byte[] bytes, CodecSession session) throws IOException, ClassNotFoundException {
+    return Codecs.JAVA_SERIALIZATION_SESSION.readObject(new ByteArrayInputStream(bytes), SessionJavaSerializationCodecTest.class.getClassLoader(), session);
+  }
+
+  @Test
+  public void withoutSession() throws IOException, ClassNotFoundException, JMException {
+    ObjectName name = new ObjectName("java.lang:type=Memory");
+    assertEquals(name, read(write(name, null), null));
+  }
+
+  @Test
+  public void descriptorsAreSentOnce() throws IOException, ClassNotFoundException, JMException {
+    CodecSession server = new CodecSession();
+    CodecSession client = new CodecSession();
+    AttributeList attributes = new AttributeList();
+    attributes.add(new Attribute("HeapMemoryUsage", 1L));
+
+    byte[] first = write(attributes, server);
+    assertEquals(attributes, read(first, client));
+
+    // not yet acknowledged, descriptors are sent again
+    byte[] second = write(attributes, server);
+    assertTrue(second.length >= first.length);
+    assertEquals(attributes, read(second, client));
+
+    server.acknowledge(Integer.toString(client.getAcknowledgement()));
+    byte[] third = write(attributes, server);
+    assertTrue(third.length < first.length / 2);
+    assertEquals(attributes, read(third, client));
+
+    // the other direction is independent
+    GetAttribute command = new GetAttribute(new ObjectName("java.lang:type=Memory"), "HeapMemoryUsage");
+    GetAttribute actual = (GetAttribute) read(write(command, client), server);
+    assertEquals(command.getName(), actual.getName());
+  }
+
+}
@@ -0,0 +1,59 @@
+package com.github.marschall.jmxhttp.common.command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class DeserializationFilterTest {
+
+  @Test
+  public void defaultPatterns() {
+    DeserializationFilter filter = DeserializationFilter.fromPatterns(DeserializationFilter.DEFAULT_PATTERNS);
+    assertTrue(filter.isAllowed("java.lang.String"));
+    assertTrue(filter.isAllowed("java.math.BigDecimal"));
+    assertTrue(filter.isAllowed("java.util.Collections$UnmodifiableRandomAccessList"));
+    assertTrue(filter.isAllowed("javax.management.openmbean.CompositeDataSupport"));
+    assertTrue(filter.isAllowed("[Ljavax.management.ObjectName;"));
+    assertTrue(filter.isAllowed("[Ljava.lang.Object;"));
+    assertTrue(filter.isAllowed("[[I"));
+    assertTrue(filter.isAllowed("com.github.marschall.jmxhttp.common.command.Invoke"));
+    assertFalse(filter.isAllowed("javax.naming.Reference"));
+    assertFalse(filter.isAllowed("java.util.PriorityQueue"));
+    assertFalse(filter.isAllowed("java.lang.reflect.Proxy"));
+    assertFalse(filter.isAllowed("java.net.URL"));
+    assertFalse(filter.isAllowed("java.rmi.server.UnicastRemoteObject"));
+    assertFalse(filter.isAllowed("javax.management.BadAttributeValueExpException"));
+    assertFalse(filter.isAllowed("javax.management.remote.rmi.RMIConnector"));
+    assertFalse(filter.isAllowed("org.apache.commons.collections.functors.InvokerTransformer"));
+    assertFalse(filter.isAllowed("[Lorg.example.Gadget;"));
+  }
+
+  @Test
+  public void patterns() {
+    DeserializationFilter filter = DeserializationFilter.fromPatterns("!java.rmi.**; java.*; com.example.Type; org.example.Prefix*");
+    assertFalse(filter.isAllowed("java.rmi.server.UnicastRef"));
+    assertTrue(filter.isAllowed("java.Foo"));
+    assertFalse(filter.isAllowed("java.lang.String"));
+    assertTrue(filter.isAllowed("com.example.Type"));
+    assertFalse(filter.isAllowed("com.example.Type2"));
+    assertTrue(filter.isAllowed("org.example.PrefixAndMore"));
+    assertTrue(DeserializationFilter.allowAll().isAllowed("org.example.Gadget"));
+  }
+
+  @Test
+  public void maxArrayLength() {
+    assertEquals(DeserializationFilter.DEFAULT_MAX_ARRAY_LENGTH, DeserializationFilter.fromPatterns("java.**").getMaxArrayLength());
+    DeserializationFilter filter = DeserializationFilter.fromPatterns("java.**; maxarray=100");
+    assertEquals(100, filter.getMaxArrayLength());
+    assertTrue(filter.isAllowed("java.lang.String"));
+    assertEquals(Integer.MAX_VALUE, DeserializationFilter.allowAll().getMaxArrayLength());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void unsupportedLimit() {
+    DeserializationFilter.fromPatterns("java.**;maxdepth=10");
+  }
+
+}
@@ -0,0 +1,68 @@
+package com.github.marschall.jmxhttp.common.command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
+
+import org.junit.Test;
+
+public class ThresholdTest {
+
+  private static Object roundTrip(Object object) throws IOException, ClassNotFoundException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bos)) {
+      out.writeObject(object);
+    }
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()))) {
+      return in.readObject();
+    }
+  }
+
+  private static Threshold forge(Threshold threshold, String fieldName, Object value) throws ReflectiveOperationException {
+    Field field = Threshold.class.getDeclaredField(fieldName);
+    field.setAccessible(true);
+    field.set(threshold, value);
+    return threshold;
+  }
+
+  private static void assertInvalid(Threshold threshold) throws IOException, ClassNotFoundException {
+    try {
+      roundTrip(threshold);
+      fail("invalid threshold deserialized: " + threshold);
+    } catch (InvalidObjectException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void valid() throws IOException, ClassNotFoundException {
+    Threshold gauge = Threshold.gauge(900, 800);
+    assertEquals(gauge, roundTrip(gauge));
+    Threshold delta = Threshold.counterDelta(10L, 0L);
+    assertEquals(delta, roundTrip(delta));
+    Threshold string = Threshold.stringEquals("FAILED");
+    assertEquals(string, roundTrip(string));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void notANumber() {
+    Threshold.gauge(Double.NaN, 0.0d);
+  }
+
+  @Test
+  public void forged() throws ReflectiveOperationException, IOException {
+    assertInvalid(forge(Threshold.gauge(900, 800), "low", 1000));
+    assertInvalid(forge(Threshold.gauge(900, 800), "high", null));
+    assertInvalid(forge(Threshold.counterDelta(10.0d, 0.0d), "high", Double.NaN));
+    assertInvalid(forge(Threshold.stringEquals("FAILED"), "string", null));
+    assertInvalid(forge(Threshold.stringEquals("FAILED"), "kind", null));
+  }
+
+}
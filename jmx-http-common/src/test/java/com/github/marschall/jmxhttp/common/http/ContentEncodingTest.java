@@ -0,0 +1,60 @@
+package com.github.marschall.jmxhttp.common.http;
+
+import static com.github.marschall.jmxhttp.common.http.ContentEncoding.DEFLATE;
+import static com.github.marschall.jmxhttp.common.http.ContentEncoding.GZIP;
+import static com.github.marschall.jmxhttp.common.http.ContentEncoding.IDENTITY;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.junit.Test;
+
+public class ContentEncodingTest {
+
+  @Test
+  public void forAcceptEncoding() {
+    assertEquals(GZIP, ContentEncoding.forAcceptEncoding(null, GZIP));
+    assertEquals(IDENTITY, ContentEncoding.forAcceptEncoding(null, IDENTITY));
+    assertEquals(GZIP, ContentEncoding.forAcceptEncoding("gzip, deflate", IDENTITY));
+    assertEquals(DEFLATE, ContentEncoding.forAcceptEncoding("deflate", IDENTITY));
+    assertEquals(DEFLATE, ContentEncoding.forAcceptEncoding("gzip;q=0.5, deflate", IDENTITY));
+    assertEquals(IDENTITY, ContentEncoding.forAcceptEncoding("identity", GZIP));
+    assertEquals(IDENTITY, ContentEncoding.forAcceptEncoding("br", GZIP));
+    assertEquals(GZIP, ContentEncoding.forAcceptEncoding("*", IDENTITY));
+    assertEquals(IDENTITY, ContentEncoding.forAcceptEncoding("gzip;q=0, *;q=0", GZIP));
+  }
+
+  @Test
+  public void forContentEncoding() {
+    assertEquals(IDENTITY, ContentEncoding.forContentEncoding(null));
+    assertEquals(GZIP, ContentEncoding.forContentEncoding("GZIP"));
+    assertEquals(DEFLATE, ContentEncoding.forContentEncoding("deflate"));
+    assertNull(ContentEncoding.forContentEncoding("br"));
+  }
+
+  @Test
+  public void syncFlush() throws IOException {
+    for (ContentEncoding encoding : ContentEncoding.values()) {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      OutputStream out = encoding.encode(bos, true);
+      out.write("data: frame\n\n".getBytes(US_ASCII));
+      out.flush();
+
+      // the stream is not finished yet, everything flushed has to be readable
+      InputStream in = encoding.decode(new ByteArrayInputStream(bos.toByteArray()));
+      byte[] buffer = new byte[13];
+      int read = 0;
+      while (read < buffer.length) {
+        read += in.read(buffer, read, buffer.length - read);
+      }
+      assertEquals(encoding.getToken(), "data: frame\n\n", new String(buffer, US_ASCII));
+    }
+  }
+
+}
@@ -0,0 +1,318 @@
+package com.github.marschall.jmxhttp.server.servlet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.AttributeList;
+import javax.management.JMException;
+import javax.management.MBeanServerConnection;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+/**
+ * Caches attribute values read from the {@link javax.management.MBeanServer}
+ * so that many clients polling the same attributes cause only one read per
+ * time to live.
+ * <p>
+ * Concurrent reads of the same attributes are coalesced, only the first one
+ * calls the MBean, the others wait for and share its result. Exceptions are
+ * shared the same way but not cached.
+ * <p>
+ * Only attributes matching a rule are cached. The rules are separated by
+ * {@code ;} and evaluated from left to right, the first match wins:
+ * <ul>
+ *  <li>{@code Catalina=5000} caches all attributes of all MBeans in the domain
+ *      for 5000 milliseconds</li>
+ *  <li>{@code java.lang:type=Threading=1000} caches all attributes of the MBeans
+ *      matching the object name pattern</li>
+ *  <li>{@code java.lang:type=Memory#HeapMemoryUsage=500} caches a single
+ *      attribute</li>
+ *  <li>a time to live of {@code 0} excludes the attributes from caching</li>
+ * </ul>
+ * {@code getAttributes} calls are cached as a whole, only if all attributes
+ * are cached, for the shortest time to live of them.
+ * <p>
+ * Instances are thread safe.
+ */
+final class AttributeCache {
+
+  /**
+   * Upper bound for the number of cached values, beyond that the cache is
+   * cleared.
+   */
+  private static final int MAX_CACHED_VALUES = 4096;
+
+  private final List<Rule> rules;
+
+  private final ConcurrentMap<AttributeKey, CachedValue> values;
+
+  private AttributeCache(List<Rule> rules) {
+    this.rules = rules;
+    this.values = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Creates a cache from rules.
+   *
+   * @param rules the rules separated by {@code ;}, not {@code null}
+   * @return the cache
+   * @throws IllegalArgumentException if a rule is invalid
+   */
+  static AttributeCache fromRules(String rules) {
+    List<Rule> parsed = new ArrayList<>();
+    for (String each : rules.split(";")) {
+      String rule = each.trim();
+      if (!rule.isEmpty()) {
+        parsed.add(Rule.parse(rule));
+      }
+    }
+    return new AttributeCache(parsed);
+  }
+
+  Object getAttribute(MBeanServerConnection connection, ObjectName name, String attribute) throws JMException, IOException {
+    long timeToLive = this.getTimeToLive(name, attribute);
+    if (timeToLive <= 0L) {
+      return connection.getAttribute(name, attribute);
+    }
+    return this.get(new AttributeKey(name, attribute), timeToLive, () -> connection.getAttribute(name, attribute));
+  }
+
+  AttributeList getAttributes(MBeanServerConnection connection, ObjectName name, String[] attributes) throws JMException, IOException {
+    long timeToLive = Long.MAX_VALUE;
+    for (String attribute : attributes) {
+      timeToLive = Math.min(timeToLive, this.getTimeToLive(name, attribute));
+    }
+    if (attributes.length == 0 || timeToLive <= 0L) {
+      return connection.getAttributes(name, attributes);
+    }
+    AttributeKey key = new AttributeKey(name, Collections.unmodifiableList(Arrays.asList(attributes.clone())));
+    return (AttributeList) this.get(key, timeToLive, () -> connection.getAttributes(name, attributes));
+  }
+
+  /**
+   * Forgets the values of an MBean, called when it is unregistered or
+   * changed. Reads still loading are not cached.
+   *
+   * @param name the name of the MBean
+   */
+  void invalidate(ObjectName name) {
+    if (this.values.isEmpty() || !this.isCached(name)) {
+      // writes to MBeans that are not cached should not scan the cache
+      return;
+    }
+    this.values.keySet().removeIf(key -> key.name.equals(name));
+  }
+
+  /**
+   * Whether some attributes of an MBean may be cached.
+   */
+  private boolean isCached(ObjectName name) {
+    for (Rule rule : this.rules) {
+      if (rule.timeToLive > 0L && rule.pattern.apply(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private long getTimeToLive(ObjectName name, String attribute) {
+    for (Rule rule : this.rules) {
+      if (rule.matches(name, attribute)) {
+        return rule.timeToLive;
+      }
+    }
+    return 0L;
+  }
+
+  private Object get(AttributeKey key, long timeToLive, AttributeReader reader) throws JMException, IOException {
+    while (true) {
+      CachedValue cached = this.values.get(key);
+      if (cached != null && !cached.isExpired(System.nanoTime())) {
+        return cached.await();
+      }
+      CachedValue loading = new CachedValue();
+      if (cached == null && this.values.size() >= MAX_CACHED_VALUES) {
+        this.values.clear();
+      }
+      boolean installed = cached == null
+              ? this.values.putIfAbsent(key, loading) == null
+              : this.values.replace(key, cached, loading);
+      if (installed) {
+        return this.load(key, loading, timeToLive, reader);
+      }
+      // somebody else started loading, wait for it
+    }
+  }
+
+  private Object load(AttributeKey key, CachedValue loading, long timeToLive, AttributeReader reader) throws JMException, IOException {
+    Object value;
+    try {
+      value = reader.read();
+    } catch (JMException | IOException | RuntimeException | Error e) {
+      // waiting reads get the exception too but the next read tries again
+      this.values.remove(key, loading);
+      loading.fail(e);
+      throw e;
+    }
+    loading.complete(value, System.nanoTime() + timeToLive);
+    return value;
+  }
+
+  @FunctionalInterface
+  interface AttributeReader {
+
+    Object read() throws JMException, IOException;
+
+  }
+
+  static final class Rule {
+
+    private final ObjectName pattern;
+
+    /**
+     * {@code null} for all attributes.
+     */
+    private final String attribute;
+
+    /**
+     * In nanoseconds.
+     */
+    final long timeToLive;
+
+    private Rule(ObjectName pattern, String attribute, long timeToLive) {
+      this.pattern = pattern;
+      this.attribute = attribute;
+      this.timeToLive = timeToLive;
+    }
+
+    static Rule parse(String rule) {
+      int equalsIndex = rule.lastIndexOf('=');
+      if (equalsIndex <= 0) {
+        throw new IllegalArgumentException("time to live missing in: " + rule);
+      }
+      long timeToLiveMillis;
+      try {
+        timeToLiveMillis = Long.parseLong(rule.substring(equalsIndex + 1).trim());
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("invalid time to live in: " + rule, e);
+      }
+      if (timeToLiveMillis < 0L) {
+        throw new IllegalArgumentException("negative time to live in: " + rule);
+      }
+      String name = rule.substring(0, equalsIndex).trim();
+      String attribute = null;
+      int hashIndex = name.lastIndexOf('#');
+      if (hashIndex != -1) {
+        attribute = name.substring(hashIndex + 1).trim();
+        name = name.substring(0, hashIndex).trim();
+      }
+      if (name.indexOf(':') == -1) {
+        // only a domain
+        name += ":*";
+      }
+      ObjectName pattern;
+      try {
+        pattern = new ObjectName(name);
+      } catch (MalformedObjectNameException e) {
+        throw new IllegalArgumentException("invalid object name in: " + rule, e);
+      }
+      return new Rule(pattern, attribute, TimeUnit.MILLISECONDS.toNanos(timeToLiveMillis));
+    }
+
+    boolean matches(ObjectName name, String attribute) {
+      return (this.attribute == null || this.attribute.equals(attribute)) && this.pattern.apply(name);
+    }
+
+  }
+
+  static final class AttributeKey {
+
+    final ObjectName name;
+
+    /**
+     * A {@link String} for a single attribute, a {@link List} for several.
+     */
+    private final Object attributes;
+
+    AttributeKey(ObjectName name, Object attributes) {
+      this.name = name;
+      this.attributes = attributes;
+    }
+
+    @Override
+    public int hashCode() {
+      return this.name.hashCode() * 31 + this.attributes.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof AttributeKey)) {
+        return false;
+      }
+      AttributeKey other = (AttributeKey) obj;
+      return this.name.equals(other.name)
+              && this.attributes.equals(other.attributes);
+    }
+
+  }
+
+  static final class CachedValue {
+
+    private final CompletableFuture<Object> value;
+
+    /**
+     * The {@link System#nanoTime()} at which the value expires, only valid
+     * once {@link #value} is done.
+     */
+    private volatile long expiry;
+
+    CachedValue() {
+      this.value = new CompletableFuture<>();
+    }
+
+    boolean isExpired(long now) {
+      // a value still loading is never expired so that reads coalesce
+      return this.value.isDone() && now - this.expiry >= 0L;
+    }
+
+    void complete(Object result, long expiry) {
+      this.expiry = expiry;
+      this.value.complete(result);
+    }
+
+    void fail(Throwable exception) {
+      this.value.completeExceptionally(exception);
+    }
+
+    Object await() throws JMException, IOException {
+      try {
+        return this.value.join();
+      } catch (CompletionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof JMException) {
+          throw (JMException) cause;
+        } else if (cause instanceof IOException) {
+          throw (IOException) cause;
+        } else if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+          throw (Error) cause;
+        }
+        throw e;
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,113 @@
+package com.github.marschall.jmxhttp.server.servlet;
+
+import java.lang.invoke.MethodHandles;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.Attribute;
+import javax.management.AttributeChangeNotification;
+import javax.management.AttributeList;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Reads attributes of an MBean at a fixed period and emits an
+ * {@link AttributeChangeNotification} for every attribute whose value
+ * changed since the previous sample.
+ * <p>
+ * The attributes are read from the {@link MBeanServer} and not through the
+ * attribute cache so that every sample sees the current values.
+ * <p>
+ * Instances are thread safe.
+ */
+final class AttributeSampler extends ScheduledSource {
+
+  private static final Logger LOG = Logger.getLogger(MethodHandles.lookup().lookupClass().getName());
+
+  private final MBeanServer server;
+
+  private final ObjectName name;
+
+  private final String[] attributes;
+
+  /**
+   * The values of the previous sample by attribute name, guarded by
+   * {@code this}.
+   */
+  private final Map<String, Object> values;
+
+  private long sequenceNumber;
+
+  AttributeSampler(MBeanServer server, ObjectName name, String[] attributes) {
+    this.server = server;
+    this.name = name;
+    this.attributes = attributes.clone();
+    this.values = new LinkedHashMap<>();
+  }
+
+  /**
+   * Takes the first sample, called before the sampling is started and
+   * shared.
+   *
+   * @return the values of the first sample
+   * @throws JMException if the attributes could not be read
+   */
+  AttributeList readFirst() throws JMException {
+    AttributeList first = this.server.getAttributes(this.name, this.attributes);
+    synchronized (this) {
+      for (Attribute attribute : first.asList()) {
+        this.values.put(attribute.getName(), attribute.getValue());
+      }
+    }
+    return first;
+  }
+
+  /**
+   * Returns the values of the previous sample.
+   *
+   * @return the values of the previous sample
+   */
+  synchronized AttributeList getValues() {
+    AttributeList list = new AttributeList(this.values.size());
+    for (Map.Entry<String, Object> entry : this.values.entrySet()) {
+      list.add(new Attribute(entry.getKey(), entry.getValue()));
+    }
+    return list;
+  }
+
+  @Override
+  void sample() {
+    AttributeList sample;
+    try {
+      sample = this.server.getAttributes(this.name, this.attributes);
+    } catch (JMException | RuntimeException e) {
+      // the MBean may just have been unregistered, the sampling is stopped then
+      LOG.log(Level.FINE, "could not sample attributes of " + this.name, e);
+      return;
+    }
+    synchronized (this) {
+      if (!this.isRunning()) {
+        // stopped while sampling
+        return;
+      }
+      long timeStamp = System.currentTimeMillis();
+      for (Attribute attribute : sample.asList()) {
+        String attributeName = attribute.getName();
+        Object newValue = attribute.getValue();
+        Object oldValue = this.values.get(attributeName);
+        if (!this.values.containsKey(attributeName) || !Objects.deepEquals(oldValue, newValue)) {
+          this.values.put(attributeName, newValue);
+          this.sequenceNumber += 1L;
+          String type = newValue != null ? newValue.getClass().getName() : Object.class.getName();
+          this.emit(new AttributeChangeNotification(this.name, this.sequenceNumber, timeStamp,
+                  "sampled", attributeName, type, oldValue, newValue));
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,226 @@
+package com.github.marschall.jmxhttp.server.servlet;
+
+import java.lang.invoke.MethodHandles;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.AttributeNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.Notification;
+import javax.management.ObjectName;
+import javax.management.monitor.MonitorNotification;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.InvalidKeyException;
+
+import com.github.marschall.jmxhttp.common.command.Threshold;
+
+/**
+ * Reads an attribute of an MBean at a fixed period and emits a
+ * notification only when its value crosses a {@link Threshold}, see
+ * {@link com.github.marschall.jmxhttp.common.command.AddAttributeWatch}.
+ * <p>
+ * The first value only decides whether the watch starts triggered, it does
+ * not emit a notification. The client gets that state as the result of
+ * adding the watch instead so that it can not miss or duplicate a
+ * notification emitted before it subscribed.
+ * <p>
+ * Like {@link AttributeSampler} the attribute is read from the
+ * {@link MBeanServer} and not through the attribute cache.
+ * <p>
+ * Instances are thread safe.
+ */
+final class AttributeWatcher extends ScheduledSource {
+
+  private static final Logger LOG = Logger.getLogger(MethodHandles.lookup().lookupClass().getName());
+
+  private final MBeanServer server;
+
+  private final ObjectName name;
+
+  /**
+   * The attribute including the items, for messages.
+   */
+  private final String path;
+
+  private final String attribute;
+
+  /**
+   * The items of a {@link CompositeData} attribute, nested ones in order.
+   */
+  private final String[] items;
+
+  private final Threshold threshold;
+
+  /**
+   * Guarded by {@code this}.
+   */
+  private boolean triggered;
+
+  /**
+   * The value of the previous sample for {@link Threshold.Kind#COUNTER_DELTA},
+   * guarded by {@code this}.
+   */
+  private Number previous;
+
+  private long sequenceNumber;
+
+  AttributeWatcher(MBeanServer server, ObjectName name, String path, Threshold threshold) {
+    this.server = server;
+    this.name = name;
+    this.path = path;
+    String[] elements = path.split("\\.");
+    this.attribute = elements[0];
+    this.items = new String[elements.length - 1];
+    System.arraycopy(elements, 1, this.items, 0, this.items.length);
+    this.threshold = threshold;
+  }
+
+  /**
+   * Reads the first value, called before the watch is started and shared.
+   *
+   * @return whether the watch is triggered by the first value
+   * @throws JMException if the attribute could not be read or is not a
+   *         number for a numeric threshold
+   */
+  boolean readFirst() throws JMException {
+    Object first = this.read();
+    if (this.threshold.getKind() != Threshold.Kind.STRING_EQUALS && !(first instanceof Number)) {
+      throw new JMException("attribute " + this.path + " of " + this.name + " is not a number but: " + first);
+    }
+    synchronized (this) {
+      this.evaluate(first);
+      return this.triggered;
+    }
+  }
+
+  synchronized boolean isTriggered() {
+    return this.triggered;
+  }
+
+  @Override
+  void sample() {
+    Object value;
+    try {
+      value = this.read();
+    } catch (JMException | RuntimeException e) {
+      // the MBean may just have been unregistered, the watch is stopped then
+      LOG.log(Level.FINE, "could not read attribute " + this.path + " of " + this.name, e);
+      return;
+    }
+    synchronized (this) {
+      if (!this.isRunning()) {
+        // stopped while reading
+        return;
+      }
+      Object observed;
+      try {
+        observed = this.evaluate(value);
+      } catch (RuntimeException e) {
+        // eg. a Number whose doubleValue() fails, must not cancel the watch
+        LOG.log(Level.WARNING, "could not evaluate attribute " + this.path + " of " + this.name, e);
+        return;
+      }
+      if (observed != null) {
+        String type = this.notificationType();
+        this.sequenceNumber += 1L;
+        Notification notification = new Notification(type, this.name, this.sequenceNumber, System.currentTimeMillis(),
+                this.path + " " + observed + " crossed " + this.threshold);
+        notification.setUserData(observed);
+        this.emit(notification);
+      }
+    }
+  }
+
+  private Object read() throws JMException {
+    Object value = this.server.getAttribute(this.name, this.attribute);
+    for (String item : this.items) {
+      if (!(value instanceof CompositeData)) {
+        throw new AttributeNotFoundException("no item " + item + " in attribute " + this.path + " of " + this.name);
+      }
+      try {
+        value = ((CompositeData) value).get(item);
+      } catch (InvalidKeyException e) {
+        throw new AttributeNotFoundException("no item " + item + " in attribute " + this.path + " of " + this.name);
+      }
+    }
+    return value;
+  }
+
+  /**
+   * Updates {@link #triggered} with a new value.
+   *
+   * @param value the value of the attribute
+   * @return the observed value if the threshold was crossed, else
+   *         {@code null}
+   */
+  private Object evaluate(Object value) {
+    switch (this.threshold.getKind()) {
+      case GAUGE:
+        if (!(value instanceof Number)) {
+          return null;
+        }
+        return this.cross((Number) value) ? value : null;
+      case COUNTER_DELTA:
+        if (!(value instanceof Number)) {
+          return null;
+        }
+        Number previousValue = this.previous;
+        this.previous = (Number) value;
+        if (previousValue == null) {
+          return null;
+        }
+        Number delta = difference((Number) value, previousValue);
+        return this.cross(delta) ? delta : null;
+      case STRING_EQUALS:
+        boolean matches = this.threshold.getString().equals(value);
+        if (matches == this.triggered) {
+          return null;
+        }
+        this.triggered = matches;
+        return value;
+      default:
+        throw new IllegalStateException("unknown kind: " + this.threshold.getKind());
+    }
+  }
+
+  /**
+   * Applies the hysteresis of a numeric threshold.
+   */
+  private boolean cross(Number observed) {
+    double value = observed.doubleValue();
+    if (!this.triggered && value >= this.threshold.getHigh().doubleValue()) {
+      this.triggered = true;
+      return true;
+    }
+    if (this.triggered && value <= this.threshold.getLow().doubleValue()) {
+      this.triggered = false;
+      return true;
+    }
+    return false;
+  }
+
+  private String notificationType() {
+    if (this.threshold.getKind() == Threshold.Kind.STRING_EQUALS) {
+      return this.triggered
+              ? MonitorNotification.STRING_TO_COMPARE_VALUE_MATCHED
+              : MonitorNotification.STRING_TO_COMPARE_VALUE_DIFFERED;
+    }
+    return this.triggered
+            ? MonitorNotification.THRESHOLD_HIGH_VALUE_EXCEEDED
+            : MonitorNotification.THRESHOLD_LOW_VALUE_EXCEEDED;
+  }
+
+  private static Number difference(Number value, Number previous) {
+    if (isIntegral(value) && isIntegral(previous)) {
+      return value.longValue() - previous.longValue();
+    }
+    return value.doubleValue() - previous.doubleValue();
+  }
+
+  private static boolean isIntegral(Number number) {
+    return number instanceof Long || number instanceof Integer
+            || number instanceof Short || number instanceof Byte;
+  }
+
+}
@@ -0,0 +1,226 @@
+package com.github.marschall.jmxhttp.server.servlet;
+
+import java.io.IOException;
+import java.util.Set;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.IntrospectionException;
+import javax.management.InvalidAttributeValueException;
+import javax.management.JMException;
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServerConnection;
+import javax.management.NotCompliantMBeanException;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+import javax.management.ObjectInstance;
+import javax.management.ObjectName;
+import javax.management.QueryExp;
+import javax.management.ReflectionException;
+
+/**
+ * Reads attributes through an {@link AttributeCache} and metadata through a
+ * {@link MetadataCache}, everything else is delegated unchanged. Writing
+ * attributes and invoking operations forget the cached attributes of the
+ * MBean, an operation may change them as well.
+ */
+final class CachingMBeanServerConnection implements MBeanServerConnection {
+
+  private final MBeanServerConnection delegate;
+
+  /**
+   * {@code null} if attributes are not cached.
+   */
+  private final AttributeCache attributeCache;
+
+  /**
+   * {@code null} if metadata is not cached.
+   */
+  private final MetadataCache metadataCache;
+
+  CachingMBeanServerConnection(MBeanServerConnection delegate, AttributeCache attributeCache, MetadataCache metadataCache) {
+    this.delegate = delegate;
+    this.attributeCache = attributeCache;
+    this.metadataCache = metadataCache;
+  }
+
+  @Override
+  public Object getAttribute(ObjectName name, String attribute) throws MBeanException, AttributeNotFoundException, InstanceNotFoundException, ReflectionException, IOException {
+    if (this.attributeCache == null) {
+      return this.delegate.getAttribute(name, attribute);
+    }
+    try {
+      return this.attributeCache.getAttribute(this.delegate, name, attribute);
+    } catch (MBeanException | AttributeNotFoundException | InstanceNotFoundException | ReflectionException e) {
+      throw e;
+    } catch (JMException e) {
+      throw new ReflectionException(e);
+    }
+  }
+
+  @Override
+  public AttributeList getAttributes(ObjectName name, String[] attributes) throws InstanceNotFoundException, ReflectionException, IOException {
+    if (this.attributeCache == null) {
+      return this.delegate.getAttributes(name, attributes);
+    }
+    try {
+      return this.attributeCache.getAttributes(this.delegate, name, attributes);
+    } catch (InstanceNotFoundException | ReflectionException e) {
+      throw e;
+    } catch (JMException e) {
+      throw new ReflectionException(e);
+    }
+  }
+
+  @Override
+  public ObjectInstance createMBean(String className, ObjectName name) throws ReflectionException, InstanceAlreadyExistsException, MBeanRegistrationException, MBeanException, NotCompliantMBeanException, IOException {
+    return this.delegate.createMBean(className, name);
+  }
+
+  @Override
+  public ObjectInstance createMBean(String className, ObjectName name, ObjectName loaderName) throws ReflectionException, InstanceAlreadyExistsException, MBeanRegistrationException, MBeanException, NotCompliantMBeanException, InstanceNotFoundException, IOException {
+    return this.delegate.createMBean(className, name, loaderName);
+  }
+
+  @Override
+  public ObjectInstance createMBean(String className, ObjectName name, Object[] params, String[] signature) throws ReflectionException, InstanceAlreadyExistsException, MBeanRegistrationException, MBeanException, NotCompliantMBeanException, IOException {
+    return this.delegate.createMBean(className, name, params, signature);
+  }
+
+  @Override
+  public ObjectInstance createMBean(String className, ObjectName name, ObjectName loaderName, Object[] params, String[] signature) throws ReflectionException, InstanceAlreadyExistsException, MBeanRegistrationException, MBeanException, NotCompliantMBeanException, InstanceNotFoundException, IOException {
+    return this.delegate.createMBean(className, name, loaderName, params, signature);
+  }
+
+  @Override
+  public void unregisterMBean(ObjectName name) throws InstanceNotFoundException, MBeanRegistrationException, IOException {
+    this.delegate.unregisterMBean(name);
+  }
+
+  @Override
+  public ObjectInstance getObjectInstance(ObjectName name) throws InstanceNotFoundException, IOException {
+    return this.delegate.getObjectInstance(name);
+  }
+
+  @Override
+  public Set<ObjectInstance> queryMBeans(ObjectName name, QueryExp query) throws IOException {
+    if (this.metadataCache == null) {
+      return this.delegate.queryMBeans(name, query);
+    }
+    return this.metadataCache.queryMBeans(this.delegate, name, query);
+  }
+
+  @Override
+  public Set<ObjectName> queryNames(ObjectName name, QueryExp query) throws IOException {
+    if (this.metadataCache == null) {
+      return this.delegate.queryNames(name, query);
+    }
+    return this.metadataCache.queryNames(this.delegate, name, query);
+  }
+
+  @Override
+  public boolean isRegistered(ObjectName name) throws IOException {
+    return this.delegate.isRegistered(name);
+  }
+
+  @Override
+  public Integer getMBeanCount() throws IOException {
+    return this.delegate.getMBeanCount();
+  }
+
+  @Override
+  public void setAttribute(ObjectName name, Attribute attribute) throws InstanceNotFoundException, AttributeNotFoundException, InvalidAttributeValueException, MBeanException, ReflectionException, IOException {
+    try {
+      this.delegate.setAttribute(name, attribute);
+    } finally {
+      this.invalidateAttributes(name);
+    }
+  }
+
+  @Override
+  public AttributeList setAttributes(ObjectName name, AttributeList attributes) throws InstanceNotFoundException, ReflectionException, IOException {
+    try {
+      return this.delegate.setAttributes(name, attributes);
+    } finally {
+      this.invalidateAttributes(name);
+    }
+  }
+
+  @Override
+  public Object invoke(ObjectName name, String operationName, Object[] params, String[] signature) throws InstanceNotFoundException, MBeanException, ReflectionException, IOException {
+    try {
+      return this.delegate.invoke(name, operationName, params, signature);
+    } finally {
+      this.invalidateAttributes(name);
+    }
+  }
+
+  /**
+   * Called after the MBean was changed, even if that failed part way.
+   */
+  private void invalidateAttributes(ObjectName name) {
+    if (this.attributeCache != null) {
+      this.attributeCache.invalidate(name);
+    }
+  }
+
+  @Override
+  public String getDefaultDomain() throws IOException {
+    return this.delegate.getDefaultDomain();
+  }
+
+  @Override
+  public String[] getDomains() throws IOException {
+    return this.delegate.getDomains();
+  }
+
+  @Override
+  public void addNotificationListener(ObjectName name, NotificationListener listener, NotificationFilter filter, Object handback) throws InstanceNotFoundException, IOException {
+    this.delegate.addNotificationListener(name, listener, filter, handback);
+  }
+
+  @Override
+  public void addNotificationListener(ObjectName name, ObjectName listener, NotificationFilter filter, Object handback) throws InstanceNotFoundException, IOException {
+    this.delegate.addNotificationListener(name, listener, filter, handback);
+  }
+
+  @Override
+  public void removeNotificationListener(ObjectName name, ObjectName listener) throws InstanceNotFoundException, ListenerNotFoundException, IOException {
+    this.delegate.removeNotificationListener(name, listener);
+  }
+
+  @Override
+  public void removeNotificationListener(ObjectName name, ObjectName listener, NotificationFilter filter, Object handback) throws InstanceNotFoundException, ListenerNotFoundException, IOException {
+    this.delegate.removeNotificationListener(name, listener, filter, handback);
+  }
+
+  @Override
+  public void removeNotificationListener(ObjectName name, NotificationListener listener) throws InstanceNotFoundException, ListenerNotFoundException, IOException {
+    this.delegate.removeNotificationListener(name, listener);
+  }
+
+  @Override
+  public void removeNotificationListener(ObjectName name, NotificationListener listener, NotificationFilter filter, Object handback) throws InstanceNotFoundException, ListenerNotFoundException, IOException {
+    this.delegate.removeNotificationListener(name, listener, filter, handback);
+  }
+
+  @Override
+  public MBeanInfo getMBeanInfo(ObjectName name) throws InstanceNotFoundException, IntrospectionException, ReflectionException, IOException {
+    if (this.metadataCache == null) {
+      return this.delegate.getMBeanInfo(name);
+    }
+    return this.metadataCache.getMBeanInfo(this.delegate, name);
+  }
+
+  @Override
+  public boolean isInstanceOf(ObjectName name, String className) throws InstanceNotFoundException, IOException {
+    return this.delegate.isInstanceOf(name, className);
+  }
+
+}
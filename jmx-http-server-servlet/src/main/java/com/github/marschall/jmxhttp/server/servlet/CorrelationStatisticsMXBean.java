@@ -0,0 +1,44 @@
+package com.github.marschall.jmxhttp.server.servlet;
+
+/**
+ * Counts the correlations of a {@link JmxHttpServlet} and the ones expired
+ * because their client stopped sending requests without unregistering,
+ * eg. because it crashed.
+ * <p>
+ * Registered in the platform MBean server as
+ * {@code com.github.marschall.jmxhttp:type=JmxHttpServlet,name=<servlet name>}.
+ */
+public interface CorrelationStatisticsMXBean {
+
+  /**
+   * Returns the number of registered correlations.
+   *
+   * @return the number of registered correlations
+   */
+  int getCorrelationCount();
+
+  /**
+   * Returns the number of correlations expired since the servlet was
+   * initialized.
+   *
+   * @return the number of expired correlations
+   */
+  long getExpiredCorrelationCount();
+
+  /**
+   * Returns the number of notification listeners removed from expired
+   * correlations since the servlet was initialized.
+   *
+   * @return the number of listeners of expired correlations
+   */
+  long getExpiredListenerCount();
+
+  /**
+   * Returns the number of notifications that were not yet sent to expired
+   * correlations and were discarded with them.
+   *
+   * @return the number of discarded notifications
+   */
+  long getExpiredNotificationCount();
+
+}
@@ -2,46 +2,78 @@ package com.github.marschall.jmxhttp.server.servlet;
 
 import static com.github.marschall.jmxhttp.common.http.HttpConstant.ACTION_LISTEN;
 import static com.github.marschall.jmxhttp.common.http.HttpConstant.ACTION_REGISTER;
+import static com.github.marschall.jmxhttp.common.http.HttpConstant.ACTION_STREAM;
 import static com.github.marschall.jmxhttp.common.http.HttpConstant.ACTION_UNREGISTER;
-import static com.github.marschall.jmxhttp.common.http.HttpConstant.JAVA_SERIALIZED_OBJECT;
+import static com.github.marschall.jmxhttp.common.http.HttpConstant.EVENT_NOTIFICATIONS_LOST;
+import static com.github.marschall.jmxhttp.common.http.HttpConstant.EVENT_STREAM;
+import static com.github.marschall.jmxhttp.common.http.HttpConstant.HEADER_DICTIONARY_ACKNOWLEDGEMENT;
+import static com.github.marschall.jmxhttp.common.http.HttpConstant.HEADER_NOTIFICATIONS_LOST;
 import static com.github.marschall.jmxhttp.common.http.HttpConstant.PARAMETER_ACTION;
 import static com.github.marschall.jmxhttp.common.http.HttpConstant.PARAMETER_CORRELATION_ID;
+import static com.github.marschall.jmxhttp.common.http.HttpConstant.PARAMETER_SEQUENCE_NUMBER;
+import static java.nio.charset.StandardCharsets.US_ASCII;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.NotSerializableException;
-import java.io.ObjectInputStream;
+import java.io.InvalidClassException;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.lang.invoke.MethodHandles;
 import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collections;
-import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.GZIPOutputStream;
 
+import javax.management.AttributeList;
 import javax.management.InstanceNotFoundException;
 import javax.management.JMException;
 import javax.management.JMRuntimeException;
 import javax.management.ListenerNotFoundException;
+import javax.management.MBeanInfo;
 import javax.management.MBeanServer;
+import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerNotification;
 import javax.management.Notification;
 import javax.management.NotificationFilter;
 import javax.management.NotificationListener;
 import javax.management.ObjectName;
-import javax.management.OperationsException;
+import javax.management.relation.MBeanServerNotificationFilter;
 import javax.servlet.AsyncContext;
 import javax.servlet.AsyncEvent;
 import javax.servlet.AsyncListener;
@@ -52,13 +84,18 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import com.github.marschall.jmxhttp.common.command.ClassLoaderObjectInputStream;
+import com.github.marschall.jmxhttp.common.codec.Codec;
+import com.github.marschall.jmxhttp.common.codec.CodecSession;
+import com.github.marschall.jmxhttp.common.codec.Codecs;
 import com.github.marschall.jmxhttp.common.command.Command;
+import com.github.marschall.jmxhttp.common.command.DeserializationFilter;
 import com.github.marschall.jmxhttp.common.command.NotificationRegistry;
+import com.github.marschall.jmxhttp.common.command.Threshold;
+import com.github.marschall.jmxhttp.common.http.ContentEncoding;
 import com.github.marschall.jmxhttp.common.http.HttpConstant;
 import com.github.marschall.jmxhttp.common.http.Registration;
 import com.github.marschall.jmxhttp.common.http.RemoteNotification;
-import com.github.marschall.jmxhttp.common.http.HttpConstant;
+import com.github.marschall.jmxhttp.server.servlet.MetadataCache.MBeanInfoPolicy;
 
 /**
  * Server endpoint for tunneling JMX through HTTP.
@@ -74,7 +111,7 @@ import com.github.marschall.jmxhttp.common.http.HttpConstant;
  *  <li>The client <code>POST</code>s a serialized {@link Command} to
  *      {@value HttpConstant#PARAMETER_CORRELATION_ID}=correlationId. The result will be a serialized Java object,
  *      maybe a serialized {@link Exception} to signal and exception occurred during processing of the command.
- *      The response by be gzip compressed.</li>
+ *      The response may be compressed, see below.</li>
  *  <li>The client <code>GET</code>s
  *      {@value HttpConstant#PARAMETER_ACTION}={@value HttpConstant#ACTION_UNREGISTER}&amp;{@value HttpConstant#PARAMETER_CORRELATION_ID}=correlationId
  *      to end the pseudo session.</li>
@@ -94,6 +131,167 @@ import com.github.marschall.jmxhttp.common.http.HttpConstant;
  *      Should this timeout be reached and no notifications are available
  *      the server will send serialized empty {@link List}.</li>
  * </ol>
+ * The server numbers the notifications of a correlation starting with 1,
+ * see {@link RemoteNotification#getSequenceNumber()}. Clients should add
+ * {@value HttpConstant#PARAMETER_SEQUENCE_NUMBER}=sequenceNumber with the
+ * sequence number of the last notification they processed, 0 if none, to
+ * every listen request. Notifications stay buffered until they are
+ * acknowledged this way, notifications with a higher sequence number are
+ * sent again. This way a response lost in transit is not lost. Clients not
+ * sending the parameter acknowledge all notifications sent so far.
+ *
+ * <h3>Notification Buffer</h3>
+ * The servlet registers a single listener on the {@link MBeanServer} for
+ * all clients listening to the same MBean with the same filter. The
+ * notifications are kept in a buffer shared by all correlations, at most
+ * {@value #NOTIFICATION_BUFFER_SIZE_PARAMETER} of them, and every
+ * correlation only remembers up to which sequence number it has read. This
+ * way the cost of a notification does not depend on the number of clients.
+ * When the buffer is full the oldest notification is evicted for
+ * everybody, a client that did not receive it yet loses it. This way a
+ * client that does not keep up does not hold up the others. Discarding the
+ * newest notifications instead is not supported, a stalled client would
+ * need its own copy of the notifications it did not receive which is what
+ * the shared buffer avoids. This is a servlet parameter that defaults to
+ * 1000. The total number of notifications discarded
+ * for a correlation is sent in the
+ * {@value HttpConstant#HEADER_NOTIFICATIONS_LOST} header of long poll
+ * responses and as a {@value HttpConstant#EVENT_NOTIFICATIONS_LOST} event
+ * in streams once it is not zero.
+ *
+ * <h3>Notification Coalescing</h3>
+ * Notifications are not sent immediately, instead the servlet waits up to
+ * {@value #COALESCING_WINDOW_MILLIS_PARAMETER} milliseconds for further
+ * notifications and sends them in a single response. This keeps a burst of
+ * notifications from ending a long poll for each of them. As soon as
+ * {@value #COALESCING_MAX_NOTIFICATIONS_PARAMETER} notifications are pending
+ * they are sent without waiting. These are servlet parameters that default
+ * to 10 and 256, a window of 0 turns off coalescing.
+ *
+ * <h3>Notification Streaming</h3>
+ * Instead of long polling clients may <code>GET</code>
+ * {@value HttpConstant#PARAMETER_ACTION}={@value HttpConstant#ACTION_STREAM}&amp;{@value HttpConstant#PARAMETER_CORRELATION_ID}=correlationId.
+ * The response is a {@value HttpConstant#EVENT_STREAM} in the format of
+ * <a href="https://html.spec.whatwg.org/multipage/server-sent-events.html">server-sent events</a>
+ * that stays open for up to {@value #POLL_TIMEOUT_SECONDS_PARAMETER} seconds.
+ * Every batch of notifications is sent as one event and flushed, the
+ * <code>data</code> of the event is the serialized {@link List} of
+ * {@link RemoteNotification} encoded in Base64. The codec is taken from the
+ * <code>Accept</code> header. The <code>id</code> of the event is the
+ * sequence number of the last notification in it. Streams accept the
+ * {@value HttpConstant#PARAMETER_SEQUENCE_NUMBER} parameter like long polls.
+ * Clients should reconnect when the stream ends
+ * and may fall back to long polling if the stream is cut. Notifications
+ * that could not be sent are delivered with the next stream or long poll.
+ *
+ * <h3>Correlation Expiry</h3>
+ * A correlation whose client sent no request for
+ * {@value #CORRELATION_EXPIRY_SECONDS_PARAMETER} seconds, eg. because it
+ * crashed, is removed together with its listeners and buffered
+ * notifications as if the client had unregistered. This is a servlet
+ * parameter that defaults to three times the poll timeout, it has to be
+ * larger than the poll timeout. The number of expired correlations is
+ * available from {@link CorrelationStatisticsMXBean}.
+ *
+ * <h3>Attribute Cache</h3>
+ * Attributes matching the rules in {@value #ATTRIBUTE_CACHE_PARAMETER} are
+ * read from the MBeans at most once per time to live no matter how many
+ * clients poll them, concurrent reads of the same attributes share a single
+ * call. See {@link AttributeCache} for the syntax, for example
+ * <code>java.lang:type=Threading=1000;Catalina=5000</code>. This is a
+ * servlet parameter that is not set by default, without it no attributes
+ * are cached.
+ *
+ * <h3>Metadata Cache</h3>
+ * {@link MBeanInfo}s and the results of {@code queryNames} and
+ * {@code queryMBeans} without a query expression are cached until an MBean
+ * they depend on is registered or unregistered, see {@link MetadataCache}.
+ * {@value #MBEAN_INFO_CACHE_PARAMETER} decides which {@link MBeanInfo}s are
+ * cached, {@code immutable} only the ones marked with the descriptor field
+ * {@code immutableInfo}, {@code all} also the ones of dynamic MBeans, eg. of
+ * Tomcat, that may change them and {@code none} none.
+ * {@value #QUERY_CACHE_PARAMETER} turns caching of queries on or off. These
+ * are servlet parameters that default to {@code immutable} and
+ * {@code true}.
+ *
+ * <h3>Attribute Sampling</h3>
+ * Instead of polling attributes clients may send a
+ * {@link com.github.marschall.jmxhttp.common.command.AddAttributeSampling}.
+ * The servlet then reads the attributes at the requested period, at most
+ * every {@value #MIN_SAMPLING_PERIOD_MILLIS} milliseconds, and sends an
+ * {@link javax.management.AttributeChangeNotification} through the
+ * notification channel for every attribute that changed since the previous
+ * sample. Clients sampling the same attributes of the same MBean with the
+ * same period share a single sampling, like listeners. The sampling is
+ * removed like a listener and ends when the MBean is unregistered. Samples
+ * are taken on threads of their own so that slow attributes do not delay
+ * notifications, up to {@value #SAMPLING_READ_THREADS} at a time so that a
+ * slow MBean does not delay the samples of the others. A sample still
+ * running when the next one is due skips that one.
+ *
+ * <h3>Attribute Watches</h3>
+ * Clients waiting for an attribute to cross a threshold, eg. the used heap
+ * to exceed a limit, may send a
+ * {@link com.github.marschall.jmxhttp.common.command.AddAttributeWatch}
+ * instead of sampling it. The servlet reads the attribute at the requested
+ * period on the sampling threads, compares it with the
+ * {@link com.github.marschall.jmxhttp.common.command.Threshold} and sends a
+ * notification only when the threshold is crossed, see
+ * {@link AttributeWatcher}. Watches are shared and removed like samplings.
+ *
+ * <h3>Batches</h3>
+ * Several commands can be executed in a single request by <code>POST</code>ing a
+ * {@link com.github.marschall.jmxhttp.common.command.BatchCommand}. The commands
+ * are executed in order, a failing command does not stop the execution of the
+ * following commands. The result will be a serialized {@link List} of
+ * {@link com.github.marschall.jmxhttp.common.command.BatchResult}, one for
+ * each command, holding either the result or the exception of the command.
+ *
+ * <h3>Content Types</h3>
+ * Requests and responses are plain Java serialization
+ * ({@value HttpConstant#JAVA_SERIALIZED_OBJECT}) unless the client asks for
+ * a different {@link Codec}. The codec of a <code>POST</code> is taken from
+ * its <code>Content-Type</code>. The codec of a response is the first supported
+ * content type in the <code>Accept</code> header of the request, or the codec of
+ * the request if there is none. Currently also
+ * {@value HttpConstant#JMX_HTTP_JAVA_SERIALIZATION} and
+ * {@value HttpConstant#JMX_HTTP_BINARY} are supported.
+ * <p>
+ * Within a correlation codecs may keep state in a {@link CodecSession}, for
+ * example a dictionary of object names or class descriptors. The state is synchronized through the
+ * {@value HttpConstant#HEADER_DICTIONARY_ACKNOWLEDGEMENT} header that is sent
+ * on every request and response of a correlation.
+ *
+ * <h3>Compression</h3>
+ * Responses are compressed with the preferred encoding of the
+ * <code>Accept-Encoding</code> header of the request, <code>gzip</code>,
+ * <code>deflate</code> and <code>identity</code> are supported. Requests
+ * without an <code>Accept-Encoding</code> header get <code>gzip</code> for
+ * compatibility with older clients. Responses smaller than
+ * {@value #COMPRESSION_THRESHOLD_BYTES_PARAMETER} bytes are never compressed.
+ * This is a servlet parameter that defaults to 1024, a negative value turns
+ * off compression entirely.
+ * <p>
+ * The response to {@value HttpConstant#ACTION_REGISTER} carries an
+ * <code>Accept-Encoding</code> header listing the encodings the servlet can
+ * decode. Clients may compress <code>POST</code> bodies with one of them and
+ * set <code>Content-Encoding</code> accordingly.
+ *
+ * <h3>Deserialization Filter</h3>
+ * Only classes allowed by {@value #DESERIALIZATION_FILTER_PARAMETER} are
+ * deserialized from requests, see {@link DeserializationFilter} for the
+ * syntax. This is a servlet parameter that defaults to
+ * {@value DeserializationFilter#DEFAULT_PATTERNS}. Requests containing other
+ * classes are rejected with status 400.
+ *
+ * <h3>Connection Reuse</h3>
+ * Clients keep connections alive and reuse them for subsequent requests.
+ * Java clients close idle connections after 5 seconds unless the server
+ * announces a different timeout with a <code>Keep-Alive</code> header. If
+ * {@value #KEEP_ALIVE_TIMEOUT_SECONDS_PARAMETER} is set the servlet sends
+ * this header on HTTP/1.x responses. This is a servlet parameter that is not
+ * set by default, it must not exceed the keep-alive timeout of the server
+ * connector.
  *
  * <h3>Misc</h3>
  *
@@ -114,6 +312,51 @@ public class JmxHttpServlet extends HttpServlet {
 
   private static final long DEFAULT_TIMEOUT_MILLISECONDS = SECONDS.toMillis(30L);
 
+  private static final String COMPRESSION_THRESHOLD_BYTES_PARAMETER = "compression-threshold-bytes";
+
+  private static final int DEFAULT_COMPRESSION_THRESHOLD_BYTES = 1024;
+
+  private static final String DESERIALIZATION_FILTER_PARAMETER = "deserialization-filter";
+
+  private static final String KEEP_ALIVE_TIMEOUT_SECONDS_PARAMETER = "keep-alive-timeout-seconds";
+
+  private static final String NOTIFICATION_BUFFER_SIZE_PARAMETER = "notification-buffer-size";
+
+  private static final int DEFAULT_NOTIFICATION_BUFFER_SIZE = 1000;
+
+  private static final String COALESCING_WINDOW_MILLIS_PARAMETER = "coalescing-window-millis";
+
+  private static final int DEFAULT_COALESCING_WINDOW_MILLIS = 10;
+
+  private static final String COALESCING_MAX_NOTIFICATIONS_PARAMETER = "coalescing-max-notifications";
+
+  private static final int DEFAULT_COALESCING_MAX_NOTIFICATIONS = 256;
+
+  private static final String ATTRIBUTE_CACHE_PARAMETER = "attribute-cache";
+
+  private static final String MBEAN_INFO_CACHE_PARAMETER = "mbean-info-cache";
+
+  private static final String QUERY_CACHE_PARAMETER = "query-cache";
+
+  private static final String CORRELATION_EXPIRY_SECONDS_PARAMETER = "correlation-expiry-seconds";
+
+  /**
+   * The default correlation expiry in poll timeouts, a client may miss two
+   * polls before its correlation expires.
+   */
+  private static final int DEFAULT_CORRELATION_EXPIRY_TIMEOUTS = 3;
+
+  /**
+   * The shortest sampling period, see "Attribute Sampling" above.
+   */
+  static final long MIN_SAMPLING_PERIOD_MILLIS = 100L;
+
+  /**
+   * The number of attribute samples read concurrently, see "Attribute
+   * Sampling" above.
+   */
+  static final int SAMPLING_READ_THREADS = 4;
+
   private static final String DISPATCH_ATTRIBUTE = "com.github.marschall.jmxhttp.server.servlet.dispatch";
 
   private static final String CORRELATION_ATTRIBUTE = "com.github.marschall.jmxhttp.server.servlet.correlation";
@@ -122,17 +365,97 @@ public class JmxHttpServlet extends HttpServlet {
 
   private static final long NO_CORRELATION_ID = -1L;
 
+  private static final long NO_SEQUENCE_NUMBER = -1L;
+
+  private static final long INVALID_SEQUENCE_NUMBER = -2L;
+
   private static final AtomicLong CORRELATION_ID_GENERATOR = new AtomicLong();
 
   private static final AsyncListener DISPATCH_ON_TIMEOUT = new DispatchOnTimeout();
 
+  private static final int BUFFER_POOL_SIZE = 32;
+
+  private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+  /**
+   * Buffers that grew beyond this size are not returned to the pool so that
+   * a single huge response does not pin memory forever.
+   */
+  private static final int MAX_POOLED_BUFFER_SIZE = 256 * 1024;
+
   private volatile MBeanServer server;
+
+  /**
+   * The connection commands are executed on, {@link #server} unless
+   * attributes are cached.
+   */
+  private volatile MBeanServerConnection connection;
+
+  /**
+   * {@code null} if attributes are not cached.
+   */
+  private volatile AttributeCache attributeCache;
+
+  /**
+   * {@code null} if neither {@link MBeanInfo}s nor queries are cached.
+   */
+  private volatile MetadataCache metadataCache;
   private volatile ClassLoader classLoader;
 
   private final ConcurrentMap<Long, Correlation> correlations = new ConcurrentHashMap<>();
 
+  private final BufferPool bufferPool = new BufferPool(BUFFER_POOL_SIZE, INITIAL_BUFFER_SIZE, MAX_POOLED_BUFFER_SIZE);
+
   private volatile long timeoutMilliseconds;
 
+  private volatile int compressionThresholdBytes;
+
+  private volatile DeserializationFilter deserializationFilter;
+
+  /**
+   * The value of the <code>Keep-Alive</code> header, {@code null} if none
+   * should be sent.
+   */
+  private volatile String keepAlive;
+
+  private volatile NotificationBuffer notificationBuffer;
+
+  /**
+   * The listeners registered on the {@link MBeanServer}, shared by all
+   * correlations.
+   */
+  private final Map<ListenerKey, SharedListener> sharedListeners = new HashMap<>();
+
+  private volatile RegistrationListener registrationListener;
+
+  private volatile int coalescingWindowMillis;
+
+  private volatile int coalescingMaxNotifications;
+
+  /**
+   * Runs delayed tasks like sending coalesced notifications.
+   */
+  private volatile ScheduledExecutorService scheduler;
+
+  /**
+   * Triggers the attribute samples, see "Attribute Sampling" above.
+   */
+  private volatile ScheduledExecutorService samplingScheduler;
+
+  /**
+   * Reads the attributes of the samples triggered by
+   * {@link #samplingScheduler}.
+   */
+  private volatile ExecutorService samplingReadExecutor;
+
+  private volatile long correlationExpiryNanos;
+
+  private final CorrelationStatistics statistics = new CorrelationStatistics();
+
+  private volatile ObjectName statisticsName;
+
+  private final ConcurrentMap<Codec, Codec> filteredCodecs = new ConcurrentHashMap<>();
+
   @Override
   public void init(ServletConfig config) throws ServletException {
     super.init(config);
@@ -147,28 +470,175 @@ public class JmxHttpServlet extends HttpServlet {
     } else {
       this.timeoutMilliseconds = DEFAULT_TIMEOUT_MILLISECONDS;
     }
+    this.compressionThresholdBytes = getIntParameter(config, COMPRESSION_THRESHOLD_BYTES_PARAMETER, DEFAULT_COMPRESSION_THRESHOLD_BYTES);
+    int notificationBufferSize = Math.max(1, getIntParameter(config, NOTIFICATION_BUFFER_SIZE_PARAMETER, DEFAULT_NOTIFICATION_BUFFER_SIZE));
+    this.notificationBuffer = new NotificationBuffer(notificationBufferSize);
+    this.coalescingWindowMillis = Math.max(0, getIntParameter(config, COALESCING_WINDOW_MILLIS_PARAMETER, DEFAULT_COALESCING_WINDOW_MILLIS));
+    this.coalescingMaxNotifications = Math.max(1, getIntParameter(config, COALESCING_MAX_NOTIFICATIONS_PARAMETER, DEFAULT_COALESCING_MAX_NOTIFICATIONS));
+
+    String filterParameter = config.getInitParameter(DESERIALIZATION_FILTER_PARAMETER);
+    if (filterParameter != null) {
+      try {
+        this.deserializationFilter = DeserializationFilter.fromPatterns(filterParameter);
+      } catch (IllegalArgumentException e) {
+        throw new ServletException("invalid value '" + filterParameter + "' for servlet init parameter '" + DESERIALIZATION_FILTER_PARAMETER + "'", e);
+      }
+    } else {
+      this.deserializationFilter = DeserializationFilter.fromPatterns(DeserializationFilter.DEFAULT_PATTERNS);
+    }
+    this.filteredCodecs.clear();
+
+    String keepAliveTimeoutParameter = config.getInitParameter(KEEP_ALIVE_TIMEOUT_SECONDS_PARAMETER);
+    this.keepAlive = null;
+    if (keepAliveTimeoutParameter != null) {
+      try {
+        int keepAliveTimeoutSeconds = Integer.parseInt(keepAliveTimeoutParameter.trim());
+        if (keepAliveTimeoutSeconds > 0) {
+          this.keepAlive = "timeout=" + keepAliveTimeoutSeconds;
+        }
+      } catch (NumberFormatException e) {
+        LOG.log(Level.WARNING, "invalid value '" + keepAliveTimeoutParameter + "' for servlet init parameter '" + KEEP_ALIVE_TIMEOUT_SECONDS_PARAMETER + "'");
+      }
+    }
+
+    long correlationExpiryMilliseconds = this.timeoutMilliseconds * DEFAULT_CORRELATION_EXPIRY_TIMEOUTS;
+    String correlationExpiryParameter = config.getInitParameter(CORRELATION_EXPIRY_SECONDS_PARAMETER);
+    if (correlationExpiryParameter != null) {
+      try {
+        correlationExpiryMilliseconds = SECONDS.toMillis(Long.parseLong(correlationExpiryParameter.trim()));
+      } catch (NumberFormatException e) {
+        LOG.log(Level.WARNING, "invalid value '" + correlationExpiryParameter + "' for servlet init parameter '" + CORRELATION_EXPIRY_SECONDS_PARAMETER + "'");
+      }
+      if (correlationExpiryMilliseconds <= this.timeoutMilliseconds) {
+        // a client waiting in a long poll must not expire
+        LOG.log(Level.WARNING, "servlet init parameter '" + CORRELATION_EXPIRY_SECONDS_PARAMETER + "' must be larger than '" + POLL_TIMEOUT_SECONDS_PARAMETER + "'");
+        correlationExpiryMilliseconds = this.timeoutMilliseconds * DEFAULT_CORRELATION_EXPIRY_TIMEOUTS;
+      }
+    }
+    this.correlationExpiryNanos = TimeUnit.MILLISECONDS.toNanos(correlationExpiryMilliseconds);
+
+    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new SchedulerThreadFactory("JMX-HTTP-Scheduler for " + config.getServletName()));
+    // expiry tasks of unregistered correlations should not linger
+    executor.setRemoveOnCancelPolicy(true);
+    this.scheduler = executor;
+    ScheduledThreadPoolExecutor samplingExecutor = new ScheduledThreadPoolExecutor(1, new SchedulerThreadFactory("JMX-HTTP-Sampler for " + config.getServletName()));
+    samplingExecutor.setRemoveOnCancelPolicy(true);
+    this.samplingScheduler = samplingExecutor;
+    ThreadPoolExecutor samplingReadExecutor = new ThreadPoolExecutor(SAMPLING_READ_THREADS, SAMPLING_READ_THREADS,
+            60L, SECONDS, new LinkedBlockingQueue<>(), new SchedulerThreadFactory("JMX-HTTP-Sampler reads for " + config.getServletName()));
+    samplingReadExecutor.allowCoreThreadTimeOut(true);
+    this.samplingReadExecutor = samplingReadExecutor;
 
     this.server = ManagementFactory.getPlatformMBeanServer();
     this.classLoader = JmxHttpServlet.class.getClassLoader();
+
+    String attributeCacheParameter = config.getInitParameter(ATTRIBUTE_CACHE_PARAMETER);
+    if (attributeCacheParameter != null && !attributeCacheParameter.trim().isEmpty()) {
+      try {
+        this.attributeCache = AttributeCache.fromRules(attributeCacheParameter);
+      } catch (IllegalArgumentException e) {
+        throw new ServletException("invalid value '" + attributeCacheParameter + "' for servlet init parameter '" + ATTRIBUTE_CACHE_PARAMETER + "'", e);
+      }
+    } else {
+      this.attributeCache = null;
+    }
+    String mBeanInfoCacheParameter = config.getInitParameter(MBEAN_INFO_CACHE_PARAMETER);
+    MBeanInfoPolicy mBeanInfoPolicy;
+    if (mBeanInfoCacheParameter != null) {
+      mBeanInfoPolicy = MBeanInfoPolicy.forParameter(mBeanInfoCacheParameter.trim());
+      if (mBeanInfoPolicy == null) {
+        throw new ServletException("invalid value '" + mBeanInfoCacheParameter + "' for servlet init parameter '" + MBEAN_INFO_CACHE_PARAMETER + "'");
+      }
+    } else {
+      mBeanInfoPolicy = MBeanInfoPolicy.IMMUTABLE;
+    }
+    String queryCacheParameter = config.getInitParameter(QUERY_CACHE_PARAMETER);
+    boolean cacheQueries = queryCacheParameter == null || Boolean.parseBoolean(queryCacheParameter.trim());
+    if (mBeanInfoPolicy != MBeanInfoPolicy.NONE || cacheQueries) {
+      this.metadataCache = new MetadataCache(mBeanInfoPolicy, cacheQueries);
+    } else {
+      this.metadataCache = null;
+    }
+    if (this.attributeCache != null || this.metadataCache != null) {
+      this.connection = new CachingMBeanServerConnection(this.server, this.attributeCache, this.metadataCache);
+    } else {
+      this.connection = this.server;
+    }
+
+    MBeanServerNotificationFilter registrationFilter = new MBeanServerNotificationFilter();
+    registrationFilter.enableAllObjectNames();
+    if (this.metadataCache == null) {
+      // only needed for evicting cached metadata
+      registrationFilter.disableType(MBeanServerNotification.REGISTRATION_NOTIFICATION);
+    }
+    this.registrationListener = new RegistrationListener();
+    try {
+      this.server.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, this.registrationListener, registrationFilter, null);
+    } catch (InstanceNotFoundException e) {
+      throw new ServletException("could not listen to MBean registrations", e);
+    }
+    this.registerStatistics(config.getServletName());
+  }
+
+  private void registerStatistics(String servletName) {
+    try {
+      ObjectName name = new ObjectName("com.github.marschall.jmxhttp:type=JmxHttpServlet,name=" + ObjectName.quote(servletName));
+      this.server.registerMBean(this.statistics, name);
+      this.statisticsName = name;
+    } catch (JMException e) {
+      // eg. two web applications with a servlet of the same name
+      LOG.log(Level.WARNING, "could not register correlation statistics", e);
+      this.statisticsName = null;
+    }
+  }
+
+  private static int getIntParameter(ServletConfig config, String name, int defaultValue) {
+    String parameter = config.getInitParameter(name);
+    if (parameter == null) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(parameter.trim());
+    } catch (NumberFormatException e) {
+      LOG.log(Level.WARNING, "invalid value '" + parameter + "' for servlet init parameter '" + name + "'");
+      return defaultValue;
+    }
   }
 
   @Override
   public void destroy() {
     for (Correlation correlation : this.correlations.values()) {
+      correlation.close();
+      this.unregisterListeners(correlation);
+    }
+    this.correlations.clear();
+    try {
+      this.server.removeNotificationListener(MBeanServerDelegate.DELEGATE_NAME, this.registrationListener);
+    } catch (InstanceNotFoundException | ListenerNotFoundException e) {
+      LOG.log(Level.WARNING, "could not remove registration listener", e);
+    }
+    if (this.statisticsName != null) {
       try {
-        correlation.unregisterListeners(this.server);
-      } catch (OperationsException e) {
-        // ignore has already been logged
+        this.server.unregisterMBean(this.statisticsName);
+      } catch (JMException e) {
+        LOG.log(Level.WARNING, "could not unregister correlation statistics", e);
       }
+      this.statisticsName = null;
     }
-    this.correlations.clear();
+    this.scheduler.shutdownNow();
+    this.samplingScheduler.shutdownNow();
+    this.samplingReadExecutor.shutdownNow();
     this.server = null;
+    this.connection = null;
+    this.attributeCache = null;
+    this.metadataCache = null;
     this.classLoader = null;
     super.destroy();
   }
 
   @Override
   protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+    setKeepAlive(request, response);
     if (!request.isAsyncSupported()) {
       sendAsyncSupported(response);
       return;
@@ -183,16 +653,31 @@ public class JmxHttpServlet extends HttpServlet {
 
   @Override
   protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+    setKeepAlive(request, response);
 
     Correlation correlation = getCorrelation(request, response);
     if (correlation == null) {
       return;
     }
 
+    Codec requestCodec = Codecs.forContentType(request.getContentType());
+    if (requestCodec == null) {
+      requestCodec = Codecs.JAVA_SERIALIZATION;
+    }
+    Codec responseCodec = getResponseCodec(request, requestCodec);
+    requestCodec = this.filteredCodecs.computeIfAbsent(requestCodec, codec -> codec.withFilter(this.deserializationFilter));
+
+    CodecSession codecSession = correlation.codecSession;
+    codecSession.acknowledge(request.getHeader(HEADER_DICTIONARY_ACKNOWLEDGEMENT));
+    String contentEncoding = request.getHeader("Content-Encoding");
+    ContentEncoding requestEncoding = ContentEncoding.forContentEncoding(contentEncoding);
+    if (requestEncoding == null) {
+      sendError(response, "unsupported content encoding: " + contentEncoding);
+      return;
+    }
     Command<?> command;
-    try (InputStream in = request.getInputStream();
-        ObjectInputStream stream = new ClassLoaderObjectInputStream(in, this.classLoader)) {
-      Object object = stream.readObject();
+    try (InputStream in = requestEncoding.decode(request.getInputStream())) {
+      Object object = requestCodec.readObject(in, this.classLoader, codecSession);
       if (object instanceof Command) {
         command = (Command<?>) object;
       } else {
@@ -202,49 +687,103 @@ public class JmxHttpServlet extends HttpServlet {
     } catch (ClassNotFoundException e) {
       sendError("class not found", e, response);
       return;
+    } catch (InvalidClassException e) {
+      LOG.log(Level.WARNING, "rejected command", e);
+      sendError(response, e.getMessage());
+      return;
     }
 
     Object result;
     try {
-      result = command.execute(this.server, correlation.registry);
+      result = command.execute(this.connection, correlation.registry);
     } catch (JMException | IOException | RuntimeException e) {
       LOG.log(Level.WARNING, "exception while executing operation", e);
       result = e;
     }
 
-    sendObject(response, result);
+    sendObject(request, response, responseCodec, codecSession, result);
+
+  }
+
+  private void setKeepAlive(HttpServletRequest request, HttpServletResponse response) {
+    String keepAlive = this.keepAlive;
+    // connection specific headers are not allowed in HTTP/2
+    if (keepAlive != null && request.getProtocol().startsWith("HTTP/1.")) {
+      response.setHeader("Keep-Alive", keepAlive);
+    }
+  }
 
+  private static Codec getResponseCodec(HttpServletRequest request, Codec defaultCodec) {
+    return Codecs.forAccept(request.getHeader("Accept"), defaultCodec);
   }
 
-  private static void sendObject(HttpServletResponse response, Object result) throws IOException {
+  private void sendObject(HttpServletRequest request, HttpServletResponse response, Codec codec, CodecSession codecSession, Object result) throws IOException {
     if (result == null || result instanceof Serializable) {
-      sendObject(response, (Serializable) result);
+      sendObject(request, response, codec, codecSession, (Serializable) result);
     } else {
       LOG.log(Level.WARNING, "not Serializable: " + result);
-      sendObject(response, new JMRuntimeException("result " + result + " not Serializable"));
+      sendObject(request, response, codec, codecSession, new JMRuntimeException("result " + result + " not Serializable"));
+    }
+  }
+
+  private void sendObject(HttpServletRequest request, HttpServletResponse response, Codec codec, CodecSession codecSession, Serializable result) throws IOException {
+    // serialize into a buffer first so that a failure does not leave a half written response
+    // and so that we can send a Content-Length and decide whether it is worth compressing
+    PooledBuffer body = this.bufferPool.acquire();
+    PooledBuffer compressed = null;
+    try {
+      try {
+        codec.writeObject(result, body, codecSession);
+      } catch (ObjectStreamException e) {
+        // various objects are exposed over JMX that are not serializable
+        // in one case it's a javax.management.AttributeList with an element that's not serializable
+        LOG.log(Level.WARNING, "not Serializable(" + result.getClass() + ") " + result, e);
+        body.reset();
+        JMRuntimeException exception = new JMRuntimeException("result of type " + result.getClass().getName() + " not Serializable: " + e.getMessage());
+        codec.writeObject(exception, body, codecSession);
+      }
+
+      PooledBuffer toSend = body;
+      ContentEncoding encoding = getContentEncoding(request, body.size());
+      if (encoding != ContentEncoding.IDENTITY) {
+        compressed = this.bufferPool.acquire();
+        try (OutputStream out = encoding.encode(compressed)) {
+          body.writeTo(out);
+        }
+        toSend = compressed;
+        response.setHeader("Content-Encoding", encoding.getToken());
+      }
+
+      response.setContentType(codec.getContentType());
+      response.setHeader("Vary", "Accept-Encoding");
+      if (codecSession != null) {
+        response.setHeader(HEADER_DICTIONARY_ACKNOWLEDGEMENT, Integer.toString(codecSession.getAcknowledgement()));
+      }
+      response.setContentLength(toSend.size());
+      try (OutputStream out = response.getOutputStream()) {
+        toSend.writeTo(out);
+      }
+    } finally {
+      this.bufferPool.release(body);
+      if (compressed != null) {
+        this.bufferPool.release(compressed);
+      }
     }
   }
-  private static void sendObject(HttpServletResponse response, Serializable result) throws IOException {
-    try (OutputStream out = response.getOutputStream();
-        GZIPOutputStream gzip = new GZIPOutputStream(out);
-        ObjectOutputStream stream = new ObjectOutputStream(gzip)) {
-      response.setContentType(JAVA_SERIALIZED_OBJECT);
-      response.setHeader("Content-Encoding", "gzip");
-      stream.writeObject(result);
-    } catch (NotSerializableException e) {
-      // various objects are exposed over JMX that are not serializable
-      // in one case it's a javax.management.AttributeList with an element that's not serializable
-      // the clean solution would be to buffer the result first into a local byte[]
-      // instead of streaming it to the response
-      LOG.log(Level.WARNING, "not Serializable(" + result.getClass() + ") " + result, e);
-      throw e;
+
+  private ContentEncoding getContentEncoding(HttpServletRequest request, int size) {
+    int threshold = this.compressionThresholdBytes;
+    if (threshold < 0 || size < threshold) {
+      return ContentEncoding.IDENTITY;
     }
+    // older clients don't send Accept-Encoding but always supported gzip
+    return ContentEncoding.forAcceptEncoding(request.getHeader("Accept-Encoding"), ContentEncoding.GZIP);
   }
 
   public void handleAction(HttpServletRequest request, HttpServletResponse response, String action) throws IOException {
     switch (action) {
       case ACTION_REGISTER:
-        handleRegister(response);
+        handleRegister(request, response);
         return;
       case ACTION_UNREGISTER:
         handleUnregister(request, response);
@@ -252,6 +791,9 @@ public class JmxHttpServlet extends HttpServlet {
       case ACTION_LISTEN:
         handleListen(request, response);
         return;
+      case ACTION_STREAM:
+        handleStream(request, response);
+        return;
       default:
         sendError(response, "unknown action: " + action);
         return;
@@ -259,28 +801,43 @@ public class JmxHttpServlet extends HttpServlet {
   }
 
   /**
-   * Checks if a correlation is considered stale.
+   * Schedules the expiry of a correlation.
    * <p>
    * This is how we deal with crashed clients or clients who get disconnected
    * from the network unexpected. We have to clean up such correlations
-   * in order to avoid leaking memory.
+   * in order to avoid leaking memory. Every client sends at least one listen
+   * request per poll timeout, a correlation without any request for
+   * {@value #CORRELATION_EXPIRY_SECONDS_PARAMETER} is considered stale.
+   * <p>
+   * Instead of scanning all correlations periodically every correlation
+   * has a single pending task in the delay queue of {@link #scheduler} that
+   * runs when it would expire. If the client sent a request in the meantime
+   * the task is simply scheduled again for the new expiry.
    *
-   * @param correlation the correlation
-   * @return {@code true} if the correlation is considered stale
+   * @param expiry the expiry task of the correlation
+   * @param delayNanos the time until the correlation expires
+   */
+  private void scheduleExpiry(CorrelationExpiry expiry, long delayNanos) {
+    try {
+      expiry.correlation.expiry = this.scheduler.schedule(expiry, delayNanos, TimeUnit.NANOSECONDS);
+    } catch (RejectedExecutionException e) {
+      LOG.log(Level.FINE, "servlet is being destroyed, not scheduling expiry", e);
+    }
+  }
+
+  /**
+   * Removes a stale correlation as if the client had unregistered.
    */
-  private boolean isStale(Correlation correlation) {
-    // age of the correlation in milliseconds
-    long age = System.currentTimeMillis() - correlation.lastUpdate;
-    // if the timeout is 30 seconds and the age of the correlation is 35 seconds
-    // then the next update is only 5 seconds past due
-    long pastDue = age - timeoutMilliseconds;
-    if (pastDue > 0L) {
-      return false;
+  private void expire(long correlationId, Correlation correlation) {
+    if (!this.correlations.remove(correlationId, correlation)) {
+      // unregistered concurrently
+      return;
     }
-    // if the the correlation is 65 seconds past due and the timeout is 30 seconds
-    // then we missed 2 updates
-    long missedUpdates = pastDue / timeoutMilliseconds;
-    return missedUpdates <= 10L;
+    LOG.log(Level.INFO, "expiring correlation: " + correlationId + " of a client that stopped sending requests");
+    correlation.close();
+    int pendingNotifications = correlation.countPendingNotifications();
+    int listeners = this.unregisterListeners(correlation);
+    this.statistics.expired(listeners, pendingNotifications);
   }
 
   private void handleListen(HttpServletRequest request, HttpServletResponse response) throws IOException {
@@ -288,44 +845,99 @@ public class JmxHttpServlet extends HttpServlet {
     if (correlation == null) {
       return;
     }
+    correlation.codecSession.acknowledge(request.getHeader(HEADER_DICTIONARY_ACKNOWLEDGEMENT));
     if (request.getAttribute(DISPATCH_ATTRIBUTE) != null) {
       response.setContentType("text/plain");
       response.setCharacterEncoding("UTF-8");
 
-      correlation.setAsyncContext(null);
       List<RemoteNotification> notifications = correlation.drainPendingNotifications();
-      sendObject(response, notifications);
+      setNotificationsLost(response, correlation);
+      sendObject(request, response, getResponseCodec(request, Codecs.JAVA_SERIALIZATION), correlation.codecSession, notifications);
     } else {
+      long sequenceNumber = getSequenceNumber(request, response);
+      if (sequenceNumber == INVALID_SEQUENCE_NUMBER) {
+        return;
+      }
+      // the client gave up streaming, eg. because the stream was cut by a proxy
+      correlation.closeStream();
+      correlation.acknowledge(sequenceNumber);
       List<RemoteNotification> notifications = correlation.drainPendingNotifications();
       if (!notifications.isEmpty()) {
         // we have pending notifications, send them directly instead of starting a long poll
-        sendObject(response, notifications);
+        setNotificationsLost(response, correlation);
+        sendObject(request, response, getResponseCodec(request, Codecs.JAVA_SERIALIZATION), correlation.codecSession, notifications);
         return;
       }
 
       // initial request, just wait
-      AsyncContext asyncContext = request.startAsync(request, response);
-      correlation.setAsyncContext(asyncContext);
-      asyncContext.setTimeout(this.timeoutMilliseconds);
-      asyncContext.addListener(DISPATCH_ON_TIMEOUT);
       // an unregistration event may have happened while a long poll was still running
       // to we safe the correlation
       request.setAttribute(CORRELATION_ATTRIBUTE, correlation);
+      AsyncContext asyncContext = request.startAsync(request, response);
+      asyncContext.setTimeout(this.timeoutMilliseconds);
+      asyncContext.addListener(DISPATCH_ON_TIMEOUT);
+      correlation.waitForNotifications(asyncContext);
+    }
+  }
+
+  private static void setNotificationsLost(HttpServletResponse response, Correlation correlation) {
+    long lost = correlation.getLostNotifications();
+    if (lost > 0L) {
+      response.setHeader(HEADER_NOTIFICATIONS_LOST, Long.toString(lost));
+    }
+  }
+
+  private void handleStream(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    Correlation correlation = this.getCorrelation(request, response);
+    if (correlation == null) {
+      return;
+    }
+    long sequenceNumber = getSequenceNumber(request, response);
+    if (sequenceNumber == INVALID_SEQUENCE_NUMBER) {
+      return;
     }
+    correlation.codecSession.acknowledge(request.getHeader(HEADER_DICTIONARY_ACKNOWLEDGEMENT));
+    Codec codec = getResponseCodec(request, Codecs.JAVA_SERIALIZATION);
+    // the frames are small and written over time, compress the whole stream if at all
+    ContentEncoding encoding = ContentEncoding.IDENTITY;
+    if (this.compressionThresholdBytes >= 0) {
+      encoding = ContentEncoding.forAcceptEncoding(request.getHeader("Accept-Encoding"), ContentEncoding.IDENTITY);
+    }
+
+    response.setContentType(EVENT_STREAM);
+    response.setHeader("Cache-Control", "no-cache");
+    response.setHeader("Vary", "Accept-Encoding");
+    response.setHeader(HEADER_DICTIONARY_ACKNOWLEDGEMENT, Integer.toString(correlation.codecSession.getAcknowledgement()));
+    if (encoding != ContentEncoding.IDENTITY) {
+      response.setHeader("Content-Encoding", encoding.getToken());
+    }
+
+    AsyncContext asyncContext = request.startAsync(request, response);
+    asyncContext.setTimeout(this.timeoutMilliseconds);
+    OutputStream out = encoding.encode(response.getOutputStream(), true);
+    NotificationStream stream = new NotificationStream(correlation, asyncContext, out, codec);
+    asyncContext.addListener(stream);
+    // send the headers so that the client knows the stream is open
+    out.flush();
+    correlation.setStream(stream, sequenceNumber);
   }
 
-  private void handleRegister(HttpServletResponse response) throws IOException {
+  private void handleRegister(HttpServletRequest request, HttpServletResponse response) throws IOException {
     long correlationId = generateCorrelationId();
     NotificationRegistry registry = new ServletNotificationRegistry(correlationId);
-    Correlation previous = this.correlations.putIfAbsent(correlationId, new Correlation(registry));
+    Correlation correlation = new Correlation(registry, this.notificationBuffer);
+    Correlation previous = this.correlations.putIfAbsent(correlationId, correlation);
     if (previous != null) {
       String message = "correlation: " + correlationId + " already registered";
       LOG.log(Level.WARNING, message);
       sendError(response, message);
       return;
     }
+    this.scheduleExpiry(new CorrelationExpiry(correlationId, correlation), this.correlationExpiryNanos);
     Registration registration = new Registration(correlationId, this.timeoutMilliseconds);
-    sendObject(response, registration);
+    // advertise the encodings we can decode in requests, see RFC 7694
+    response.setHeader("Accept-Encoding", ContentEncoding.GZIP.getToken() + ", " + ContentEncoding.DEFLATE.getToken());
+    sendObject(request, response, getResponseCodec(request, Codecs.JAVA_SERIALIZATION), null, registration);
   }
 
   private void handleUnregister(HttpServletRequest request, HttpServletResponse response) throws IOException {
@@ -339,12 +951,187 @@ public class JmxHttpServlet extends HttpServlet {
     }
 
     this.correlations.remove(correlationId);
+    correlation.close();
+    this.unregisterListeners(correlation);
+  }
+
+  void addListener(Correlation correlation, ObjectName name, long listenerId, NotificationFilter filter, Long handbackId) throws InstanceNotFoundException {
+    ListenerKey key = ListenerKey.of(name, filter);
+    synchronized (this.sharedListeners) {
+      SharedListener source = this.sharedListeners.get(key);
+      if (source == null) {
+        source = new SharedListener(key, filter);
+        this.server.addNotificationListener(name, source, filter, null);
+        source.registered = true;
+        this.sharedListeners.put(key, source);
+      }
+      Handback handback = correlation.subscribe(source, listenerId, handbackId);
+      correlation.registerListener(listenerId, new ListenerRegistration(source, handback));
+    }
+  }
+
+  AttributeList addSampling(Correlation correlation, ObjectName name, String[] attributes, long periodMillis, long listenerId, Long handbackId) throws JMException, IOException {
+    checkSamplingPeriod(periodMillis);
+    ListenerKey key = ListenerKey.ofSampling(name, attributes, periodMillis);
+    AttributeSampler sampler = null;
+    AttributeList first = null;
+    while (true) {
+      synchronized (this.sharedListeners) {
+        SharedListener source = this.sharedListeners.get(key);
+        if (source != null) {
+          this.subscribe(correlation, source, listenerId, handbackId);
+          return ((AttributeSampler) source.scheduledSource).getValues();
+        }
+        if (sampler != null) {
+          checkRegistered(name);
+          source = new SharedListener(key, sampler);
+          sampler.schedule(source, this.samplingScheduler, this.samplingReadExecutor, periodMillis);
+          source.registered = true;
+          this.sharedListeners.put(key, source);
+          this.subscribe(correlation, source, listenerId, handbackId);
+          return first;
+        }
+      }
+      // the first sample can be slow, it must not block other clients
+      sampler = new AttributeSampler(this.server, name, attributes);
+      first = sampler.readFirst();
+    }
+  }
+
+  /**
+   * Checks whether an MBean is still registered before publishing a
+   * {@link ScheduledSource} for it, has to be called holding the lock of
+   * {@link #sharedListeners} so that the {@link RegistrationListener} stops
+   * the source when the MBean is unregistered later.
+   */
+  private void checkRegistered(ObjectName name) throws InstanceNotFoundException {
+    if (!this.server.isRegistered(name)) {
+      throw new InstanceNotFoundException(name.toString());
+    }
+  }
+
+  private void subscribe(Correlation correlation, SharedListener source, long listenerId, Long handbackId) {
+    Handback handback = correlation.subscribe(source, listenerId, handbackId);
+    correlation.registerListener(listenerId, new ListenerRegistration(source, handback));
+  }
+
+  boolean addWatch(Correlation correlation, ObjectName name, String attribute, Threshold threshold, long periodMillis, long listenerId, Long handbackId) throws JMException, IOException {
+    checkSamplingPeriod(periodMillis);
+    ListenerKey key = ListenerKey.ofWatch(name, attribute, threshold, periodMillis);
+    AttributeWatcher watcher = null;
+    boolean triggered = false;
+    while (true) {
+      synchronized (this.sharedListeners) {
+        SharedListener source = this.sharedListeners.get(key);
+        if (source != null) {
+          this.subscribe(correlation, source, listenerId, handbackId);
+          return ((AttributeWatcher) source.scheduledSource).isTriggered();
+        }
+        if (watcher != null) {
+          checkRegistered(name);
+          source = new SharedListener(key, watcher);
+          watcher.schedule(source, this.samplingScheduler, this.samplingReadExecutor, periodMillis);
+          source.registered = true;
+          this.sharedListeners.put(key, source);
+          this.subscribe(correlation, source, listenerId, handbackId);
+          return triggered;
+        }
+      }
+      // like the first sample the first value must be read outside the lock
+      watcher = new AttributeWatcher(this.server, name, attribute, threshold);
+      triggered = watcher.readFirst();
+    }
+  }
+
+  private static void checkSamplingPeriod(long periodMillis) {
+    if (periodMillis < MIN_SAMPLING_PERIOD_MILLIS) {
+      throw new IllegalArgumentException("sampling period must be at least " + MIN_SAMPLING_PERIOD_MILLIS + "ms but was " + periodMillis + "ms");
+    }
+  }
+
+  void removeListener(Correlation correlation, ListenerRegistration registration) {
+    SharedListener source = registration.source;
+    synchronized (this.sharedListeners) {
+      correlation.removeListener(registration.handback.listenerId, registration);
+      if (correlation.unsubscribe(source, registration.handback) && source.registered) {
+        // the last client stopped listening
+        source.registered = false;
+        this.sharedListeners.remove(source.key);
+        if (source.scheduledSource != null) {
+          source.scheduledSource.stop();
+          return;
+        }
+        try {
+          this.server.removeNotificationListener(source.key.name, source, source.filter, null);
+        } catch (InstanceNotFoundException e) {
+          LOG.log(Level.FINE, "MBean already unregistered", e);
+        } catch (ListenerNotFoundException e) {
+          LOG.log(Level.SEVERE, "could not unregister listener", e);
+        }
+      }
+    }
+  }
+
+  private int unregisterListeners(Correlation correlation) {
+    List<ListenerRegistration> registrations = correlation.removeListeners();
+    for (ListenerRegistration registration : registrations) {
+      this.removeListener(correlation, registration);
+    }
+    return registrations.size();
+  }
+
+  /**
+   * Schedules sending the notifications added to the buffer, see
+   * "Notification Coalescing" above.
+   *
+   * @param unflushed the number of notifications added since the last flush
+   */
+  void notificationAdded(int unflushed) {
+    int window = this.coalescingWindowMillis;
+    try {
+      if (window == 0 || unflushed >= this.coalescingMaxNotifications) {
+        if (this.notificationBuffer.scheduleImmediateFlush()) {
+          this.scheduler.execute(this::flushNotifications);
+        }
+      } else if (this.notificationBuffer.scheduleFlush()) {
+        // further notifications within the window are sent together with this one
+        this.scheduler.schedule(this::flushNotifications, window, TimeUnit.MILLISECONDS);
+      }
+    } catch (RejectedExecutionException e) {
+      LOG.log(Level.FINE, "servlet is being destroyed, not sending notifications", e);
+    }
+  }
+
+  private void flushNotifications() {
+    for (Correlation correlation : this.notificationBuffer.flush()) {
+      correlation.flush();
+    }
+  }
+
+  /**
+   * Returns the sequence number of the last notification processed by the
+   * client.
+   *
+   * @return {@value #NO_SEQUENCE_NUMBER} if the client did not send one,
+   *         {@value #INVALID_SEQUENCE_NUMBER} if it is invalid and an
+   *         error was sent
+   */
+  private static long getSequenceNumber(ServletRequest request, HttpServletResponse response) throws IOException {
+    String sequenceNumberParameter = request.getParameter(PARAMETER_SEQUENCE_NUMBER);
+    if (sequenceNumberParameter == null) {
+      return NO_SEQUENCE_NUMBER;
+    }
+    long sequenceNumber;
     try {
-      correlation.unregisterListeners(this.server);
-    } catch (OperationsException e) {
-      // has already been logged
-      sendError("unregister failed", e, response);
+      sequenceNumber = Long.parseLong(sequenceNumberParameter);
+    } catch (NumberFormatException e) {
+      sequenceNumber = INVALID_SEQUENCE_NUMBER;
+    }
+    if (sequenceNumber < 0L) {
+      sendError(response, "parameter '" + PARAMETER_SEQUENCE_NUMBER + "' not a valid sequence number");
+      return INVALID_SEQUENCE_NUMBER;
     }
+    return sequenceNumber;
   }
 
   private static long getCorrelationId(ServletRequest request, HttpServletResponse response) throws IOException {
@@ -414,116 +1201,726 @@ public class JmxHttpServlet extends HttpServlet {
   }
 
 
-  static final class Correlation {
+  /**
+   * Bounded pool of reusable heap buffers used for serializing responses.
+   * <p>
+   * Heap buffers are used instead of direct buffers because the servlet API
+   * only accepts {@code byte[]}, a direct buffer would have to be copied
+   * again before writing.
+   */
+  static final class BufferPool {
 
-    private Deque<RemoteNotification> pendingNotifications;
+    private final BlockingQueue<PooledBuffer> buffers;
+    private final int initialSize;
+    private final int maxPooledSize;
 
-    private AsyncContext asyncContext;
+    BufferPool(int poolSize, int initialSize, int maxPooledSize) {
+      this.buffers = new ArrayBlockingQueue<>(poolSize);
+      this.initialSize = initialSize;
+      this.maxPooledSize = maxPooledSize;
+    }
 
-    final NotificationRegistry registry;
+    PooledBuffer acquire() {
+      PooledBuffer buffer = this.buffers.poll();
+      if (buffer == null) {
+        buffer = new PooledBuffer(this.initialSize);
+      }
+      return buffer;
+    }
 
-    private final Map<Long, ListenerRegistration> listeners;
+    void release(PooledBuffer buffer) {
+      if (buffer.capacity() <= this.maxPooledSize) {
+        buffer.reset();
+        // if the pool is full the buffer is simply dropped
+        this.buffers.offer(buffer);
+      }
+    }
 
-    private volatile long lastUpdate;
+  }
 
-    Correlation(NotificationRegistry registry) {
-      this.registry = registry;
-      // VisualVM needs only one listener
-      this.listeners = new HashMap<>(4);
-      this.update();
-    }
+  static final class PooledBuffer extends ByteArrayOutputStream {
 
-    void update() {
-      lastUpdate = System.currentTimeMillis();
+    PooledBuffer(int size) {
+      super(size);
     }
 
-    synchronized AsyncContext getAsyncContext() {
-      return asyncContext;
+    int capacity() {
+      return this.buf.length;
     }
 
-    synchronized void setAsyncContext(AsyncContext asyncContext) {
-      this.asyncContext = asyncContext;
+    ByteBuffer toByteBuffer() {
+      return ByteBuffer.wrap(this.buf, 0, this.count);
     }
 
-    synchronized List<RemoteNotification> drainPendingNotifications() {
-      if (this.pendingNotifications == null) {
-        return Collections.emptyList();
+  }
+
+  /**
+   * The notification state of a correlation, the fields up to
+   * {@link #lostNotifications}, is guarded by the correlation itself so
+   * that clients do not wait for each other. The lock is only taken by
+   * request threads of the client and the flush, never by threads emitting
+   * notifications.
+   */
+  static final class Correlation {
+
+    /**
+     * The notifications of all correlations, read without locking.
+     */
+    private final NotificationBuffer buffer;
+
+    /**
+     * The listeners registered by the client per shared listener.
+     */
+    private final Map<SharedListener, List<Handback>> subscriptions;
+
+    /**
+     * The sequence number of the last notification sent to the client.
+     */
+    private long sentSequenceNumber;
+
+    /**
+     * The sequence number of the last notification the client acknowledged.
+     */
+    private long acknowledgedSequenceNumber;
+
+    /**
+     * The number of notifications that were sent but evicted from the
+     * buffer before the client acknowledged them, one per listener. Only
+     * counted together with the highest of their sequence numbers instead
+     * of remembered, streaming clients acknowledge rarely.
+     */
+    private long evictedNotifications;
+
+    private long lastEvictedSequenceNumber;
+
+    /**
+     * The sequence number up to which {@link #pendingNotifications} was
+     * counted.
+     */
+    private long scannedSequenceNumber;
+
+    private int pendingNotifications;
+
+    private long lostNotifications;
+
+    /**
+     * The long poll waiting for notifications. {@code null} means idle, set
+     * means waiting. The thread that takes it out dispatches it, so every
+     * poll is dispatched exactly once without holding a lock.
+     */
+    private final AtomicReference<AsyncContext> waitingPoll;
+
+    private final AtomicReference<NotificationStream> stream;
+
+    final NotificationRegistry registry;
+
+    final CodecSession codecSession;
+
+    private final ConcurrentMap<Long, List<ListenerRegistration>> listeners;
+
+    /**
+     * The {@link System#nanoTime()} of the last request of the client.
+     */
+    private volatile long lastUpdate;
+
+    /**
+     * The pending expiry task, see {@link JmxHttpServlet#scheduleExpiry(CorrelationExpiry, long)}.
+     */
+    volatile ScheduledFuture<?> expiry;
+
+    Correlation(NotificationRegistry registry, NotificationBuffer buffer) {
+      this.registry = registry;
+      this.buffer = buffer;
+      this.codecSession = new CodecSession();
+      // VisualVM needs only one listener
+      this.listeners = new ConcurrentHashMap<>(4);
+      this.subscriptions = new HashMap<>(4);
+      this.waitingPoll = new AtomicReference<>();
+      this.stream = new AtomicReference<>();
+      // notifications emitted before the registration are not for us
+      this.sentSequenceNumber = buffer.getLastSequenceNumber();
+      this.acknowledgedSequenceNumber = this.sentSequenceNumber;
+      this.scannedSequenceNumber = this.sentSequenceNumber;
+      this.update();
+    }
+
+    void update() {
+      lastUpdate = System.nanoTime();
+    }
+
+    /**
+     * Ends the stream or long poll of the client.
+     */
+    void close() {
+      ScheduledFuture<?> currentExpiry = this.expiry;
+      if (currentExpiry != null) {
+        currentExpiry.cancel(false);
       }
-      List<RemoteNotification> result = new ArrayList<>(pendingNotifications.size());
-      RemoteNotification notification = pendingNotifications.pollFirst();
-      while (notification != null) {
-        result.add(notification);
-        notification = pendingNotifications.pollFirst();
+      this.closeStream();
+      AsyncContext context = this.waitingPoll.getAndSet(null);
+      if (context != null) {
+        dispatch(context);
       }
+    }
+
+    /**
+     * Makes a long poll wait for notifications.
+     */
+    void waitForNotifications(AsyncContext asyncContext) {
+      AsyncContext previous = this.waitingPoll.getAndSet(asyncContext);
+      if (previous != null) {
+        // the client gave up on the previous poll
+        dispatch(previous);
+      }
+      if (this.hasPendingNotifications()) {
+        // arrived after we last looked
+        this.dispatch();
+      }
+    }
+
+    /**
+     * Called when a long poll times out.
+     */
+    void pollTimedOut(AsyncContext asyncContext) {
+      if (this.waitingPoll.compareAndSet(asyncContext, null)) {
+        dispatch(asyncContext);
+      }
+      // else already dispatched by #dispatch()
+    }
+
+    void setStream(NotificationStream stream, long sequenceNumber) {
+      NotificationStream previous = this.stream.getAndSet(stream);
+      if (previous != null) {
+        previous.close();
+      }
+      this.acknowledge(sequenceNumber);
+      // send what accumulated while no stream was open
+      this.dispatch();
+    }
+
+    void streamEnded(NotificationStream stream) {
+      if (this.stream.compareAndSet(stream, null) && this.hasPendingNotifications()) {
+        // hand unsent notifications to a concurrent long poll
+        this.dispatch();
+      }
+    }
+
+    void closeStream() {
+      NotificationStream current = this.stream.getAndSet(null);
+      if (current != null) {
+        current.close();
+      }
+    }
+
+    /**
+     * Drains the pending notifications for writing them to a stream. If
+     * there are none the write ends and the next notification schedules a
+     * new one.
+     */
+    List<RemoteNotification> drainForStream(NotificationStream stream) {
+      while (this.stream.get() == stream) {
+        List<RemoteNotification> notifications = this.drainPendingNotifications();
+        if (!notifications.isEmpty()) {
+          return notifications;
+        }
+        stream.writeScheduled.set(false);
+        // notifications arriving now either see the flag cleared and schedule
+        // a new write or we see them here
+        if (!this.hasPendingNotifications() || !stream.writeScheduled.compareAndSet(false, true)) {
+          return Collections.emptyList();
+        }
+      }
+      return Collections.emptyList();
+    }
+
+    /**
+     * Marks notifications that could not be written as unsent so that they
+     * are sent again with the next stream or long poll.
+     *
+     * @param sequenceNumber the sequence number of the first notification
+     *                       that could not be written
+     */
+    synchronized void unsent(long sequenceNumber) {
+      if (sequenceNumber <= this.sentSequenceNumber) {
+        this.sentSequenceNumber = Math.max(sequenceNumber - 1L, this.acknowledgedSequenceNumber);
+        this.resetPendingNotifications();
+      }
+    }
+
+    /**
+     * Processes the sequence number of the last notification the client
+     * processed, similar to the {@code clientSequenceNumber} of
+     * {@link javax.management.remote.rmi.RMIConnection#fetchNotifications(long, int, long)}.
+     * Notifications sent after it are sent again because the client did not
+     * receive them.
+     *
+     * @param sequenceNumber the sequence number sent by the client,
+     *                       {@code -1} for clients that do not send one in
+     *                       which case all sent notifications are
+     *                       acknowledged
+     */
+    synchronized void acknowledge(long sequenceNumber) {
+      long acknowledged = sequenceNumber;
+      if (acknowledged < 0L || acknowledged > this.sentSequenceNumber) {
+        acknowledged = this.sentSequenceNumber;
+      }
+      if (acknowledged < this.acknowledgedSequenceNumber) {
+        // stale request
+        return;
+      }
+      if (acknowledged < this.lastEvictedSequenceNumber) {
+        // sent but not received and no longer in the buffer, if the client
+        // received some of them we do not know how many and count all
+        this.lostNotifications += this.evictedNotifications;
+      }
+      this.evictedNotifications = 0L;
+      this.lastEvictedSequenceNumber = 0L;
+      this.acknowledgedSequenceNumber = acknowledged;
+      if (acknowledged < this.sentSequenceNumber) {
+        // resend what was not received
+        this.sentSequenceNumber = acknowledged;
+        this.resetPendingNotifications();
+      }
+    }
+
+    /**
+     * Called by the buffer when it evicts a notification, before it is
+     * overwritten.
+     */
+    synchronized void evicted(long sequenceNumber, SharedListener source) {
+      int count = this.countListeners(sequenceNumber, source);
+      if (count == 0) {
+        return;
+      }
+      if (sequenceNumber > this.sentSequenceNumber) {
+        // the client does not keep up or stopped polling without unregistering
+        this.lostNotifications += count;
+        if (sequenceNumber <= this.scannedSequenceNumber) {
+          this.pendingNotifications -= count;
+        }
+      } else if (sequenceNumber > this.acknowledgedSequenceNumber) {
+        // only kept in case the client did not receive it
+        this.lastEvictedSequenceNumber = sequenceNumber;
+        this.evictedNotifications += count;
+      }
+    }
+
+    private int countListeners(long sequenceNumber, SharedListener source) {
+      List<Handback> handbacks = this.subscriptions.get(source);
+      if (handbacks == null) {
+        return 0;
+      }
+      int count = 0;
+      for (Handback handback : handbacks) {
+        if (sequenceNumber > handback.sequenceNumber) {
+          count += 1;
+        }
+      }
+      return count;
+    }
+
+    /**
+     * Returns the total number of notifications discarded because the
+     * buffer was full.
+     */
+    synchronized long getLostNotifications() {
+      return this.lostNotifications;
+    }
+
+    private boolean hasPendingNotifications() {
+      return this.countPendingNotifications() > 0;
+    }
+
+    /**
+     * Returns the number of buffered notifications not yet sent to the
+     * client.
+     */
+    synchronized int countPendingNotifications() {
+      long from = Math.max(this.scannedSequenceNumber, this.sentSequenceNumber);
+      this.scannedSequenceNumber = this.buffer.forEachSince(from, (sequenceNumber, notification, source) -> {
+        this.pendingNotifications += this.countListeners(sequenceNumber, source);
+      });
+      return this.pendingNotifications;
+    }
+
+    private void resetPendingNotifications() {
+      this.scannedSequenceNumber = this.sentSequenceNumber;
+      this.pendingNotifications = 0;
+    }
+
+    /**
+     * Returns the notifications for the listeners of the client not yet
+     * sent and marks them as sent. They stay in the buffer until it needs
+     * the space.
+     */
+    synchronized List<RemoteNotification> drainPendingNotifications() {
+      if (this.subscriptions.isEmpty()) {
+        this.sentSequenceNumber = this.buffer.getLastSequenceNumber();
+        this.resetPendingNotifications();
+        return Collections.emptyList();
+      }
+      List<RemoteNotification> result = new ArrayList<>();
+      this.sentSequenceNumber = this.buffer.forEachSince(this.sentSequenceNumber, (sequenceNumber, notification, source) -> {
+        List<Handback> handbacks = this.subscriptions.get(source);
+        if (handbacks != null) {
+          for (Handback handback : handbacks) {
+            if (sequenceNumber > handback.sequenceNumber) {
+              result.add(new RemoteNotification(notification, handback.listenerId, handback.handbackId, sequenceNumber));
+            }
+          }
+        }
+      });
+      this.resetPendingNotifications();
       return result;
     }
 
-    synchronized void dispatch() {
-      if (this.asyncContext == null) {
-        LOG.log(Level.WARNING, "not dispatching no async context");
+    /**
+     * Sends the notifications collected during the coalescing window.
+     */
+    void flush() {
+      if (this.hasPendingNotifications()) {
+        this.dispatch();
+      }
+    }
+
+    void dispatch() {
+      NotificationStream current = this.stream.get();
+      if (current != null) {
+        if (!current.writeScheduled.compareAndSet(false, true) || current.scheduleWrite()) {
+          return;
+        }
+        // already complete, fall back to a concurrent long poll
+        this.stream.compareAndSet(current, null);
+      }
+      // a poll is dispatched only once, further notifications wait for the next poll
+      AsyncContext context = this.waitingPoll.getAndSet(null);
+      if (context == null) {
+        // notifications arrived between two polls, the next poll picks them up
+        LOG.log(Level.FINE, "not dispatching no async context");
         return;
       }
+      dispatch(context);
+    }
 
-      ServletRequest suppliedRequest = this.asyncContext.getRequest();
+    private static void dispatch(AsyncContext context) {
+      ServletRequest suppliedRequest = context.getRequest();
       suppliedRequest.setAttribute(DISPATCH_ATTRIBUTE, true);
       try {
-        asyncContext.dispatch();
+        context.dispatch();
       } catch (IllegalStateException e) {
         LOG.log(Level.WARNING, "already dispatched", e);
       }
     }
 
-    synchronized void addNotification(RemoteNotification notification) {
-      if (this.pendingNotifications == null) {
-        this.pendingNotifications = new ConcurrentLinkedDeque<>();
+    /**
+     * Adds a listener of the client to a shared listener.
+     */
+    synchronized Handback subscribe(SharedListener source, long listenerId, Long handbackId) {
+      List<Handback> handbacks = this.subscriptions.get(source);
+      if (handbacks == null) {
+        handbacks = new ArrayList<>(1);
+        this.subscriptions.put(source, handbacks);
+        source.subscribers.add(this);
+      }
+      // after adding the subscriber, the flush sees us for every later notification
+      Handback handback = new Handback(listenerId, handbackId, this.buffer.getLastSequenceNumber());
+      handbacks.add(handback);
+      return handback;
+    }
+
+    /**
+     * Removes a listener of the client from a shared listener.
+     *
+     * @return whether the shared listener has no subscribers left
+     */
+    synchronized boolean unsubscribe(SharedListener source, Handback handback) {
+      List<Handback> handbacks = this.subscriptions.get(source);
+      if (handbacks == null) {
+        return source.subscribers.isEmpty();
+      }
+      handbacks.remove(handback);
+      if (handbacks.isEmpty()) {
+        this.subscriptions.remove(source);
+        source.subscribers.remove(this);
+      }
+      return source.subscribers.isEmpty();
+    }
+
+    // the lists are never modified, they are replaced
+
+    List<ListenerRegistration> getListeners(long listenerId) {
+      return this.listeners.getOrDefault(listenerId, Collections.emptyList());
+    }
+
+    List<ListenerRegistration> removeListeners() {
+      List<ListenerRegistration> registrations = new ArrayList<>();
+      for (Long listenerId : this.listeners.keySet()) {
+        List<ListenerRegistration> removed = this.listeners.remove(listenerId);
+        if (removed != null) {
+          registrations.addAll(removed);
+        }
       }
-      this.pendingNotifications.push(notification);
+      return registrations;
     }
 
-    ListenerRegistration getListener(long listenerId) {
-      return this.listeners.get(listenerId);
+    void registerListener(long listenerId, ListenerRegistration listenerRegistration) {
+      this.listeners.merge(listenerId, Collections.singletonList(listenerRegistration), (previous, added) -> {
+        List<ListenerRegistration> registrations = new ArrayList<>(previous.size() + 1);
+        registrations.addAll(previous);
+        registrations.addAll(added);
+        return registrations;
+      });
     }
 
-    synchronized void unregisterListeners(MBeanServer server) throws OperationsException {
-      List<OperationsException> exceptions = null;
-      for (Entry<Long, ListenerRegistration> entry : this.listeners.entrySet()) {
-        ListenerRegistration registration = entry.getValue();
+    void removeListener(long listenerId, ListenerRegistration listenerRegistration) {
+      this.listeners.computeIfPresent(listenerId, (id, previous) -> {
+        List<ListenerRegistration> registrations = new ArrayList<>(previous);
+        registrations.remove(listenerRegistration);
+        return registrations.isEmpty() ? null : registrations;
+      });
+    }
+  }
+
+
+  /**
+   * A notification stream to a client, see "Notification Streaming" above.
+   * <p>
+   * Frames are written by container threads through
+   * {@link AsyncContext#start(Runnable)} so that the threads emitting
+   * notifications never block on the network.
+   */
+  final class NotificationStream implements AsyncListener {
+
+    private final Correlation correlation;
+    private final AsyncContext asyncContext;
+    private final OutputStream out;
+    private final Codec codec;
+    /**
+     * Whether a write of the pending notifications is scheduled or running.
+     */
+    final AtomicBoolean writeScheduled;
+    private boolean closed;
+    private long lostNotificationsSent;
+
+    NotificationStream(Correlation correlation, AsyncContext asyncContext, OutputStream out, Codec codec) {
+      this.correlation = correlation;
+      this.asyncContext = asyncContext;
+      this.out = out;
+      this.codec = codec;
+      this.writeScheduled = new AtomicBoolean();
+    }
+
+    /**
+     * Schedules writing the pending notifications of the correlation.
+     *
+     * @return {@code false} if the stream is already complete
+     */
+    boolean scheduleWrite() {
+      try {
+        this.asyncContext.start(this::writePending);
+        return true;
+      } catch (IllegalStateException e) {
+        LOG.log(Level.FINE, "stream already complete", e);
+        return false;
+      }
+    }
+
+    private void writePending() {
+      List<RemoteNotification> notifications = this.correlation.drainForStream(this);
+      while (!notifications.isEmpty()) {
+        if (!this.write(notifications)) {
+          this.correlation.unsent(notifications.get(0).getSequenceNumber());
+          this.correlation.streamEnded(this);
+          return;
+        }
+        notifications = this.correlation.drainForStream(this);
+      }
+    }
+
+    private synchronized boolean write(List<RemoteNotification> notifications) {
+      if (this.closed) {
+        return false;
+      }
+      PooledBuffer body = bufferPool.acquire();
+      try {
         try {
-          server.removeNotificationListener(registration.name, registration.listener, registration.filter, registration.handback);
-        } catch (ListenerNotFoundException | InstanceNotFoundException e) {
-          LOG.log(Level.SEVERE, "could not unregister listener", e);
-          if (exceptions == null) {
-            exceptions = new ArrayList<>(2);
-          }
-          exceptions.add(e);
+          this.codec.writeObject((Serializable) notifications, body, this.correlation.codecSession);
+        } catch (ObjectStreamException e) {
+          // same as with long polling a notification that can not be serialized is dropped
+          LOG.log(Level.WARNING, "notifications not Serializable, dropping " + notifications.size() + " notifications", e);
+          return true;
+        }
+        long lost = this.correlation.getLostNotifications();
+        if (lost != this.lostNotificationsSent) {
+          this.out.write(("event: " + EVENT_NOTIFICATIONS_LOST + "\ndata: " + lost + "\n\n").getBytes(US_ASCII));
+          this.lostNotificationsSent = lost;
         }
+        ByteBuffer encoded = Base64.getEncoder().encode(body.toByteBuffer());
+        long lastSequenceNumber = notifications.get(notifications.size() - 1).getSequenceNumber();
+        this.out.write(("id: " + lastSequenceNumber + "\ndata: ").getBytes(US_ASCII));
+        this.out.write(encoded.array(), encoded.arrayOffset(), encoded.remaining());
+        this.out.write('\n');
+        this.out.write('\n');
+        this.out.flush();
+        return true;
+      } catch (IOException e) {
+        LOG.log(Level.FINE, "notification stream cut", e);
+        this.complete();
+        return false;
+      } finally {
+        bufferPool.release(body);
       }
-      this.listeners.clear();
-      if (exceptions != null) {
-        throw new OperationsException("could not unregister listener");
+    }
+
+    synchronized void close() {
+      if (this.closed) {
+        return;
       }
+      try {
+        this.out.close();
+      } catch (IOException e) {
+        LOG.log(Level.FINE, "could not close notification stream", e);
+      }
+      this.complete();
     }
 
-    synchronized void registerListener(long listenerId, ListenerRegistration listenerRegistration) {
-      ListenerRegistration previous = this.listeners.putIfAbsent(listenerId, listenerRegistration);
-      if (previous != null) {
-        LOG.log(Level.WARNING, "duplicate listener exception");
+    private void complete() {
+      this.closed = true;
+      try {
+        this.asyncContext.complete();
+      } catch (IllegalStateException e) {
+        LOG.log(Level.FINE, "stream already complete", e);
       }
     }
 
-    synchronized void removeListener(long listenerId, ListenerRegistration listenerRegistration) {
-      this.listeners.remove(listenerId);
+    @Override
+    public void onTimeout(AsyncEvent event) throws IOException {
+      // the client opens a new stream
+      this.correlation.streamEnded(this);
+      this.close();
+    }
+
+    @Override
+    public void onError(AsyncEvent event) throws IOException {
+      this.correlation.streamEnded(this);
+      this.close();
     }
+
+    @Override
+    public void onComplete(AsyncEvent event) throws IOException {
+      this.correlation.streamEnded(this);
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) throws IOException {
+    }
+
   }
 
+  /**
+   * Expires a correlation once its client stopped sending requests, see
+   * {@link JmxHttpServlet#scheduleExpiry(CorrelationExpiry, long)}.
+   */
+  final class CorrelationExpiry implements Runnable {
+
+    private final long correlationId;
+
+    final Correlation correlation;
+
+    CorrelationExpiry(long correlationId, Correlation correlation) {
+      this.correlationId = correlationId;
+      this.correlation = correlation;
+    }
+
+    @Override
+    public void run() {
+      if (correlations.get(this.correlationId) != this.correlation) {
+        // unregistered
+        return;
+      }
+      long remaining = this.correlation.lastUpdate + correlationExpiryNanos - System.nanoTime();
+      if (remaining > 0L) {
+        // the client sent a request since the task was scheduled
+        scheduleExpiry(this, remaining);
+      } else {
+        expire(this.correlationId, this.correlation);
+      }
+    }
+
+  }
+
+  /**
+   * The implementation of {@link CorrelationStatisticsMXBean}.
+   */
+  final class CorrelationStatistics implements CorrelationStatisticsMXBean {
+
+    private final AtomicLong expiredCorrelations;
+    private final AtomicLong expiredListeners;
+    private final AtomicLong expiredNotifications;
+
+    CorrelationStatistics() {
+      this.expiredCorrelations = new AtomicLong();
+      this.expiredListeners = new AtomicLong();
+      this.expiredNotifications = new AtomicLong();
+    }
+
+    void expired(int listeners, int pendingNotifications) {
+      this.expiredCorrelations.incrementAndGet();
+      this.expiredListeners.addAndGet(listeners);
+      this.expiredNotifications.addAndGet(pendingNotifications);
+    }
+
+    @Override
+    public int getCorrelationCount() {
+      return correlations.size();
+    }
+
+    @Override
+    public long getExpiredCorrelationCount() {
+      return this.expiredCorrelations.get();
+    }
+
+    @Override
+    public long getExpiredListenerCount() {
+      return this.expiredListeners.get();
+    }
+
+    @Override
+    public long getExpiredNotificationCount() {
+      return this.expiredNotifications.get();
+    }
+
+  }
+
+  static final class SchedulerThreadFactory implements ThreadFactory {
+
+    private final String threadName;
+
+    SchedulerThreadFactory(String threadName) {
+      this.threadName = threadName;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, this.threadName);
+      thread.setDaemon(true);
+      return thread;
+    }
+
+  }
 
   static final class DispatchOnTimeout implements AsyncListener {
 
     @Override
     public void onTimeout(AsyncEvent event) throws IOException {
-      ServletRequest suppliedRequest = event.getSuppliedRequest();
-      suppliedRequest.setAttribute(DISPATCH_ATTRIBUTE, true);
-      event.getAsyncContext().dispatch();
+      Object correlation = event.getSuppliedRequest().getAttribute(CORRELATION_ATTRIBUTE);
+      if (correlation instanceof Correlation) {
+        ((Correlation) correlation).pollTimedOut(event.getAsyncContext());
+      } else {
+        ServletRequest suppliedRequest = event.getSuppliedRequest();
+        suppliedRequest.setAttribute(DISPATCH_ATTRIBUTE, true);
+        event.getAsyncContext().dispatch();
+      }
     }
 
     @Override
@@ -561,13 +1958,8 @@ public class JmxHttpServlet extends HttpServlet {
       if (correlation == null) {
         return;
       }
-
-      Handback handback = new Handback(listenerId, handbackId);
-      NotificationListener listener = new DispatchingNotificationListener(correlationId);
-      ListenerRegistration listenerRegistration = new ListenerRegistration(name, listener, filter, handback);
-      correlation.registerListener(listenerId, listenerRegistration);
       try {
-        server.addNotificationListener(name, listener, filter, handback);
+        addListener(correlation, name, listenerId, filter, handbackId);
       } catch (InstanceNotFoundException e) {
         throw new InstanceNotFoundRuntimeException("instance not found", e);
       }
@@ -579,18 +1971,15 @@ public class JmxHttpServlet extends HttpServlet {
       if (correlation == null) {
         return;
       }
-      ListenerRegistration listenerRegistration = correlation.getListener(listenerId);
-      if (listenerRegistration.name.equals(name)) {
-        // TODO error
-        return;
+      boolean found = false;
+      for (ListenerRegistration listenerRegistration : correlation.getListeners(listenerId)) {
+        if (listenerRegistration.source.key.name.equals(name)) {
+          removeListener(correlation, listenerRegistration);
+          found = true;
+        }
       }
-
-      // TODO check handback null?
-      correlation.removeListener(listenerId, listenerRegistration);
-      try {
-        server.removeNotificationListener(listenerRegistration.name, listenerRegistration.listener);
-      } catch (ListenerNotFoundException | InstanceNotFoundException e) {
-        throw new InstanceNotFoundRuntimeException("instance not found", e);
+      if (!found) {
+        throw new InstanceNotFoundRuntimeException("instance not found", new ListenerNotFoundException("listener not found on: " + name));
       }
     }
 
@@ -600,17 +1989,32 @@ public class JmxHttpServlet extends HttpServlet {
       if (correlation == null) {
         return;
       }
-      ListenerRegistration listenerRegistration = correlation.getListener(listenerId);
-      if (listenerRegistration.name.equals(name)) {
-        // TODO error
-        return;
+      ListenerKey key = ListenerKey.of(name, filter);
+      for (ListenerRegistration listenerRegistration : correlation.getListeners(listenerId)) {
+        if (listenerRegistration.source.key.equals(key) && Objects.equals(listenerRegistration.handback.handbackId, objectId)) {
+          removeListener(correlation, listenerRegistration);
+          return;
+        }
       }
-      correlation.removeListener(listenerId, listenerRegistration);
-      try {
-        server.removeNotificationListener(listenerRegistration.name, listenerRegistration.listener, listenerRegistration.filter, listenerRegistration.handback);
-      } catch (ListenerNotFoundException | InstanceNotFoundException e) {
-        throw new InstanceNotFoundRuntimeException("instance not found", e);
+      throw new InstanceNotFoundRuntimeException("instance not found", new ListenerNotFoundException("listener not found on: " + name));
+    }
+
+    @Override
+    public AttributeList addAttributeSampling(ObjectName name, String[] attributes, long periodMillis, long listenerId, Long handbackId) throws JMException, IOException {
+      Correlation correlation = getCorrelation();
+      if (correlation == null) {
+        return new AttributeList();
+      }
+      return addSampling(correlation, name, attributes, periodMillis, listenerId, handbackId);
+    }
+
+    @Override
+    public boolean addAttributeWatch(ObjectName name, String attribute, Threshold threshold, long periodMillis, long listenerId, Long handbackId) throws JMException, IOException {
+      Correlation correlation = getCorrelation();
+      if (correlation == null) {
+        return false;
       }
+      return addWatch(correlation, name, attribute, threshold, periodMillis, listenerId, handbackId);
     }
 
   }
@@ -623,69 +2027,383 @@ public class JmxHttpServlet extends HttpServlet {
 
   }
 
-  final class DispatchingNotificationListener implements NotificationListener {
+  /**
+   * The single listener registered on the {@link MBeanServer} for all
+   * clients listening to the same MBean with the same filter, or the single
+   * sampling or watch of the same attributes of an MBean with the same
+   * period.
+   */
+  final class SharedListener implements NotificationListener {
 
-    private final long correlationId;
+    final ListenerKey key;
 
-    DispatchingNotificationListener(long correlationId) {
-      this.correlationId = correlationId;
+    final NotificationFilter filter;
+
+    /**
+     * {@code null} if registered on the {@link MBeanServer}.
+     */
+    final ScheduledSource scheduledSource;
+
+    /**
+     * The correlations with listeners for this listener, modified by the
+     * correlations and read by the flush.
+     */
+    final Set<Correlation> subscribers;
+
+    /**
+     * Whether the listener is still registered on the {@link MBeanServer},
+     * guarded by {@link JmxHttpServlet#sharedListeners}.
+     */
+    boolean registered;
+
+    SharedListener(ListenerKey key, NotificationFilter filter) {
+      this.key = key;
+      this.filter = filter;
+      this.scheduledSource = null;
+      this.subscribers = ConcurrentHashMap.newKeySet(4);
+    }
+
+    SharedListener(ListenerKey key, ScheduledSource scheduledSource) {
+      this.key = key;
+      this.filter = null;
+      this.scheduledSource = scheduledSource;
+      this.subscribers = ConcurrentHashMap.newKeySet(4);
     }
 
     @Override
-    public void handleNotification(Notification notification, Object object) {
+    public void handleNotification(Notification notification, Object handback) {
+      // independent of the number of clients, they are served by #flushNotifications()
+      notificationAdded(notificationBuffer.offer(notification, this));
+    }
 
-      RemoteNotification remoteNotification;
-      if (object instanceof Handback) {
-        Handback handback = (Handback) object;
-        remoteNotification = new RemoteNotification(notification, handback.listenerId, handback.handbackId);
-      } else {
-        LOG.log(Level.SEVERE, "handback was not passed to listener, likely JMX implementation bug");
-        return;
+  }
+
+  /**
+   * Identifies a {@link SharedListener}. Filters are compared by their
+   * serialized form because every client sends its own instance and few
+   * filters implement {@link Object#equals(Object)}.
+   */
+  static final class ListenerKey {
+
+    final ObjectName name;
+
+    private final byte[] serializedFilter;
+
+    /**
+     * Compared by identity if the filter can not be serialized.
+     */
+    private final NotificationFilter filter;
+
+    /**
+     * {@code null} unless fed by a {@link ScheduledSource}, then its
+     * parameters.
+     */
+    private final List<?> scheduled;
+
+    private ListenerKey(ObjectName name, byte[] serializedFilter, NotificationFilter filter) {
+      this(name, serializedFilter, filter, null);
+    }
+
+    private ListenerKey(ObjectName name, byte[] serializedFilter, NotificationFilter filter, List<?> scheduled) {
+      this.name = name;
+      this.serializedFilter = serializedFilter;
+      this.filter = filter;
+      this.scheduled = scheduled;
+    }
+
+    static ListenerKey ofSampling(ObjectName name, String[] attributes, long periodMillis) {
+      return new ListenerKey(name, null, null, Arrays.asList(AttributeSampler.class, periodMillis, Arrays.asList(attributes.clone())));
+    }
+
+    static ListenerKey ofWatch(ObjectName name, String attribute, Threshold threshold, long periodMillis) {
+      return new ListenerKey(name, null, null, Arrays.asList(AttributeWatcher.class, periodMillis, attribute, threshold));
+    }
+
+    static ListenerKey of(ObjectName name, NotificationFilter filter) {
+      if (filter == null) {
+        return new ListenerKey(name, null, null);
+      }
+      if (filter instanceof Serializable) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bos)) {
+          out.writeObject(filter);
+        } catch (IOException e) {
+          LOG.log(Level.FINE, "could not serialize filter, not sharing listener", e);
+          return new ListenerKey(name, null, filter);
+        }
+        return new ListenerKey(name, bos.toByteArray(), null);
       }
+      return new ListenerKey(name, null, filter);
+    }
 
+    @Override
+    public int hashCode() {
+      return this.name.hashCode() * 31 + Arrays.hashCode(this.serializedFilter);
+    }
 
-      Correlation correlation = correlations.get(this.correlationId);
-      if (correlation == null) {
-        LOG.log(Level.WARNING, "no correlation found for id: " + correlationId);
-        return;
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof ListenerKey)) {
+        return false;
+      }
+      ListenerKey other = (ListenerKey) obj;
+      return this.name.equals(other.name)
+              && this.filter == other.filter
+              && Arrays.equals(this.serializedFilter, other.serializedFilter)
+              && Objects.equals(this.scheduled, other.scheduled);
+    }
+
+  }
+
+  /**
+   * The notifications of all correlations, see "Notification Buffer" above.
+   * <p>
+   * Every notification is buffered once no matter how many clients listen
+   * to it, correlations only remember up to which sequence number they
+   * have read. Emitting a notification only adds it to a lock free queue,
+   * the flush moves it into the buffer.
+   * <p>
+   * The flush is the only writer, correlations read the buffer without
+   * locking. A notification is stored at the index of its sequence number
+   * modulo the capacity and published by {@link #lastSequenceNumber}. The
+   * correlations listening to an entry are told before it is overwritten,
+   * under their own lock. Readers of other correlations recognize an entry
+   * overwritten while reading by its sequence number and skip it.
+   */
+  static final class NotificationBuffer {
+
+    private final AtomicReferenceArray<BufferedNotification> entries;
+
+    /**
+     * The sequence number of the newest entry, written only by the flush
+     * after the entry.
+     */
+    private volatile long lastSequenceNumber;
+
+    /**
+     * Notifications emitted but not yet added to {@link #entries}. Emitting
+     * threads only ever touch this queue and the fields below, never the
+     * lock of the buffer, the flush is the single consumer.
+     */
+    private final Queue<BufferedNotification> incoming;
+
+    private final AtomicInteger unflushed;
+
+    private final AtomicBoolean flushScheduled;
+
+    private final AtomicBoolean immediateFlushScheduled;
+
+    NotificationBuffer(int capacity) {
+      this.entries = new AtomicReferenceArray<>(capacity);
+      this.incoming = new ConcurrentLinkedQueue<>();
+      this.unflushed = new AtomicInteger();
+      this.flushScheduled = new AtomicBoolean();
+      this.immediateFlushScheduled = new AtomicBoolean();
+    }
+
+    /**
+     * Adds a notification, it becomes visible to correlations with the next
+     * {@link #flush()}. Does not block.
+     *
+     * @return the number of notifications added since the last flush
+     */
+    int offer(Notification notification, SharedListener source) {
+      this.incoming.add(new BufferedNotification(notification, source));
+      return this.unflushed.incrementAndGet();
+    }
+
+    /**
+     * Moves the added notifications into the buffer and assigns them
+     * sequence numbers.
+     *
+     * @return the correlations listening to the added notifications
+     */
+    synchronized Set<Correlation> flush() {
+      this.flushScheduled.set(false);
+      this.immediateFlushScheduled.set(false);
+      Set<SharedListener> sources = new HashSet<>();
+      int transferred = 0;
+      BufferedNotification notification = this.incoming.poll();
+      while (notification != null) {
+        transferred += 1;
+        this.add(notification);
+        sources.add(notification.source);
+        notification = this.incoming.poll();
+      }
+      this.unflushed.addAndGet(-transferred);
+      Set<Correlation> subscribers = new HashSet<>();
+      for (SharedListener source : sources) {
+        subscribers.addAll(source.subscribers);
+      }
+      return subscribers;
+    }
+
+    private void add(BufferedNotification notification) {
+      long sequenceNumber = this.lastSequenceNumber + 1L;
+      int index = this.indexOf(sequenceNumber);
+      BufferedNotification oldest = this.entries.get(index);
+      if (oldest != null) {
+        // every correlation counts what it loses on its own
+        for (Correlation correlation : oldest.source.subscribers) {
+          correlation.evicted(oldest.sequenceNumber, oldest.source);
+        }
+      }
+      notification.sequenceNumber = sequenceNumber;
+      this.entries.set(index, notification);
+      this.lastSequenceNumber = sequenceNumber;
+    }
+
+    private int indexOf(long sequenceNumber) {
+      return (int) (sequenceNumber % this.entries.length());
+    }
+
+    long getLastSequenceNumber() {
+      return this.lastSequenceNumber;
+    }
+
+    /**
+     * Passes the buffered notifications with a sequence number higher than
+     * the given one to a consumer, in order. Does not lock, entries evicted
+     * while iterating are skipped.
+     *
+     * @return the sequence number of the last notification passed or
+     *         skipped
+     */
+    long forEachSince(long sequenceNumber, BufferedNotificationConsumer consumer) {
+      long last = this.lastSequenceNumber;
+      long first = Math.max(sequenceNumber + 1L, last - this.entries.length() + 1L);
+      for (long each = first; each <= last; each++) {
+        BufferedNotification entry = this.entries.get(this.indexOf(each));
+        if (entry != null && entry.sequenceNumber == each) {
+          consumer.accept(each, entry.notification, entry.source);
+        }
+      }
+      return Math.max(sequenceNumber, last);
+    }
+
+    /**
+     * Marks that a delayed flush is pending.
+     *
+     * @return {@code false} if a flush was already pending
+     */
+    boolean scheduleFlush() {
+      if (this.immediateFlushScheduled.get()) {
+        return false;
       }
-      correlation.addNotification(remoteNotification);
+      return this.flushScheduled.compareAndSet(false, true);
+    }
+
+    /**
+     * Marks that a flush without delay is pending.
+     *
+     * @return {@code false} if such a flush was already pending
+     */
+    boolean scheduleImmediateFlush() {
+      return this.immediateFlushScheduled.compareAndSet(false, true);
+    }
+
+  }
 
-      correlation.dispatch();
+  @FunctionalInterface
+  interface BufferedNotificationConsumer {
+
+    void accept(long sequenceNumber, Notification notification, SharedListener source);
+
+  }
+
+  static final class BufferedNotification {
+
+    /**
+     * Assigned by {@link NotificationBuffer#flush()} before the entry is
+     * published.
+     */
+    long sequenceNumber;
+    final Notification notification;
+    final SharedListener source;
+
+    BufferedNotification(Notification notification, SharedListener source) {
+      this.notification = notification;
+      this.source = source;
     }
 
   }
 
+  /**
+   * Evicts the cached metadata of registered and unregistered MBeans.
+   * Forgets the shared listeners, samplings and cached attributes of
+   * unregistered MBeans so that the next client listening to an MBean registered under
+   * the same name registers a new listener.
+   */
+  final class RegistrationListener implements NotificationListener {
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+      if (!(notification instanceof MBeanServerNotification)) {
+        return;
+      }
+      ObjectName name = ((MBeanServerNotification) notification).getMBeanName();
+      MetadataCache currentMetadataCache = metadataCache;
+      if (currentMetadataCache != null) {
+        currentMetadataCache.registrationChanged(name);
+      }
+      if (!MBeanServerNotification.UNREGISTRATION_NOTIFICATION.equals(notification.getType())) {
+        return;
+      }
+      AttributeCache cache = attributeCache;
+      if (cache != null) {
+        cache.invalidate(name);
+      }
+      synchronized (sharedListeners) {
+        Iterator<SharedListener> iterator = sharedListeners.values().iterator();
+        while (iterator.hasNext()) {
+          SharedListener listener = iterator.next();
+          if (listener.key.name.equals(name)) {
+            listener.registered = false;
+            iterator.remove();
+            if (listener.scheduledSource != null) {
+              listener.scheduledSource.stop();
+            }
+          }
+        }
+      }
+    }
+
+  }
+
+  /**
+   * A listener of a client registered with a shared listener.
+   */
   static final class Handback {
 
     final long listenerId;
     final Long handbackId;
+    /**
+     * The last sequence number when the listener was added, earlier
+     * notifications are not for this listener.
+     */
+    final long sequenceNumber;
 
-    Handback(long listenerId, Long handbackId) {
+    Handback(long listenerId, Long handbackId, long sequenceNumber) {
       this.listenerId = listenerId;
       this.handbackId = handbackId;
+      this.sequenceNumber = sequenceNumber;
     }
 
   }
 
   static final class ListenerRegistration {
 
-    final ObjectName name;
-    final NotificationListener listener;
-    final NotificationFilter filter;
-    final Object handback;
+    final SharedListener source;
+    final Handback handback;
 
-    ListenerRegistration(ObjectName name, NotificationListener listener,  NotificationFilter filter, Object handback) {
-      this.name = name;
-      this.listener = listener;
-      this.filter = filter;
+    ListenerRegistration(SharedListener source, Handback handback) {
+      this.source = source;
       this.handback = handback;
     }
 
-    void unregister() {
-
-    }
-
   }
 
 }
@@ -0,0 +1,191 @@
+package com.github.marschall.jmxhttp.server.servlet;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.IntrospectionException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectInstance;
+import javax.management.ObjectName;
+import javax.management.QueryExp;
+import javax.management.ReflectionException;
+
+/**
+ * Caches {@link MBeanInfo}s and the results of {@code queryNames} and
+ * {@code queryMBeans} without a {@link QueryExp}. Both only change when
+ * MBeans are registered or unregistered, the servlet reports these events
+ * from the {@link javax.management.MBeanServerDelegate} and only the
+ * entries affected by an MBean are evicted.
+ * <p>
+ * A result computed while an MBean was registered or unregistered is not
+ * cached since it may already be outdated.
+ * <p>
+ * Cached query results are shared by all requests and therefore
+ * unmodifiable.
+ * <p>
+ * Instances are thread safe.
+ */
+final class MetadataCache {
+
+  /**
+   * Upper bound for the number of cached query results, beyond that they
+   * are cleared. {@link MBeanInfo}s are bounded by the number of MBeans.
+   */
+  private static final int MAX_CACHED_QUERIES = 1024;
+
+  private final MBeanInfoPolicy mBeanInfoPolicy;
+
+  private final boolean cacheQueries;
+
+  /**
+   * Incremented before the entries affected by a registration or
+   * unregistration are evicted.
+   */
+  private final AtomicLong generation;
+
+  private final ConcurrentMap<ObjectName, MBeanInfo> mBeanInfos;
+
+  /**
+   * Keyed by pattern, {@link ObjectName#WILDCARD} for {@code null}.
+   */
+  private final ConcurrentMap<ObjectName, Set<ObjectName>> names;
+
+  private final ConcurrentMap<ObjectName, Set<ObjectInstance>> instances;
+
+  MetadataCache(MBeanInfoPolicy mBeanInfoPolicy, boolean cacheQueries) {
+    this.mBeanInfoPolicy = mBeanInfoPolicy;
+    this.cacheQueries = cacheQueries;
+    this.generation = new AtomicLong();
+    this.mBeanInfos = new ConcurrentHashMap<>();
+    this.names = new ConcurrentHashMap<>();
+    this.instances = new ConcurrentHashMap<>();
+  }
+
+  MBeanInfo getMBeanInfo(MBeanServerConnection connection, ObjectName name) throws InstanceNotFoundException, IntrospectionException, ReflectionException, IOException {
+    if (this.mBeanInfoPolicy == MBeanInfoPolicy.NONE) {
+      return connection.getMBeanInfo(name);
+    }
+    MBeanInfo cached = this.mBeanInfos.get(name);
+    if (cached != null) {
+      return cached;
+    }
+    long generationBefore = this.generation.get();
+    MBeanInfo info = connection.getMBeanInfo(name);
+    if (this.mBeanInfoPolicy == MBeanInfoPolicy.ALL || isImmutable(info)) {
+      this.putIfUnchanged(this.mBeanInfos, name, info, generationBefore);
+    }
+    return info;
+  }
+
+  Set<ObjectName> queryNames(MBeanServerConnection connection, ObjectName name, QueryExp query) throws IOException {
+    if (!this.cacheQueries || query != null) {
+      return connection.queryNames(name, query);
+    }
+    ObjectName key = name != null ? name : ObjectName.WILDCARD;
+    Set<ObjectName> cached = this.names.get(key);
+    if (cached != null) {
+      return cached;
+    }
+    long generationBefore = this.generation.get();
+    Set<ObjectName> result = Collections.unmodifiableSet(connection.queryNames(name, null));
+    this.putQueryIfUnchanged(this.names, key, result, generationBefore);
+    return result;
+  }
+
+  Set<ObjectInstance> queryMBeans(MBeanServerConnection connection, ObjectName name, QueryExp query) throws IOException {
+    if (!this.cacheQueries || query != null) {
+      return connection.queryMBeans(name, query);
+    }
+    ObjectName key = name != null ? name : ObjectName.WILDCARD;
+    Set<ObjectInstance> cached = this.instances.get(key);
+    if (cached != null) {
+      return cached;
+    }
+    long generationBefore = this.generation.get();
+    Set<ObjectInstance> result = Collections.unmodifiableSet(connection.queryMBeans(name, null));
+    this.putQueryIfUnchanged(this.instances, key, result, generationBefore);
+    return result;
+  }
+
+  /**
+   * Evicts the entries affected by the registration or unregistration of
+   * an MBean.
+   *
+   * @param name the name of the MBean
+   */
+  void registrationChanged(ObjectName name) {
+    this.generation.incrementAndGet();
+    this.mBeanInfos.remove(name);
+    this.names.keySet().removeIf(pattern -> pattern.apply(name));
+    this.instances.keySet().removeIf(pattern -> pattern.apply(name));
+  }
+
+  private <V> void putQueryIfUnchanged(ConcurrentMap<ObjectName, V> map, ObjectName key, V value, long generationBefore) {
+    if (map.size() >= MAX_CACHED_QUERIES) {
+      map.clear();
+    }
+    this.putIfUnchanged(map, key, value, generationBefore);
+  }
+
+  private <V> void putIfUnchanged(ConcurrentMap<ObjectName, V> map, ObjectName key, V value, long generationBefore) {
+    if (this.generation.get() != generationBefore) {
+      return;
+    }
+    map.put(key, value);
+    if (this.generation.get() != generationBefore) {
+      // an eviction may have run between the check and the put
+      map.remove(key, value);
+    }
+  }
+
+  private static boolean isImmutable(MBeanInfo info) {
+    Object immutableInfo = info.getDescriptor().getFieldValue("immutableInfo");
+    return immutableInfo != null && Boolean.parseBoolean(immutableInfo.toString());
+  }
+
+  /**
+   * Which {@link MBeanInfo}s to cache.
+   */
+  enum MBeanInfoPolicy {
+
+    /**
+     * None, every request reaches the MBean.
+     */
+    NONE("none"),
+
+    /**
+     * Only the ones whose descriptor has {@code immutableInfo=true}, this
+     * includes all standard MBeans and MXBeans.
+     */
+    IMMUTABLE("immutable"),
+
+    /**
+     * All, also the ones of dynamic MBeans that may change over the lifetime
+     * of the MBean.
+     */
+    ALL("all");
+
+    private final String parameter;
+
+    MBeanInfoPolicy(String parameter) {
+      this.parameter = parameter;
+    }
+
+    static MBeanInfoPolicy forParameter(String parameter) {
+      for (MBeanInfoPolicy policy : values()) {
+        if (policy.parameter.equals(parameter)) {
+          return policy;
+        }
+      }
+      return null;
+    }
+
+  }
+
+}
@@ -0,0 +1,107 @@
+package com.github.marschall.jmxhttp.server.servlet;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.management.Notification;
+import javax.management.NotificationListener;
+
+/**
+ * Feeds a {@link JmxHttpServlet.SharedListener} with notifications it
+ * creates itself on a scheduler instead of an MBean emitting them.
+ * <p>
+ * The scheduler only triggers the reads, they run on a separate executor
+ * so that a slow MBean does not delay the reads of the others. A read
+ * still running when the next one is due skips that one.
+ */
+abstract class ScheduledSource implements Runnable {
+
+  private final AtomicBoolean reading;
+
+  private NotificationListener target;
+
+  private Executor readExecutor;
+
+  /**
+   * {@code null} until started and once stopped, guarded by {@code this}.
+   */
+  private ScheduledFuture<?> future;
+
+  ScheduledSource() {
+    this.reading = new AtomicBoolean();
+  }
+
+  /**
+   * Schedules the reads following the first one.
+   *
+   * @param target receives the notifications
+   * @param scheduler triggers the reads
+   * @param readExecutor runs the reads
+   * @param periodMillis the period in milliseconds
+   */
+  synchronized void schedule(NotificationListener target, ScheduledExecutorService scheduler, Executor readExecutor, long periodMillis) {
+    this.target = target;
+    this.readExecutor = readExecutor;
+    this.future = scheduler.scheduleAtFixedRate(this::trigger, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops creating notifications, called when the last client stopped
+   * listening or the MBean was unregistered.
+   */
+  synchronized void stop() {
+    if (this.future != null) {
+      this.future.cancel(false);
+      this.future = null;
+    }
+  }
+
+  /**
+   * Whether the source was started and not stopped, has to be called
+   * holding the lock.
+   */
+  boolean isRunning() {
+    return this.future != null;
+  }
+
+  /**
+   * Sends a notification to the listener, has to be called holding the
+   * lock.
+   */
+  void emit(Notification notification) {
+    this.target.handleNotification(notification, null);
+  }
+
+  private void trigger() {
+    if (!this.reading.compareAndSet(false, true)) {
+      // the previous read is still running
+      return;
+    }
+    try {
+      this.readExecutor.execute(this);
+    } catch (RejectedExecutionException e) {
+      // the servlet is being destroyed
+      this.reading.set(false);
+    }
+  }
+
+  @Override
+  public final void run() {
+    try {
+      this.sample();
+    } finally {
+      this.reading.set(false);
+    }
+  }
+
+  /**
+   * Reads the MBean and emits notifications, called on the read executor.
+   * Should only hold the lock after reading.
+   */
+  abstract void sample();
+
+}
@@ -0,0 +1,98 @@
+package com.github.marschall.jmxhttp.server.servlet;
+
+import static org.junit.Assert.assertEquals;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CachingMBeanServerConnectionTest {
+
+  private MBeanServer server;
+
+  private Counter counter;
+
+  private ObjectName name;
+
+  private MBeanServerConnection connection;
+
+  @Before
+  public void setUp() throws JMException {
+    this.server = MBeanServerFactory.newMBeanServer();
+    this.counter = new Counter();
+    this.name = new ObjectName("test:type=Counter");
+    this.server.registerMBean(this.counter, this.name);
+    this.connection = new CachingMBeanServerConnection(this.server, AttributeCache.fromRules("test=60000"), null);
+  }
+
+  private int getValue() throws Exception {
+    return (Integer) this.connection.getAttribute(this.name, "Value");
+  }
+
+  private int getValues() throws Exception {
+    AttributeList values = this.connection.getAttributes(this.name, new String[] {"Value"});
+    return (Integer) values.asList().get(0).getValue();
+  }
+
+  @Test
+  public void writeThenRead() throws Exception {
+    assertEquals(1, this.getValue());
+    assertEquals(1, this.getValues());
+    this.counter.value = 2;
+    // cached
+    assertEquals(1, this.getValue());
+
+    this.connection.setAttribute(this.name, new Attribute("Value", 3));
+    assertEquals(3, this.getValue());
+    assertEquals(3, this.getValues());
+
+    AttributeList attributes = new AttributeList();
+    attributes.add(new Attribute("Value", 4));
+    this.connection.setAttributes(this.name, attributes);
+    assertEquals(4, this.getValue());
+    assertEquals(4, this.getValues());
+
+    this.connection.invoke(this.name, "increment", null, null);
+    assertEquals(5, this.getValue());
+    assertEquals(5, this.getValues());
+  }
+
+  public interface CounterMBean {
+
+    int getValue();
+
+    void setValue(int value);
+
+    void increment();
+
+  }
+
+  public static final class Counter implements CounterMBean {
+
+    volatile int value = 1;
+
+    @Override
+    public int getValue() {
+      return this.value;
+    }
+
+    @Override
+    public void setValue(int value) {
+      this.value = value;
+    }
+
+    @Override
+    public void increment() {
+      this.value += 1;
+    }
+
+  }
+
+}
@@ -0,0 +1,130 @@
+package com.github.marschall.jmxhttp.server.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.marschall.jmxhttp.common.command.AddNotificationListenerRemote;
+import com.github.marschall.jmxhttp.common.http.RemoteNotification;
+import com.github.marschall.jmxhttp.server.servlet.ServletStub.Exchange;
+
+public class ConcurrentEmissionTest {
+
+  private static final int EMITTERS = 8;
+
+  private static final int NOTIFICATIONS_PER_EMITTER = 2000;
+
+  private static final long TIMEOUT_MILLIS = 10000L;
+
+  private MBeanServer server;
+
+  private ServletStub stub;
+
+  private Emitter emitter;
+
+  private ObjectName name;
+
+  private ExecutorService emitters;
+
+  @Before
+  public void setUp() throws Exception {
+    Map<String, String> initParameters = new HashMap<>();
+    // large enough to not lose notifications while the dispatch is blocked
+    initParameters.put("notification-buffer-size", Integer.toString(EMITTERS * NOTIFICATIONS_PER_EMITTER));
+    initParameters.put("coalescing-window-millis", "1");
+    this.stub = new ServletStub(initParameters);
+    this.server = ManagementFactory.getPlatformMBeanServer();
+    this.emitter = new Emitter();
+    this.name = new ObjectName("test:type=Emitter,name=" + this.stub.getServletName());
+    this.server.registerMBean(this.emitter, this.name);
+    this.emitters = Executors.newFixedThreadPool(EMITTERS);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    this.emitters.shutdownNow();
+    this.server.unregisterMBean(this.name);
+    this.stub.destroy();
+  }
+
+  @Test
+  public void emitWhilePolling() throws Exception {
+    long correlationId = this.stub.register();
+    this.stub.execute(correlationId, new AddNotificationListenerRemote(this.name, 1L, null, null));
+    Exchange firstPoll = this.stub.listen(correlationId, 0L);
+    assertTrue(firstPoll.isAsync());
+    CountDownLatch release = new CountDownLatch(1);
+    firstPoll.dispatchBarrier = release;
+
+    CountDownLatch halfway = new CountDownLatch(EMITTERS);
+    List<Future<?>> emissions = new ArrayList<>();
+    for (int i = 0; i < EMITTERS; i++) {
+      emissions.add(this.emitters.submit(() -> {
+        for (int j = 0; j < NOTIFICATIONS_PER_EMITTER; j++) {
+          if (j == NOTIFICATIONS_PER_EMITTER / 2) {
+            halfway.countDown();
+          }
+          this.emitter.emit(1);
+        }
+      }));
+    }
+
+    // the servlet is stuck dispatching the first poll, emitting must not wait for it
+    assertTrue("not dispatched", firstPoll.awaitDispatch(TIMEOUT_MILLIS));
+    assertTrue("emitters blocked by the dispatch", halfway.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    release.countDown();
+
+    int total = EMITTERS * NOTIFICATIONS_PER_EMITTER;
+    long lastSequenceNumber = this.receive(this.stub.complete(firstPoll), 0L);
+    long end = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (lastSequenceNumber < total && System.currentTimeMillis() < end) {
+      Exchange poll = this.stub.listen(correlationId, lastSequenceNumber);
+      List<RemoteNotification> notifications;
+      if (poll.isAsync()) {
+        assertTrue("not dispatched", poll.awaitDispatch(TIMEOUT_MILLIS));
+        notifications = this.stub.complete(poll);
+      } else {
+        notifications = poll.readNotifications();
+      }
+      lastSequenceNumber = this.receive(notifications, lastSequenceNumber);
+    }
+    for (Future<?> emission : emissions) {
+      emission.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+    assertEquals(total, lastSequenceNumber);
+
+    // nothing left over
+    Exchange poll = this.stub.listen(correlationId, lastSequenceNumber);
+    assertTrue(poll.isAsync());
+  }
+
+  /**
+   * Checks that no notification was lost or sent twice.
+   */
+  private long receive(List<RemoteNotification> notifications, long lastSequenceNumber) {
+    long expected = lastSequenceNumber;
+    for (RemoteNotification notification : notifications) {
+      expected += 1L;
+      assertEquals(expected, notification.getSequenceNumber());
+    }
+    return expected;
+  }
+
+}
@@ -0,0 +1,96 @@
+package com.github.marschall.jmxhttp.server.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.marschall.jmxhttp.common.command.AddNotificationListenerRemote;
+import com.github.marschall.jmxhttp.common.command.GetDefaultDomain;
+import com.github.marschall.jmxhttp.server.servlet.ServletStub.Exchange;
+
+public class CorrelationExpiryTest {
+
+  private static final long EXPIRY_MILLIS = 2000L;
+
+  private MBeanServer server;
+
+  private ServletStub stub;
+
+  private Emitter emitter;
+
+  private ObjectName name;
+
+  private ObjectName statisticsName;
+
+  @Before
+  public void setUp() throws Exception {
+    Map<String, String> initParameters = new HashMap<>();
+    initParameters.put("poll-timeout-seconds", "1");
+    initParameters.put("correlation-expiry-seconds", Long.toString(EXPIRY_MILLIS / 1000L));
+    this.stub = new ServletStub(initParameters);
+    this.server = ManagementFactory.getPlatformMBeanServer();
+    this.emitter = new Emitter();
+    this.name = new ObjectName("test:type=Emitter,name=" + this.stub.getServletName());
+    this.server.registerMBean(this.emitter, this.name);
+    this.statisticsName = new ObjectName("com.github.marschall.jmxhttp:type=JmxHttpServlet,name=" + ObjectName.quote(this.stub.getServletName()));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    this.server.unregisterMBean(this.name);
+    this.stub.destroy();
+  }
+
+  private long getStatistic(String attribute) throws Exception {
+    return (Long) this.server.getAttribute(this.statisticsName, attribute);
+  }
+
+  @Test
+  public void expireStalledClient() throws Exception {
+    long stalled = this.stub.register();
+    long active = this.stub.register();
+    this.stub.execute(stalled, new AddNotificationListenerRemote(this.name, 1L, null, null));
+    this.stub.execute(active, new AddNotificationListenerRemote(this.name, 1L, null, null));
+    this.emitter.emit(1);
+
+    // only the active client keeps polling
+    long end = System.currentTimeMillis() + EXPIRY_MILLIS * 2L;
+    long sequenceNumber = 0L;
+    while (System.currentTimeMillis() < end) {
+      Exchange poll = this.stub.listen(active, sequenceNumber);
+      if (!poll.isAsync()) {
+        sequenceNumber = poll.readNotifications().get(0).getSequenceNumber();
+      }
+      Thread.sleep(EXPIRY_MILLIS / 5L);
+    }
+
+    assertEquals(1L, this.getStatistic("ExpiredCorrelationCount"));
+    assertEquals(1L, this.getStatistic("ExpiredListenerCount"));
+    assertEquals(1L, this.getStatistic("ExpiredNotificationCount"));
+    try {
+      this.stub.execute(stalled, new GetDefaultDomain());
+      fail("correlation did not expire");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("correlation " + stalled + " missing"));
+    }
+
+    // the shared listener is still registered for the active client
+    Exchange poll = this.stub.listen(active, sequenceNumber);
+    this.emitter.emit(1);
+    assertTrue(poll.awaitDispatch(EXPIRY_MILLIS));
+    assertEquals(2L, this.stub.complete(poll).get(0).getSequenceNumber());
+  }
+
+}
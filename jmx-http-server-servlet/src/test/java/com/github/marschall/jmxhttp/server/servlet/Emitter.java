@@ -0,0 +1,23 @@
+package com.github.marschall.jmxhttp.server.servlet;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.Notification;
+import javax.management.NotificationBroadcasterSupport;
+
+/**
+ * Emits notifications on request, for tests sending notifications through
+ * the servlet.
+ */
+public class Emitter extends NotificationBroadcasterSupport implements EmitterMBean {
+
+  private final AtomicLong sequenceNumber = new AtomicLong();
+
+  @Override
+  public void emit(int count) {
+    for (int i = 0; i < count; i++) {
+      this.sendNotification(new Notification("test", this, this.sequenceNumber.incrementAndGet()));
+    }
+  }
+
+}
@@ -0,0 +1,7 @@
+package com.github.marschall.jmxhttp.server.servlet;
+
+public interface EmitterMBean {
+
+  void emit(int count);
+
+}
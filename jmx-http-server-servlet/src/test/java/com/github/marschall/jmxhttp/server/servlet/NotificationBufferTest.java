@@ -0,0 +1,123 @@
+package com.github.marschall.jmxhttp.server.servlet;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.Notification;
+import javax.management.NotificationFilter;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import com.github.marschall.jmxhttp.common.http.RemoteNotification;
+import com.github.marschall.jmxhttp.server.servlet.JmxHttpServlet.Correlation;
+import com.github.marschall.jmxhttp.server.servlet.JmxHttpServlet.ListenerKey;
+import com.github.marschall.jmxhttp.server.servlet.JmxHttpServlet.NotificationBuffer;
+import com.github.marschall.jmxhttp.server.servlet.JmxHttpServlet.SharedListener;
+
+public class NotificationBufferTest {
+
+  private static SharedListener newListener() throws MalformedObjectNameException {
+    ListenerKey key = ListenerKey.of(new ObjectName("test:type=Emitter"), null);
+    return new JmxHttpServlet().new SharedListener(key, (NotificationFilter) null);
+  }
+
+  private static void emit(NotificationBuffer buffer, SharedListener source, long count) {
+    for (long i = 1L; i <= count; i++) {
+      buffer.offer(new Notification("test", "emitter", i), source);
+    }
+    buffer.flush();
+  }
+
+  private static List<Long> drain(Correlation correlation) {
+    List<Long> sequenceNumbers = new ArrayList<>();
+    for (RemoteNotification notification : correlation.drainPendingNotifications()) {
+      sequenceNumbers.add(notification.getSequenceNumber());
+    }
+    return sequenceNumbers;
+  }
+
+  @Test
+  public void resendUnacknowledged() throws MalformedObjectNameException {
+    NotificationBuffer buffer = new NotificationBuffer(16);
+    SharedListener source = newListener();
+    Correlation correlation = new Correlation(null, buffer);
+    correlation.subscribe(source, 1L, null);
+
+    emit(buffer, source, 3L);
+    assertEquals(Arrays.asList(1L, 2L, 3L), drain(correlation));
+    // sent once
+    assertEquals(Arrays.asList(), drain(correlation));
+
+    // the client only received the first one
+    correlation.acknowledge(1L);
+    assertEquals(Arrays.asList(2L, 3L), drain(correlation));
+    correlation.acknowledge(3L);
+    assertEquals(Arrays.asList(), drain(correlation));
+
+    // a stale request does not resend acknowledged notifications
+    emit(buffer, source, 2L);
+    correlation.acknowledge(2L);
+    assertEquals(Arrays.asList(4L, 5L), drain(correlation));
+
+    // the stream broke while writing the last one
+    correlation.unsent(5L);
+    assertEquals(Arrays.asList(5L), drain(correlation));
+
+    // clients that do not send a sequence number acknowledge everything sent
+    correlation.acknowledge(-1L);
+    emit(buffer, source, 1L);
+    assertEquals(Arrays.asList(6L), drain(correlation));
+    assertEquals(0L, correlation.getLostNotifications());
+  }
+
+  @Test
+  public void evictedBeforeAcknowledged() throws MalformedObjectNameException {
+    NotificationBuffer buffer = new NotificationBuffer(4);
+    SharedListener source = newListener();
+    Correlation received = new Correlation(null, buffer);
+    Correlation notReceived = new Correlation(null, buffer);
+    received.subscribe(source, 1L, null);
+    notReceived.subscribe(source, 1L, null);
+
+    emit(buffer, source, 4L);
+    assertEquals(Arrays.asList(1L, 2L, 3L, 4L), drain(received));
+    assertEquals(Arrays.asList(1L, 2L, 3L, 4L), drain(notReceived));
+    // evicts all sent notifications before the clients acknowledge them
+    emit(buffer, source, 4L);
+
+    received.acknowledge(4L);
+    assertEquals(0L, received.getLostNotifications());
+    assertEquals(Arrays.asList(5L, 6L, 7L, 8L), drain(received));
+
+    // can not be sent again, counted as lost even though 1 and 2 were received
+    notReceived.acknowledge(2L);
+    assertEquals(4L, notReceived.getLostNotifications());
+    assertEquals(Arrays.asList(5L, 6L, 7L, 8L), drain(notReceived));
+    notReceived.acknowledge(8L);
+    assertEquals(4L, notReceived.getLostNotifications());
+  }
+
+  @Test
+  public void stalledClient() throws MalformedObjectNameException {
+    NotificationBuffer buffer = new NotificationBuffer(4);
+    SharedListener source = newListener();
+    Correlation stalled = new Correlation(null, buffer);
+    Correlation healthy = new Correlation(null, buffer);
+    stalled.subscribe(source, 1L, null);
+    healthy.subscribe(source, 1L, null);
+
+    for (int i = 0; i < 10; i++) {
+      emit(buffer, source, 1L);
+      assertEquals(1, drain(healthy).size());
+    }
+    assertEquals(0L, healthy.getLostNotifications());
+    assertEquals(Arrays.asList(7L, 8L, 9L, 10L), drain(stalled));
+    assertEquals(6L, stalled.getLostNotifications());
+  }
+
+}
@@ -0,0 +1,88 @@
+package com.github.marschall.jmxhttp.server.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.marschall.jmxhttp.common.command.AddNotificationListenerRemote;
+import com.github.marschall.jmxhttp.common.http.RemoteNotification;
+import com.github.marschall.jmxhttp.server.servlet.ServletStub.Exchange;
+
+public class NotificationCoalescingTest {
+
+  private static final long WINDOW_MILLIS = 1000L;
+
+  private MBeanServer server;
+
+  private ServletStub stub;
+
+  private Emitter emitter;
+
+  private ObjectName name;
+
+  private long correlationId;
+
+  @Before
+  public void setUp() throws Exception {
+    Map<String, String> initParameters = new HashMap<>();
+    initParameters.put("coalescing-window-millis", Long.toString(WINDOW_MILLIS));
+    initParameters.put("coalescing-max-notifications", "3");
+    this.stub = new ServletStub(initParameters);
+    this.server = ManagementFactory.getPlatformMBeanServer();
+    this.emitter = new Emitter();
+    this.name = new ObjectName("test:type=Emitter,name=" + this.stub.getServletName());
+    this.server.registerMBean(this.emitter, this.name);
+    this.correlationId = this.stub.register();
+    this.stub.execute(this.correlationId, new AddNotificationListenerRemote(this.name, 1L, null, null));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    this.server.unregisterMBean(this.name);
+    this.stub.destroy();
+  }
+
+  private static List<Long> sequenceNumbers(List<RemoteNotification> notifications) {
+    List<Long> sequenceNumbers = new ArrayList<>();
+    for (RemoteNotification notification : notifications) {
+      sequenceNumbers.add(notification.getSequenceNumber());
+    }
+    return sequenceNumbers;
+  }
+
+  @Test
+  public void sentTogetherAfterWindow() throws Exception {
+    Exchange poll = this.stub.listen(this.correlationId, 0L);
+    assertTrue(poll.isAsync());
+
+    this.emitter.emit(2);
+    assertFalse("dispatched before the window ended", poll.awaitDispatch(WINDOW_MILLIS / 2L));
+    assertTrue("not dispatched after the window ended", poll.awaitDispatch(WINDOW_MILLIS * 5L));
+    assertEquals(Arrays.asList(1L, 2L), sequenceNumbers(this.stub.complete(poll)));
+  }
+
+  @Test
+  public void sentWithoutWaitingWhenFull() throws Exception {
+    Exchange poll = this.stub.listen(this.correlationId, 0L);
+    assertTrue(poll.isAsync());
+
+    this.emitter.emit(3);
+    assertTrue("waited for the window", poll.awaitDispatch(WINDOW_MILLIS / 2L));
+    assertEquals(Arrays.asList(1L, 2L, 3L), sequenceNumbers(this.stub.complete(poll)));
+  }
+
+}
@@ -0,0 +1,151 @@
+package com.github.marschall.jmxhttp.server.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.marschall.jmxhttp.common.codec.Codecs;
+import com.github.marschall.jmxhttp.common.command.AddNotificationListenerRemote;
+import com.github.marschall.jmxhttp.common.http.RemoteNotification;
+import com.github.marschall.jmxhttp.server.servlet.ServletStub.Exchange;
+
+public class NotificationStreamTest {
+
+  private static final long TIMEOUT_MILLIS = 5000L;
+
+  private MBeanServer server;
+
+  private ServletStub stub;
+
+  private Emitter emitter;
+
+  private ObjectName name;
+
+  private long correlationId;
+
+  private void setUp(int bufferSize) throws Exception {
+    Map<String, String> initParameters = new HashMap<>();
+    initParameters.put("notification-buffer-size", Integer.toString(bufferSize));
+    // notifications emitted together are sent in one event
+    initParameters.put("coalescing-window-millis", "200");
+    this.stub = new ServletStub(initParameters);
+    this.server = ManagementFactory.getPlatformMBeanServer();
+    this.emitter = new Emitter();
+    this.name = new ObjectName("test:type=Emitter,name=" + this.stub.getServletName());
+    this.server.registerMBean(this.emitter, this.name);
+    this.correlationId = this.stub.register();
+    this.stub.execute(this.correlationId, new AddNotificationListenerRemote(this.name, 1L, null, null));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    this.server.unregisterMBean(this.name);
+    this.stub.destroy();
+  }
+
+  @Test
+  public void streamNotifications() throws Exception {
+    this.setUp(1000);
+    Exchange stream = this.stub.stream(this.correlationId, 0L);
+    assertTrue(stream.isAsync());
+    assertEquals("", stream.text());
+
+    this.emitter.emit(3);
+    assertEquals(Arrays.asList("3 [1, 2, 3]"), awaitEvents(stream, 1));
+    this.emitter.emit(2);
+    assertEquals(Arrays.asList("3 [1, 2, 3]", "5 [4, 5]"), awaitEvents(stream, 2));
+  }
+
+  @Test
+  public void resendAfterReconnect() throws Exception {
+    this.setUp(1000);
+    Exchange first = this.stub.stream(this.correlationId, 0L);
+    this.emitter.emit(3);
+    assertEquals(Arrays.asList("3 [1, 2, 3]"), awaitEvents(first, 1));
+
+    // the connection broke after the first notification arrived
+    Exchange second = this.stub.stream(this.correlationId, 1L);
+    assertTrue("previous stream not ended", first.awaitCompletion(TIMEOUT_MILLIS));
+    assertEquals(Arrays.asList("3 [2, 3]"), awaitEvents(second, 1));
+  }
+
+  @Test
+  public void notificationsLost() throws Exception {
+    this.setUp(2);
+    Exchange stream = this.stub.stream(this.correlationId, 0L);
+
+    // the buffer evicts the first three before they can be sent
+    this.emitter.emit(5);
+    assertEquals(Arrays.asList("lost 3", "5 [4, 5]"), awaitEvents(stream, 2));
+  }
+
+  /**
+   * Waits until the servlet has written a number of events and returns
+   * them as the id followed by the sequence numbers of the notifications
+   * or {@code lost} followed by the number of lost notifications.
+   */
+  private static List<String> awaitEvents(Exchange stream, int count) throws Exception {
+    long end = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    List<String> events = parseEvents(stream.text());
+    while (events.size() < count && System.currentTimeMillis() < end) {
+      Thread.sleep(10L);
+      events = parseEvents(stream.text());
+    }
+    return events;
+  }
+
+  private static List<String> parseEvents(String text) throws Exception {
+    List<String> events = new ArrayList<>();
+    int start = 0;
+    int end = text.indexOf("\n\n");
+    while (end != -1) {
+      String event = null;
+      String id = null;
+      String data = null;
+      for (String line : text.substring(start, end).split("\n")) {
+        if (line.startsWith("event: ")) {
+          event = line.substring(7);
+        } else if (line.startsWith("id: ")) {
+          id = line.substring(4);
+        } else if (line.startsWith("data: ")) {
+          data = line.substring(6);
+        }
+      }
+      if ("lost".equals(event)) {
+        events.add("lost " + data);
+      } else {
+        events.add(id + " " + sequenceNumbers(data));
+      }
+      start = end + 2;
+      end = text.indexOf("\n\n", start);
+    }
+    return events;
+  }
+
+  private static List<Long> sequenceNumbers(String data) throws Exception {
+    byte[] decoded = Base64.getDecoder().decode(data);
+    @SuppressWarnings("unchecked")
+    List<RemoteNotification> notifications = (List<RemoteNotification>) Codecs.JAVA_SERIALIZATION.readObject(
+            new ByteArrayInputStream(decoded), NotificationStreamTest.class.getClassLoader(), null);
+    List<Long> sequenceNumbers = new ArrayList<>();
+    for (RemoteNotification notification : notifications) {
+      sequenceNumbers.add(notification.getSequenceNumber());
+    }
+    return sequenceNumbers;
+  }
+
+}
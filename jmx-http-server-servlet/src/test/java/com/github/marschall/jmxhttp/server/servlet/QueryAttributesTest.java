@@ -0,0 +1,160 @@
+package com.github.marschall.jmxhttp.server.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.DynamicMBean;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.marschall.jmxhttp.common.command.BatchResult;
+import com.github.marschall.jmxhttp.common.command.QueryAttributes;
+
+public class QueryAttributesTest {
+
+  private MBeanServer server;
+
+  private ServletStub stub;
+
+  private List<ObjectName> names;
+
+  private ObjectName pattern;
+
+  private ObjectName broken;
+
+  private long correlationId;
+
+  private void setUp(Map<String, String> initParameters) throws Exception {
+    this.stub = new ServletStub(initParameters);
+    this.server = ManagementFactory.getPlatformMBeanServer();
+    this.names = new ArrayList<>();
+    String servletName = this.stub.getServletName();
+    this.pattern = new ObjectName("test:servlet=" + servletName + ",*");
+    for (int i = 1; i <= 2; i++) {
+      ObjectName name = new ObjectName("test:servlet=" + servletName + ",type=Gauge,name=" + i);
+      this.server.registerMBean(new Gauge(i), name);
+      this.names.add(name);
+    }
+    this.broken = new ObjectName("test:servlet=" + servletName + ",type=Broken");
+    this.server.registerMBean(new Broken(), this.broken);
+    this.names.add(this.broken);
+    this.correlationId = this.stub.register();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    for (ObjectName name : this.names) {
+      this.server.unregisterMBean(name);
+    }
+    this.stub.destroy();
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map<ObjectName, BatchResult> queryAttributes(String... attributes) throws Exception {
+    return (Map<ObjectName, BatchResult>) this.stub.execute(this.correlationId, new QueryAttributes(this.pattern, null, attributes));
+  }
+
+  private void assertResults(Map<ObjectName, BatchResult> results) throws Exception {
+    assertEquals(new HashSet<>(this.names), results.keySet());
+    for (int i = 1; i <= 2; i++) {
+      BatchResult result = results.get(this.names.get(i - 1));
+      assertFalse(result.isFailure());
+      // missing attributes are left out like with getAttributes
+      assertEquals(Arrays.asList(new Attribute("Value", i)), ((AttributeList) result.getValue()).asList());
+    }
+    BatchResult failure = results.get(this.broken);
+    assertTrue(failure.isFailure());
+    assertTrue(failure.getException().toString(), failure.getException().getCause() instanceof IllegalStateException);
+  }
+
+  @Test
+  public void failingMBean() throws Exception {
+    this.setUp(Collections.singletonMap("query-cache", "false"));
+    this.assertResults(this.queryAttributes("Value", "Missing"));
+  }
+
+  @Test
+  public void failingMBeanCached() throws Exception {
+    Map<String, String> initParameters = new HashMap<>();
+    initParameters.put("attribute-cache", "test=60000");
+    this.setUp(initParameters);
+    this.assertResults(this.queryAttributes("Value", "Missing"));
+    // the failure is not cached
+    this.assertResults(this.queryAttributes("Value", "Missing"));
+  }
+
+  public interface GaugeMBean {
+
+    int getValue();
+
+  }
+
+  public static final class Gauge implements GaugeMBean {
+
+    private final int value;
+
+    Gauge(int value) {
+      this.value = value;
+    }
+
+    @Override
+    public int getValue() {
+      return this.value;
+    }
+
+  }
+
+  /**
+   * Fails reading any attribute.
+   */
+  static final class Broken implements DynamicMBean {
+
+    @Override
+    public Object getAttribute(String attribute) {
+      throw new IllegalStateException("broken");
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) {
+      throw new IllegalStateException("broken");
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+      throw new IllegalStateException("broken");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+      throw new IllegalStateException("broken");
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+      throw new IllegalStateException("broken");
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+      return new MBeanInfo(Broken.class.getName(), "fails reading attributes", null, null, null, null);
+    }
+
+  }
+
+}
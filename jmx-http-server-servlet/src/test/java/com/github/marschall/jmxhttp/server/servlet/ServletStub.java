@@ -0,0 +1,365 @@
+package com.github.marschall.jmxhttp.server.servlet;
+
+import static com.github.marschall.jmxhttp.common.http.HttpConstant.ACTION_LISTEN;
+import static com.github.marschall.jmxhttp.common.http.HttpConstant.ACTION_REGISTER;
+import static com.github.marschall.jmxhttp.common.http.HttpConstant.ACTION_STREAM;
+import static com.github.marschall.jmxhttp.common.http.HttpConstant.PARAMETER_ACTION;
+import static com.github.marschall.jmxhttp.common.http.HttpConstant.PARAMETER_CORRELATION_ID;
+import static com.github.marschall.jmxhttp.common.http.HttpConstant.PARAMETER_SEQUENCE_NUMBER;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.github.marschall.jmxhttp.common.codec.Codecs;
+import com.github.marschall.jmxhttp.common.command.Command;
+import com.github.marschall.jmxhttp.common.http.Registration;
+import com.github.marschall.jmxhttp.common.http.RemoteNotification;
+
+/**
+ * Drives a {@link JmxHttpServlet} without a servlet container. Requests,
+ * responses and the servlet configuration are proxies that only implement
+ * what the servlet uses, asynchronous requests are dispatched by counting
+ * down a latch.
+ */
+final class ServletStub {
+
+  private static final AtomicInteger SERVLET_NAMES = new AtomicInteger();
+
+  private final JmxHttpServlet servlet;
+
+  private final String servletName;
+
+  ServletStub(Map<String, String> initParameters) throws ServletException {
+    this.servletName = "test-" + SERVLET_NAMES.incrementAndGet();
+    ServletConfig config = proxy(ServletConfig.class, (method, args) -> {
+      switch (method) {
+        case "getServletName":
+          return this.servletName;
+        case "getInitParameter":
+          return initParameters.get(args[0]);
+        case "getInitParameterNames":
+          return Collections.enumeration(initParameters.keySet());
+        default:
+          return null;
+      }
+    });
+    this.servlet = new JmxHttpServlet();
+    this.servlet.init(config);
+  }
+
+  String getServletName() {
+    return this.servletName;
+  }
+
+  void destroy() {
+    this.servlet.destroy();
+  }
+
+  long register() throws IOException, ServletException, ClassNotFoundException {
+    Exchange exchange = new Exchange();
+    exchange.parameters.put(PARAMETER_ACTION, ACTION_REGISTER);
+    this.servlet.doGet(exchange.request(), exchange.response());
+    return ((Registration) exchange.readObject()).getCorrelationId();
+  }
+
+  Object execute(long correlationId, Command<?> command) throws IOException, ServletException, ClassNotFoundException {
+    Exchange exchange = new Exchange();
+    exchange.parameters.put(PARAMETER_CORRELATION_ID, Long.toString(correlationId));
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    Codecs.JAVA_SERIALIZATION.writeObject(command, content, null);
+    exchange.content = content.toByteArray();
+    this.servlet.doPost(exchange.request(), exchange.response());
+    return exchange.readObject();
+  }
+
+  /**
+   * Starts a long poll, it completes once the servlet dispatches it.
+   */
+  Exchange listen(long correlationId, long sequenceNumber) throws IOException, ServletException {
+    Exchange exchange = new Exchange();
+    exchange.parameters.put(PARAMETER_ACTION, ACTION_LISTEN);
+    exchange.parameters.put(PARAMETER_CORRELATION_ID, Long.toString(correlationId));
+    exchange.parameters.put(PARAMETER_SEQUENCE_NUMBER, Long.toString(sequenceNumber));
+    this.servlet.doGet(exchange.request(), exchange.response());
+    return exchange;
+  }
+
+  /**
+   * Opens a notification stream, the servlet writes to it until it is
+   * completed.
+   */
+  Exchange stream(long correlationId, long sequenceNumber) throws IOException, ServletException {
+    Exchange exchange = new Exchange();
+    exchange.parameters.put(PARAMETER_ACTION, ACTION_STREAM);
+    exchange.parameters.put(PARAMETER_CORRELATION_ID, Long.toString(correlationId));
+    exchange.parameters.put(PARAMETER_SEQUENCE_NUMBER, Long.toString(sequenceNumber));
+    this.servlet.doGet(exchange.request(), exchange.response());
+    return exchange;
+  }
+
+  /**
+   * Completes a dispatched long poll like the container would.
+   */
+  List<RemoteNotification> complete(Exchange exchange) throws IOException, ServletException, ClassNotFoundException {
+    this.servlet.doGet(exchange.request(), exchange.response());
+    return exchange.readNotifications();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T proxy(Class<T> type, Handler handler) {
+    return (T) Proxy.newProxyInstance(ServletStub.class.getClassLoader(), new Class<?>[] {type},
+            (proxy, method, args) -> handler.invoke(method.getName(), args));
+  }
+
+  @FunctionalInterface
+  interface Handler {
+
+    Object invoke(String method, Object[] args) throws Throwable;
+
+  }
+
+  static final class Exchange {
+
+    final Map<String, String> parameters = new HashMap<>();
+
+    final Map<String, Object> attributes = new HashMap<>();
+
+    final Map<String, String> headers = new HashMap<>();
+
+    byte[] content = new byte[0];
+
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+    int status = HttpServletResponse.SC_OK;
+
+    /**
+     * Counted down when the servlet dispatches the long poll.
+     */
+    final CountDownLatch dispatched = new CountDownLatch(1);
+
+    /**
+     * Counted down when the servlet completes the asynchronous request.
+     */
+    final CountDownLatch completed = new CountDownLatch(1);
+
+    /**
+     * If set the servlet thread dispatching the long poll waits for it like
+     * it would for a slow container.
+     */
+    volatile CountDownLatch dispatchBarrier;
+
+    private boolean async;
+
+    private HttpServletRequest request;
+
+    private HttpServletResponse response;
+
+    private PrintWriter writer;
+
+    Exchange() {
+      // large responses are compressed otherwise
+      this.headers.put("Accept-Encoding", "identity");
+    }
+
+    boolean isAsync() {
+      return this.async;
+    }
+
+    boolean awaitDispatch(long timeoutMillis) throws InterruptedException {
+      return this.dispatched.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    boolean awaitCompletion(long timeoutMillis) throws InterruptedException {
+      return this.completed.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns what the servlet has written so far.
+     */
+    String text() {
+      return new String(this.body.toByteArray(), UTF_8);
+    }
+
+    Object readObject() throws IOException, ClassNotFoundException {
+      if (this.writer != null) {
+        this.writer.flush();
+      }
+      if (this.status != HttpServletResponse.SC_OK) {
+        throw new IOException("status: " + this.status + " " + new String(this.body.toByteArray(), UTF_8));
+      }
+      return Codecs.JAVA_SERIALIZATION.readObject(new ByteArrayInputStream(this.body.toByteArray()), ServletStub.class.getClassLoader(), null);
+    }
+
+    @SuppressWarnings("unchecked")
+    List<RemoteNotification> readNotifications() throws IOException, ClassNotFoundException {
+      return (List<RemoteNotification>) this.readObject();
+    }
+
+    HttpServletRequest request() {
+      if (this.request == null) {
+        this.request = proxy(HttpServletRequest.class, (method, args) -> {
+          switch (method) {
+            case "getParameter":
+              return this.parameters.get(args[0]);
+            case "getHeader":
+              return this.headers.get(args[0]);
+            case "getAttribute":
+              return this.attributes.get(args[0]);
+            case "setAttribute":
+              return this.attributes.put((String) args[0], args[1]);
+            case "getProtocol":
+              return "HTTP/1.1";
+            case "isAsyncSupported":
+              return true;
+            case "getInputStream":
+              return new ByteArrayServletInputStream(this.content);
+            case "startAsync":
+              this.async = true;
+              return this.asyncContext();
+            default:
+              return null;
+          }
+        });
+      }
+      return this.request;
+    }
+
+    HttpServletResponse response() {
+      if (this.response == null) {
+        this.response = proxy(HttpServletResponse.class, (method, args) -> {
+          switch (method) {
+            case "setStatus":
+              this.status = (Integer) args[0];
+              return null;
+            case "getOutputStream":
+              return new ByteArrayServletOutputStream(this.body);
+            case "getWriter":
+              if (this.writer == null) {
+                this.writer = new PrintWriter(new OutputStreamWriter(this.body, UTF_8));
+              }
+              return this.writer;
+            default:
+              return null;
+          }
+        });
+      }
+      return this.response;
+    }
+
+    private AsyncContext asyncContext() {
+      return proxy(AsyncContext.class, (method, args) -> {
+        switch (method) {
+          case "getRequest":
+            return this.request();
+          case "getResponse":
+            return this.response();
+          case "dispatch":
+            this.dispatched.countDown();
+            CountDownLatch barrier = this.dispatchBarrier;
+            if (barrier != null) {
+              barrier.await();
+            }
+            return null;
+          case "start":
+            // a container would use a thread of its own
+            ((Runnable) args[0]).run();
+            return null;
+          case "complete":
+            this.completed.countDown();
+            return null;
+          default:
+            return null;
+        }
+      });
+    }
+
+  }
+
+  static final class ByteArrayServletInputStream extends ServletInputStream {
+
+    private final ByteArrayInputStream delegate;
+
+    ByteArrayServletInputStream(byte[] content) {
+      this.delegate = new ByteArrayInputStream(content);
+    }
+
+    @Override
+    public int read() {
+      return this.delegate.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      return this.delegate.read(b, off, len);
+    }
+
+    @Override
+    public boolean isFinished() {
+      return this.delegate.available() == 0;
+    }
+
+    @Override
+    public boolean isReady() {
+      return true;
+    }
+
+    @Override
+    public void setReadListener(ReadListener readListener) {
+      throw new UnsupportedOperationException();
+    }
+
+  }
+
+  static final class ByteArrayServletOutputStream extends ServletOutputStream {
+
+    private final ByteArrayOutputStream delegate;
+
+    ByteArrayServletOutputStream(ByteArrayOutputStream delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void write(int b) {
+      this.delegate.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      this.delegate.write(b, off, len);
+    }
+
+    @Override
+    public boolean isReady() {
+      return true;
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+      throw new UnsupportedOperationException();
+    }
+
+  }
+
+}